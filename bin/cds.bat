@@ -0,0 +1,24 @@
+@echo off
+
+rem Builds dice.jsa, the class data sharing archive used by dice.bat and
+rem debug.bat. Requires Java 11 or later. Run again after an upgrade of Dice,
+rem of its libraries or of the JVM: a stale archive is ignored by the JVM.
+
+if exist dice.jsa del dice.jsa
+if exist dice.classlist del dice.classlist
+call setenv
+
+echo Training startup, listing the classes loaded.
+call java %_VMARGS% -XX:DumpLoadedClassList=dice.classlist -jar startup.jar train
+if errorlevel 1 goto failed
+
+echo Dumping the classes to dice.jsa.
+call java %_VMARGS% -Xshare:dump -XX:SharedClassListFile=dice.classlist -XX:SharedArchiveFile=dice.jsa -jar startup.jar
+if errorlevel 1 goto failed
+goto end
+
+:failed
+echo The archive could not be created.
+if exist dice.jsa del dice.jsa
+
+:end
\ No newline at end of file
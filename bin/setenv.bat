@@ -1,2 +1,4 @@
 set _VMARGS=-Ddice.home=..
-set _VMARGS=%_VMARGS% -Ddice.base=..
\ No newline at end of file
+set _VMARGS=%_VMARGS% -Ddice.base=..
+rem Share the classes of the startup archived by cds.bat
+if exist dice.jsa set _VMARGS=%_VMARGS% -XX:SharedArchiveFile=dice.jsa -Xshare:auto
\ No newline at end of file
@@ -15,14 +15,64 @@
  */
 package org.corticerasf.dice;
 
+import java.io.File;
+
+import javax.servlet.Servlet;
 import javax.servlet.ServletContext;
 
 import org.corticerasf.dice.container.Container;
 
 public interface Context extends Container {
+
+	// ----------------------------------------------------- Manifest Constants
+
+	/**
+	 * The ContainerEvent event type sent when a servlet mapping is added by
+	 * <code>addServletMapping()</code>. The data of the event is the pattern.
+	 */
+	public static final String ADD_MAPPING_EVENT = "addServletMapping";
+
+	/**
+	 * The ContainerEvent event type sent when a servlet mapping is removed by
+	 * <code>removeServletMapping()</code>. The data of the event is the
+	 * pattern.
+	 */
+	public static final String REMOVE_MAPPING_EVENT = "removeServletMapping";
+
+	// ------------------------------------------------------------- Properties
 	
 	public ServletContext getServletContext();
 	
 	public void setServletContext(ServletContext servletContext);
 
+	/**
+	 * Return the context path of this Context, empty for the root context.
+	 */
+	public String getPath();
+
+	/**
+	 * Return the directory of the content of this Context.
+	 */
+	public File getDocBaseFile();
+
+	public void setPath(String path);
+
+	/**
+	 * Map a servlet to a URL pattern, replacing the servlet previously mapped
+	 * to it.
+	 */
+	public void addServletMapping(String pattern, Servlet servlet);
+
+	/**
+	 * Return the servlet mapped to the given pattern, or <code>null</code>.
+	 */
+	public Servlet findServletMapping(String pattern);
+
+	/**
+	 * Return the URL patterns mapped to servlets.
+	 */
+	public String[] findServletMappings();
+
+	public void removeServletMapping(String pattern);
+
 }
@@ -19,7 +19,10 @@ import java.util.concurrent.TimeUnit;
 
 import org.corticerasf.dice.lifecycle.Lifecycle;
 
-public interface Executor extends Lifecycle {
+/**
+ * A named thread pool, shared by the connectors of a service.
+ */
+public interface Executor extends java.util.concurrent.Executor, Lifecycle {
 	
 	public String getName();
 	
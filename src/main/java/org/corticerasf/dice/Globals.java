@@ -37,11 +37,29 @@ public class Globals {
 	public static final String DICE_HOME_PROP = "dice.home";
 	public static final String DICE_BASE_PROP = "dice.base";
 	public static final String DICE_CONFIG_PROP = "dice.config";
+	public static final String DICE_CONFIG_SNAPSHOT_PROP = "dice.config.snapshot";
 	public static final String DICE_STARTUP_CLASS = "dice.startup.class";
 	public static final String DICE_SERVER_CLASS = "dice.server.class";
 	public static final String DICE_SERVER_SERVICE_CLASS = "dice.server.service.class";
 	public static final String DICE_SERVER_SERVICE_ENGINE_CLASS = "dice.server.service.container.class";
 	public static final String DICE_SERVER_SERCIVE_ENGINE_HOST_CLASS = "dice.server.service.container.host.class";
+	public static final String DICE_RECYCLE_FACADES_PROP = "dice.connector.RECYCLE_FACADES";
+
+	/**
+	 * Request attribute set by connectors which can send a file straight
+	 * from the file system to the socket.
+	 */
+	public static final String SENDFILE_SUPPORTED_ATTR = "org.corticerasf.dice.sendfile.support";
+
+	/**
+	 * Request attributes with which a servlet asks the connector to send
+	 * the byte range <code>[start, end)</code> of a file as the content of
+	 * the response, once the servlet returns. The servlet sets the headers
+	 * of the response, including its length, but writes no content.
+	 */
+	public static final String SENDFILE_FILENAME_ATTR = "org.corticerasf.dice.sendfile.filename";
+	public static final String SENDFILE_FILE_START_ATTR = "org.corticerasf.dice.sendfile.start";
+	public static final String SENDFILE_FILE_END_ATTR = "org.corticerasf.dice.sendfile.end";
 
 	public static final String USER_DIR_PROP = "user.dir";
 
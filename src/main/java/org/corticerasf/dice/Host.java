@@ -15,9 +15,12 @@
  */
 package org.corticerasf.dice;
 
+import java.io.File;
 import java.util.concurrent.ExecutorService;
 import java.util.regex.Pattern;
 
+import javax.servlet.Servlet;
+
 import org.corticerasf.dice.container.Container;
 
 /**
@@ -82,6 +85,34 @@ public interface Host extends Container {
 	 */
 	public void setAppBase(String appBase);
 
+	/**
+	 * Return the application root for this Host as a canonical file, a
+	 * relative application root being resolved against the base directory
+	 * of the server.
+	 */
+	public File getAppBaseFile();
+
+	/**
+	 * Return the work directory of this Host, holding the files generated for
+	 * its contexts. If null, defaults to
+	 * ${dice.base}/work/&lt;engine name&gt;/&lt;host name&gt;
+	 */
+	public String getWorkDir();
+
+	/**
+	 * Set the work directory of this Host, absolute or relative to the base
+	 * directory of the server.
+	 *
+	 * @param workDir
+	 *            The new work directory
+	 */
+	public void setWorkDir(String workDir);
+
+	/**
+	 * Return the work directory of this Host as a file.
+	 */
+	public File getWorkDirFile();
+
 	/**
 	 * Return the Java class name of the context configuration class for new web
 	 * applications.
@@ -112,6 +143,50 @@ public interface Host extends Container {
 	 */
 	public void setHotDeployment(boolean hotDeployment);
 
+	/**
+	 * Return <code>true</code> if the contexts of this host are only started
+	 * when a first request is mapped to them.
+	 */
+	public boolean isLazyStart();
+
+	/**
+	 * Set whether the contexts of this host are started with the host, or
+	 * only when a first request is mapped to them.
+	 *
+	 * @param lazyStart
+	 *            The new lazy start flag
+	 */
+	public void setLazyStart(boolean lazyStart);
+
+	/**
+	 * Return the time, in milliseconds, after which a context of a lazy
+	 * starting host without requests is stopped, or 0 if contexts are never
+	 * stopped for being idle.
+	 */
+	public long getContextIdleTimeout();
+
+	/**
+	 * Set the time, in milliseconds, after which a context of a lazy starting
+	 * host without requests is stopped, until its next request. 0 keeps idle
+	 * contexts started.
+	 */
+	public void setContextIdleTimeout(long contextIdleTimeout);
+
+	/**
+	 * Start a context of this host for a request mapped to it, if it is not
+	 * started. Concurrent requests for the same context wait for a single
+	 * start.
+	 *
+	 * @return <code>true</code> if the context is available
+	 */
+	public boolean startLazily(Context context);
+
+	/**
+	 * Return the servlet serving the requests mapped to no context, or
+	 * <code>null</code> if the host is not started.
+	 */
+	public Servlet getDefaultServlet();
+
 	/**
 	 * Return the regular expression that defines the files and directories in
 	 * the host's appBase that will be ignored by the automatic deployment
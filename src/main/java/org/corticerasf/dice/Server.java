@@ -16,6 +16,7 @@
 package org.corticerasf.dice;
 
 import org.corticerasf.dice.lifecycle.Lifecycle;
+import org.corticerasf.dice.utils.BackgroundScheduler;
 
 /**
  * A <code>Server</code> element represents the entire Corticera
@@ -75,4 +76,18 @@ public interface Server extends Lifecycle {
 	
 	public ClassLoader getParentClassLoader();
 
+	/**
+	 * Return the scheduler running the periodic background tasks of the
+	 * components of this server. It is started before and stopped after the
+	 * services.
+	 */
+	public BackgroundScheduler getBackgroundScheduler();
+
+	/**
+	 * Return the number of threads the services, and the components of each
+	 * service, are started and stopped on. A value of 0 or less is added to
+	 * the number of processors.
+	 */
+	public int getStartStopThreads();
+
 }
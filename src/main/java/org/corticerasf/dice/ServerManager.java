@@ -19,34 +19,30 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
+import org.corticerasf.dice.connector.Connector;
 import org.corticerasf.dice.core.StandardContext;
+import org.corticerasf.dice.core.StandardThreadExecutor;
+import org.corticerasf.dice.core.VirtualThreadExecutor;
+import org.corticerasf.dice.digester.Digester;
+import org.corticerasf.dice.digester.DigesterSnapshot;
+import org.corticerasf.dice.digester.Rule;
 import org.corticerasf.dice.lifecycle.Lifecycle;
 import org.corticerasf.dice.lifecycle.LifecycleException;
 import org.corticerasf.dice.lifecycle.LifecycleListener;
 import org.corticerasf.dice.lifecycle.LifecycleState;
+import org.corticerasf.dice.lifecycle.LifecycleTimings;
 import org.corticerasf.dice.security.SecurityConfig;
 import org.corticerasf.dice.startup.ContextConfig;
 import org.corticerasf.dice.startup.HostConfig;
+import org.corticerasf.dice.utils.ContextName;
 import org.corticerasf.dice.utils.ExceptionUtils;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.EntityResolver;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
 /**
  * The <code>ServerManager</code> does the instantiation and
@@ -113,6 +109,10 @@ public abstract class ServerManager {
 		long timepoint2 = System.nanoTime();
 		logger.info("Server started in " + ((timepoint2 - timpoint1) / 1000000) + " miliseconds.");
 		
+		// Time spent by each component in load and start
+		LifecycleTimings.getInstance().report(
+				new File(Globals.getDiceBase(), "logs"));
+		
 		// Register the shutdown hook.
 		if (useShutdownHook) {
 			if (shoutdownHook == null)
@@ -217,11 +217,14 @@ public abstract class ServerManager {
 		}
 
 		InputStream is = null;
+		File configFile = null;
 		Throwable error = null;
 		try {
 			String confUrl = System.getProperty(Globals.DICE_CONFIG_PROP);
-			if (!StringUtils.isEmpty(confUrl))
-				is = new FileInputStream(new File(confUrl));
+			if (!StringUtils.isEmpty(confUrl)) {
+				configFile = new File(confUrl);
+				is = new FileInputStream(configFile);
+			}
 		} catch (Throwable t) {
 			ExceptionUtils.handleThrowable(t);
 		}
@@ -230,8 +233,8 @@ public abstract class ServerManager {
 			try {
 				File home = new File(Globals.getDiceBase());
 				File conf = new File(home, "conf");
-				File corticeraXml = new File(conf, "dice.xml");
-				is = new FileInputStream(corticeraXml);
+				configFile = new File(conf, "dice.xml");
+				is = new FileInputStream(configFile);
 			} catch (Throwable t) {
 				ExceptionUtils.handleThrowable(t);
 				error = t;
@@ -247,7 +250,7 @@ public abstract class ServerManager {
 		}
 		
 		try {
-			loadConfigFile(is, serverInstance);
+			loadConfigFile(configFile, is, serverInstance);
 		} catch (Throwable t) {
 			logger.fatal("Cannot load corticera.xml file!!!!!", t);
 			return;
@@ -256,129 +259,292 @@ public abstract class ServerManager {
 		setServer(serverInstance);
 	}
 	
-	protected void loadConfigFile(InputStream is, Server serverInstance) throws Exception {		
-		DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
-		
-		documentBuilder.setEntityResolver(new EntityResolver() {
+	protected void loadConfigFile(InputStream is, Server serverInstance) throws Exception {
+		loadConfigFile(null, is, serverInstance);
+	}
+	
+	/**
+	 * Build the server from its configuration file. Unless the system property
+	 * <code>dice.config.snapshot</code> is <code>false</code>, the parse of the
+	 * file is replayed from its snapshot under <code>work</code> when neither
+	 * the file nor <code>server.dtd</code> changed since it was recorded.
+	 * 
+	 * @param configFile The file read from <code>is</code>, <code>null</code>
+	 * 			if unknown to parse the file without snapshot
+	 */
+	protected void loadConfigFile(File configFile, InputStream is, Server serverInstance) throws Exception {
+		Digester digester = new Digester();
+		digester.setClassLoader(ServerManager.class.getClassLoader());
+		digester.setEntityResolver(new XMLResolver() {
 			
-			public InputSource resolveEntity(String publicId, String systemId)
-					throws SAXException, IOException {
-				systemId = systemId.substring(systemId.lastIndexOf('/') + 1);
-				if ("server.dtd".equalsIgnoreCase(systemId)) {
-					return new InputSource(new FileInputStream(new File(Globals.getDiceBase() + "/conf/" + systemId)));
+			public Object resolveEntity(String publicID, String systemID,
+					String baseURI, String namespace) throws XMLStreamException {
+				if (systemID == null)
+					return null;
+				systemID = systemID.substring(systemID.lastIndexOf('/') + 1);
+				if ("server.dtd".equalsIgnoreCase(systemID)) {
+					try {
+						return new FileInputStream(new File(Globals.getDiceBase() + "/conf/" + systemID));
+					} catch (IOException ex) {
+						throw new XMLStreamException("Cannot read " + systemID, ex);
+					}
 				} else {
 					return null;
 				}
 			}
 		});
 		
-		Document document = documentBuilder.parse(is);
+		addRules(digester);
+		
+		digester.push(serverInstance);
+		
+		if (configFile == null 
+				|| "false".equalsIgnoreCase(System.getProperty(Globals.DICE_CONFIG_SNAPSHOT_PROP))) {
+			digester.parse(is);
+			return;
+		}
 		
-		document.getDocumentElement().normalize();
-		XPath xPath = XPathFactory.newInstance().newXPath();
+		File base = new File(Globals.getDiceBase());
+		DigesterSnapshot snapshot = new DigesterSnapshot(
+				new File(base, "work/" + configFile.getName() + ".snapshot"),
+				new File(base, "conf/server.dtd"));
+		if (snapshot.parse(digester, is))
+			logger.info("Loaded " + configFile + " from " + snapshot.getSnapshot());
+	}
+	
+	/**
+	 * Register the rules building the server from the elements of
+	 * <code>dice.xml</code>.
+	 */
+	protected void addRules(Digester digester) {
+		digester.addRule("*/Listener", new ListenerRule());
+		digester.addRule("Dice/Srvc", new ServiceRule());
+		digester.addRule("Dice/Srvc/Executor", new ExecutorRule());
+		digester.addRule("Dice/Srvc/Connector", new ConnectorRule());
+		digester.addRule("Dice/Srvc/Engine", new EngineRule());
+		digester.addRule("Dice/Srvc/Engine/Host", new HostRule());
+		digester.addRule("Dice/Srvc/Engine/Host/Alias", new AliasRule());
+		digester.addRule("Dice/Srvc/Engine/Host/Context", new ContextRule());
+	}
+	
+	/**
+	 * Adds a lifecycle listener to the component it is declared in.
+	 */
+	private static class ListenerRule extends Rule {
 		
-		registerListeners((Element) xPath.evaluate("/Corticera", document.getDocumentElement(), XPathConstants.NODE), serverInstance);
+		@Override
+		public void begin(Digester digester, String name,
+				Map<String, String> attributes) throws Exception {
+			LifecycleListener listener = (LifecycleListener) 
+					digester.newInstance(attributes.get("class"));
+			
+			if (logger.isDebugEnabled())
+				logger.debug("Adding lifecycle listener " + listener.getClass().getName() + ".");
+			
+			((Lifecycle) digester.peek()).addLifecycleListener(listener);
+		}
 		
-		NodeList servicesInDOM = (NodeList) xPath.evaluate("/Corticera/Srvc", document.getDocumentElement(), XPathConstants.NODESET);
+	}
+	
+	private static class ServiceRule extends Rule {
 		
-		for (int i = 0 ; i < servicesInDOM.getLength() ; i++) {
-			Element serviceNode = (Element) servicesInDOM.item(i);
+		@Override
+		public void begin(Digester digester, String name,
+				Map<String, String> attributes) throws Exception {
+			Server serverInstance = (Server) digester.peek();
 			
 			String serviceClassName = System.getProperty(Globals.DICE_SERVER_SERVICE_CLASS,
 										"org.corticerasf.dice.core.StandardService");
 			
-			if (serverInstance.findService(serviceNode.getAttribute("name")) != null) {
-				logger.warn("Cannot add service " + serviceNode.getAttribute("name") + " (Already Added).");
-				continue;
+			if (serverInstance.findService(attributes.get("name")) != null) {
+				logger.warn("Cannot add service " + attributes.get("name") + " (Already Added).");
+				digester.skip();
+				return;
 			}
 			
-			if (!StringUtils.isEmpty(serviceNode.getAttribute("class")))
-				serviceClassName = serviceNode.getAttribute("class");
+			if (!StringUtils.isEmpty(attributes.get("class")))
+				serviceClassName = attributes.get("class");
 			
-			Service serviceObject = (Service) Class.forName(serviceClassName).newInstance();
-			serviceObject.setName(serviceNode.getAttribute("name"));
-			serviceObject.setServer(serverInstance);			
+			Service serviceObject = (Service) digester.newInstance(serviceClassName);
+			serviceObject.setName(attributes.get("name"));
+			serviceObject.setServer(serverInstance);
 			
-			Engine engineInstance = createEngine(serviceNode);
-			registerListeners(serviceNode, serviceObject);
-			
-			serviceObject.setContainer(engineInstance);		
+			digester.push(serviceObject);
+		}
+		
+		@Override
+		public void end(Digester digester, String name) throws Exception {
+			Service serviceObject = (Service) digester.pop();
 			
 			if (logger.isDebugEnabled())
 				logger.debug("Adding service " + serviceObject.getInfo());
 			
-			serverInstance.addService(serviceObject);			
+			((Server) digester.peek()).addService(serviceObject);
 		}
+		
 	}
 	
-	private void registerListeners(Element node, Lifecycle target) 
-			throws InstantiationException, IllegalAccessException, ClassNotFoundException {
+	private static class ExecutorRule extends Rule {
 		
-		NodeList listenersInDOM = node.getElementsByTagName("Listener");
-		
-		for (int i = 0 ; i < listenersInDOM.getLength() ; i++) {
-			Element listenerNode = (Element) listenersInDOM.item(i);
+		@Override
+		public void begin(Digester digester, String name,
+				Map<String, String> attributes) throws Exception {
+			String executorClassName = "org.corticerasf.dice.core.StandardThreadExecutor";
+			if (!StringUtils.isEmpty(attributes.get("class")))
+				executorClassName = attributes.get("class");
 			
-			LifecycleListener listener = (LifecycleListener) 
-					Class.forName(listenerNode.getAttribute("class")).newInstance();
+			Executor executor = (Executor) digester.newInstance(executorClassName);
+			String executorName = attributes.get("name").trim();
+			
+			if (executor instanceof StandardThreadExecutor) {
+				StandardThreadExecutor standardExecutor = (StandardThreadExecutor) executor;
+				standardExecutor.setName(executorName);
+				standardExecutor.setNamePrefix(executorName + "-exec-");
+				
+				if (!StringUtils.isEmpty(attributes.get("namePrefix")))
+					standardExecutor.setNamePrefix(attributes.get("namePrefix"));
+				
+				if (!StringUtils.isEmpty(attributes.get("maxThreads")))
+					standardExecutor.setMaxThreads(Integer.parseInt(attributes.get("maxThreads").trim()));
+				
+				if (!StringUtils.isEmpty(attributes.get("minSpareThreads")))
+					standardExecutor.setMinSpareThreads(Integer.parseInt(attributes.get("minSpareThreads").trim()));
+				
+				if (!StringUtils.isEmpty(attributes.get("maxIdleTime")))
+					standardExecutor.setMaxIdleTime(Integer.parseInt(attributes.get("maxIdleTime").trim()));
+				
+				if (!StringUtils.isEmpty(attributes.get("maxQueueSize")))
+					standardExecutor.setMaxQueueSize(Integer.parseInt(attributes.get("maxQueueSize").trim()));
+				
+				if (!StringUtils.isEmpty(attributes.get("prestartminSpareThreads")))
+					standardExecutor.setPrestartminSpareThreads(Boolean.parseBoolean(attributes.get("prestartminSpareThreads").trim()));
+				
+				if (!StringUtils.isEmpty(attributes.get("threadPriority")))
+					standardExecutor.setThreadPriority(Integer.parseInt(attributes.get("threadPriority").trim()));
+				
+				if (!StringUtils.isEmpty(attributes.get("threadRenewalDelay")))
+					standardExecutor.setThreadRenewalDelay(Long.parseLong(attributes.get("threadRenewalDelay").trim()));
+				
+				if (!StringUtils.isEmpty(attributes.get("adaptive")))
+					standardExecutor.setAdaptive(Boolean.parseBoolean(attributes.get("adaptive").trim()));
+				
+				if (!StringUtils.isEmpty(attributes.get("adaptiveInterval")))
+					standardExecutor.setAdaptiveInterval(Integer.parseInt(attributes.get("adaptiveInterval").trim()));
+				
+				if (!StringUtils.isEmpty(attributes.get("targetQueueWait")))
+					standardExecutor.setTargetQueueWait(Long.parseLong(attributes.get("targetQueueWait").trim()));
+				
+				if (!StringUtils.isEmpty(attributes.get("minUtilization")))
+					standardExecutor.setMinUtilization(Double.parseDouble(attributes.get("minUtilization").trim()));
+			} else if (executor instanceof VirtualThreadExecutor) {
+				VirtualThreadExecutor virtualExecutor = (VirtualThreadExecutor) executor;
+				virtualExecutor.setName(executorName);
+				virtualExecutor.setNamePrefix(executorName + "-vexec-");
+				
+				if (!StringUtils.isEmpty(attributes.get("namePrefix")))
+					virtualExecutor.setNamePrefix(attributes.get("namePrefix"));
+				
+				if (!StringUtils.isEmpty(attributes.get("maxThreads")))
+					virtualExecutor.setMaxThreads(Integer.parseInt(attributes.get("maxThreads").trim()));
+				
+				if (!StringUtils.isEmpty(attributes.get("maxQueueTime")))
+					virtualExecutor.setMaxQueueTime(Long.parseLong(attributes.get("maxQueueTime").trim()));
+			}
 			
 			if (logger.isDebugEnabled())
-				logger.debug("Adding lifecycle listener " + listener.getClass().getName() + ".");
+				logger.debug("Adding executor " + executor);
 			
-			target.addLifecycleListener(listener);
+			((Service) digester.peek()).addExecutor(executor);
 		}
+		
 	}
 	
-	private Engine createEngine(Element serviceNode) throws InstantiationException, IllegalAccessException, ClassNotFoundException {;
-	
-		Map<String, Service> engineRef = new HashMap<String, Service>();
+	private static class ConnectorRule extends Rule {
 		
-		Element engineNode = (Element) serviceNode.getElementsByTagName("Engine").item(0);
-		
-		if (engineRef.get(engineNode.getAttribute("name")) != null) {
-			IllegalArgumentException ex = new IllegalArgumentException("Engine name '"
-					+ engineNode.getAttribute("name") + " is already bound to " + engineRef.get(engineNode.getAttribute("name")));
-			throw ex;
+		@Override
+		public void begin(Digester digester, String name,
+				Map<String, String> attributes) throws Exception {
+			String protocol = attributes.get("protocol");
+			Connector connector = new Connector(StringUtils.isEmpty(protocol) ? null : protocol);
+			connector.setPort(Integer.parseInt(attributes.get("port").trim()));
+			
+			if (!StringUtils.isEmpty(attributes.get("timeout")))
+				connector.setTimeout(Integer.parseInt(attributes.get("timeout").trim()));
+			
+			if (!StringUtils.isEmpty(attributes.get("maxKeepAliveRequests")))
+				connector.setMaxKeepAliveRequests(Integer.parseInt(attributes.get("maxKeepAliveRequests").trim()));
+			
+			if (!StringUtils.isEmpty(attributes.get("maxPostSize")))
+				connector.setMaxPostSize(Integer.parseInt(attributes.get("maxPostSize").trim()));
+			
+			if (!StringUtils.isEmpty(attributes.get("executor")))
+				connector.setExecutorName(attributes.get("executor").trim());
+			
+			if (logger.isDebugEnabled())
+				logger.debug("Adding connector " + connector);
+			
+			((Service) digester.peek()).addConnector(connector);
 		}
 		
-		String engineClassName = System.getProperty(Globals.DICE_SERVER_SERVICE_ENGINE_CLASS,
-									"org.corticerasf.dice.core.StandardEngine");
-		
-		if (!StringUtils.isEmpty(engineNode.getAttribute("class")))
-			engineClassName = engineNode.getAttribute("class");
-		
-		Engine engineInstance = (Engine) Class.forName(engineClassName).newInstance();
-		engineInstance.setName(engineNode.getAttribute("name"));
+	}
+	
+	private static class EngineRule extends Rule {
 		
-		List<Host> hosts = createHosts(engineNode);
-		for (Host host : hosts) {
-			engineInstance.addChild(host);
+		@Override
+		public void begin(Digester digester, String name,
+				Map<String, String> attributes) throws Exception {
+			String engineClassName = System.getProperty(Globals.DICE_SERVER_SERVICE_ENGINE_CLASS,
+										"org.corticerasf.dice.core.StandardEngine");
+			
+			if (!StringUtils.isEmpty(attributes.get("class")))
+				engineClassName = attributes.get("class");
+			
+			Engine engineInstance = (Engine) digester.newInstance(engineClassName);
+			engineInstance.setName(attributes.get("name"));
+			if (!StringUtils.isEmpty(attributes.get("defaultHost")))
+				engineInstance.setDefaultHost(attributes.get("defaultHost"));
+			
+			digester.push(engineInstance);
 		}
 		
-		registerListeners(engineNode, engineInstance);
+		@Override
+		public void end(Digester digester, String name) throws Exception {
+			Engine engineInstance = (Engine) digester.pop();
+			((Service) digester.peek()).setContainer(engineInstance);
+		}
 		
-		return engineInstance;
 	}
 	
-	private List<Host> createHosts(Element engineNode) 
-			throws InstantiationException, IllegalAccessException, ClassNotFoundException {
+	private static class HostRule extends Rule {
 		
-		List<Host> hosts = new ArrayList<Host>();
-		NodeList hostNodes = engineNode.getElementsByTagName("Host");
-		for (int j = 0 ; j < hostNodes.getLength() ; j++) {
-			Element hostNode = (Element) hostNodes.item(j);
-			
+		@Override
+		public void begin(Digester digester, String name,
+				Map<String, String> attributes) throws Exception {
 			String hostClassName = System.getProperty(Globals.DICE_SERVER_SERCIVE_ENGINE_HOST_CLASS, 
 									"org.corticerasf.dice.core.StandardHost");
 			
-			Host hostInstance = (Host) Class.forName(hostClassName).newInstance();
+			Host hostInstance = (Host) digester.newInstance(hostClassName);
+			
+			hostInstance.setAppBase(attributes.get("docbase"));
+			hostInstance.setName(attributes.get("name"));
 			
-			hostInstance.setAppBase(hostNode.getAttribute("docbase"));
-			hostInstance.setName(hostNode.getAttribute("name"));
+			if (!StringUtils.isEmpty(attributes.get("lazyStart")))
+				hostInstance.setLazyStart(Boolean.parseBoolean(attributes.get("lazyStart").trim()));
 			
-			registerListeners(hostNode, hostInstance);
+			if (!StringUtils.isEmpty(attributes.get("contextIdleTimeout")))
+				hostInstance.setContextIdleTimeout(Long.parseLong(attributes.get("contextIdleTimeout").trim()));
 			
+			if (!StringUtils.isEmpty(attributes.get("workDir")))
+				hostInstance.setWorkDir(attributes.get("workDir").trim());
+			
+			digester.push(hostInstance);
+		}
+		
+		@Override
+		public void end(Digester digester, String name) throws Exception {
+			Host hostInstance = (Host) digester.pop();
+			
+			// The listeners of the host have been registered
 			boolean hasHostConfigListener = false;			
 			for (LifecycleListener listener : hostInstance.findLifecycleListeners()) {
 				if (listener instanceof HostConfig) {
@@ -392,15 +558,37 @@ public abstract class ServerManager {
 				hostInstance.addLifecycleListener(hostConfigListener);
 			}
 			
-			Context context = new StandardContext();
+			((Engine) digester.peek()).addChild(hostInstance);
+		}
+		
+	}
+	
+	private static class AliasRule extends Rule {
+		
+		@Override
+		public void body(Digester digester, String name, String text)
+				throws Exception {
+			((Host) digester.peek()).addAlias(text);
+		}
+		
+	}
+	
+	private static class ContextRule extends Rule {
+		
+		@Override
+		public void begin(Digester digester, String name,
+				Map<String, String> attributes) throws Exception {
+			String path = attributes.get("path");
+			StandardContext context = new StandardContext();
+			context.setName(new ContextName(path, false).getName());
+			context.setPath(path);
+			if (!StringUtils.isEmpty(attributes.get("docBase")))
+				context.setDocBase(attributes.get("docBase"));
 			context.addLifecycleListener(new ContextConfig());
 			
-			// hostInstance.addChild(context);
-			
-			hosts.add(hostInstance);
+			((Host) digester.peek()).addChild(context);
 		}
 		
-		return hosts;
 	}
 	
 	protected void setSecurityProtection() {
@@ -433,6 +621,9 @@ public abstract class ServerManager {
             } else if (args[i].equals("configtest")) {
                 starting = true;
                 stopping = false;
+            } else if (args[i].equals("train")) {
+                starting = true;
+                stopping = false;
             } else if (args[i].equals("stop")) {
                 starting = false;
                 stopping = true;
@@ -451,7 +642,7 @@ public abstract class ServerManager {
         System.out.println
             ("usage: java org.corticerasf.dice.ServerManager"
              + " [ -config {pathname} ]"
-             + " { -help | start | stop }");
+             + " { -help | start | stop | train }");
 
     }
 
@@ -18,6 +18,8 @@ package org.corticerasf.dice;
 import org.corticerasf.dice.connector.Connector;
 import org.corticerasf.dice.container.Container;
 import org.corticerasf.dice.lifecycle.Lifecycle;
+import org.corticerasf.dice.mapper.Mapper;
+import org.corticerasf.dice.utils.HashedWheelTimer;
 
 public interface Service extends Lifecycle {
 	
@@ -49,4 +51,17 @@ public interface Service extends Lifecycle {
 	
 	public void removeExecutor(Executor executor);
 
+	/**
+	 * Return the timer shared by the components of this service to schedule
+	 * timeouts, such as the idle timeouts of the connections of its
+	 * connectors. It is started before and stopped after the connectors.
+	 */
+	public HashedWheelTimer getTimer();
+
+	/**
+	 * Return the mapper which maps the requests received by the connectors of
+	 * this service to the hosts, contexts and servlets of its container.
+	 */
+	public Mapper getMapper();
+
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.connector;
+
+import java.io.IOException;
+
+/**
+ * Thrown to the application when the response content cannot be sent
+ * because the client went away.
+ *
+ * @author J. Godara
+ */
+public class ClientAbortException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ClientAbortException(Throwable cause) {
+		super(cause == null ? null : cause.getMessage());
+		initCause(cause);
+	}
+
+}
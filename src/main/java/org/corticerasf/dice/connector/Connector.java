@@ -16,9 +16,12 @@
 package org.corticerasf.dice.connector;
 
 import org.apache.log4j.Logger;
+import org.corticerasf.dice.Executor;
 import org.corticerasf.dice.Service;
 import org.corticerasf.dice.lifecycle.LifecycleBase;
 import org.corticerasf.dice.lifecycle.LifecycleException;
+import org.corticerasf.dice.lifecycle.LifecycleState;
+import org.corticerasf.dice.protocols.Adapter;
 import org.corticerasf.dice.protocols.ProtocolHandler;
 
 public class Connector extends LifecycleBase {
@@ -30,10 +33,7 @@ public class Connector extends LifecycleBase {
 	}
 
 	public Connector(String protocol) {
-		// TODO Add multiple implementations of ProtocolHandler based on the
-		// protocol. E.g: Protocol HTTP/1.1 would be handled by some
-		// implementation while the other protocol is handled by other
-		// implementation.
+		setProtocol(protocol);
 		try {
 			Class<?> clazz = Class.forName(protocolHandlerClassName);
 			protocolHandler = (ProtocolHandler) clazz.newInstance();
@@ -46,34 +46,127 @@ public class Connector extends LifecycleBase {
 
 	private ProtocolHandler protocolHandler = null;
 
-	private String protocolHandlerClassName = "org.corticerasf.dice.protocols.http11.HTTPProtocolHandler";
+	public static final String HTTP11 = "HTTP/1.1";
+
+	public static final String HTTP11_VIRTUAL = "HTTP/1.1-virtual";
+
+	private static final String HTTP11_HANDLER = "org.corticerasf.dice.protocols.http11.HTTPProtocolHandler";
+
+	private static final String HTTP11_VIRTUAL_HANDLER = "org.corticerasf.dice.protocols.http11.HTTPVirtualThreadProtocolHandler";
+
+	private String protocolHandlerClassName = HTTP11_HANDLER;
+
+	protected Adapter adapter = null;
+
+	private int port = -1;
+
+	private int timeout = 20000;
+
+	private int maxKeepAliveRequests = 100;
+
+	private int maxPostSize = 2 * 1024 * 1024;
+
+	private String executorName = null;
 
 	@Override
 	protected void initInternal() throws LifecycleException {
-		// TODO Auto-generated method stub
+		if (protocolHandler == null)
+			throw new LifecycleException("Protocol handler "
+					+ protocolHandlerClassName + " is not available.");
 
+		adapter = new ConnectorAdapter(this);
+		protocolHandler.setAdapter(adapter);
+		protocolHandler.setPort(port);
+		protocolHandler.setConnectionTimeout(timeout);
+		protocolHandler.setMaxKeepAliveRequests(maxKeepAliveRequests);
+		protocolHandler.setMaxPostSize(maxPostSize);
+		if (service != null)
+			protocolHandler.setTimer(service.getTimer());
+
+		if (executorName != null) {
+			Executor executor = (service != null ? service
+					.getExecutor(executorName) : null);
+			if (executor == null)
+				throw new LifecycleException("No executor " + executorName
+						+ " is defined for " + this);
+			protocolHandler.setExecutor(executor);
+		}
+
+		try {
+			protocolHandler.init();
+		} catch (Exception ex) {
+			throw new LifecycleException("Protocol handler initialization "
+					+ "failed for " + this, ex);
+		}
 	}
 
 	@Override
 	protected void startInternal() throws LifecycleException {
-		// TODO Auto-generated method stub
+		if (port < 0)
+			throw new LifecycleException("Invalid port " + port + " for "
+					+ this);
 
+		setState(LifecycleState.STARTING);
+
+		try {
+			protocolHandler.start();
+		} catch (Exception ex) {
+			throw new LifecycleException("Protocol handler start failed for "
+					+ this, ex);
+		}
 	}
 
 	@Override
 	protected void stopInternal() throws LifecycleException {
-		// TODO Auto-generated method stub
+		setState(LifecycleState.STOPPING);
 
+		try {
+			protocolHandler.stop();
+		} catch (Exception ex) {
+			throw new LifecycleException("Protocol handler stop failed for "
+					+ this, ex);
+		}
 	}
 
 	@Override
 	protected void destroyInternal() throws LifecycleException {
-		// TODO Auto-generated method stub
+		if (protocolHandler == null)
+			return;
 
+		try {
+			protocolHandler.destroy();
+		} catch (Exception ex) {
+			throw new LifecycleException(
+					"Protocol handler destroy failed for " + this, ex);
+		}
 	}
 
+	/**
+	 * Stop accepting new connections. Open connections are still serviced.
+	 */
 	public void pause() {
+		if (protocolHandler == null)
+			return;
 
+		try {
+			protocolHandler.pause();
+		} catch (Exception ex) {
+			logger.error("Protocol handler pause failed for " + this, ex);
+		}
+	}
+
+	/**
+	 * Start accepting new connections again after a {@link #pause()}.
+	 */
+	public void resume() {
+		if (protocolHandler == null)
+			return;
+
+		try {
+			protocolHandler.resume();
+		} catch (Exception ex) {
+			logger.error("Protocol handler resume failed for " + this, ex);
+		}
 	}
 
 	public Service getService() {
@@ -84,6 +177,37 @@ public class Connector extends LifecycleBase {
 		this.service = service;
 	}
 
+	public ProtocolHandler getProtocolHandler() {
+		return protocolHandler;
+	}
+
+	/**
+	 * Return the protocol handled by this connector.
+	 */
+	public String getProtocol() {
+		if (HTTP11_VIRTUAL_HANDLER.equals(protocolHandlerClassName))
+			return HTTP11_VIRTUAL;
+		if (HTTP11_HANDLER.equals(protocolHandlerClassName))
+			return HTTP11;
+		return protocolHandlerClassName;
+	}
+
+	/**
+	 * Select the protocol handler from the <code>protocol</code> attribute of
+	 * the connector: <code>HTTP/1.1</code> for the NIO handler,
+	 * <code>HTTP/1.1-virtual</code> for the virtual thread per connection
+	 * handler, or the class name of a {@link ProtocolHandler}.
+	 */
+	public void setProtocol(String protocol) {
+		if (protocol == null || HTTP11.equalsIgnoreCase(protocol)) {
+			setProtocolHandlerClassName(HTTP11_HANDLER);
+		} else if (HTTP11_VIRTUAL.equalsIgnoreCase(protocol)) {
+			setProtocolHandlerClassName(HTTP11_VIRTUAL_HANDLER);
+		} else {
+			setProtocolHandlerClassName(protocol);
+		}
+	}
+
 	public String getProtocolHandlerClassName() {
 		return protocolHandlerClassName;
 	}
@@ -92,4 +216,65 @@ public class Connector extends LifecycleBase {
 		this.protocolHandlerClassName = protocolHandlerClassName;
 	}
 
+	public int getPort() {
+		return port;
+	}
+
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * Return the number of milliseconds an idle connection is kept open.
+	 */
+	public int getTimeout() {
+		return timeout;
+	}
+
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Return the maximum number of requests served on a connection before it
+	 * is closed, or -1 for no limit.
+	 */
+	public int getMaxKeepAliveRequests() {
+		return maxKeepAliveRequests;
+	}
+
+	public void setMaxKeepAliveRequests(int maxKeepAliveRequests) {
+		this.maxKeepAliveRequests = maxKeepAliveRequests;
+	}
+
+	/**
+	 * Return the largest request body, in bytes, accepted, or -1 for no
+	 * limit.
+	 */
+	public int getMaxPostSize() {
+		return maxPostSize;
+	}
+
+	public void setMaxPostSize(int maxPostSize) {
+		this.maxPostSize = maxPostSize;
+	}
+
+	/**
+	 * Return the name of the shared executor of the service requests are
+	 * processed on, or <code>null</code> if the protocol handler uses its own
+	 * threads.
+	 */
+	public String getExecutorName() {
+		return executorName;
+	}
+
+	public void setExecutorName(String executorName) {
+		this.executorName = executorName;
+	}
+
+	@Override
+	public String toString() {
+		return "Connector[" + protocolHandlerClassName + ", " + port + "]";
+	}
+
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.connector;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.corticerasf.dice.Service;
+import org.corticerasf.dice.container.Container;
+import org.corticerasf.dice.pipeline.ValveChain;
+import org.corticerasf.dice.protocols.Adapter;
+
+/**
+ * Passes the requests parsed by the protocol handler of a {@link Connector}
+ * to the pipeline of the container of its service.
+ *
+ * @author J. Godara
+ */
+public class ConnectorAdapter implements Adapter {
+
+	private final Connector connector;
+
+	public ConnectorAdapter(Connector connector) {
+		this.connector = connector;
+	}
+
+	public void service(CorticeraRequest request, CorticeraResponse response)
+			throws Exception {
+
+		Service service = connector.getService();
+		Container container = (service != null ? service.getContainer()
+				: null);
+
+		if (container == null || !container.getState().isAvailable()) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
+		}
+
+		if (!request.decodeURI()) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		service.getMapper().map(request.getMimeHeaders().getValue("Host"),
+				request.decodedURI(), request.getMappingData());
+
+		ValveChain chain = container.getPipeline().getChain();
+		if (chain.size() == 0) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		chain.invoke(request, response);
+	}
+
+}
@@ -17,12 +17,24 @@ package org.corticerasf.dice.connector;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.security.Principal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
 
 import javax.servlet.AsyncContext;
 import javax.servlet.DispatcherType;
@@ -38,42 +50,254 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import javax.servlet.http.Part;
 
+import org.corticerasf.dice.Globals;
+import org.corticerasf.dice.mapper.MappingData;
+import org.corticerasf.dice.utils.ByteChunk;
+import org.corticerasf.dice.utils.MimeHeaders;
+import org.corticerasf.dice.utils.RequestUtil;
+
 public class CorticeraRequest implements HttpServletRequest {
 
+	private static final String DEFAULT_ENCODING = "ISO-8859-1";
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Debug mode in which the facade of a request is detached and discarded
+	 * when the request is recycled, so that an application using a request
+	 * after it has been serviced fails instead of seeing the next request.
+	 */
+	static final boolean RECYCLE_FACADES = Boolean.getBoolean(Globals.DICE_RECYCLE_FACADES_PROP);
+
+	private final ByteChunk method = new ByteChunk();
+	private final ByteChunk requestURI = new ByteChunk();
+	private final ByteChunk decodedURI = new ByteChunk();
+	private final ByteChunk queryString = new ByteChunk();
+	private final ByteChunk protocol = new ByteChunk();
+
+	private final MimeHeaders headers = new MimeHeaders();
+
+	// Holds the decoded URI, reused by the requests of the connection
+	private byte[] decodedURIBuffer = new byte[128];
+
+	private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+	private String characterEncoding = null;
+
+	private String remoteAddr = null;
+	private int remotePort = -1;
+	private String localAddr = null;
+	private int localPort = -1;
+
+	private InputHook inputHook = null;
+
+	// Parsed from the Accept-Language headers on first use
+	private List<Locale> locales = null;
+
+	private boolean usingInputStream = false;
+	private boolean usingReader = false;
+
+	private RequestFacade facade = null;
+
+	private final MappingData mappingData = new MappingData();
+
+	// ------------------------------------------------- Connector side methods
+
+	/**
+	 * Return the facade of this request, which is what applications are
+	 * given.
+	 */
+	public HttpServletRequest getRequest() {
+		if (facade == null)
+			facade = new RequestFacade(this);
+		return facade;
+	}
+
+	/**
+	 * Return the host, context and servlet this request was mapped to.
+	 */
+	public MappingData getMappingData() {
+		return mappingData;
+	}
+
+	/**
+	 * Clear the state of this request so that it can be reused for the next
+	 * request of the connection.
+	 */
+	public void recycle() {
+		method.recycle();
+		requestURI.recycle();
+		decodedURI.recycle();
+		queryString.recycle();
+		protocol.recycle();
+		headers.recycle();
+
+		attributes.clear();
+		characterEncoding = null;
+
+		remoteAddr = null;
+		remotePort = -1;
+		localAddr = null;
+		localPort = -1;
+
+		usingInputStream = false;
+		usingReader = false;
+
+		locales = null;
+
+		mappingData.recycle();
+
+		if (RECYCLE_FACADES && facade != null) {
+			facade.clear();
+			facade = null;
+		}
+	}
+
+	/**
+	 * Return the view holding the method, filled in by the connector.
+	 */
+	public ByteChunk method() {
+		return method;
+	}
+
+	/**
+	 * Return the view holding the request URI, without the query string.
+	 */
+	public ByteChunk requestURI() {
+		return requestURI;
+	}
+
+	/**
+	 * Return the view holding the request URI decoded and normalized by
+	 * {@link #decodeURI()}, which is what the request is mapped with.
+	 */
+	public ByteChunk decodedURI() {
+		return decodedURI;
+	}
+
+	/**
+	 * Decode and normalize a copy of the request URI, which stays as it was
+	 * received for {@link #getRequestURI()}.
+	 *
+	 * @return <code>false</code> if the URI is invalid
+	 * @see RequestUtil#normalize(byte[], int, int)
+	 */
+	public boolean decodeURI() {
+		byte[] b = requestURI.getBuffer();
+		if (b == null)
+			return false;
+		int length = requestURI.getLength();
+		if (decodedURIBuffer.length < length)
+			decodedURIBuffer = new byte[Math.max(length,
+					decodedURIBuffer.length * 2)];
+		System.arraycopy(b, requestURI.getStart(), decodedURIBuffer, 0, length);
+
+		int end = RequestUtil.normalize(decodedURIBuffer, 0, length);
+		if (end < 0)
+			return false;
+		decodedURI.setBytes(decodedURIBuffer, 0, end);
+		return true;
+	}
+
+	/**
+	 * Return the view holding the query string, without the leading '?'.
+	 */
+	public ByteChunk queryString() {
+		return queryString;
+	}
+
+	/**
+	 * Return the view holding the protocol, such as <code>HTTP/1.1</code>.
+	 */
+	public ByteChunk protocol() {
+		return protocol;
+	}
+
+	public MimeHeaders getMimeHeaders() {
+		return headers;
+	}
+
+	public void setRemoteAddr(String remoteAddr) {
+		this.remoteAddr = remoteAddr;
+	}
+
+	public void setRemotePort(int remotePort) {
+		this.remotePort = remotePort;
+	}
+
+	public void setLocalAddr(String localAddr) {
+		this.localAddr = localAddr;
+	}
+
+	public void setLocalPort(int localPort) {
+		this.localPort = localPort;
+	}
+
+	/**
+	 * Set the processor reading the body of the requests of the connection.
+	 */
+	public void setInputHook(InputHook inputHook) {
+		this.inputHook = inputHook;
+	}
+
+	// ------------------------------------------------- ServletRequest methods
+
 	public Object getAttribute(String name) {
-		// TODO Auto-generated method stub
-		return null;
+		return attributes.get(name);
 	}
 
 	public Enumeration<String> getAttributeNames() {
-		// TODO Auto-generated method stub
-		return null;
+		return Collections.enumeration(new ArrayList<String>(attributes
+				.keySet()));
 	}
 
 	public String getCharacterEncoding() {
-		// TODO Auto-generated method stub
-		return null;
+		if (characterEncoding != null)
+			return characterEncoding;
+
+		String contentType = getContentType();
+		if (contentType == null)
+			return null;
+
+		int index = contentType.toLowerCase(Locale.ENGLISH).indexOf("charset=");
+		if (index < 0)
+			return null;
+
+		String encoding = contentType.substring(index + 8).trim();
+		int semicolon = encoding.indexOf(';');
+		if (semicolon >= 0)
+			encoding = encoding.substring(0, semicolon).trim();
+		if (encoding.length() > 2 && encoding.startsWith("\"")
+				&& encoding.endsWith("\""))
+			encoding = encoding.substring(1, encoding.length() - 1);
+		return encoding;
 	}
 
 	public void setCharacterEncoding(String env)
 			throws UnsupportedEncodingException {
-		// TODO Auto-generated method stub
-		
+		if (usingReader)
+			return;
+
+		// Fail early for unsupported encodings
+		new String(new byte[0], env);
+		this.characterEncoding = env;
 	}
 
 	public int getContentLength() {
-		// TODO Auto-generated method stub
-		return 0;
+		return getIntHeader("Content-Length");
 	}
 
 	public String getContentType() {
-		// TODO Auto-generated method stub
-		return null;
+		return getHeader("Content-Type");
 	}
 
 	public ServletInputStream getInputStream() throws IOException {
-		// TODO Auto-generated method stub
-		return null;
+		if (usingReader)
+			throw new IllegalStateException(
+					"getReader() has already been called for this request.");
+
+		usingInputStream = true;
+		return new BodyInputStream();
 	}
 
 	public String getParameter(String name) {
@@ -97,62 +321,160 @@ public class CorticeraRequest implements HttpServletRequest {
 	}
 
 	public String getProtocol() {
-		// TODO Auto-generated method stub
-		return null;
+		return protocol.toString();
 	}
 
 	public String getScheme() {
-		// TODO Auto-generated method stub
-		return null;
+		return "http";
 	}
 
 	public String getServerName() {
-		// TODO Auto-generated method stub
-		return null;
+		String host = getHeader("Host");
+		if (host == null || host.length() == 0)
+			return localAddr;
+
+		int colon = host.lastIndexOf(':');
+		if (colon > 0 && host.indexOf(']', colon) < 0)
+			return host.substring(0, colon);
+		return host;
 	}
 
 	public int getServerPort() {
-		// TODO Auto-generated method stub
-		return 0;
+		String host = getHeader("Host");
+		if (host != null) {
+			int colon = host.lastIndexOf(':');
+			if (colon > 0 && host.indexOf(']', colon) < 0) {
+				try {
+					return Integer.parseInt(host.substring(colon + 1));
+				} catch (NumberFormatException ex) {
+					// Fall through to the local port
+				}
+			}
+		}
+		return localPort;
 	}
 
 	public BufferedReader getReader() throws IOException {
-		// TODO Auto-generated method stub
-		return null;
+		if (usingInputStream)
+			throw new IllegalStateException(
+					"getInputStream() has already been called for this request.");
+
+		usingReader = true;
+		String encoding = getCharacterEncoding();
+		if (encoding == null)
+			encoding = DEFAULT_ENCODING;
+		return new BufferedReader(new InputStreamReader(new BodyInputStream(),
+				encoding));
 	}
 
 	public String getRemoteAddr() {
-		// TODO Auto-generated method stub
-		return null;
+		return remoteAddr;
 	}
 
 	public String getRemoteHost() {
-		// TODO Auto-generated method stub
-		return null;
+		return remoteAddr;
 	}
 
 	public void setAttribute(String name, Object o) {
-		// TODO Auto-generated method stub
-		
+		if (o == null) {
+			removeAttribute(name);
+			return;
+		}
+		attributes.put(name, o);
 	}
 
 	public void removeAttribute(String name) {
-		// TODO Auto-generated method stub
-		
+		attributes.remove(name);
 	}
 
+	/**
+	 * Return the preferred locale of the client, from the Accept-Language
+	 * headers, or the default locale of the server if there is none.
+	 */
 	public Locale getLocale() {
-		// TODO Auto-generated method stub
-		return null;
+		List<Locale> accepted = parseLocales();
+		return (accepted.isEmpty() ? Locale.getDefault() : accepted.get(0));
 	}
 
 	public Enumeration<Locale> getLocales() {
-		// TODO Auto-generated method stub
-		return null;
+		List<Locale> accepted = parseLocales();
+		if (accepted.isEmpty())
+			accepted = Collections.singletonList(Locale.getDefault());
+		return Collections.enumeration(accepted);
+	}
+
+	/**
+	 * Parse the Accept-Language headers into the accepted locales, most
+	 * preferred first. Ranges with a quality of 0, the wildcard and malformed
+	 * ranges are left out.
+	 */
+	private List<Locale> parseLocales() {
+		if (locales != null)
+			return locales;
+
+		final Map<Locale, Double> qualities = new HashMap<Locale, Double>();
+		List<Locale> accepted = new ArrayList<Locale>();
+		Enumeration<String> values = getHeaders("Accept-Language");
+		while (values.hasMoreElements()) {
+			for (String range : values.nextElement().split(",")) {
+				String[] parts = range.split(";");
+				String tag = parts[0].trim();
+
+				double quality = 1;
+				for (int i = 1; i < parts.length; i++) {
+					String param = parts[i].trim();
+					if (param.startsWith("q=")) {
+						try {
+							quality = Double.parseDouble(param.substring(2));
+						} catch (NumberFormatException ex) {
+							quality = 0;
+						}
+					}
+				}
+
+				Locale locale = toLocale(tag);
+				if (locale == null || quality <= 0
+						|| qualities.containsKey(locale))
+					continue;
+				qualities.put(locale, Double.valueOf(quality));
+				accepted.add(locale);
+			}
+		}
+
+		// Stable, ranges of equal quality keep the order of the header
+		Collections.sort(accepted, new Comparator<Locale>() {
+			public int compare(Locale l1, Locale l2) {
+				return qualities.get(l2).compareTo(qualities.get(l1));
+			}
+		});
+		locales = accepted;
+		return locales;
+	}
+
+	/**
+	 * Convert a language range such as <code>en-US</code> to a locale, or
+	 * return <code>null</code> for the wildcard or a malformed range.
+	 */
+	private static Locale toLocale(String tag) {
+		String[] subtags = tag.split("-");
+		if (subtags[0].length() == 0 || subtags[0].length() > 8)
+			return null;
+		for (String subtag : subtags) {
+			if (subtag.length() == 0)
+				return null;
+			for (int i = 0; i < subtag.length(); i++) {
+				if (!Character.isLetterOrDigit(subtag.charAt(i)))
+					return null;
+			}
+		}
+
+		String language = subtags[0].toLowerCase(Locale.ENGLISH);
+		if (subtags.length == 1)
+			return new Locale(language);
+		return new Locale(language, subtags[1].toUpperCase(Locale.ENGLISH));
 	}
 
 	public boolean isSecure() {
-		// TODO Auto-generated method stub
 		return false;
 	}
 
@@ -167,23 +489,19 @@ public class CorticeraRequest implements HttpServletRequest {
 	}
 
 	public int getRemotePort() {
-		// TODO Auto-generated method stub
-		return 0;
+		return remotePort;
 	}
 
 	public String getLocalName() {
-		// TODO Auto-generated method stub
-		return null;
+		return localAddr;
 	}
 
 	public String getLocalAddr() {
-		// TODO Auto-generated method stub
-		return null;
+		return localAddr;
 	}
 
 	public int getLocalPort() {
-		// TODO Auto-generated method stub
-		return 0;
+		return localPort;
 	}
 
 	public ServletContext getServletContext() {
@@ -218,10 +536,11 @@ public class CorticeraRequest implements HttpServletRequest {
 	}
 
 	public DispatcherType getDispatcherType() {
-		// TODO Auto-generated method stub
-		return null;
+		return DispatcherType.REQUEST;
 	}
 
+	// --------------------------------------------- HttpServletRequest methods
+
 	public String getAuthType() {
 		// TODO Auto-generated method stub
 		return null;
@@ -233,38 +552,58 @@ public class CorticeraRequest implements HttpServletRequest {
 	}
 
 	public long getDateHeader(String name) {
-		// TODO Auto-generated method stub
-		return 0;
+		String value = getHeader(name);
+		if (value == null)
+			return -1L;
+
+		SimpleDateFormat format = new SimpleDateFormat(
+				"EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		try {
+			return format.parse(value).getTime();
+		} catch (ParseException ex) {
+			throw new IllegalArgumentException(value);
+		}
 	}
 
 	public String getHeader(String name) {
-		// TODO Auto-generated method stub
-		return null;
+		return headers.getHeader(name);
 	}
 
 	public Enumeration<String> getHeaders(String name) {
-		// TODO Auto-generated method stub
-		return null;
+		List<String> values = new ArrayList<String>();
+		for (int i = 0; i < headers.size(); i++) {
+			if (headers.getName(i).equalsIgnoreCase(name))
+				values.add(headers.getValue(i).toString());
+		}
+		return Collections.enumeration(values);
 	}
 
 	public Enumeration<String> getHeaderNames() {
-		// TODO Auto-generated method stub
-		return null;
+		Set<String> names = new LinkedHashSet<String>();
+		for (int i = 0; i < headers.size(); i++)
+			names.add(headers.getName(i).toString().toLowerCase(Locale.ENGLISH));
+		return Collections.enumeration(names);
 	}
 
 	public int getIntHeader(String name) {
-		// TODO Auto-generated method stub
-		return 0;
+		ByteChunk value = headers.getValue(name);
+		if (value == null)
+			return -1;
+		long result = value.getLong();
+		if (result > Integer.MAX_VALUE)
+			throw new NumberFormatException(value.toString());
+		return (int) result;
 	}
 
 	public String getMethod() {
-		// TODO Auto-generated method stub
-		return null;
+		return method.toString();
 	}
 
 	public String getPathInfo() {
-		// TODO Auto-generated method stub
-		return null;
+		if (mappingData.pathInfo.isNull())
+			return null;
+		return mappingData.pathInfo.toString(UTF_8);
 	}
 
 	public String getPathTranslated() {
@@ -273,13 +612,11 @@ public class CorticeraRequest implements HttpServletRequest {
 	}
 
 	public String getContextPath() {
-		// TODO Auto-generated method stub
-		return null;
+		return (mappingData.contextPath != null ? mappingData.contextPath : "");
 	}
 
 	public String getQueryString() {
-		// TODO Auto-generated method stub
-		return null;
+		return queryString.toString();
 	}
 
 	public String getRemoteUser() {
@@ -303,18 +640,23 @@ public class CorticeraRequest implements HttpServletRequest {
 	}
 
 	public String getRequestURI() {
-		// TODO Auto-generated method stub
-		return null;
+		return requestURI.toString();
 	}
 
 	public StringBuffer getRequestURL() {
-		// TODO Auto-generated method stub
-		return null;
+		StringBuffer url = new StringBuffer();
+		url.append(getScheme()).append("://").append(getServerName());
+		int port = getServerPort();
+		if (port > 0 && port != 80)
+			url.append(':').append(port);
+		url.append(getRequestURI());
+		return url;
 	}
 
 	public String getServletPath() {
-		// TODO Auto-generated method stub
-		return null;
+		if (mappingData.wrapperPath.isNull())
+			return null;
+		return mappingData.wrapperPath.toString(UTF_8);
 	}
 
 	public HttpSession getSession(boolean create) {
@@ -355,12 +697,12 @@ public class CorticeraRequest implements HttpServletRequest {
 
 	public void login(String username, String password) throws ServletException {
 		// TODO Auto-generated method stub
-		
+
 	}
 
 	public void logout() throws ServletException {
 		// TODO Auto-generated method stub
-		
+
 	}
 
 	public Collection<Part> getParts() throws IOException, ServletException {
@@ -373,4 +715,36 @@ public class CorticeraRequest implements HttpServletRequest {
 		return null;
 	}
 
+	/**
+	 * Stream over the body, read from the client by the input hook as the
+	 * application consumes it.
+	 */
+	private class BodyInputStream extends ServletInputStream {
+
+		private final byte[] single = new byte[1];
+
+		@Override
+		public int read() throws IOException {
+			int n = read(single, 0, 1);
+			return (n < 0 ? -1 : single[0] & 0xff);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (off < 0 || len < 0 || len > b.length - off)
+				throw new IndexOutOfBoundsException();
+			if (len == 0)
+				return 0;
+			if (inputHook == null)
+				return -1;
+			return inputHook.doRead(b, off, len);
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (inputHook == null ? 0 : inputHook.available());
+		}
+
+	}
+
 }
@@ -16,194 +16,540 @@
 package org.corticerasf.dice.connector;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletResponse;
 
+import org.corticerasf.dice.utils.ByteBufferPool;
+
 public class CorticeraResponse implements HttpServletResponse {
 
+	private static final String DEFAULT_ENCODING = "ISO-8859-1";
+
+	private int status = SC_OK;
+	private String message = null;
+
+	private final List<String> headerNames = new ArrayList<String>();
+	private final List<String> headerValues = new ArrayList<String>();
+
+	private String contentType = null;
+	private String characterEncoding = null;
+	private long contentLength = -1;
+	private Locale locale = Locale.getDefault();
+
+	private final OutputBuffer outputBuffer = new OutputBuffer();
+	private ServletOutputStream outputStream = null;
+	private OutputStreamWriter encoder = null;
+	private PrintWriter writer = null;
+
+	private boolean committed = false;
+
+	private ResponseFacade facade = null;
+
+	/**
+	 * Return the facade of this response, which is what applications are
+	 * given.
+	 */
+	public HttpServletResponse getResponse() {
+		if (facade == null)
+			facade = new ResponseFacade(this);
+		return facade;
+	}
+
+	/**
+	 * Clear the state of this response so that it can be reused for the next
+	 * request of the connection.
+	 */
+	public void recycle() {
+		status = SC_OK;
+		message = null;
+		headerNames.clear();
+		headerValues.clear();
+		contentType = null;
+		characterEncoding = null;
+		contentLength = -1;
+		locale = Locale.getDefault();
+
+		outputBuffer.recycle();
+		outputStream = null;
+		encoder = null;
+		writer = null;
+		committed = false;
+
+		if (CorticeraRequest.RECYCLE_FACADES && facade != null) {
+			facade.clear();
+			facade = null;
+		}
+	}
+
+	/**
+	 * Set where the content of this response is sent, and the pool its
+	 * buffers are taken from.
+	 */
+	public void setOutputHook(OutputHook hook, ByteBufferPool pool) {
+		outputBuffer.setOutputHook(hook);
+		outputBuffer.setBufferPool(pool);
+	}
+
+	/**
+	 * Send the remaining content of this response. Called by the connector
+	 * once the request has been serviced.
+	 */
+	public void finishResponse() throws IOException {
+		if (encoder != null)
+			encoder.flush();
+		outputBuffer.close();
+	}
+
+	/**
+	 * Called by the connector when the status line and headers have been
+	 * sent.
+	 */
+	public void setCommitted(boolean committed) {
+		this.committed = committed;
+	}
+
+	/**
+	 * Return the number of content bytes written by the application.
+	 */
+	public long getBytesWritten() {
+		return outputBuffer.getBytesWritten();
+	}
+
 	public String getCharacterEncoding() {
-		// TODO Auto-generated method stub
-		return null;
+		if (characterEncoding == null)
+			return DEFAULT_ENCODING;
+		return characterEncoding;
 	}
 
 	public String getContentType() {
-		// TODO Auto-generated method stub
-		return null;
+		if (contentType == null)
+			return null;
+		if (characterEncoding == null)
+			return contentType;
+		return contentType + ";charset=" + characterEncoding;
 	}
 
 	public ServletOutputStream getOutputStream() throws IOException {
-		// TODO Auto-generated method stub
-		return null;
+		if (writer != null)
+			throw new IllegalStateException(
+					"getWriter() has already been called for this response.");
+
+		if (outputStream == null) {
+			outputStream = new ServletOutputStream() {
+
+				@Override
+				public void write(int b) throws IOException {
+					outputBuffer.write(b);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len)
+						throws IOException {
+					outputBuffer.write(b, off, len);
+				}
+
+				@Override
+				public void flush() throws IOException {
+					outputBuffer.flush();
+				}
+
+			};
+		}
+		return outputStream;
 	}
 
 	public PrintWriter getWriter() throws IOException {
-		// TODO Auto-generated method stub
-		return null;
+		if (outputStream != null)
+			throw new IllegalStateException(
+					"getOutputStream() has already been called for this response.");
+
+		if (writer == null) {
+			// The charset is fixed from now on.
+			if (characterEncoding == null)
+				characterEncoding = DEFAULT_ENCODING;
+			// Flushing the encoder only moves the encoded bytes to the output
+			// buffer. Only an explicit flush of the writer sends them.
+			encoder = new OutputStreamWriter(new OutputStream() {
+
+				@Override
+				public void write(int b) throws IOException {
+					outputBuffer.write(b);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len)
+						throws IOException {
+					outputBuffer.write(b, off, len);
+				}
+
+			}, characterEncoding);
+			writer = new PrintWriter(encoder) {
+
+				@Override
+				public void flush() {
+					super.flush();
+					try {
+						outputBuffer.flush();
+					} catch (IOException ex) {
+						setError();
+					}
+				}
+
+			};
+		}
+		return writer;
 	}
 
 	public void setCharacterEncoding(String charset) {
-		// TODO Auto-generated method stub
-		
+		if (committed || writer != null)
+			return;
+		this.characterEncoding = charset;
 	}
 
 	public void setContentLength(int len) {
-		// TODO Auto-generated method stub
-		
+		if (committed)
+			return;
+		this.contentLength = len;
+	}
+
+	public int getContentLength() {
+		return (int) Math.min(contentLength, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Set the length of the content, which may exceed the range of
+	 * {@link #setContentLength(int)}.
+	 */
+	public void setContentLengthLong(long len) {
+		if (committed)
+			return;
+		this.contentLength = len;
+	}
+
+	public long getContentLengthLong() {
+		return contentLength;
 	}
 
 	public void setContentType(String type) {
-		// TODO Auto-generated method stub
-		
+		if (committed)
+			return;
+
+		if (type == null) {
+			contentType = null;
+			return;
+		}
+		type = stripControls(type);
+
+		// The charset parameter is kept apart, as the character encoding,
+		// the other parameters stay with the type.
+		String[] parts = type.split(";");
+		StringBuilder sb = new StringBuilder(parts[0].trim());
+		for (int i = 1; i < parts.length; i++) {
+			String param = parts[i].trim();
+			int index = param.indexOf('=');
+			if (index > 0
+					&& param.substring(0, index).trim()
+							.equalsIgnoreCase("charset")) {
+				String charset = param.substring(index + 1).trim();
+				if (charset.length() >= 2 && charset.startsWith("\"")
+						&& charset.endsWith("\""))
+					charset = charset.substring(1, charset.length() - 1);
+				setCharacterEncoding(charset.trim());
+			} else if (param.length() > 0) {
+				sb.append(';').append(param);
+			}
+		}
+		contentType = sb.toString();
 	}
 
 	public void setBufferSize(int size) {
-		// TODO Auto-generated method stub
-		
+		if (committed || outputBuffer.getBytesWritten() > 0)
+			throw new IllegalStateException(
+					"Content has already been written to the response.");
+		outputBuffer.setBufferSize(size);
 	}
 
 	public int getBufferSize() {
-		// TODO Auto-generated method stub
-		return 0;
+		return outputBuffer.getBufferSize();
 	}
 
 	public void flushBuffer() throws IOException {
-		// TODO Auto-generated method stub
-		
+		if (encoder != null)
+			encoder.flush();
+		outputBuffer.flush();
 	}
 
 	public void resetBuffer() {
-		// TODO Auto-generated method stub
-		
+		if (committed)
+			throw new IllegalStateException("The response is committed.");
+		if (encoder != null) {
+			try {
+				// Drain the characters pending in the encoder before
+				// discarding the content.
+				encoder.flush();
+			} catch (IOException ex) {
+				// Ignore, the content is discarded anyway
+			}
+		}
+		outputBuffer.reset();
 	}
 
 	public boolean isCommitted() {
-		// TODO Auto-generated method stub
-		return false;
+		return committed;
 	}
 
 	public void reset() {
-		// TODO Auto-generated method stub
-		
+		resetBuffer();
+		status = SC_OK;
+		message = null;
+		headerNames.clear();
+		headerValues.clear();
+		contentType = null;
+		contentLength = -1;
+		if (writer == null)
+			characterEncoding = null;
 	}
 
 	public void setLocale(Locale loc) {
-		// TODO Auto-generated method stub
-		
+		if (committed || loc == null)
+			return;
+		this.locale = loc;
 	}
 
 	public Locale getLocale() {
-		// TODO Auto-generated method stub
-		return null;
+		return locale;
 	}
 
 	public void addCookie(Cookie cookie) {
 		// TODO Auto-generated method stub
-		
+
 	}
 
 	public boolean containsHeader(String name) {
-		// TODO Auto-generated method stub
-		return false;
+		if ("Content-Type".equalsIgnoreCase(name))
+			return contentType != null;
+		if ("Content-Length".equalsIgnoreCase(name))
+			return contentLength != -1;
+		return getHeader(name) != null;
 	}
 
 	public String encodeURL(String url) {
-		// TODO Auto-generated method stub
-		return null;
+		return url;
 	}
 
 	public String encodeRedirectURL(String url) {
-		// TODO Auto-generated method stub
-		return null;
+		return url;
 	}
 
 	public String encodeUrl(String url) {
-		// TODO Auto-generated method stub
-		return null;
+		return encodeURL(url);
 	}
 
 	public String encodeRedirectUrl(String url) {
-		// TODO Auto-generated method stub
-		return null;
+		return encodeRedirectURL(url);
 	}
 
 	public void sendError(int sc, String msg) throws IOException {
-		// TODO Auto-generated method stub
-		
+		if (committed)
+			throw new IllegalStateException("The response is committed.");
+
+		resetBuffer();
+		setStatus(sc, msg);
 	}
 
 	public void sendError(int sc) throws IOException {
-		// TODO Auto-generated method stub
-		
+		sendError(sc, null);
 	}
 
 	public void sendRedirect(String location) throws IOException {
-		// TODO Auto-generated method stub
-		
+		if (committed)
+			throw new IllegalStateException("The response is committed.");
+
+		resetBuffer();
+		setStatus(SC_FOUND);
+		setHeader("Location", location);
 	}
 
 	public void setDateHeader(String name, long date) {
-		// TODO Auto-generated method stub
-		
+		setHeader(name, formatDate(date));
 	}
 
 	public void addDateHeader(String name, long date) {
-		// TODO Auto-generated method stub
-		
+		addHeader(name, formatDate(date));
 	}
 
 	public void setHeader(String name, String value) {
-		// TODO Auto-generated method stub
-		
+		if (committed || !isToken(name))
+			return;
+		if (setSpecialHeader(name, value))
+			return;
+
+		removeHeader(name);
+		if (value != null)
+			addHeader(name, value);
 	}
 
 	public void addHeader(String name, String value) {
-		// TODO Auto-generated method stub
-		
+		if (committed || !isToken(name) || value == null)
+			return;
+		if (setSpecialHeader(name, value))
+			return;
+
+		headerNames.add(name);
+		headerValues.add(stripControls(value));
 	}
 
 	public void setIntHeader(String name, int value) {
-		// TODO Auto-generated method stub
-		
+		setHeader(name, String.valueOf(value));
 	}
 
 	public void addIntHeader(String name, int value) {
-		// TODO Auto-generated method stub
-		
+		addHeader(name, String.valueOf(value));
 	}
 
 	public void setStatus(int sc) {
-		// TODO Auto-generated method stub
-		
+		setStatus(sc, null);
 	}
 
 	public void setStatus(int sc, String sm) {
-		// TODO Auto-generated method stub
-		
+		if (committed)
+			return;
+		this.status = sc;
+		this.message = sm;
 	}
 
 	public int getStatus() {
-		// TODO Auto-generated method stub
-		return 0;
+		return status;
+	}
+
+	public String getMessage() {
+		return message;
 	}
 
 	public String getHeader(String name) {
-		// TODO Auto-generated method stub
+		for (int i = 0; i < headerNames.size(); i++) {
+			if (headerNames.get(i).equalsIgnoreCase(name))
+				return headerValues.get(i);
+		}
 		return null;
 	}
 
 	public Collection<String> getHeaders(String name) {
-		// TODO Auto-generated method stub
-		return null;
+		List<String> values = new ArrayList<String>();
+		for (int i = 0; i < headerNames.size(); i++) {
+			if (headerNames.get(i).equalsIgnoreCase(name))
+				values.add(headerValues.get(i));
+		}
+		return values;
 	}
 
 	public Collection<String> getHeaderNames() {
-		// TODO Auto-generated method stub
-		return null;
+		Set<String> names = new LinkedHashSet<String>();
+		for (String name : headerNames)
+			names.add(name);
+		return names;
+	}
+
+	/**
+	 * Return the number of headers, the content type and length excepted.
+	 * With {@link #getHeaderName(int)} and {@link #getHeaderValue(int)}, the
+	 * headers are read in the order they were added.
+	 */
+	public int getHeaderCount() {
+		return headerNames.size();
+	}
+
+	public String getHeaderName(int index) {
+		return headerNames.get(index);
+	}
+
+	public String getHeaderValue(int index) {
+		return headerValues.get(index);
+	}
+
+	private void removeHeader(String name) {
+		for (int i = headerNames.size() - 1; i >= 0; i--) {
+			if (headerNames.get(i).equalsIgnoreCase(name)) {
+				headerNames.remove(i);
+				headerValues.remove(i);
+			}
+		}
+	}
+
+	/**
+	 * Headers which are backed by a dedicated property.
+	 *
+	 * @return <code>true</code> if the header has been handled
+	 */
+	private boolean setSpecialHeader(String name, String value) {
+		if ("Content-Type".equalsIgnoreCase(name)) {
+			setContentType(value);
+			return true;
+		}
+		if ("Content-Length".equalsIgnoreCase(name)) {
+			try {
+				setContentLengthLong(value == null ? -1 : Long.parseLong(value
+						.trim()));
+			} catch (NumberFormatException ex) {
+				// Ignore an invalid value
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Return <code>true</code> if the given header name is a non-empty
+	 * token, as defined by RFC 7230.
+	 */
+	private static boolean isToken(String name) {
+		if (name == null || name.length() == 0)
+			return false;
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c <= ' ' || c >= 0x7f || "()<>@,;:\\\"/[]?={}".indexOf(c) >= 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Replace the control characters of a header value, tabs excepted, by
+	 * spaces, so that a value built from user input cannot end the header
+	 * and split the response.
+	 */
+	private static String stripControls(String value) {
+		char[] chars = null;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if ((c < ' ' && c != '\t') || c == 0x7f) {
+				if (chars == null)
+					chars = value.toCharArray();
+				chars[i] = ' ';
+			}
+		}
+		return (chars == null ? value : new String(chars));
+	}
+
+	private static String formatDate(long date) {
+		SimpleDateFormat format = new SimpleDateFormat(
+				"EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format.format(new Date(date));
 	}
 
 }
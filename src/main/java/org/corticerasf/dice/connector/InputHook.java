@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.connector;
+
+import java.io.IOException;
+
+/**
+ * Implemented by the protocol processor owning a {@link CorticeraRequest},
+ * to read the body of the request from the client as the application
+ * consumes it.
+ *
+ * @author J. Godara
+ */
+public interface InputHook {
+
+	/**
+	 * Read bytes of the request body, blocking until at least one byte is
+	 * available.
+	 *
+	 * @param b
+	 *            The array to read into
+	 * @param off
+	 *            The index of the first byte to fill
+	 * @param len
+	 *            The maximum number of bytes to read
+	 * @return the number of bytes read, or -1 at the end of the body
+	 */
+	public int doRead(byte[] b, int off, int len) throws IOException;
+
+	/**
+	 * Return the number of body bytes that can be read without blocking.
+	 */
+	public int available();
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.connector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.corticerasf.dice.utils.ByteBufferPool;
+
+/**
+ * The content buffer of a {@link CorticeraResponse}.
+ * <p>
+ * Content is written into direct buffers taken from the pool of the
+ * connector, and the buffers themselves are handed to the
+ * {@link OutputHook} of the processor when they are flushed, so the content
+ * reaches the socket without further copies. The buffers are given back to
+ * the pool as soon as they have been written. Content is flushed whenever
+ * the buffered amount reaches the buffer size of the response, which commits
+ * the response.
+ *
+ * @author J. Godara
+ */
+public class OutputBuffer {
+
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	private OutputHook hook = null;
+	private ByteBufferPool pool = null;
+
+	private ByteBuffer[] buffers = new ByteBuffer[4];
+	private int count = 0;
+
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private int buffered = 0;
+	private long bytesWritten = 0;
+	private boolean closed = false;
+
+	public void setOutputHook(OutputHook hook) {
+		this.hook = hook;
+	}
+
+	public void setBufferPool(ByteBufferPool pool) {
+		this.pool = pool;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = Math.max(1, bufferSize);
+	}
+
+	/**
+	 * Return the number of bytes written since the last reset.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	public void write(int b) throws IOException {
+		if (closed)
+			return;
+
+		current().put((byte) b);
+		written(1);
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed)
+			return;
+
+		while (len > 0) {
+			ByteBuffer buffer = current();
+			int n = Math.min(len, buffer.remaining());
+			buffer.put(b, off, n);
+			off += n;
+			len -= n;
+			written(n);
+		}
+	}
+
+	/**
+	 * Send the buffered content, committing the response.
+	 */
+	public void flush() throws IOException {
+		if (closed)
+			return;
+
+		doFlush(false);
+	}
+
+	/**
+	 * Send the remaining content and mark the end of the response content.
+	 * Further writes are ignored.
+	 */
+	public void close() throws IOException {
+		if (closed)
+			return;
+
+		closed = true;
+		doFlush(true);
+	}
+
+	/**
+	 * Discard the buffered content.
+	 */
+	public void reset() {
+		releaseBuffers();
+		buffered = 0;
+		bytesWritten = 0;
+	}
+
+	public void recycle() {
+		reset();
+		bufferSize = DEFAULT_BUFFER_SIZE;
+		closed = false;
+	}
+
+	private void written(int n) throws IOException {
+		buffered += n;
+		bytesWritten += n;
+		if (buffered >= bufferSize)
+			doFlush(false);
+	}
+
+	private void doFlush(boolean last) throws IOException {
+		for (int i = 0; i < count; i++)
+			buffers[i].flip();
+
+		boolean retained = false;
+		try {
+			if (hook != null)
+				retained = hook.doWrite(buffers, count, last);
+		} catch (IOException ex) {
+			// Further writes are pointless.
+			closed = true;
+			throw new ClientAbortException(ex);
+		} finally {
+			if (retained) {
+				// The buffers now belong to the hook.
+				for (int i = 0; i < count; i++)
+					buffers[i] = null;
+				count = 0;
+			} else {
+				releaseBuffers();
+			}
+			buffered = 0;
+		}
+	}
+
+	/**
+	 * Return a buffer with room for at least one byte.
+	 */
+	private ByteBuffer current() {
+		if (count > 0 && buffers[count - 1].hasRemaining())
+			return buffers[count - 1];
+
+		int size = Math.max(bufferSize - buffered, 1);
+		ByteBuffer buffer;
+		if (pool != null) {
+			size = Math.min(Math.max(size, pool.getMinSize()),
+					pool.getMaxSize());
+			buffer = pool.acquire(size);
+		} else {
+			buffer = ByteBuffer.allocate(Math.min(size, DEFAULT_BUFFER_SIZE));
+		}
+
+		if (count == buffers.length) {
+			ByteBuffer[] newBuffers = new ByteBuffer[count * 2];
+			System.arraycopy(buffers, 0, newBuffers, 0, count);
+			buffers = newBuffers;
+		}
+		buffers[count++] = buffer;
+		return buffer;
+	}
+
+	private void releaseBuffers() {
+		for (int i = 0; i < count; i++) {
+			if (pool != null)
+				pool.release(buffers[i]);
+			buffers[i] = null;
+		}
+		count = 0;
+	}
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.connector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Implemented by the protocol processor owning a {@link CorticeraResponse},
+ * to send the content buffered by the response to the client.
+ *
+ * @author J. Godara
+ */
+public interface OutputHook {
+
+	/**
+	 * Write buffered response content to the client, committing the
+	 * response first if it has not been committed yet.
+	 *
+	 * @param buffers
+	 *            The buffers, in read mode, holding the content to write
+	 * @param count
+	 *            The number of buffers to write from the start of the array
+	 * @param last
+	 *            <code>true</code> if no more content will follow, in which
+	 *            case the total length of the content is known when the
+	 *            response is committed by this call
+	 * @return <code>true</code> if the hook has kept the buffers to write
+	 *         them later, in which case it is responsible for releasing them
+	 *         to the pool they came from
+	 */
+	public boolean doWrite(ByteBuffer[] buffers, int count, boolean last)
+			throws IOException;
+
+}
@@ -0,0 +1,479 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.connector;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.Principal;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.Part;
+
+/**
+ * The view of a {@link CorticeraRequest} given to applications.
+ * <p>
+ * Request objects are owned by a connection processor and reused for every
+ * request of the connection, so applications only ever see this facade,
+ * which hides the connector side methods. Once the request has been
+ * recycled, and when facades are recycled too, every method throws an
+ * {@link IllegalStateException}.
+ *
+ * @author J. Godara
+ */
+public class RequestFacade implements HttpServletRequest {
+
+	private CorticeraRequest request;
+
+	/**
+	 * The wrappers handed out for the stream and reader of the request.
+	 */
+	private FacadeInputStream inputStream;
+	private FacadeReader reader;
+
+	public RequestFacade(CorticeraRequest request) {
+		this.request = request;
+	}
+
+	/**
+	 * Detach this facade from its request. Called when the request is
+	 * recycled in the facade recycling debug mode.
+	 */
+	void clear() {
+		request = null;
+		inputStream = null;
+		reader = null;
+	}
+
+	private CorticeraRequest check() {
+		CorticeraRequest request = this.request;
+		if (request == null)
+			throw new IllegalStateException(
+					"The request object has been recycled and is no longer "
+							+ "associated with this facade.");
+		return request;
+	}
+
+	public Object getAttribute(String name) {
+		return check().getAttribute(name);
+	}
+
+	public Enumeration<String> getAttributeNames() {
+		return check().getAttributeNames();
+	}
+
+	public String getCharacterEncoding() {
+		return check().getCharacterEncoding();
+	}
+
+	public void setCharacterEncoding(String env)
+			throws UnsupportedEncodingException {
+		check().setCharacterEncoding(env);
+	}
+
+	public int getContentLength() {
+		return check().getContentLength();
+	}
+
+	public String getContentType() {
+		return check().getContentType();
+	}
+
+	public ServletInputStream getInputStream() throws IOException {
+		ServletInputStream stream = check().getInputStream();
+		if (inputStream == null || inputStream.stream != stream)
+			inputStream = new FacadeInputStream(stream);
+		return inputStream;
+	}
+
+	public String getParameter(String name) {
+		return check().getParameter(name);
+	}
+
+	public Enumeration<String> getParameterNames() {
+		return check().getParameterNames();
+	}
+
+	public String[] getParameterValues(String name) {
+		return check().getParameterValues(name);
+	}
+
+	public Map<String, String[]> getParameterMap() {
+		return check().getParameterMap();
+	}
+
+	public String getProtocol() {
+		return check().getProtocol();
+	}
+
+	public String getScheme() {
+		return check().getScheme();
+	}
+
+	public String getServerName() {
+		return check().getServerName();
+	}
+
+	public int getServerPort() {
+		return check().getServerPort();
+	}
+
+	public BufferedReader getReader() throws IOException {
+		BufferedReader reader = check().getReader();
+		if (this.reader == null || this.reader.reader != reader)
+			this.reader = new FacadeReader(reader);
+		return this.reader;
+	}
+
+	public String getRemoteAddr() {
+		return check().getRemoteAddr();
+	}
+
+	public String getRemoteHost() {
+		return check().getRemoteHost();
+	}
+
+	public void setAttribute(String name, Object o) {
+		check().setAttribute(name, o);
+	}
+
+	public void removeAttribute(String name) {
+		check().removeAttribute(name);
+	}
+
+	public Locale getLocale() {
+		return check().getLocale();
+	}
+
+	public Enumeration<Locale> getLocales() {
+		return check().getLocales();
+	}
+
+	public boolean isSecure() {
+		return check().isSecure();
+	}
+
+	public RequestDispatcher getRequestDispatcher(String path) {
+		return check().getRequestDispatcher(path);
+	}
+
+	public String getRealPath(String path) {
+		return check().getRealPath(path);
+	}
+
+	public int getRemotePort() {
+		return check().getRemotePort();
+	}
+
+	public String getLocalName() {
+		return check().getLocalName();
+	}
+
+	public String getLocalAddr() {
+		return check().getLocalAddr();
+	}
+
+	public int getLocalPort() {
+		return check().getLocalPort();
+	}
+
+	public ServletContext getServletContext() {
+		return check().getServletContext();
+	}
+
+	public AsyncContext startAsync() throws IllegalStateException {
+		return check().startAsync();
+	}
+
+	public AsyncContext startAsync(ServletRequest servletRequest,
+			ServletResponse servletResponse) throws IllegalStateException {
+		return check().startAsync(servletRequest, servletResponse);
+	}
+
+	public boolean isAsyncStarted() {
+		return check().isAsyncStarted();
+	}
+
+	public boolean isAsyncSupported() {
+		return check().isAsyncSupported();
+	}
+
+	public AsyncContext getAsyncContext() {
+		return check().getAsyncContext();
+	}
+
+	public DispatcherType getDispatcherType() {
+		return check().getDispatcherType();
+	}
+
+	public String getAuthType() {
+		return check().getAuthType();
+	}
+
+	public Cookie[] getCookies() {
+		return check().getCookies();
+	}
+
+	public long getDateHeader(String name) {
+		return check().getDateHeader(name);
+	}
+
+	public String getHeader(String name) {
+		return check().getHeader(name);
+	}
+
+	public Enumeration<String> getHeaders(String name) {
+		return check().getHeaders(name);
+	}
+
+	public Enumeration<String> getHeaderNames() {
+		return check().getHeaderNames();
+	}
+
+	public int getIntHeader(String name) {
+		return check().getIntHeader(name);
+	}
+
+	public String getMethod() {
+		return check().getMethod();
+	}
+
+	public String getPathInfo() {
+		return check().getPathInfo();
+	}
+
+	public String getPathTranslated() {
+		return check().getPathTranslated();
+	}
+
+	public String getContextPath() {
+		return check().getContextPath();
+	}
+
+	public String getQueryString() {
+		return check().getQueryString();
+	}
+
+	public String getRemoteUser() {
+		return check().getRemoteUser();
+	}
+
+	public boolean isUserInRole(String role) {
+		return check().isUserInRole(role);
+	}
+
+	public Principal getUserPrincipal() {
+		return check().getUserPrincipal();
+	}
+
+	public String getRequestedSessionId() {
+		return check().getRequestedSessionId();
+	}
+
+	public String getRequestURI() {
+		return check().getRequestURI();
+	}
+
+	public StringBuffer getRequestURL() {
+		return check().getRequestURL();
+	}
+
+	public String getServletPath() {
+		return check().getServletPath();
+	}
+
+	public HttpSession getSession(boolean create) {
+		return check().getSession(create);
+	}
+
+	public HttpSession getSession() {
+		return check().getSession();
+	}
+
+	public boolean isRequestedSessionIdValid() {
+		return check().isRequestedSessionIdValid();
+	}
+
+	public boolean isRequestedSessionIdFromCookie() {
+		return check().isRequestedSessionIdFromCookie();
+	}
+
+	public boolean isRequestedSessionIdFromURL() {
+		return check().isRequestedSessionIdFromURL();
+	}
+
+	public boolean isRequestedSessionIdFromUrl() {
+		return check().isRequestedSessionIdFromUrl();
+	}
+
+	public boolean authenticate(HttpServletResponse response)
+			throws IOException, ServletException {
+		return check().authenticate(response);
+	}
+
+	public void login(String username, String password)
+			throws ServletException {
+		check().login(username, password);
+	}
+
+	public void logout() throws ServletException {
+		check().logout();
+	}
+
+	public Collection<Part> getParts() throws IOException, ServletException {
+		return check().getParts();
+	}
+
+	public Part getPart(String name) throws IOException, ServletException {
+		return check().getPart(name);
+	}
+
+	/**
+	 * The input stream of the request, checking that the request has not
+	 * been recycled before every operation.
+	 */
+	private class FacadeInputStream extends ServletInputStream {
+
+		private final ServletInputStream stream;
+
+		FacadeInputStream(ServletInputStream stream) {
+			this.stream = stream;
+		}
+
+		@Override
+		public int read() throws IOException {
+			check();
+			return stream.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			check();
+			return stream.read(b, off, len);
+		}
+
+		@Override
+		public int readLine(byte[] b, int off, int len) throws IOException {
+			check();
+			return stream.readLine(b, off, len);
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			check();
+			return stream.skip(n);
+		}
+
+		@Override
+		public int available() throws IOException {
+			check();
+			return stream.available();
+		}
+
+		@Override
+		public void close() throws IOException {
+			check();
+			stream.close();
+		}
+
+	}
+
+	/**
+	 * The reader of the request, checking that the request has not been
+	 * recycled before every operation.
+	 */
+	private class FacadeReader extends BufferedReader {
+
+		private final BufferedReader reader;
+
+		FacadeReader(BufferedReader reader) {
+			// The buffer of the wrapped reader is the one used
+			super(reader, 1);
+			this.reader = reader;
+		}
+
+		@Override
+		public int read() throws IOException {
+			check();
+			return reader.read();
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			check();
+			return reader.read(cbuf, off, len);
+		}
+
+		@Override
+		public String readLine() throws IOException {
+			check();
+			return reader.readLine();
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			check();
+			return reader.skip(n);
+		}
+
+		@Override
+		public boolean ready() throws IOException {
+			check();
+			return reader.ready();
+		}
+
+		@Override
+		public boolean markSupported() {
+			check();
+			return reader.markSupported();
+		}
+
+		@Override
+		public void mark(int readAheadLimit) throws IOException {
+			check();
+			reader.mark(readAheadLimit);
+		}
+
+		@Override
+		public void reset() throws IOException {
+			check();
+			reader.reset();
+		}
+
+		@Override
+		public void close() throws IOException {
+			check();
+			reader.close();
+		}
+
+	}
+
+}
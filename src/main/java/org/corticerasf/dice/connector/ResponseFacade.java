@@ -0,0 +1,323 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.connector;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.Locale;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * The view of a {@link CorticeraResponse} given to applications.
+ * <p>
+ * Response objects are owned by a connection processor and reused for every
+ * request of the connection, so applications only ever see this facade,
+ * which hides the connector side methods. Once the response has been
+ * recycled, and when facades are recycled too, every method throws an
+ * {@link IllegalStateException}.
+ *
+ * @author J. Godara
+ */
+public class ResponseFacade implements HttpServletResponse {
+
+	private CorticeraResponse response;
+
+	/**
+	 * The wrappers handed out for the stream and writer of the response.
+	 */
+	private FacadeOutputStream outputStream;
+	private FacadeWriter writer;
+
+	public ResponseFacade(CorticeraResponse response) {
+		this.response = response;
+	}
+
+	/**
+	 * Detach this facade from its response. Called when the response is
+	 * recycled in the facade recycling debug mode.
+	 */
+	void clear() {
+		response = null;
+		outputStream = null;
+		writer = null;
+	}
+
+	private CorticeraResponse check() {
+		CorticeraResponse response = this.response;
+		if (response == null)
+			throw new IllegalStateException(
+					"The response object has been recycled and is no longer "
+							+ "associated with this facade.");
+		return response;
+	}
+
+	public String getCharacterEncoding() {
+		return check().getCharacterEncoding();
+	}
+
+	public String getContentType() {
+		return check().getContentType();
+	}
+
+	public ServletOutputStream getOutputStream() throws IOException {
+		ServletOutputStream stream = check().getOutputStream();
+		if (outputStream == null || outputStream.stream != stream)
+			outputStream = new FacadeOutputStream(stream);
+		return outputStream;
+	}
+
+	public PrintWriter getWriter() throws IOException {
+		PrintWriter writer = check().getWriter();
+		if (this.writer == null || this.writer.writer != writer)
+			this.writer = new FacadeWriter(writer);
+		return this.writer;
+	}
+
+	public void setCharacterEncoding(String charset) {
+		check().setCharacterEncoding(charset);
+	}
+
+	public void setContentLength(int len) {
+		check().setContentLength(len);
+	}
+
+	public void setContentType(String type) {
+		check().setContentType(type);
+	}
+
+	public void setBufferSize(int size) {
+		check().setBufferSize(size);
+	}
+
+	public int getBufferSize() {
+		return check().getBufferSize();
+	}
+
+	public void flushBuffer() throws IOException {
+		check().flushBuffer();
+	}
+
+	public void resetBuffer() {
+		check().resetBuffer();
+	}
+
+	public boolean isCommitted() {
+		return check().isCommitted();
+	}
+
+	public void reset() {
+		check().reset();
+	}
+
+	public void setLocale(Locale loc) {
+		check().setLocale(loc);
+	}
+
+	public Locale getLocale() {
+		return check().getLocale();
+	}
+
+	public void addCookie(Cookie cookie) {
+		check().addCookie(cookie);
+	}
+
+	public boolean containsHeader(String name) {
+		return check().containsHeader(name);
+	}
+
+	public String encodeURL(String url) {
+		return check().encodeURL(url);
+	}
+
+	public String encodeRedirectURL(String url) {
+		return check().encodeRedirectURL(url);
+	}
+
+	public String encodeUrl(String url) {
+		return check().encodeUrl(url);
+	}
+
+	public String encodeRedirectUrl(String url) {
+		return check().encodeRedirectUrl(url);
+	}
+
+	public void sendError(int sc, String msg) throws IOException {
+		check().sendError(sc, msg);
+	}
+
+	public void sendError(int sc) throws IOException {
+		check().sendError(sc);
+	}
+
+	public void sendRedirect(String location) throws IOException {
+		check().sendRedirect(location);
+	}
+
+	public void setDateHeader(String name, long date) {
+		check().setDateHeader(name, date);
+	}
+
+	public void addDateHeader(String name, long date) {
+		check().addDateHeader(name, date);
+	}
+
+	public void setHeader(String name, String value) {
+		check().setHeader(name, value);
+	}
+
+	public void addHeader(String name, String value) {
+		check().addHeader(name, value);
+	}
+
+	public void setIntHeader(String name, int value) {
+		check().setIntHeader(name, value);
+	}
+
+	public void addIntHeader(String name, int value) {
+		check().addIntHeader(name, value);
+	}
+
+	public void setStatus(int sc) {
+		check().setStatus(sc);
+	}
+
+	public void setStatus(int sc, String sm) {
+		check().setStatus(sc, sm);
+	}
+
+	public int getStatus() {
+		return check().getStatus();
+	}
+
+	public String getHeader(String name) {
+		return check().getHeader(name);
+	}
+
+	public Collection<String> getHeaders(String name) {
+		return check().getHeaders(name);
+	}
+
+	public Collection<String> getHeaderNames() {
+		return check().getHeaderNames();
+	}
+
+	/**
+	 * The output stream of the response, checking that the response has not
+	 * been recycled before every operation.
+	 */
+	private class FacadeOutputStream extends ServletOutputStream {
+
+		private final ServletOutputStream stream;
+
+		FacadeOutputStream(ServletOutputStream stream) {
+			this.stream = stream;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			check();
+			stream.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			check();
+			stream.write(b, off, len);
+		}
+
+		@Override
+		public void print(String s) throws IOException {
+			check();
+			stream.print(s);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			check();
+			stream.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			check();
+			stream.close();
+		}
+
+	}
+
+	/**
+	 * The writer of the response, checking that the response has not been
+	 * recycled before every operation. Every method of {@link PrintWriter}
+	 * ends in one of those overridden here.
+	 */
+	private class FacadeWriter extends PrintWriter {
+
+		private final PrintWriter writer;
+
+		FacadeWriter(PrintWriter writer) {
+			super(writer);
+			this.writer = writer;
+		}
+
+		@Override
+		public void write(int c) {
+			check();
+			writer.write(c);
+		}
+
+		@Override
+		public void write(char[] buf, int off, int len) {
+			check();
+			writer.write(buf, off, len);
+		}
+
+		@Override
+		public void write(String s, int off, int len) {
+			check();
+			writer.write(s, off, len);
+		}
+
+		@Override
+		public void println() {
+			check();
+			writer.println();
+		}
+
+		@Override
+		public void flush() {
+			check();
+			writer.flush();
+		}
+
+		@Override
+		public void close() {
+			check();
+			writer.close();
+		}
+
+		@Override
+		public boolean checkError() {
+			check();
+			return writer.checkError();
+		}
+
+	}
+
+}
@@ -18,6 +18,7 @@ package org.corticerasf.dice.container;
 import org.corticerasf.dice.Loader;
 import org.corticerasf.dice.lifecycle.Lifecycle;
 import org.corticerasf.dice.pipeline.Piped;
+import org.corticerasf.dice.utils.BackgroundScheduler;
 
 public interface Container extends Lifecycle, Piped {
 
@@ -64,6 +65,12 @@ public interface Container extends Lifecycle, Piped {
 	public void setBackgroungProcessorDelay(int backgroundProcessorDelay);
 	
 	public int getBackgroundProcessorDelay();
+
+	/**
+	 * Return the scheduler of the server this container belongs to, or
+	 * <code>null</code> if it does not belong to a server.
+	 */
+	public BackgroundScheduler getBackgroundScheduler();
 	
 	public Loader getLoader();
 	
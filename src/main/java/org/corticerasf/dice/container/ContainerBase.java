@@ -16,12 +16,11 @@
 package org.corticerasf.dice.container;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ThreadFactory;
@@ -30,7 +29,9 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
+import org.corticerasf.dice.Engine;
 import org.corticerasf.dice.Loader;
+import org.corticerasf.dice.Service;
 import org.corticerasf.dice.container.Container;
 import org.corticerasf.dice.container.ContainerEvent;
 import org.corticerasf.dice.container.ContainerListener;
@@ -40,6 +41,9 @@ import org.corticerasf.dice.lifecycle.LifecycleException;
 import org.corticerasf.dice.lifecycle.LifecycleState;
 import org.corticerasf.dice.pipeline.Pipeline;
 import org.corticerasf.dice.pipeline.StandardPipeline;
+import org.corticerasf.dice.pipeline.Valve;
+import org.corticerasf.dice.pipeline.ValveBase;
+import org.corticerasf.dice.utils.BackgroundScheduler;
 
 public class ContainerBase extends LifecycleBase implements Container {
 
@@ -47,18 +51,30 @@ public class ContainerBase extends LifecycleBase implements Container {
 
 	protected String name = "ContainerBase/v1.0";
 	private Container parent = null;
-	private Map<String, Container> children = new HashMap<String, Container>();
 	private boolean startChildren = true;
-	private List<ContainerListener> listeners = new ArrayList<ContainerListener>();
+
+	// Read without locking, written under childrenLock. The array holds the
+	// values of the map in the order the children were added.
+	private final ConcurrentHashMap<String, Container> children = new ConcurrentHashMap<String, Container>();
+	private volatile Container[] childrenArray = new Container[0];
+	private final Object childrenLock = new Object();
+
+	// Copy on write, written under listenersLock
+	private volatile ContainerListener[] listeners = new ContainerListener[0];
+	private final Object listenersLock = new Object();
 	private Loader loader = null;
 
 	protected ThreadPoolExecutor startStopExecutor;
-	private int startStopThreads = 1;
-	private volatile boolean threadDone = false;
+
+	/**
+	 * The number of threads children are started and stopped on. A value of
+	 * 0 or less is added to the number of processors.
+	 */
+	private int startStopThreads = 0;
 	
 	protected Pipeline pipeline = new StandardPipeline(this);
 
-	private Thread daemon;
+	private BackgroundScheduler.ScheduledTask backgroundTask = null;
 
 	protected int backgroundProcessorDelay = -1;
 
@@ -82,7 +98,25 @@ public class ContainerBase extends LifecycleBase implements Container {
 		this.parent = parent;
 	}
 
+	/**
+	 * Run the periodic work of this container: the background processing of
+	 * the valves of its pipeline which are not scheduled on their own, and
+	 * the periodic lifecycle event. A valve with a delay of its own is still
+	 * processed here until it is started with a scheduler to run it.
+	 */
 	public void backgroundProcess() {
+		for (Valve valve : pipeline.getValves()) {
+			if (valve instanceof ValveBase
+					&& ((ValveBase) valve).isBackgroundScheduled())
+				continue;
+			try {
+				valve.backgroundProcess();
+			} catch (Exception ex) {
+				logger.warn("Background processing of valve " + valve
+						+ " failed.", ex);
+			}
+		}
+
 		fireLifecycleEvent(PERIODIC_EVENT, null);
 	}
 
@@ -91,7 +125,7 @@ public class ContainerBase extends LifecycleBase implements Container {
 		if (logger.isDebugEnabled())
 			logger.debug("Adding child " + child + " to " + this);
 
-		synchronized (children) {
+		synchronized (childrenLock) {
 			if (getChild(child.getName()) != null)
 				throw new IllegalArgumentException("addChild: '"
 						+ child.getInfo() + "' is already a child of '"
@@ -99,13 +133,17 @@ public class ContainerBase extends LifecycleBase implements Container {
 
 			child.setParent(this);
 			children.put(child.getName(), child);
+
+			Container[] results = Arrays.copyOf(childrenArray,
+					childrenArray.length + 1);
+			results[childrenArray.length] = child;
+			childrenArray = results;
 		}
 
 		// Start the child.
 		try {
-			if (getState().isAvailable()
-					|| getState().equals(LifecycleState.STARTING_PREP)
-					&& startChildren) {
+			if ((getState().isAvailable() || getState().equals(
+					LifecycleState.STARTING_PREP)) && startChildren) {
 				child.start();
 			}
 		} catch (LifecycleException ex) {
@@ -119,6 +157,8 @@ public class ContainerBase extends LifecycleBase implements Container {
 	}
 
 	public Container getChild(String name) {
+		if (name == null)
+			return null;
 		return children.get(name);
 	}
 
@@ -142,10 +182,14 @@ public class ContainerBase extends LifecycleBase implements Container {
 			logger.error("Cannot destroy child '" + child.getInfo() + "'.", e);
 		}
 
-		synchronized (children) {
-			if (children.get(child.getName()) == null)
+		synchronized (childrenLock) {
+			if (!children.remove(child.getName(), child))
 				return;
-			children.remove(child.getName());
+
+			List<Container> results = new ArrayList<Container>(
+					Arrays.asList(childrenArray));
+			results.remove(child);
+			childrenArray = results.toArray(new Container[results.size()]);
 		}
 
 		fireContainerEvent(REMOVE_CHILD_EVENT, child);
@@ -153,38 +197,51 @@ public class ContainerBase extends LifecycleBase implements Container {
 	}
 
 	public Container[] findChildren() {
-		Container[] result = new Container[children.size()];
-		Iterator<Container> it = children.values().iterator();
-		int i = 0;
-		while (it.hasNext()) {
-			Object next = it.next();
-			if (next instanceof Container) {
-				result[i++] = (Container) next;
-			}
-		}
-		return result;
+		return childrenArray.clone();
 	}
 
 	public void addContainerListener(ContainerListener listener) {
-		listeners.add(listener);
+		synchronized (listenersLock) {
+			ContainerListener[] results = Arrays.copyOf(listeners,
+					listeners.length + 1);
+			results[listeners.length] = listener;
+			listeners = results;
+		}
 	}
 
 	public void removeContainerListener(ContainerListener listener) {
-		listeners.remove(listener);
+		synchronized (listenersLock) {
+			int n = -1;
+			for (int i = 0; i < listeners.length; i++) {
+				if (listeners[i] == listener) {
+					n = i;
+					break;
+				}
+			}
+			if (n < 0)
+				return;
+
+			ContainerListener[] results = new ContainerListener[listeners.length - 1];
+			System.arraycopy(listeners, 0, results, 0, n);
+			System.arraycopy(listeners, n + 1, results, n, listeners.length
+					- n - 1);
+			listeners = results;
+		}
 	}
 
 	public ContainerListener[] findContainerListeners() {
-		ContainerListener[] result = new ContainerListener[listeners.size()];
-		return listeners.toArray(result);
+		return listeners.clone();
 	}
 
 	public void fireContainerEvent(String type, Object data) {
 
-		if (listeners.size() < 1)
+		// Listeners added or removed while firing take effect on the next event
+		ContainerListener[] current = listeners;
+		if (current.length < 1)
 			return;
 
 		ContainerEvent event = new ContainerEvent(this, type, data);
-		for (ContainerListener listener : listeners) {
+		for (ContainerListener listener : current) {
 			listener.containerEvent(event);
 		}
 
@@ -197,13 +254,20 @@ public class ContainerBase extends LifecycleBase implements Container {
 		startStopExecutor = new ThreadPoolExecutor(getStartStopThreads(),
 				getStartStopThreads(), 10, TimeUnit.SECONDS, startStopQueue,
 				new StartStopThreadFactory(getName() + "-start-stop-"));
+		// The threads are only needed while children start or stop
+		startStopExecutor.allowCoreThreadTimeOut(true);
 	}
 
+	/**
+	 * Start the children in parallel, then the pipeline once all children
+	 * are started.
+	 */
 	@Override
 	protected void startInternal() throws LifecycleException {
 
 		// Start the child containers
-		Container[] children = findChildren();
+		Container[] children = (startChildren ? findChildren()
+				: new Container[0]);
 		List<Future<Void>> results = new ArrayList<Future<Void>>();
 		for (Container child : children) {
 			results.add(startStopExecutor.submit(new ChildProcessor(child)));
@@ -223,24 +287,68 @@ public class ContainerBase extends LifecycleBase implements Container {
 			throw new LifecycleException("Container thread start failed.");
 		}
 
+		if (pipeline instanceof Lifecycle)
+			((Lifecycle) pipeline).start();
+
 		setState(LifecycleState.STARTING);
 
-		startThread();
+		scheduleBackgroundProcess();
 	}
 
+	/**
+	 * Stop the pipeline, then the children in parallel.
+	 */
 	@Override
 	protected void stopInternal() throws LifecycleException {
-		stopThread();
+		cancelBackgroundProcess();
 
 		setState(LifecycleState.STOPPING);
+
+		if (pipeline instanceof Lifecycle
+				&& ((Lifecycle) pipeline).getState().isAvailable())
+			((Lifecycle) pipeline).stop();
+
+		Container[] children = findChildren();
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		for (Container child : children) {
+			results.add(startStopExecutor.submit(new StopChild(child)));
+		}
+
+		boolean fail = false;
+		for (Future<Void> result : results) {
+			try {
+				result.get();
+			} catch (Exception e) {
+				logger.error("Container thread stop failed.", e);
+				fail = true;
+			}
+		}
+		if (fail) {
+			throw new LifecycleException("Container thread stop failed.");
+		}
 	}
 
 	@Override
 	protected void destroyInternal() throws LifecycleException {
+		if (pipeline instanceof Lifecycle)
+			((Lifecycle) pipeline).destroy();
+
 		if (startStopExecutor != null)
 			startStopExecutor.shutdown();
 	}
 
+	public boolean isStartChildren() {
+		return startChildren;
+	}
+
+	/**
+	 * Set whether the children are started with this container, and when
+	 * added to it while it runs.
+	 */
+	public void setStartChildren(boolean startChildren) {
+		this.startChildren = startChildren;
+	}
+
 	public void setStartStopThreads(int threads) {
 		startStopThreads = threads;
 
@@ -260,6 +368,19 @@ public class ContainerBase extends LifecycleBase implements Container {
 		return backgroundProcessorDelay;
 	}
 
+	public BackgroundScheduler getBackgroundScheduler() {
+		Container top = this;
+		while (top.getParent() != null)
+			top = top.getParent();
+
+		if (!(top instanceof Engine))
+			return null;
+		Service service = ((Engine) top).getService();
+		if (service == null || service.getServer() == null)
+			return null;
+		return service.getServer().getBackgroundScheduler();
+	}
+
 	private int getStartStopThreads() {
 		int result = startStopThreads;
 
@@ -273,32 +394,34 @@ public class ContainerBase extends LifecycleBase implements Container {
 		return result;
 	}
 
-	private void startThread() {
-		if (daemon != null)
+	/**
+	 * Register the background processing of this container, and of its
+	 * descendants without a delay of their own, with the scheduler of the
+	 * server. The delay gets up to 10% of random jitter.
+	 */
+	private void scheduleBackgroundProcess() {
+		if (backgroundTask != null || backgroundProcessorDelay <= 0)
 			return;
 
-		if (backgroundProcessorDelay <= 0)
+		BackgroundScheduler scheduler = getBackgroundScheduler();
+		if (scheduler == null) {
+			logger.warn("No background scheduler for " + getInfo()
+					+ ", background processing is disabled.");
 			return;
+		}
 
-		threadDone = false;
-		String threadName = "ContainerBackgroundProcessor[" + getInfo() + "]";
-		daemon = new Thread(new ContainerBackgroundProcessor(), threadName);
-		daemon.setDaemon(true);
-		daemon.start();
+		long delay = backgroundProcessorDelay * 1000L;
+		backgroundTask = scheduler.schedule("ContainerBackgroundProcessor["
+				+ getInfo() + "]", new ContainerBackgroundProcessor(), delay,
+				delay / 10);
 	}
 
-	private void stopThread() {
-		if (daemon == null)
+	private void cancelBackgroundProcess() {
+		if (backgroundTask == null)
 			return;
 
-		threadDone = true;
-		daemon.interrupt();
-		try {
-			daemon.join();
-		} catch (InterruptedException ex) {
-		}
-
-		daemon = null;
+		backgroundTask.cancel();
+		backgroundTask = null;
 	}
 
 	private static class StartStopThreadFactory implements ThreadFactory {
@@ -337,37 +460,42 @@ public class ContainerBase extends LifecycleBase implements Container {
 		}
 	}
 
+	private static class StopChild implements Callable<Void> {
+
+		private final Container child;
+
+		public StopChild(Container child) {
+			this.child = child;
+		}
+
+		public Void call() throws Exception {
+			if (child.getState().isAvailable())
+				child.stop();
+			return null;
+		}
+	}
+
 	protected class ContainerBackgroundProcessor implements Runnable {
 
 		public void run() {
-			Throwable t = null;
-			String threadDeathMessage = "Thread "
-					+ Thread.currentThread().getName() + " died unexpectedly!";
-			try {
-				while (!threadDone) {
-					try {
-						Thread.sleep(backgroundProcessorDelay * 1000L);
-					} catch (InterruptedException ex) {
-					}
-
-					if (!threadDone)
-						processChildren(getObject());
-				}
-			} catch (RuntimeException ex) {
-				t = ex;
-				throw ex;
-			} catch (Error e) {
-				t = e;
-				throw e;
-			} finally {
-				if (!threadDone)
-					logger.error(threadDeathMessage, t);
-			}
+			processChildren(getObject());
 		}
 
+		/**
+		 * Process a container and, recursively, its children which do not
+		 * have a background task of their own.
+		 */
 		protected void processChildren(Container container) {
+			try {
+				container.backgroundProcess();
+			} catch (Exception ex) {
+				logger.error("Background processing of " + container.getInfo()
+						+ " failed.", ex);
+			}
+
 			for (Container child : container.findChildren()) {
-				child.backgroundProcess();
+				if (child.getBackgroundProcessorDelay() <= 0)
+					processChildren(child);
 			}
 		}
 
@@ -380,7 +508,7 @@ public class ContainerBase extends LifecycleBase implements Container {
 	public Loader getLoader() {
 		if (loader != null)
 			return loader;
-		if (parent.getLoader() != null)
+		if (parent != null)
 			return parent.getLoader();
 		
 		return null;
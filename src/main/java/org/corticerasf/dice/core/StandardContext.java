@@ -15,21 +15,319 @@
  */
 package org.corticerasf.dice.core;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.Servlet;
 import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
 
 import org.corticerasf.dice.Context;
+import org.corticerasf.dice.Engine;
+import org.corticerasf.dice.Host;
+import org.corticerasf.dice.Loader;
+import org.corticerasf.dice.container.Container;
 import org.corticerasf.dice.container.ContainerBase;
+import org.corticerasf.dice.lifecycle.Lifecycle;
+import org.corticerasf.dice.lifecycle.LifecycleException;
+import org.corticerasf.dice.loader.WebappLoader;
+import org.corticerasf.dice.servletimpl.ApplicationServletContext;
+import org.corticerasf.dice.servletimpl.ResourceCache;
+import org.corticerasf.dice.servlets.DefaultServlet;
+import org.corticerasf.dice.utils.ContextName;
 
 public class StandardContext extends ContainerBase implements Context {
 
-	public ServletContext getServletContext() {
-		// TODO Auto-generated method stub
-		return null;
+	private String path = null;
+	private String docBase = null;
+
+	private boolean cachingAllowed = true;
+	private long cacheMaxSize = 10 * 1024 * 1024;
+	private int cacheObjectMaxSize = 512 * 1024;
+	private long cacheTtl = 5000;
+
+	private ResourceCache resources = null;
+	private ServletContext servletContext = null;
+
+	private final Map<String, Servlet> servletMappings = new HashMap<String, Servlet>();
+
+	// Serves the static resources when no servlet is mapped to "/"
+	private DefaultServlet defaultServlet = null;
+
+	// The number of requests being processed, -1 while stopping for idleness
+	private final AtomicInteger activeRequests = new AtomicInteger(0);
+	private volatile long lastAccessTime = System.currentTimeMillis();
+
+	public StandardContext() {
+		super();
+
+		pipeline.setBasic(new StandardContextValve());
+	}
+
+	/**
+	 * Return the context path, derived from the name of this context unless
+	 * it was set.
+	 */
+	public String getPath() {
+		if (path != null)
+			return path;
+		return new ContextName(getName(), false).getPath();
+	}
+
+	public void setPath(String path) {
+		this.path = (path == null || path.equals("/") ? "" : path);
+	}
+
+	public String getDocBase() {
+		return docBase;
+	}
+
+	/**
+	 * Set the document base of this context, absolute or relative to the
+	 * application base of its host.
+	 */
+	public void setDocBase(String docBase) {
+		this.docBase = docBase;
+	}
+
+	/**
+	 * Return the document base of this context as a canonical file.
+	 */
+	public File getDocBaseFile() {
+		String base = (docBase != null ? docBase : getName());
+		File file = new File(base);
+		if (!file.isAbsolute() && getParent() instanceof Host)
+			file = new File(((Host) getParent()).getAppBaseFile(), base);
+
+		try {
+			return file.getCanonicalFile();
+		} catch (IOException ex) {
+			return file;
+		}
+	}
+
+	public boolean isCachingAllowed() {
+		return cachingAllowed;
+	}
+
+	/**
+	 * Set whether the static resources of this context are cached. When they
+	 * are not, every lookup goes to the file system.
+	 */
+	public void setCachingAllowed(boolean cachingAllowed) {
+		this.cachingAllowed = cachingAllowed;
+	}
+
+	public long getCacheMaxSize() {
+		return cacheMaxSize;
+	}
+
+	public void setCacheMaxSize(long cacheMaxSize) {
+		this.cacheMaxSize = cacheMaxSize;
+	}
+
+	public int getCacheObjectMaxSize() {
+		return cacheObjectMaxSize;
+	}
+
+	public void setCacheObjectMaxSize(int cacheObjectMaxSize) {
+		this.cacheObjectMaxSize = cacheObjectMaxSize;
+	}
+
+	public long getCacheTtl() {
+		return cacheTtl;
+	}
+
+	public void setCacheTtl(long cacheTtl) {
+		this.cacheTtl = cacheTtl;
 	}
 
-	public void setServletContext(ServletContext servletContext) {
-		// TODO Auto-generated method stub
-		
+	/**
+	 * Return the cache of the static resources of this context, created on
+	 * first use.
+	 */
+	public synchronized ResourceCache getResources() {
+		if (resources == null) {
+			resources = new ResourceCache(getDocBaseFile());
+			if (cachingAllowed) {
+				resources.setMaxSize(cacheMaxSize);
+				resources.setObjectMaxSize(cacheObjectMaxSize);
+				resources.setTtl(cacheTtl);
+			} else {
+				resources.setMaxSize(0);
+				resources.setObjectMaxSize(-1);
+				resources.setTtl(0);
+			}
+		}
+		return resources;
+	}
+
+	public synchronized ServletContext getServletContext() {
+		if (servletContext == null)
+			servletContext = new ApplicationServletContext(this);
+		return servletContext;
+	}
+
+	public synchronized void setServletContext(ServletContext servletContext) {
+		this.servletContext = servletContext;
+	}
+
+	public void addServletMapping(String pattern, Servlet servlet) {
+		synchronized (servletMappings) {
+			servletMappings.put(pattern, servlet);
+		}
+		fireContainerEvent(ADD_MAPPING_EVENT, pattern);
+	}
+
+	public Servlet findServletMapping(String pattern) {
+		synchronized (servletMappings) {
+			return servletMappings.get(pattern);
+		}
+	}
+
+	public String[] findServletMappings() {
+		synchronized (servletMappings) {
+			return servletMappings.keySet().toArray(
+					new String[servletMappings.size()]);
+		}
+	}
+
+	public void removeServletMapping(String pattern) {
+		synchronized (servletMappings) {
+			if (servletMappings.remove(pattern) == null)
+				return;
+		}
+		fireContainerEvent(REMOVE_MAPPING_EVENT, pattern);
+	}
+
+	/**
+	 * Return the servlet serving the static resources of this context, or
+	 * <code>null</code> if the context is not started.
+	 */
+	public DefaultServlet getDefaultServlet() {
+		return defaultServlet;
+	}
+
+	/**
+	 * Return the parent of the class loader of this context, the parent class
+	 * loader of its server.
+	 */
+	public ClassLoader getParentClassLoader() {
+		Container container = getParent();
+		while (container != null && !(container instanceof Engine))
+			container = container.getParent();
+		if (container != null && ((Engine) container).getService() != null
+				&& ((Engine) container).getService().getServer() != null)
+			return ((Engine) container).getService().getServer()
+					.getParentClassLoader();
+		return StandardContext.class.getClassLoader();
+	}
+
+	@Override
+	protected synchronized void startInternal() throws LifecycleException {
+		if (getLoader() == null) {
+			WebappLoader webappLoader = new WebappLoader(getParentClassLoader());
+			webappLoader.setContainer(this);
+			setLoader(webappLoader);
+		}
+		// A loader inherited from the host is started by the host
+		Loader loader = getLoader();
+		if (loader instanceof Lifecycle && loader.getContainer() == this)
+			((Lifecycle) loader).start();
+
+		DefaultServlet servlet = new DefaultServlet(getResources());
+		try {
+			servlet.init();
+		} catch (ServletException ex) {
+			throw new LifecycleException("Cannot start the default servlet of "
+					+ this + ".", ex);
+		}
+		defaultServlet = servlet;
+
+		super.startInternal();
+	}
+
+	/**
+	 * Record the start of the processing of a request.
+	 *
+	 * @return <code>false</code> if this context is being stopped for
+	 *         idleness, in which case the request must wait for it to be
+	 *         started again
+	 */
+	public boolean requestStarted() {
+		for (;;) {
+			int active = activeRequests.get();
+			if (active < 0)
+				return false;
+			if (activeRequests.compareAndSet(active, active + 1)) {
+				lastAccessTime = System.currentTimeMillis();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Record the end of the processing of a request.
+	 */
+	public void requestFinished() {
+		lastAccessTime = System.currentTimeMillis();
+		activeRequests.decrementAndGet();
+	}
+
+	/**
+	 * Return the time of the start or end of the last request, in
+	 * milliseconds since the epoch.
+	 */
+	public long getLastAccessTime() {
+		return lastAccessTime;
+	}
+
+	/**
+	 * Stop this context if it has processed no request for the given time.
+	 * Requests arriving while it stops wait for the stop to complete and
+	 * start it again.
+	 *
+	 * @return <code>true</code> if this context was stopped
+	 */
+	public boolean stopIfIdle(long idleTimeout) throws LifecycleException {
+		if (!getState().isAvailable()
+				|| System.currentTimeMillis() - lastAccessTime < idleTimeout)
+			return false;
+
+		synchronized (this) {
+			if (!getState().isAvailable()
+					|| !activeRequests.compareAndSet(0, -1))
+				return false;
+			try {
+				stop();
+			} finally {
+				activeRequests.set(0);
+			}
+		}
+		return true;
+	}
+
+	@Override
+	protected synchronized void stopInternal() throws LifecycleException {
+		super.stopInternal();
+
+		if (defaultServlet != null) {
+			defaultServlet.destroy();
+			defaultServlet = null;
+		}
+
+		// The files may change before the next start
+		if (resources != null) {
+			resources.clear();
+			resources = null;
+		}
+
+		Loader loader = getLoader();
+		if (loader instanceof Lifecycle && loader.getContainer() == this)
+			((Lifecycle) loader).stop();
 	}
 
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.core;
+
+import java.io.IOException;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.corticerasf.dice.connector.CorticeraRequest;
+import org.corticerasf.dice.connector.CorticeraResponse;
+import org.corticerasf.dice.lifecycle.LifecycleException;
+import org.corticerasf.dice.pipeline.ValveBase;
+import org.corticerasf.dice.pipeline.ValveChain;
+
+/**
+ * Basic valve of a {@link StandardContext}, passing every request to the
+ * servlet it was mapped to, or to the default servlet of the context.
+ *
+ * @author J. Godara
+ */
+final class StandardContextValve extends ValveBase {
+
+	private static final String info = "org.corticerasf.dice.core.StandardContextValve/1.0";
+
+	@Override
+	public String getInfo() {
+		return info;
+	}
+
+	@Override
+	protected void initInternal() throws LifecycleException {
+		// NO-OP
+	}
+
+	@Override
+	protected void destroyInternal() throws LifecycleException {
+		// NO-OP
+	}
+
+	@Override
+	public void invoke(CorticeraRequest request, CorticeraResponse response,
+			ValveChain next) throws IOException, ServletException {
+		Servlet servlet = request.getMappingData().wrapper;
+		if (servlet == null)
+			servlet = ((StandardContext) container).getDefaultServlet();
+		if (servlet == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		servlet.service(request.getRequest(), response.getResponse());
+	}
+
+}
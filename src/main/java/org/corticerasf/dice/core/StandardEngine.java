@@ -32,6 +32,7 @@ public class StandardEngine extends ContainerBase implements Engine {
 	public StandardEngine() {
 		super();
 
+		pipeline.setBasic(new StandardEngineValve());
 		backgroundProcessorDelay = 10;
 	}
 
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.core;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.corticerasf.dice.Host;
+import org.corticerasf.dice.connector.CorticeraRequest;
+import org.corticerasf.dice.connector.CorticeraResponse;
+import org.corticerasf.dice.lifecycle.LifecycleException;
+import org.corticerasf.dice.pipeline.ValveChain;
+import org.corticerasf.dice.pipeline.ValveBase;
+
+/**
+ * Basic valve of a {@link StandardEngine}, passing every request to the host
+ * the {@link org.corticerasf.dice.mapper.Mapper} of the service mapped it
+ * to: the host named by its <code>Host</code> header, or the default host of
+ * the engine.
+ *
+ * @author J. Godara
+ */
+final class StandardEngineValve extends ValveBase {
+
+	private static final String info = "org.corticerasf.dice.core.StandardEngineValve/1.0";
+
+	@Override
+	public String getInfo() {
+		return info;
+	}
+
+	@Override
+	protected void initInternal() throws LifecycleException {
+		// NO-OP
+	}
+
+	@Override
+	protected void destroyInternal() throws LifecycleException {
+		// NO-OP
+	}
+
+	@Override
+	public void invoke(CorticeraRequest request, CorticeraResponse response,
+			ValveChain next) throws IOException, ServletException {
+		Host host = request.getMappingData().host;
+		if (host == null || !host.getState().isAvailable()) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+
+		ValveChain chain = host.getPipeline().getChain();
+		if (chain.size() == 0) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		chain.invoke(request, response);
+	}
+
+}
@@ -15,21 +15,39 @@
  */
 package org.corticerasf.dice.core;
 
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.Locale;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 import java.util.regex.Pattern;
 
+import javax.servlet.ServletException;
+
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 import org.corticerasf.dice.Context;
+import org.corticerasf.dice.Engine;
+import org.corticerasf.dice.Executor;
+import org.corticerasf.dice.Globals;
 import org.corticerasf.dice.Host;
+import org.corticerasf.dice.Service;
+import org.corticerasf.dice.connector.Connector;
 import org.corticerasf.dice.container.Container;
 import org.corticerasf.dice.container.ContainerBase;
 import org.corticerasf.dice.lifecycle.Lifecycle;
 import org.corticerasf.dice.lifecycle.LifecycleEvent;
+import org.corticerasf.dice.lifecycle.LifecycleException;
 import org.corticerasf.dice.lifecycle.LifecycleListener;
+import org.corticerasf.dice.servlets.DefaultServlet;
+import org.corticerasf.dice.utils.TaskThreadPool;
 
 public class StandardHost extends ContainerBase implements Host {
 
@@ -42,15 +60,35 @@ public class StandardHost extends ContainerBase implements Host {
 	private String workDir = null;
 	private boolean createDirs = true;
 	private boolean hotDeployment = true;
+	private boolean lazyStart = false;
+	private long contextIdleTimeout = 0;
+	private long lazyStartRetryDelay = 30000;
+
+	// Starts of contexts on their first request, by context name
+	private final ConcurrentMap<String, FutureTask<Void>> lazyStarts = new ConcurrentHashMap<String, FutureTask<Void>>();
+
+	// Contexts which failed to start lazily, by context name
+	private final ConcurrentMap<String, LazyStartFailure> lazyStartFailures = new ConcurrentHashMap<String, LazyStartFailure>();
 
-	// Classloaders of web applications
-	private Map<ClassLoader, String> childClassLoaders = new HashMap<ClassLoader, String>();
+	// Classloaders of web applications, weakly held so that those of stopped
+	// contexts can be collected
+	private Map<ClassLoader, String> childClassLoaders = Collections
+			.synchronizedMap(new WeakHashMap<ClassLoader, String>());
 
 	private Pattern deployIgnore = null;
 
 	private String configClass = "org.corticerasf.dice.startup.ContextConfig";
 	private String contextClass = "org.corticerasf.dice.core.StandardContext";
 
+	// Serves the static files of the application base
+	private DefaultServlet defaultServlet = null;
+
+	public StandardHost() {
+		super();
+
+		pipeline.setBasic(new StandardHostValve());
+	}
+
 	public String getXmlBase() {
 		return xmlBase;
 	}
@@ -70,6 +108,26 @@ public class StandardHost extends ContainerBase implements Host {
 		this.appBase = appBase;
 	}
 
+	public File getAppBaseFile() {
+		File file = new File(appBase);
+		if (!file.isAbsolute())
+			file = new File(Globals.getDiceBase(), appBase);
+
+		try {
+			return file.getCanonicalFile();
+		} catch (IOException ex) {
+			return file;
+		}
+	}
+
+	/**
+	 * Return the servlet serving the static files of the application base,
+	 * or <code>null</code> if the host is not started.
+	 */
+	public DefaultServlet getDefaultServlet() {
+		return defaultServlet;
+	}
+
 	public String getConfigClass() {
 		return configClass;
 	}
@@ -86,6 +144,21 @@ public class StandardHost extends ContainerBase implements Host {
 		this.workDir = workDir;
 	}
 
+	public File getWorkDirFile() {
+		String dir = workDir;
+		if (dir == null) {
+			dir = "work";
+			if (getParent() != null)
+				dir += "/" + getParent().getName();
+			dir += "/" + getName();
+		}
+
+		File file = new File(dir);
+		if (!file.isAbsolute())
+			file = new File(Globals.getDiceBase(), dir);
+		return file;
+	}
+
 	public String getDeployIgnore() {
 		if (deployIgnore == null)
 			return null;
@@ -124,6 +197,9 @@ public class StandardHost extends ContainerBase implements Host {
 			newAliases[aliases.length] = alias;
 			aliases = newAliases;
 		}
+
+		// Inform interested listeners
+		fireContainerEvent(ADD_ALIAS_EVENT, alias);
 	}
 
 	public String[] findAliases() {
@@ -176,6 +252,7 @@ public class StandardHost extends ContainerBase implements Host {
 	@Override
 	public void addChild(Container child) {
 		child.addLifecycleListener(new MemoryLeakTrackingListener());
+		child.addLifecycleListener(new ThreadRenewalListener());
 
 		if (!(child instanceof Context)) {
 			throw new IllegalArgumentException("Child " + child
@@ -185,6 +262,18 @@ public class StandardHost extends ContainerBase implements Host {
 		super.addChild(child);
 	}
 
+	@Override
+	public void removeChild(Container child) {
+		super.removeChild(child);
+
+		// A context deployed again under this name starts afresh
+		if (child != null) {
+			LazyStartFailure failure = lazyStartFailures.get(child.getName());
+			if (failure != null && failure.context == child)
+				lazyStartFailures.remove(child.getName(), failure);
+		}
+	}
+
 	@Override
 	public void setName(String name) {
 		if (StringUtils.isEmpty(name))
@@ -194,6 +283,30 @@ public class StandardHost extends ContainerBase implements Host {
 		this.name = name;
 	}
 
+	@Override
+	protected synchronized void startInternal() throws LifecycleException {
+		DefaultServlet servlet = new DefaultServlet(getAppBaseFile());
+		try {
+			servlet.init();
+		} catch (ServletException ex) {
+			throw new LifecycleException("Cannot start the default servlet of "
+					+ this, ex);
+		}
+		defaultServlet = servlet;
+
+		super.startInternal();
+	}
+
+	@Override
+	protected synchronized void stopInternal() throws LifecycleException {
+		super.stopInternal();
+
+		if (defaultServlet != null) {
+			defaultServlet.destroy();
+			defaultServlet = null;
+		}
+	}
+
 	@Override
 	public String getInfo() {
 		return "StandardHost[" + getName() + "]/1.0";
@@ -222,13 +335,49 @@ public class StandardHost extends ContainerBase implements Host {
 			if (event.getType().equals(Lifecycle.AFTER_START_EVENT)) {
 				if (event.getSource() instanceof Context) {
 					Context context = ((Context) event.getSource());
-					childClassLoaders.put(context.getLoader().getClassLoader(),
-							context.getServletContext().getContextPath());
+					if (context.getLoader() != null)
+						childClassLoaders.put(context.getLoader()
+								.getClassLoader(), context.getServletContext()
+								.getContextPath());
 				}
 			}
 		}
 	}
 
+	/**
+	 * Renews the request processing threads of the service once a context is
+	 * stopped while the service keeps running, so that no thread keeps
+	 * objects of the stopped context, or its class loader, reachable through
+	 * its thread locals.
+	 */
+	private class ThreadRenewalListener implements LifecycleListener {
+
+		public void lifecycleEvent(LifecycleEvent event) {
+			if (!event.getType().equals(Lifecycle.AFTER_STOP_EVENT))
+				return;
+
+			Container engine = getParent();
+			if (!(engine instanceof Engine))
+				return;
+			Service service = ((Engine) engine).getService();
+			if (service == null || !service.getState().isAvailable())
+				return;
+
+			for (Executor executor : service.findExecutors()) {
+				if (executor instanceof StandardThreadExecutor)
+					((StandardThreadExecutor) executor).contextStopping();
+			}
+			for (Connector connector : service.findConnectors()) {
+				if (connector.getProtocolHandler() == null)
+					continue;
+				java.util.concurrent.Executor executor = connector
+						.getProtocolHandler().getExecutor();
+				if (executor instanceof TaskThreadPool)
+					((TaskThreadPool) executor).contextStopping();
+			}
+		}
+	}
+
 	public boolean isHotDeploymentEnabled() {
 		return hotDeployment;
 	}
@@ -237,4 +386,138 @@ public class StandardHost extends ContainerBase implements Host {
 		this.hotDeployment = hotDeployment;
 	}
 
+	public boolean isLazyStart() {
+		return lazyStart;
+	}
+
+	public void setLazyStart(boolean lazyStart) {
+		this.lazyStart = lazyStart;
+		setStartChildren(!lazyStart);
+	}
+
+	public long getContextIdleTimeout() {
+		return contextIdleTimeout;
+	}
+
+	public void setContextIdleTimeout(long contextIdleTimeout) {
+		this.contextIdleTimeout = Math.max(0, contextIdleTimeout);
+	}
+
+	/**
+	 * Return the number of milliseconds during which the requests for a
+	 * context which failed to start lazily are refused, before its start is
+	 * attempted again.
+	 */
+	public long getLazyStartRetryDelay() {
+		return lazyStartRetryDelay;
+	}
+
+	public void setLazyStartRetryDelay(long lazyStartRetryDelay) {
+		this.lazyStartRetryDelay = Math.max(0, lazyStartRetryDelay);
+	}
+
+	/**
+	 * Start a context of this host for a request mapped to it, if it is not
+	 * started. Concurrent requests for the same context wait for a single
+	 * start. Once a start has failed, no other is attempted for
+	 * <code>lazyStartRetryDelay</code> milliseconds, or until the context is
+	 * redeployed.
+	 *
+	 * @return <code>true</code> if the context is available
+	 */
+	public boolean startLazily(final Context context) {
+		String name = context.getName();
+		LazyStartFailure failure = lazyStartFailures.get(name);
+		if (failure != null) {
+			if (failure.context == context
+					&& System.currentTimeMillis() - failure.time < lazyStartRetryDelay)
+				return false;
+			lazyStartFailures.remove(name, failure);
+		}
+
+		FutureTask<Void> start = new FutureTask<Void>(new Callable<Void>() {
+			public Void call() throws Exception {
+				// Holding the lock of the context waits for a stop in progress
+				synchronized (context) {
+					if (!context.getState().isAvailable()) {
+						logger.info("Starting context " + context.getName()
+								+ " of host " + getName()
+								+ " for its first request.");
+						context.start();
+					}
+				}
+				return null;
+			}
+		});
+
+		FutureTask<Void> current = lazyStarts.putIfAbsent(name, start);
+		if (current == null) {
+			try {
+				start.run();
+			} finally {
+				lazyStarts.remove(name, start);
+			}
+			current = start;
+		}
+
+		try {
+			current.get();
+		} catch (ExecutionException ex) {
+			if (current == start)
+				logger.error("Cannot start context " + context.getName()
+						+ " of host " + getName() + ", its requests are "
+						+ "refused for " + lazyStartRetryDelay + " ms.",
+						ex.getCause());
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		boolean available = context.getState().isAvailable();
+		if (!available && current == start)
+			lazyStartFailures.put(name, new LazyStartFailure(context,
+					System.currentTimeMillis()));
+		return available;
+	}
+
+	/**
+	 * Stop the contexts which had no request for
+	 * <code>contextIdleTimeout</code> milliseconds, when contexts start
+	 * lazily.
+	 */
+	@Override
+	public void backgroundProcess() {
+		super.backgroundProcess();
+
+		if (!lazyStart || contextIdleTimeout <= 0)
+			return;
+
+		for (Container child : findChildren()) {
+			if (!(child instanceof StandardContext))
+				continue;
+			try {
+				if (((StandardContext) child).stopIfIdle(contextIdleTimeout))
+					logger.info("Stopped idle context " + child.getName()
+							+ " of host " + getName() + ".");
+			} catch (LifecycleException ex) {
+				logger.error("Cannot stop idle context " + child.getName()
+						+ " of host " + getName() + ".", ex);
+			}
+		}
+	}
+
+	/**
+	 * A context which failed to start lazily, and when.
+	 */
+	private static final class LazyStartFailure {
+
+		final Context context;
+		final long time;
+
+		LazyStartFailure(Context context, long time) {
+			this.context = context;
+			this.time = time;
+		}
+
+	}
+
 }
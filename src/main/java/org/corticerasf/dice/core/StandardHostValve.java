@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.core;
+
+import java.io.IOException;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.corticerasf.dice.Context;
+import org.corticerasf.dice.Host;
+import org.corticerasf.dice.Loader;
+import org.corticerasf.dice.connector.CorticeraRequest;
+import org.corticerasf.dice.connector.CorticeraResponse;
+import org.corticerasf.dice.lifecycle.LifecycleException;
+import org.corticerasf.dice.pipeline.ValveBase;
+import org.corticerasf.dice.pipeline.ValveChain;
+
+/**
+ * Basic valve of a {@link StandardHost}, passing every request to the
+ * context it was mapped to, or serving the static files of the application
+ * base of the host with its default servlet if it was not mapped to one.
+ * <p>
+ * When the host starts its contexts lazily, a request mapped to a context
+ * which is not started starts it.
+ *
+ * @author J. Godara
+ */
+final class StandardHostValve extends ValveBase {
+
+	private static final String info = "org.corticerasf.dice.core.StandardHostValve/1.0";
+
+	@Override
+	public String getInfo() {
+		return info;
+	}
+
+	@Override
+	protected void initInternal() throws LifecycleException {
+		// NO-OP
+	}
+
+	@Override
+	protected void destroyInternal() throws LifecycleException {
+		// NO-OP
+	}
+
+	@Override
+	public void invoke(CorticeraRequest request, CorticeraResponse response,
+			ValveChain next) throws IOException, ServletException {
+		Host host = (Host) container;
+		Context context = request.getMappingData().context;
+		if (context != null) {
+			if (!requestStarted(host, context)) {
+				response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				return;
+			}
+			// The application sees its own classes through the thread
+			Thread thread = Thread.currentThread();
+			ClassLoader oldClassLoader = thread.getContextClassLoader();
+			Loader loader = context.getLoader();
+			if (loader != null && loader.getClassLoader() != null)
+				thread.setContextClassLoader(loader.getClassLoader());
+			try {
+				context.getPipeline().getChain().invoke(request, response);
+			} finally {
+				thread.setContextClassLoader(oldClassLoader);
+				if (context instanceof StandardContext)
+					((StandardContext) context).requestFinished();
+			}
+			return;
+		}
+
+		Servlet servlet = host.getDefaultServlet();
+		if (servlet == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		servlet.service(request.getRequest(), response.getResponse());
+	}
+
+	/**
+	 * Make sure the context is started, starting it if the host starts its
+	 * contexts lazily, and record the request.
+	 *
+	 * @return <code>false</code> if the context is not available
+	 */
+	private boolean requestStarted(Host host, Context context) {
+		// A second attempt is made if the context was being stopped for
+		// idleness, once it is started again
+		for (int attempt = 0; attempt < 2; attempt++) {
+			if (attempt > 0 || !context.getState().isAvailable()) {
+				if (!host.isLazyStart() || !host.startLazily(context))
+					return false;
+			}
+			if (!(context instanceof StandardContext))
+				return true;
+
+			StandardContext standardContext = (StandardContext) context;
+			if (standardContext.requestStarted()) {
+				// The context may have been stopped for idleness between the
+				// check above and the recording of the request
+				if (context.getState().isAvailable())
+					return true;
+				standardContext.requestFinished();
+			}
+		}
+		return false;
+	}
+
+}
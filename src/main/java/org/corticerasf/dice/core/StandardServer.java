@@ -32,6 +32,8 @@ import org.corticerasf.dice.Service;
 import org.corticerasf.dice.lifecycle.LifecycleBase;
 import org.corticerasf.dice.lifecycle.LifecycleException;
 import org.corticerasf.dice.lifecycle.LifecycleState;
+import org.corticerasf.dice.utils.BackgroundScheduler;
+import org.corticerasf.dice.utils.StartupScheduler;
 
 public class StandardServer extends LifecycleBase implements Server {
 
@@ -51,6 +53,10 @@ public class StandardServer extends LifecycleBase implements Server {
 
 	private final Object servicesLock = new Object();
 
+	private final BackgroundScheduler backgroundScheduler = new BackgroundScheduler();
+
+	private int startStopThreads = 0;
+
 	public String getInfo() {
 		return getClass().getName() + "/1.0";
 	}
@@ -87,8 +93,33 @@ public class StandardServer extends LifecycleBase implements Server {
 		return serverManager;
 	}
 
+	public BackgroundScheduler getBackgroundScheduler() {
+		return backgroundScheduler;
+	}
+
+	public int getStartStopThreads() {
+		return startStopThreads;
+	}
+
+	/**
+	 * Set the number of threads the services, and the components of each
+	 * service, are started and stopped on. A value of 0 or less is added to
+	 * the number of processors, the default being one thread per processor.
+	 */
+	public void setStartStopThreads(int startStopThreads) {
+		this.startStopThreads = startStopThreads;
+	}
+
+	private StartupScheduler createStartupScheduler(String name) {
+		StartupScheduler scheduler = new StartupScheduler(name);
+		scheduler.setThreads(startStopThreads);
+		return scheduler;
+	}
+
 	@Override
 	protected void initInternal() throws LifecycleException {
+		backgroundScheduler.init();
+
 		for (Service service : findServices()) {
 			service.init();
 		}
@@ -97,12 +128,17 @@ public class StandardServer extends LifecycleBase implements Server {
 	@Override
 	protected void startInternal() throws LifecycleException {
 		setState(LifecycleState.STARTING);
+
+		backgroundScheduler.start();
 		
+		// Services are independent of each other
+		StartupScheduler scheduler = createStartupScheduler("Server-start");
 		synchronized (servicesLock) {
 			for (Service service : findServices()) {
-				service.start();
+				scheduler.start(service);
 			}
 		}
+		scheduler.run();
 	}
 
 	@Override
@@ -111,9 +147,17 @@ public class StandardServer extends LifecycleBase implements Server {
 		setState(LifecycleState.STOPPING);
 		fireLifecycleEvent(CONFIGURE_STOP_EVENT, null);
 		
+		StartupScheduler scheduler = createStartupScheduler("Server-stop");
 		for (Service service : findServices()) {
-			service.stop();
+			scheduler.stop(service);
 		}
+		try {
+			scheduler.run();
+		} catch (LifecycleException ex) {
+			logger.error("Cannot stop the services of " + getInfo() + ".", ex);
+		}
+
+		backgroundScheduler.stop();
 	}
 
 	@Override
@@ -121,6 +165,8 @@ public class StandardServer extends LifecycleBase implements Server {
 		for (Service service : findServices()) {
 			service.destroy();
 		}
+
+		backgroundScheduler.destroy();
 	}
 
 	public void await() {
@@ -16,8 +16,11 @@
 package org.corticerasf.dice.core;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import org.apache.log4j.Logger;
+import org.corticerasf.dice.Engine;
 import org.corticerasf.dice.Executor;
 import org.corticerasf.dice.Server;
 import org.corticerasf.dice.Service;
@@ -26,6 +29,11 @@ import org.corticerasf.dice.container.Container;
 import org.corticerasf.dice.lifecycle.LifecycleBase;
 import org.corticerasf.dice.lifecycle.LifecycleException;
 import org.corticerasf.dice.lifecycle.LifecycleState;
+import org.corticerasf.dice.mapper.Mapper;
+import org.corticerasf.dice.mapper.MapperListener;
+import org.corticerasf.dice.utils.HashedWheelTimer;
+import org.corticerasf.dice.utils.StartupScheduler;
+import org.corticerasf.dice.utils.StartupScheduler.Step;
 
 public class StandardService extends LifecycleBase implements Service {
 
@@ -39,6 +47,12 @@ public class StandardService extends LifecycleBase implements Service {
 	private Connector[] connectors = new Connector[0];
 	private ArrayList<Executor> executors = new ArrayList<Executor>();
 
+	private HashedWheelTimer timer = null;
+
+	private final Mapper mapper = new Mapper();
+	private final MapperListener mapperListener = new MapperListener(mapper,
+			this);
+
 	private final Object connectorsLock = new Object();
 
 	public String getInfo() {
@@ -67,6 +81,20 @@ public class StandardService extends LifecycleBase implements Service {
 
 	public void setContainer(Container container) {
 		this.container = container;
+		if (container instanceof Engine)
+			((Engine) container).setService(this);
+	}
+
+	public synchronized HashedWheelTimer getTimer() {
+		if (timer == null) {
+			timer = new HashedWheelTimer();
+			timer.setName(getName() + "-Timer");
+		}
+		return timer;
+	}
+
+	public Mapper getMapper() {
+		return mapper;
 	}
 
 	@Override
@@ -75,11 +103,15 @@ public class StandardService extends LifecycleBase implements Service {
 		if (container != null)
 			container.init();
 
+		// Executors are started before the connectors using them
 		for (Executor executor : findExecutors()) {
-			// TODO Executor Domain
 			executor.init();
 		}
 
+		getTimer().init();
+
+		mapperListener.init();
+
 		synchronized (connectorsLock) {
 			try {
 				for (Connector connector : connectors) {
@@ -101,37 +133,70 @@ public class StandardService extends LifecycleBase implements Service {
 
 	}
 
+	/**
+	 * Start the components of the service, in parallel where they do not
+	 * depend on each other: the container, the executors and the timer start
+	 * together, the mapper is filled once the container is started, and the
+	 * connectors only accept requests once all of them are started.
+	 */
 	@Override
 	protected void startInternal() throws LifecycleException {
 		logger.info("Starting service " + getInfo() + "...");
 		setState(LifecycleState.STARTING);
 
+		StartupScheduler scheduler = new StartupScheduler(getName() + "-start");
+		if (server != null)
+			scheduler.setThreads(server.getStartStopThreads());
+		List<Step> required = new ArrayList<Step>();
+
+		Step containerStep = null;
 		if (container != null) {
-			synchronized (container) {
-				container.start();
-			}
+			containerStep = scheduler.add("start " + container.getInfo(),
+					new Callable<Void>() {
+						public Void call() throws Exception {
+							synchronized (container) {
+								container.start();
+							}
+							return null;
+						}
+					});
+			required.add(containerStep);
 		}
 
 		synchronized (executors) {
 			for (Executor executor : findExecutors()) {
-				executor.start();
+				prepareExecutor(executor);
+				required.add(scheduler.start(executor));
 			}
 		}
 
+		required.add(scheduler.start(getTimer()));
+
+		required.add(scheduler.start(mapperListener, containerStep));
+
+		Step[] dependencies = required.toArray(new Step[required.size()]);
 		synchronized (connectorsLock) {
-			try {
-				for (Connector connector : connectors) {
-					if (!connector.getState().equals(LifecycleState.FAILED)) {
+			for (final Connector connector : connectors) {
+				scheduler.add("start " + connector, new Callable<Void>() {
+					public Void call() throws Exception {
 						// Only start a connector if it has not failed.
-						connector.start();
+						if (connector.getState().equals(LifecycleState.FAILED))
+							return null;
+						try {
+							connector.start();
+						} catch (Exception ex) {
+							LifecycleException e = new LifecycleException(
+									"Error while starting connector "
+											+ connector + ".", ex);
+							logger.error(e);
+						}
+						return null;
 					}
-				}
-			} catch (Exception ex) {
-				LifecycleException e = new LifecycleException(
-						"Error while stopping connectors.", ex);
-				logger.error(e);
+				}, dependencies);
 			}
 		}
+
+		scheduler.run();
 	}
 
 	@Override
@@ -183,6 +248,10 @@ public class StandardService extends LifecycleBase implements Service {
 				executor.stop();
 			}
 		}
+
+		getTimer().stop();
+
+		mapperListener.stop();
 	}
 
 	@Override
@@ -203,6 +272,10 @@ public class StandardService extends LifecycleBase implements Service {
 			executor.destroy();
 		}
 
+		getTimer().destroy();
+
+		mapperListener.destroy();
+
 		if (container != null)
 			container.destroy();
 	}
@@ -275,6 +348,7 @@ public class StandardService extends LifecycleBase implements Service {
 			if (!executors.contains(ex)) {
 				executors.add(ex);
 				if (getState().isAvailable()) {
+					prepareExecutor(ex);
 					try {
 						ex.start();
 					} catch (LifecycleException x) {
@@ -315,6 +389,16 @@ public class StandardService extends LifecycleBase implements Service {
 		}
 	}
 	
+	/**
+	 * Give an executor the background scheduler of the server, with which
+	 * an adaptive executor resizes itself.
+	 */
+	private void prepareExecutor(Executor executor) {
+		if (executor instanceof StandardThreadExecutor && server != null)
+			((StandardThreadExecutor) executor)
+					.setBackgroundScheduler(server.getBackgroundScheduler());
+	}
+
 	@Override
 	public String toString() {
 		return getInfo();
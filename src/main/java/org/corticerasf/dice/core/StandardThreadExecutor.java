@@ -0,0 +1,584 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.corticerasf.dice.Executor;
+import org.corticerasf.dice.lifecycle.LifecycleBase;
+import org.corticerasf.dice.lifecycle.LifecycleException;
+import org.corticerasf.dice.lifecycle.LifecycleState;
+import org.corticerasf.dice.utils.BackgroundScheduler;
+import org.corticerasf.dice.utils.BackgroundScheduler.ScheduledTask;
+import org.corticerasf.dice.utils.ExceptionUtils;
+import org.corticerasf.dice.utils.TaskQueue;
+import org.corticerasf.dice.utils.TaskThreadPool;
+import org.corticerasf.dice.utils.TaskThreadPool.TaskThreadFactory;
+
+/**
+ * The standard {@link Executor}: a named pool of threads, defined on a
+ * service and shared by the connectors naming it in their
+ * <code>executor</code> attribute.
+ * <p>
+ * The pool keeps <code>minSpareThreads</code> threads and starts new ones,
+ * up to <code>maxThreads</code>, before queueing any task. Once all threads
+ * are busy tasks are queued, up to <code>maxQueueSize</code>; a task finding
+ * the queue full is rejected. The threads are renewed after a context has
+ * been stopped, see {@link #contextStopping()}.
+ * <p>
+ * The sizes may be changed while the executor is running.
+ * <p>
+ * An <code>adaptive</code> executor sizes itself within these bounds: every
+ * <code>adaptiveInterval</code> milliseconds, the background scheduler of
+ * the server measures the average time tasks waited in the queue and the
+ * share of time the threads were busy. The limit on the number of threads
+ * doubles when tasks waited more than
+ * <code>targetQueueWait</code> milliseconds, and shrinks by a tenth when the
+ * threads were busy less than <code>minUtilization</code> of the time with
+ * nothing queued. The limit starts at <code>minSpareThreads</code>.
+ * <p>
+ * From its initialization to its destruction, the sizes and metrics of the
+ * executor are available as the
+ * <code>org.corticerasf.dice:type=Executor,name=</code><i>name</i> MBean of
+ * the platform MBean server.
+ *
+ * @author J. Godara
+ */
+public class StandardThreadExecutor extends LifecycleBase implements Executor,
+		StandardThreadExecutorMBean {
+
+	private static final Logger logger = Logger
+			.getLogger(StandardThreadExecutor.class);
+
+	private String name = null;
+	private String namePrefix = "dice-exec-";
+	private int threadPriority = Thread.NORM_PRIORITY;
+	private boolean daemon = true;
+
+	private int maxThreads = 200;
+	private int minSpareThreads = 25;
+	private int maxIdleTime = 60000;
+	private int maxQueueSize = 10000;
+	private boolean prestartminSpareThreads = false;
+	private long threadRenewalDelay = 1000;
+
+	private boolean adaptive = false;
+	private int adaptiveInterval = 1000;
+	private long targetQueueWait = 10;
+	private double minUtilization = 0.5;
+
+	private volatile TaskThreadPool executor = null;
+
+	/**
+	 * The current maximum size of the pool, <code>maxThreads</code> unless
+	 * the executor is adaptive.
+	 */
+	private volatile int limit = maxThreads;
+
+	private BackgroundScheduler backgroundScheduler = null;
+	private ScheduledTask adaptiveTask = null;
+
+	// Counters at the previous adaptation
+	private long lastSampleTime = 0;
+	private long lastStartedCount = 0;
+	private long lastQueueWaitTime = 0;
+	private long lastBusyTime = 0;
+
+	private volatile double averageQueueWait = 0;
+	private volatile double utilization = 0;
+	private volatile long growCount = 0;
+	private volatile long shrinkCount = 0;
+	private volatile long lastResizeTime = 0;
+
+	private ObjectName objectName = null;
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getNamePrefix() {
+		return namePrefix;
+	}
+
+	/**
+	 * Set the prefix of the names of the threads. Takes effect on start.
+	 */
+	public void setNamePrefix(String namePrefix) {
+		this.namePrefix = namePrefix;
+	}
+
+	public int getThreadPriority() {
+		return threadPriority;
+	}
+
+	public void setThreadPriority(int threadPriority) {
+		this.threadPriority = threadPriority;
+	}
+
+	public boolean isDaemon() {
+		return daemon;
+	}
+
+	public void setDaemon(boolean daemon) {
+		this.daemon = daemon;
+	}
+
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	public void setMaxThreads(int maxThreads) {
+		this.maxThreads = Math.max(1, maxThreads);
+		if (minSpareThreads > this.maxThreads)
+			minSpareThreads = this.maxThreads;
+		resize();
+	}
+
+	public int getMinSpareThreads() {
+		return minSpareThreads;
+	}
+
+	/**
+	 * Set the number of threads kept when the pool is idle.
+	 */
+	public void setMinSpareThreads(int minSpareThreads) {
+		this.minSpareThreads = Math.max(0, Math.min(minSpareThreads,
+				maxThreads));
+		resize();
+	}
+
+	public int getMaxIdleTime() {
+		return maxIdleTime;
+	}
+
+	/**
+	 * Set the time, in milliseconds, an idle thread above
+	 * <code>minSpareThreads</code> is kept.
+	 */
+	public void setMaxIdleTime(int maxIdleTime) {
+		this.maxIdleTime = maxIdleTime;
+		TaskThreadPool pool = executor;
+		if (pool != null)
+			pool.setKeepAliveTime(maxIdleTime, TimeUnit.MILLISECONDS);
+	}
+
+	public int getMaxQueueSize() {
+		return maxQueueSize;
+	}
+
+	/**
+	 * Set the capacity of the work queue. Takes effect on start.
+	 */
+	public void setMaxQueueSize(int maxQueueSize) {
+		this.maxQueueSize = Math.max(1, maxQueueSize);
+	}
+
+	public boolean isPrestartminSpareThreads() {
+		return prestartminSpareThreads;
+	}
+
+	/**
+	 * Set whether the <code>minSpareThreads</code> threads are started with
+	 * the executor rather than on demand.
+	 */
+	public void setPrestartminSpareThreads(boolean prestartminSpareThreads) {
+		this.prestartminSpareThreads = prestartminSpareThreads;
+	}
+
+	public long getThreadRenewalDelay() {
+		return threadRenewalDelay;
+	}
+
+	/**
+	 * Set the minimum delay, in milliseconds, between the renewal of two
+	 * threads after a context was stopped. A negative delay disables the
+	 * renewal.
+	 */
+	public void setThreadRenewalDelay(long threadRenewalDelay) {
+		this.threadRenewalDelay = threadRenewalDelay;
+		TaskThreadPool pool = executor;
+		if (pool != null)
+			pool.setThreadRenewalDelay(threadRenewalDelay);
+	}
+
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	/**
+	 * Set whether the number of threads adapts to the load. Takes effect on
+	 * start.
+	 */
+	public void setAdaptive(boolean adaptive) {
+		this.adaptive = adaptive;
+	}
+
+	public int getAdaptiveInterval() {
+		return adaptiveInterval;
+	}
+
+	/**
+	 * Set the time, in milliseconds, between two adaptations of the number
+	 * of threads. Takes effect on start.
+	 */
+	public void setAdaptiveInterval(int adaptiveInterval) {
+		this.adaptiveInterval = Math.max(100, adaptiveInterval);
+	}
+
+	public long getTargetQueueWait() {
+		return targetQueueWait;
+	}
+
+	/**
+	 * Set the average time, in milliseconds, tasks may wait in the queue
+	 * before more threads are allowed.
+	 */
+	public void setTargetQueueWait(long targetQueueWait) {
+		this.targetQueueWait = Math.max(0, targetQueueWait);
+	}
+
+	public double getMinUtilization() {
+		return minUtilization;
+	}
+
+	/**
+	 * Set the share of time, between 0 and 1, the threads must be busy for
+	 * their number not to be lowered.
+	 */
+	public void setMinUtilization(double minUtilization) {
+		this.minUtilization = Math.max(0, Math.min(1, minUtilization));
+	}
+
+	/**
+	 * Set the scheduler running the adaptations, the one of the server.
+	 */
+	public void setBackgroundScheduler(BackgroundScheduler backgroundScheduler) {
+		this.backgroundScheduler = backgroundScheduler;
+	}
+
+	/**
+	 * Return the current maximum number of threads, which an adaptive
+	 * executor moves between <code>minSpareThreads</code> and
+	 * <code>maxThreads</code>.
+	 */
+	public int getCurrentMaxThreads() {
+		return limit;
+	}
+
+	/**
+	 * Return the average time, in milliseconds, the tasks started during the
+	 * last adaptation interval waited in the queue.
+	 */
+	public double getAverageQueueWait() {
+		return averageQueueWait;
+	}
+
+	/**
+	 * Return the share of time the threads were busy during the last
+	 * adaptation interval.
+	 */
+	public double getUtilization() {
+		return utilization;
+	}
+
+	/**
+	 * Return the number of times an adaptation raised the number of threads.
+	 */
+	public long getGrowCount() {
+		return growCount;
+	}
+
+	/**
+	 * Return the number of times an adaptation lowered the number of threads.
+	 */
+	public long getShrinkCount() {
+		return shrinkCount;
+	}
+
+	/**
+	 * Return the time of the last adaptation changing the number of threads,
+	 * in milliseconds since the epoch, or 0.
+	 */
+	public long getLastResizeTime() {
+		return lastResizeTime;
+	}
+
+	public void execute(Runnable command) {
+		execute(command, 0, TimeUnit.MILLISECONDS);
+	}
+
+	public void execute(Runnable command, long timeout, TimeUnit unit) {
+		TaskThreadPool pool = executor;
+		if (pool == null)
+			throw new RejectedExecutionException(this + " is not running.");
+		pool.execute(command, timeout, unit);
+	}
+
+	/**
+	 * Renew the threads of this pool, as a context has been stopped and they
+	 * may still reference its objects.
+	 */
+	public void contextStopping() {
+		TaskThreadPool pool = executor;
+		if (pool != null)
+			pool.contextStopping();
+	}
+
+	/**
+	 * Return the number of threads running a task.
+	 */
+	public int getActiveCount() {
+		TaskThreadPool pool = executor;
+		return (pool != null ? pool.getActiveCount() : 0);
+	}
+
+	/**
+	 * Return the current number of threads.
+	 */
+	public int getPoolSize() {
+		TaskThreadPool pool = executor;
+		return (pool != null ? pool.getPoolSize() : 0);
+	}
+
+	/**
+	 * Return the largest number of threads the pool has had.
+	 */
+	public int getLargestPoolSize() {
+		TaskThreadPool pool = executor;
+		return (pool != null ? pool.getLargestPoolSize() : 0);
+	}
+
+	public long getCompletedTaskCount() {
+		TaskThreadPool pool = executor;
+		return (pool != null ? pool.getCompletedTaskCount() : 0);
+	}
+
+	/**
+	 * Return the number of tasks waiting in the queue.
+	 */
+	public int getQueueSize() {
+		TaskThreadPool pool = executor;
+		return (pool != null ? pool.getQueue().size() : 0);
+	}
+
+	@Override
+	protected void initInternal() throws LifecycleException {
+		if (name == null)
+			throw new LifecycleException("An executor must have a name.");
+
+		registerMBean();
+	}
+
+	@Override
+	protected void startInternal() throws LifecycleException {
+		TaskQueue queue = new TaskQueue(maxQueueSize);
+		TaskThreadPool pool = new TaskThreadPool(minSpareThreads, maxThreads,
+				maxIdleTime, TimeUnit.MILLISECONDS, queue,
+				new TaskThreadFactory(namePrefix, daemon, threadPriority));
+		pool.setThreadRenewalDelay(threadRenewalDelay);
+		if (prestartminSpareThreads)
+			pool.prestartAllCoreThreads();
+		executor = pool;
+
+		limit = maxThreads;
+		if (adaptive)
+			startAdapting(pool);
+
+		if (logger.isDebugEnabled())
+			logger.debug("Started " + this + ".");
+
+		setState(LifecycleState.STARTING);
+	}
+
+	@Override
+	protected void stopInternal() throws LifecycleException {
+		setState(LifecycleState.STOPPING);
+
+		if (adaptiveTask != null) {
+			adaptiveTask.cancel();
+			adaptiveTask = null;
+		}
+
+		TaskThreadPool pool = executor;
+		executor = null;
+		if (pool != null)
+			pool.shutdownNow();
+	}
+
+	@Override
+	protected void destroyInternal() throws LifecycleException {
+		unregisterMBean();
+	}
+
+	private void registerMBean() {
+		try {
+			ObjectName name = new ObjectName(
+					"org.corticerasf.dice:type=Executor,name=" + this.name);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(this, name);
+			objectName = name;
+		} catch (Throwable t) {
+			ExceptionUtils.handleThrowable(t);
+			logger.warn("Cannot register the MBean of " + this + ".", t);
+		}
+	}
+
+	private void unregisterMBean() {
+		if (objectName == null)
+			return;
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+					objectName);
+		} catch (Throwable t) {
+			ExceptionUtils.handleThrowable(t);
+			logger.warn("Cannot unregister the MBean of " + this + ".", t);
+		}
+		objectName = null;
+	}
+
+	/**
+	 * Apply the sizes to the running pool, keeping the limit of an adaptive
+	 * executor within the new bounds.
+	 */
+	private synchronized void resize() {
+		TaskThreadPool pool = executor;
+		if (pool == null)
+			return;
+
+		if (adaptiveTask != null)
+			setLimit(pool, Math.max(getLowerLimit(), Math.min(limit,
+					maxThreads)));
+		else
+			setLimit(pool, maxThreads);
+	}
+
+	/**
+	 * Set the maximum size of the pool. The core size never exceeds the
+	 * maximum size, whichever of the two is changed first.
+	 */
+	private void setLimit(TaskThreadPool pool, int newLimit) {
+		int core = Math.min(minSpareThreads, newLimit);
+		if (newLimit < pool.getCorePoolSize()) {
+			pool.setCorePoolSize(core);
+			pool.setMaximumPoolSize(newLimit);
+		} else {
+			pool.setMaximumPoolSize(newLimit);
+			pool.setCorePoolSize(core);
+		}
+		limit = newLimit;
+	}
+
+	private int getLowerLimit() {
+		return Math.max(1, minSpareThreads);
+	}
+
+	private void startAdapting(TaskThreadPool pool) {
+		if (backgroundScheduler == null) {
+			logger.warn("No background scheduler for " + this
+					+ ", its size will not adapt to the load.");
+			return;
+		}
+
+		lastSampleTime = System.nanoTime();
+		lastStartedCount = pool.getStartedCount();
+		lastQueueWaitTime = pool.getQueueWaitTime();
+		lastBusyTime = pool.getBusyTime();
+		setLimit(pool, getLowerLimit());
+
+		adaptiveTask = backgroundScheduler.schedule("Executor " + name,
+				new Runnable() {
+					public void run() {
+						adapt();
+					}
+				}, adaptiveInterval, 0);
+	}
+
+	/**
+	 * Measure the load since the previous adaptation and move the limit on
+	 * the number of threads accordingly: it doubles when work waits, so that
+	 * the pool follows a surge quickly, and shrinks slowly.
+	 */
+	private synchronized void adapt() {
+		TaskThreadPool pool = executor;
+		if (pool == null || adaptiveTask == null)
+			return;
+
+		long now = System.nanoTime();
+		long started = pool.getStartedCount();
+		long queueWaitTime = pool.getQueueWaitTime();
+		long busyTime = pool.getBusyTime();
+
+		long elapsed = now - lastSampleTime;
+		long startedDelta = started - lastStartedCount;
+		long queueWaitDelta = queueWaitTime - lastQueueWaitTime;
+		long busyDelta = busyTime - lastBusyTime;
+
+		lastSampleTime = now;
+		lastStartedCount = started;
+		lastQueueWaitTime = queueWaitTime;
+		lastBusyTime = busyTime;
+
+		if (elapsed <= 0)
+			return;
+
+		double wait = (startedDelta > 0 ? queueWaitDelta / 1000000.0
+				/ startedDelta : 0);
+		int poolSize = pool.getPoolSize();
+		double busy = (poolSize > 0 ? Math.min(1.0, busyDelta
+				/ (double) (elapsed * poolSize)) : 0);
+		int queued = pool.getQueue().size();
+		averageQueueWait = wait;
+		utilization = busy;
+
+		int newLimit = limit;
+		if ((wait > targetQueueWait || queued >= limit) && limit < maxThreads) {
+			newLimit = Math.min(maxThreads, limit * 2);
+			growCount++;
+		} else if (queued == 0 && wait <= targetQueueWait
+				&& busy < minUtilization && limit > getLowerLimit()) {
+			newLimit = Math.max(getLowerLimit(), limit
+					- Math.max(1, limit / 10));
+			shrinkCount++;
+		}
+
+		if (newLimit != limit) {
+			if (logger.isDebugEnabled())
+				logger.debug("Resizing " + this + " to " + newLimit
+						+ " threads, queue wait " + wait + " ms, utilization "
+						+ busy + ", " + queued + " queued.");
+			setLimit(pool, newLimit);
+			lastResizeTime = System.currentTimeMillis();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "StandardThreadExecutor[" + name + ", " + getPoolSize() + "/"
+				+ limit + " threads]";
+	}
+
+}
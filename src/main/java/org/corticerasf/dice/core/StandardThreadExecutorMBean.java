@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.core;
+
+/**
+ * Management interface of {@link StandardThreadExecutor}, registered as
+ * <code>org.corticerasf.dice:type=Executor,name=</code><i>name</i>.
+ *
+ * @author J. Godara
+ */
+public interface StandardThreadExecutorMBean {
+
+	public String getName();
+
+	public int getMaxThreads();
+
+	public void setMaxThreads(int maxThreads);
+
+	public int getMinSpareThreads();
+
+	public void setMinSpareThreads(int minSpareThreads);
+
+	public int getMaxQueueSize();
+
+	public boolean isAdaptive();
+
+	/**
+	 * Return the current maximum number of threads, which an adaptive
+	 * executor moves between <code>minSpareThreads</code> and
+	 * <code>maxThreads</code>.
+	 */
+	public int getCurrentMaxThreads();
+
+	/**
+	 * Return the average time, in milliseconds, the tasks started during the
+	 * last adaptation interval waited in the queue.
+	 */
+	public double getAverageQueueWait();
+
+	/**
+	 * Return the share of time the threads were busy during the last
+	 * adaptation interval.
+	 */
+	public double getUtilization();
+
+	public long getGrowCount();
+
+	public long getShrinkCount();
+
+	public long getLastResizeTime();
+
+	public int getActiveCount();
+
+	public int getPoolSize();
+
+	public int getLargestPoolSize();
+
+	public long getCompletedTaskCount();
+
+	public int getQueueSize();
+
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.core;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.corticerasf.dice.Executor;
+import org.corticerasf.dice.lifecycle.LifecycleBase;
+import org.corticerasf.dice.lifecycle.LifecycleException;
+import org.corticerasf.dice.lifecycle.LifecycleState;
+import org.corticerasf.dice.utils.ExceptionUtils;
+import org.corticerasf.dice.utils.VirtualThreadFactory;
+
+/**
+ * An {@link Executor} running every task on a new virtual thread, for
+ * workloads spending most of their time waiting on I/O. On JVMs without
+ * virtual threads, platform threads are used instead.
+ * <p>
+ * No threads are pooled. The number of tasks running at once is limited to
+ * <code>maxThreads</code> by a semaphore: a task submitted while the limit
+ * is reached waits in the submitting thread for a running task to finish,
+ * for the timeout given to {@link #execute(Runnable, long, TimeUnit)}, or
+ * <code>maxQueueTime</code> with {@link #execute(Runnable)}, and is then
+ * rejected.
+ * <p>
+ * <code>maxQueueTime</code> therefore only applies to callers which may
+ * block, such as the acceptor of the virtual thread connector. The pollers
+ * of the NIO connector submit with a timeout of 0, a socket being closed at
+ * once rather than holding up every other connection of its poller.
+ *
+ * @author J. Godara
+ */
+public class VirtualThreadExecutor extends LifecycleBase implements Executor {
+
+	private static final Logger logger = Logger
+			.getLogger(VirtualThreadExecutor.class);
+
+	private String name = null;
+	private String namePrefix = "dice-vexec-";
+
+	private int maxThreads = 10000;
+	private long maxQueueTime = 0;
+
+	private final ResizableSemaphore permits = new ResizableSemaphore(
+			maxThreads);
+	private final Object permitsLock = new Object();
+
+	private final AtomicLong submittedCount = new AtomicLong(0);
+	private final AtomicLong rejectedCount = new AtomicLong(0);
+
+	private volatile VirtualThreadFactory threadFactory = null;
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getNamePrefix() {
+		return namePrefix;
+	}
+
+	/**
+	 * Set the prefix of the names of the threads. Takes effect on start.
+	 */
+	public void setNamePrefix(String namePrefix) {
+		this.namePrefix = namePrefix;
+	}
+
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	/**
+	 * Set the maximum number of tasks running at once. Lowering the limit
+	 * does not stop running tasks, new tasks wait until fewer than the new
+	 * limit are running.
+	 */
+	public void setMaxThreads(int maxThreads) {
+		maxThreads = Math.max(1, maxThreads);
+		synchronized (permitsLock) {
+			int delta = maxThreads - this.maxThreads;
+			if (delta > 0)
+				permits.release(delta);
+			else if (delta < 0)
+				permits.reducePermits(-delta);
+			this.maxThreads = maxThreads;
+		}
+	}
+
+	public long getMaxQueueTime() {
+		return maxQueueTime;
+	}
+
+	/**
+	 * Set the time, in milliseconds, {@link #execute(Runnable)} waits for a
+	 * running task to finish when the limit is reached. Callers which must
+	 * not block use {@link #execute(Runnable, long, TimeUnit)} instead.
+	 */
+	public void setMaxQueueTime(long maxQueueTime) {
+		this.maxQueueTime = Math.max(0, maxQueueTime);
+	}
+
+	/**
+	 * Return <code>true</code> if the tasks run on virtual threads, which is
+	 * only known once the executor is started.
+	 */
+	public boolean isVirtual() {
+		VirtualThreadFactory factory = threadFactory;
+		return (factory != null && factory.isVirtual());
+	}
+
+	/**
+	 * Return the number of running tasks.
+	 */
+	public int getActiveCount() {
+		return Math.max(0, maxThreads - permits.availablePermits());
+	}
+
+	/**
+	 * Return the number of submitting threads waiting for a task to finish.
+	 */
+	public int getQueueSize() {
+		return permits.getQueueLength();
+	}
+
+	public long getSubmittedCount() {
+		return submittedCount.get();
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	public void execute(Runnable command) {
+		execute(command, maxQueueTime, TimeUnit.MILLISECONDS);
+	}
+
+	public void execute(Runnable command, long timeout, TimeUnit unit) {
+		if (command == null || unit == null)
+			throw new NullPointerException();
+
+		VirtualThreadFactory factory = threadFactory;
+		if (factory == null)
+			throw new RejectedExecutionException(this + " is not running.");
+
+		try {
+			if (!permits.tryAcquire(timeout, unit)) {
+				rejectedCount.incrementAndGet();
+				throw new RejectedExecutionException(this + " is running "
+						+ maxThreads + " tasks, the limit.");
+			}
+		} catch (InterruptedException ex) {
+			rejectedCount.incrementAndGet();
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException(ex);
+		}
+
+		try {
+			factory.newThread(new Task(command)).start();
+			submittedCount.incrementAndGet();
+		} catch (Throwable t) {
+			ExceptionUtils.handleThrowable(t);
+			permits.release();
+			rejectedCount.incrementAndGet();
+			throw new RejectedExecutionException("Cannot start a thread for "
+					+ "the task.", t);
+		}
+	}
+
+	@Override
+	protected void initInternal() throws LifecycleException {
+		if (name == null)
+			throw new LifecycleException("An executor must have a name.");
+	}
+
+	@Override
+	protected void startInternal() throws LifecycleException {
+		VirtualThreadFactory factory = new VirtualThreadFactory(namePrefix);
+		if (!factory.isVirtual())
+			logger.warn("Virtual threads are not supported by this JVM, "
+					+ this + " runs its tasks on platform threads.");
+		threadFactory = factory;
+
+		setState(LifecycleState.STARTING);
+	}
+
+	@Override
+	protected void stopInternal() throws LifecycleException {
+		setState(LifecycleState.STOPPING);
+
+		// Running tasks complete on their own threads
+		threadFactory = null;
+	}
+
+	@Override
+	protected void destroyInternal() throws LifecycleException {
+		// NO-OP
+	}
+
+	@Override
+	public String toString() {
+		return "VirtualThreadExecutor[" + name + ", " + getActiveCount() + "/"
+				+ maxThreads + " tasks]";
+	}
+
+	// ------------------------------------------------------------------ Task
+
+	/**
+	 * Runs a task and gives its permit back.
+	 */
+	private class Task implements Runnable {
+
+		private final Runnable command;
+
+		Task(Runnable command) {
+			this.command = command;
+		}
+
+		public void run() {
+			try {
+				command.run();
+			} catch (Throwable t) {
+				ExceptionUtils.handleThrowable(t);
+				logger.error("Task failed on " + VirtualThreadExecutor.this, t);
+			} finally {
+				permits.release();
+			}
+		}
+
+	}
+
+	/**
+	 * A semaphore the number of permits of which can be lowered.
+	 */
+	private static class ResizableSemaphore extends Semaphore {
+
+		private static final long serialVersionUID = 1L;
+
+		ResizableSemaphore(int permits) {
+			super(permits, true);
+		}
+
+		@Override
+		protected void reducePermits(int reduction) {
+			super.reducePermits(reduction);
+		}
+
+	}
+
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.digester;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Builds objects from an XML document in a single pass over a StAX stream,
+ * without loading the document in memory.
+ * <p>
+ * {@link Rule}s are registered for element patterns: the path of the
+ * element from the root, such as <code>Dice/Srvc/Engine</code>, or
+ * <code>*&#47;name</code> matching an element of that name anywhere, used
+ * when no path matches. Rules share a stack of objects, usually pushing the
+ * object built from an element on its start, and popping it and handing it
+ * to the object below on its end.
+ * <p>
+ * The document is processed through {@link #startElement(String, Map)},
+ * {@link #characters(String)} and {@link #endElement()}, which can also be
+ * called directly to replay a document recorded earlier.
+ * <p>
+ * A digester is not thread-safe, and parses one document at a time.
+ *
+ * @author J. Godara
+ */
+public class Digester {
+
+	private static final Logger logger = Logger.getLogger(Digester.class);
+
+	private final Map<String, List<Rule>> rules = new HashMap<String, List<Rule>>();
+
+	private final List<Object> stack = new ArrayList<Object>();
+
+	// The state of the open elements
+	private final StringBuilder path = new StringBuilder();
+	private final List<Integer> pathLengths = new ArrayList<Integer>();
+	private final List<List<Rule>> matches = new ArrayList<List<Rule>>();
+	private final List<StringBuilder> bodies = new ArrayList<StringBuilder>();
+
+	// The depth of the element being skipped, 0 if none
+	private int skipDepth = 0;
+
+	private final Map<String, Class<?>> classes = new HashMap<String, Class<?>>();
+	private ClassLoader classLoader = Digester.class.getClassLoader();
+
+	private XMLResolver entityResolver = null;
+
+	private DigesterSnapshot.SnapshotWriter recorder = null;
+
+	/**
+	 * Register a rule for the elements matching a pattern. The rules of an
+	 * element are called in the order of their registration on its start, and
+	 * in the reverse order on its end.
+	 */
+	public void addRule(String pattern, Rule rule) {
+		List<Rule> list = rules.get(pattern);
+		if (list == null) {
+			list = new ArrayList<Rule>();
+			rules.put(pattern, list);
+		}
+		list.add(rule);
+	}
+
+	public ClassLoader getClassLoader() {
+		return classLoader;
+	}
+
+	/**
+	 * Set the class loader of the classes created by
+	 * {@link #newInstance(String)}.
+	 */
+	public void setClassLoader(ClassLoader classLoader) {
+		this.classLoader = classLoader;
+		classes.clear();
+	}
+
+	public XMLResolver getEntityResolver() {
+		return entityResolver;
+	}
+
+	/**
+	 * Set the resolver of the external entities of the document, such as its
+	 * DTD.
+	 */
+	public void setEntityResolver(XMLResolver entityResolver) {
+		this.entityResolver = entityResolver;
+	}
+
+	/**
+	 * Set the writer recording the events of the parse in a snapshot.
+	 */
+	void setRecorder(DigesterSnapshot.SnapshotWriter recorder) {
+		this.recorder = recorder;
+	}
+
+	// ----------------------------------------------------------------- Stack
+
+	public void push(Object object) {
+		stack.add(object);
+	}
+
+	public Object pop() {
+		return stack.remove(stack.size() - 1);
+	}
+
+	/**
+	 * Return the object at the top of the stack.
+	 */
+	public Object peek() {
+		return peek(0);
+	}
+
+	/**
+	 * Return the object <code>n</code> positions below the top of the stack.
+	 */
+	public Object peek(int n) {
+		return stack.get(stack.size() - 1 - n);
+	}
+
+	public int getCount() {
+		return stack.size();
+	}
+
+	/**
+	 * Return a new instance of a class, loading each class once.
+	 */
+	public Object newInstance(String className) throws Exception {
+		Class<?> clazz = classes.get(className);
+		if (clazz == null) {
+			clazz = Class.forName(className, true, classLoader);
+			classes.put(className, clazz);
+		}
+		return clazz.newInstance();
+	}
+
+	/**
+	 * Ignore the rest of the current element: its children, its body, and
+	 * its end, including for the rules of the element not yet called for its
+	 * start.
+	 */
+	public void skip() {
+		if (skipDepth == 0 && !matches.isEmpty())
+			skipDepth = 1;
+	}
+
+	/**
+	 * Return the path of the current element.
+	 */
+	public String getPath() {
+		return path.toString();
+	}
+
+	// ---------------------------------------------------------------- Events
+
+	/**
+	 * Parse a document and close its stream.
+	 */
+	public void parse(InputStream is) throws Exception {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		if (entityResolver != null)
+			factory.setXMLResolver(entityResolver);
+
+		XMLStreamReader reader = factory.createXMLStreamReader(is);
+		try {
+			while (reader.hasNext()) {
+				int event = reader.next();
+				try {
+					switch (event) {
+					case XMLStreamConstants.START_ELEMENT:
+						int count = reader.getAttributeCount();
+						Map<String, String> attributes;
+						if (count == 0) {
+							attributes = Collections.emptyMap();
+						} else {
+							attributes = new LinkedHashMap<String, String>(count * 2);
+							for (int i = 0; i < count; i++)
+								attributes.put(reader.getAttributeLocalName(i),
+										reader.getAttributeValue(i));
+						}
+						startElement(reader.getLocalName(), attributes);
+						break;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.CDATA:
+						if (!reader.isWhiteSpace())
+							characters(reader.getText());
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						endElement();
+						break;
+					default:
+						break;
+					}
+				} catch (XMLStreamException ex) {
+					throw ex;
+				} catch (Exception ex) {
+					throw new XMLStreamException("Cannot process element "
+							+ getPath() + ": " + ex.getMessage(),
+							reader.getLocation(), ex);
+				}
+			}
+		} finally {
+			reader.close();
+			try {
+				is.close();
+			} catch (Exception ex) {
+				// Ignore
+			}
+			clear();
+		}
+	}
+
+	/**
+	 * Process the start of an element.
+	 */
+	public void startElement(String name, Map<String, String> attributes)
+			throws Exception {
+		if (recorder != null)
+			recorder.startElement(name, attributes);
+
+		if (skipDepth > 0) {
+			skipDepth++;
+			return;
+		}
+
+		pathLengths.add(Integer.valueOf(path.length()));
+		if (path.length() > 0)
+			path.append('/');
+		path.append(name);
+
+		List<Rule> matched = rules.get(path.toString());
+		if (matched == null)
+			matched = rules.get("*/" + name);
+		if (matched == null)
+			matched = Collections.emptyList();
+		matches.add(matched);
+		bodies.add(null);
+
+		if (logger.isDebugEnabled())
+			logger.debug("Start of " + path + ", " + matched.size() + " rules");
+
+		for (Rule rule : matched) {
+			rule.begin(this, name, attributes);
+			if (skipDepth > 0)
+				break;
+		}
+	}
+
+	/**
+	 * Process text of the current element.
+	 */
+	public void characters(String text) throws Exception {
+		if (recorder != null)
+			recorder.characters(text);
+
+		if (skipDepth > 0 || bodies.isEmpty())
+			return;
+
+		int last = bodies.size() - 1;
+		if (matches.get(last).isEmpty())
+			return;
+
+		StringBuilder body = bodies.get(last);
+		if (body == null) {
+			body = new StringBuilder();
+			bodies.set(last, body);
+		}
+		body.append(text);
+	}
+
+	/**
+	 * Process the end of the current element.
+	 */
+	public void endElement() throws Exception {
+		if (recorder != null)
+			recorder.endElement();
+
+		if (skipDepth > 1) {
+			skipDepth--;
+			return;
+		}
+
+		int last = matches.size() - 1;
+		List<Rule> matched = matches.remove(last);
+		StringBuilder body = bodies.remove(last);
+		String name = path.substring(path.lastIndexOf("/") + 1);
+
+		try {
+			if (skipDepth == 0) {
+				if (body != null) {
+					String text = body.toString().trim();
+					for (Rule rule : matched)
+						rule.body(this, name, text);
+				}
+				for (int i = matched.size() - 1; i >= 0; i--)
+					matched.get(i).end(this, name);
+			}
+		} finally {
+			skipDepth = 0;
+			path.setLength(pathLengths.remove(pathLengths.size() - 1)
+					.intValue());
+		}
+	}
+
+	/**
+	 * Forget the state of a parse, keeping the rules, and the objects pushed
+	 * before it.
+	 */
+	private void clear() {
+		path.setLength(0);
+		pathLengths.clear();
+		matches.clear();
+		bodies.clear();
+		skipDepth = 0;
+	}
+
+}
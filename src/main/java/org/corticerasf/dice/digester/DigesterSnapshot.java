@@ -0,0 +1,396 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.digester;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A binary snapshot of the events of a document parsed by a {@link Digester},
+ * replayed instead of parsing the document again while it is unchanged.
+ * <p>
+ * The snapshot records the elements, attributes and text of the document as
+ * the StAX parser reported them, once DTD processing is done, so replaying it
+ * needs neither an XML parser nor the DTD. As it holds parse events rather
+ * than built objects, the rules of the digester may change between two runs.
+ * <p>
+ * A snapshot is keyed by the CRC32 checksum and length of the document and of
+ * the files it depends on, such as its DTD. A snapshot with another key,
+ * another format version, or a damaged content is ignored, and replaced once
+ * the document is parsed.
+ * <p>
+ * Format: magic <code>DICE</code>, format version, key, length and CRC32 of
+ * the events, then the events, each an operation byte. Strings are written
+ * once and then referred to by index.
+ *
+ * @author J. Godara
+ */
+public class DigesterSnapshot {
+
+	private static final Logger logger = Logger
+			.getLogger(DigesterSnapshot.class);
+
+	private static final int MAGIC = 0x44494345;
+	private static final int VERSION = 1;
+
+	private static final int START_ELEMENT = 1;
+	private static final int CHARACTERS = 2;
+	private static final int END_ELEMENT = 3;
+
+	private final File snapshot;
+	private final File[] dependencies;
+
+	/**
+	 * @param snapshot
+	 *            The snapshot file, created with its directory if needed
+	 * @param dependencies
+	 *            Files the parse of the document depends on, whose changes
+	 *            make the snapshot stale
+	 */
+	public DigesterSnapshot(File snapshot, File... dependencies) {
+		this.snapshot = snapshot;
+		this.dependencies = dependencies;
+	}
+
+	public File getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Replay the snapshot of a document into a digester, or parse the
+	 * document and record its snapshot if there is none for its content.
+	 *
+	 * @param digester
+	 *            The digester to build objects with
+	 * @param is
+	 *            The document, read entirely and closed
+	 * @return <code>true</code> if the snapshot was replayed
+	 */
+	public boolean parse(Digester digester, InputStream is) throws Exception {
+		byte[] document;
+		try {
+			document = readFully(is);
+		} finally {
+			is.close();
+		}
+
+		long key = computeKey(document);
+		List<Object> events = read(key);
+		if (events != null) {
+			replay(digester, events);
+			if (logger.isDebugEnabled())
+				logger.debug("Replayed the snapshot " + snapshot);
+			return true;
+		}
+
+		SnapshotWriter writer = new SnapshotWriter();
+		digester.setRecorder(writer);
+		try {
+			digester.parse(new ByteArrayInputStream(document));
+		} finally {
+			digester.setRecorder(null);
+		}
+
+		try {
+			if (writer.isFailed())
+				throw new IOException("The events could not be encoded.");
+			write(key, writer.toByteArray());
+		} catch (IOException ex) {
+			logger.warn("Cannot write the snapshot " + snapshot + ".", ex);
+		}
+		return false;
+	}
+
+	private long computeKey(byte[] document) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(document);
+		long length = document.length;
+		for (File dependency : dependencies) {
+			if (dependency == null || !dependency.isFile())
+				continue;
+			byte[] content = readFully(new FileInputStream(dependency));
+			crc.update(content);
+			length += content.length;
+		}
+		return (length << 32) ^ crc.getValue();
+	}
+
+	// ---------------------------------------------------------------- Read
+
+	/**
+	 * Decode the events of the snapshot if it has the given key.
+	 *
+	 * @return the events, or <code>null</code> if there is no valid snapshot
+	 */
+	private List<Object> read(long key) {
+		if (!snapshot.isFile())
+			return null;
+
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+					readFully(new FileInputStream(snapshot))));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION
+					|| in.readLong() != key)
+				return null;
+
+			byte[] payload = new byte[in.readInt()];
+			long checksum = in.readLong();
+			in.readFully(payload);
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+			if (crc.getValue() != checksum) {
+				logger.warn("The snapshot " + snapshot + " is damaged.");
+				return null;
+			}
+
+			return decode(new DataInputStream(new ByteArrayInputStream(payload)));
+		} catch (IOException ex) {
+			logger.warn("Cannot read the snapshot " + snapshot + ".", ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Decode events: element names as strings, attributes as maps, text as
+	 * {@link Text}, and the end of elements as <code>null</code>.
+	 */
+	private static List<Object> decode(DataInputStream in) throws IOException {
+		List<Object> events = new ArrayList<Object>();
+		List<String> strings = new ArrayList<String>();
+		int op;
+		while ((op = in.read()) != -1) {
+			switch (op) {
+			case START_ELEMENT:
+				events.add(readString(in, strings));
+				int count = readInt(in);
+				Map<String, String> attributes;
+				if (count == 0) {
+					attributes = Collections.emptyMap();
+				} else {
+					attributes = new LinkedHashMap<String, String>(count * 2);
+					for (int i = 0; i < count; i++)
+						attributes.put(readString(in, strings),
+								readString(in, strings));
+				}
+				events.add(attributes);
+				break;
+			case CHARACTERS:
+				events.add(new Text(readString(in, strings)));
+				break;
+			case END_ELEMENT:
+				events.add(null);
+				break;
+			default:
+				throw new IOException("Unknown operation " + op);
+			}
+		}
+		return events;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void replay(Digester digester, List<Object> events)
+			throws Exception {
+		for (int i = 0; i < events.size(); i++) {
+			Object event = events.get(i);
+			if (event == null)
+				digester.endElement();
+			else if (event instanceof Text)
+				digester.characters(((Text) event).text);
+			else
+				digester.startElement((String) event,
+						(Map<String, String>) events.get(++i));
+		}
+	}
+
+	private static String readString(DataInputStream in, List<String> strings)
+			throws IOException {
+		int index = readInt(in);
+		if (index > 0)
+			return strings.get(index - 1);
+		String value = in.readUTF();
+		strings.add(value);
+		return value;
+	}
+
+	private static int readInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.read();
+			if (b == -1)
+				throw new EOFException();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed integer");
+	}
+
+	// --------------------------------------------------------------- Write
+
+	private void write(long key, byte[] payload) throws IOException {
+		File dir = snapshot.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create " + dir);
+
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+
+		// Written aside, so a partial file is never read
+		File temp = new File(dir, snapshot.getName() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(key);
+			out.writeInt(payload.length);
+			out.writeLong(crc.getValue());
+			out.write(payload);
+		} finally {
+			out.close();
+		}
+
+		if (!temp.renameTo(snapshot)) {
+			snapshot.delete();
+			if (!temp.renameTo(snapshot)) {
+				temp.delete();
+				throw new IOException("Cannot rename " + temp + " to " + snapshot);
+			}
+		}
+
+		if (logger.isDebugEnabled())
+			logger.debug("Wrote the snapshot " + snapshot + ", "
+					+ payload.length + " bytes of events");
+	}
+
+	private static byte[] readFully(InputStream is) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(
+					Math.max(is.available(), 1024));
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = is.read(buffer)) != -1)
+				out.write(buffer, 0, n);
+			return out.toByteArray();
+		} finally {
+			is.close();
+		}
+	}
+
+	// -------------------------------------------------------- Inner classes
+
+	/**
+	 * The text of an element, told apart from element names.
+	 */
+	private static final class Text {
+
+		final String text;
+
+		Text(String text) {
+			this.text = text;
+		}
+	}
+
+	/**
+	 * Encodes the events of a parse. A failure to encode an event, such as a
+	 * string too long, does not fail the parse, the snapshot is then not
+	 * written.
+	 */
+	static final class SnapshotWriter {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+		private boolean failed = false;
+
+		void startElement(String name, Map<String, String> attributes) {
+			try {
+				out.write(START_ELEMENT);
+				writeString(name);
+				writeInt(attributes.size());
+				for (Map.Entry<String, String> attribute : attributes
+						.entrySet()) {
+					writeString(attribute.getKey());
+					writeString(attribute.getValue());
+				}
+			} catch (IOException ex) {
+				failed = true;
+			}
+		}
+
+		void characters(String text) {
+			try {
+				out.write(CHARACTERS);
+				writeString(text);
+			} catch (IOException ex) {
+				failed = true;
+			}
+		}
+
+		void endElement() {
+			try {
+				out.write(END_ELEMENT);
+			} catch (IOException ex) {
+				failed = true;
+			}
+		}
+
+		boolean isFailed() {
+			return failed;
+		}
+
+		byte[] toByteArray() {
+			return bytes.toByteArray();
+		}
+
+		private void writeString(String value) throws IOException {
+			Integer index = strings.get(value);
+			if (index != null) {
+				writeInt(index.intValue());
+			} else {
+				writeInt(0);
+				out.writeUTF(value);
+				strings.put(value, Integer.valueOf(strings.size() + 1));
+			}
+		}
+
+		private void writeInt(int value) throws IOException {
+			while ((value & ~0x7f) != 0) {
+				out.write((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			out.write(value);
+		}
+	}
+
+}
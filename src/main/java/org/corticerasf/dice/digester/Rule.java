@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.digester;
+
+import java.util.Map;
+
+/**
+ * The processing of the elements matching a pattern of a {@link Digester}.
+ *
+ * @author J. Godara
+ */
+public abstract class Rule {
+
+	/**
+	 * Called on the start of a matching element.
+	 *
+	 * @param digester
+	 *            The digester, giving access to the object stack
+	 * @param name
+	 *            The name of the element
+	 * @param attributes
+	 *            The attributes of the element, by name
+	 */
+	public void begin(Digester digester, String name,
+			Map<String, String> attributes) throws Exception {
+		// NO-OP
+	}
+
+	/**
+	 * Called with the text of a matching element, without its leading and
+	 * trailing whitespace, before {@link #end(Digester, String)}.
+	 */
+	public void body(Digester digester, String name, String text)
+			throws Exception {
+		// NO-OP
+	}
+
+	/**
+	 * Called on the end of a matching element, once its children have been
+	 * processed.
+	 */
+	public void end(Digester digester, String name) throws Exception {
+		// NO-OP
+	}
+
+}
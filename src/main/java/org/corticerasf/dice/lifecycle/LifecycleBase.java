@@ -48,6 +48,7 @@ public abstract class LifecycleBase implements Lifecycle {
 			invalidTransition(BEFORE_INIT_EVENT);
 		}
 		
+		long startTime = System.nanoTime();
 		try {
 			setStateInternal(LifecycleState.INITIALIZING, null, false);
 			initInternal();
@@ -55,6 +56,8 @@ public abstract class LifecycleBase implements Lifecycle {
 		} catch (LifecycleException ex) {
 			ExceptionUtils.handleThrowable(ex);
 			throw new LifecycleException("Lifecycle initialization failed!!!", ex);
+		} finally {
+			LifecycleTimings.getInstance().record(this, "init", startTime);
 		}
 		
 	}
@@ -81,6 +84,8 @@ public abstract class LifecycleBase implements Lifecycle {
 			invalidTransition(BEFORE_START_EVENT);
 		}
 		
+		// Excludes the implicit init, which is recorded on its own
+		long startTime = System.nanoTime();
 		try {
 			setStateInternal(LifecycleState.STARTING_PREP, null, false);
 			startInternal();
@@ -97,6 +102,8 @@ public abstract class LifecycleBase implements Lifecycle {
 			ExceptionUtils.handleThrowable(t);
 			setStateInternal(LifecycleState.FAILED, null, false);
 			throw new LifecycleException("The lifecycle failed to start.", t);
+		} finally {
+			LifecycleTimings.getInstance().record(this, "start", startTime);
 		}
 		
 	}
@@ -122,6 +129,7 @@ public abstract class LifecycleBase implements Lifecycle {
             invalidTransition(Lifecycle.BEFORE_STOP_EVENT);
         }
 
+        long startTime = System.nanoTime();
         try {
             if (state.equals(LifecycleState.FAILED)) {
                 // Don't transition to STOPPING_PREP as that would briefly mark the
@@ -146,6 +154,7 @@ public abstract class LifecycleBase implements Lifecycle {
             setStateInternal(LifecycleState.FAILED, null, false);
             throw new LifecycleException("Failed to stop the lifecycle!", t);
         } finally {
+            LifecycleTimings.getInstance().record(this, "stop", startTime);
             if (this instanceof Lifecycle.SingleUse) {
                 // Complete stop process first
                 setStateInternal(LifecycleState.STOPPED, null, false);
@@ -190,6 +199,7 @@ public abstract class LifecycleBase implements Lifecycle {
             invalidTransition(Lifecycle.BEFORE_DESTROY_EVENT);
         }
 
+        long startTime = System.nanoTime();
         try {
             setStateInternal(LifecycleState.DESTROYING, null, false);
             destroyInternal();
@@ -198,6 +208,8 @@ public abstract class LifecycleBase implements Lifecycle {
             ExceptionUtils.handleThrowable(t);
             setStateInternal(LifecycleState.FAILED, null, false);
             throw new LifecycleException("Failed to destroy the lifecycle!", t);
+        } finally {
+            LifecycleTimings.getInstance().record(this, "destroy", startTime);
         }
     }
 
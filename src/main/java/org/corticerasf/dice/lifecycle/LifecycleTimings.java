@@ -0,0 +1,545 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.lifecycle;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.corticerasf.dice.Engine;
+import org.corticerasf.dice.Executor;
+import org.corticerasf.dice.Server;
+import org.corticerasf.dice.Service;
+import org.corticerasf.dice.connector.Connector;
+import org.corticerasf.dice.container.Contained;
+import org.corticerasf.dice.container.Container;
+import org.corticerasf.dice.mapper.MapperListener;
+import org.corticerasf.dice.utils.ExceptionUtils;
+
+/**
+ * Records how long every {@link LifecycleBase} component spends in each
+ * lifecycle phase, and how long each of its listeners takes to handle its
+ * events, to find the components slowing down the startup of the server.
+ * <p>
+ * Phase durations include the phases of the components started from within
+ * the phase, such as the children of a container. The log summary ranks the
+ * components by their self time, their init and start time less that of
+ * their children in the report, and shows both. In the report, components
+ * are nested by hierarchy: server, services, their engine, executors and
+ * connectors, hosts, contexts, and the pipelines and valves of containers.
+ * The report is available as a log summary, a JSON file, and the
+ * <code>StartupReport</code> attribute of the
+ * <code>org.corticerasf.dice:type=LifecycleTimings</code> MBean.
+ * <p>
+ * Recording stops once the report is published by {@link #report(File)}.
+ * The report is then kept as text and the recorded components are released,
+ * so that contexts started, reloaded or undeployed afterwards are neither
+ * timed nor kept reachable.
+ * <p>
+ * Recording is disabled by setting the system property
+ * <code>dice.lifecycle.timings</code> to <code>false</code>.
+ *
+ * @author J. Godara
+ */
+public final class LifecycleTimings implements LifecycleTimingsMBean {
+
+	private static final Logger logger = Logger
+			.getLogger(LifecycleTimings.class);
+
+	public static final String OBJECT_NAME = "org.corticerasf.dice:type=LifecycleTimings";
+
+	private static final LifecycleTimings instance = new LifecycleTimings();
+
+	private static final int SLOWEST_LOGGED = 10;
+
+	private final boolean enabled = !"false".equalsIgnoreCase(System
+			.getProperty("dice.lifecycle.timings"));
+
+	// By component, in the order of their first recorded phase
+	private final Map<Object, Entry> entries = new IdentityHashMap<Object, Entry>();
+	private final List<Entry> ordered = new ArrayList<Entry>();
+
+	// Set once the report is published, guarded by the lock of the entries
+	private volatile boolean frozen = false;
+	private String frozenReport = null;
+	private int frozenCount = 0;
+
+	private boolean registered = false;
+
+	private LifecycleTimings() {
+	}
+
+	public static LifecycleTimings getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Return <code>true</code> if lifecycle phases are being recorded, which
+	 * is no longer the case once the report is published.
+	 */
+	public boolean isEnabled() {
+		return enabled && !frozen;
+	}
+
+	/**
+	 * Record the duration of a lifecycle phase of a component.
+	 *
+	 * @param component
+	 *            The component
+	 * @param phase
+	 *            The phase: <code>init</code>, <code>start</code>,
+	 *            <code>stop</code> or <code>destroy</code>
+	 * @param startTime
+	 *            The value of <code>System.nanoTime()</code> when the phase
+	 *            started
+	 */
+	public void record(Lifecycle component, String phase, long startTime) {
+		if (!isEnabled())
+			return;
+
+		long duration = System.nanoTime() - startTime;
+		synchronized (entries) {
+			if (!frozen)
+				getEntry(component).addPhase(phase, duration);
+		}
+	}
+
+	/**
+	 * Record the time a listener took to handle an event of a component.
+	 * Periodic events are not recorded.
+	 */
+	public void recordListener(Lifecycle component, LifecycleListener listener,
+			String type, long duration) {
+		if (!isEnabled() || Lifecycle.PERIODIC_EVENT.equals(type))
+			return;
+
+		synchronized (entries) {
+			if (!frozen)
+				getEntry(component).addListener(
+						listener.getClass().getName(), duration);
+		}
+	}
+
+	public int getComponentCount() {
+		synchronized (entries) {
+			return (frozen ? frozenCount : ordered.size());
+		}
+	}
+
+	public void reset() {
+		synchronized (entries) {
+			entries.clear();
+			ordered.clear();
+			frozenReport = null;
+			frozenCount = 0;
+		}
+	}
+
+	public String getStartupReport() {
+		synchronized (entries) {
+			if (frozenReport != null)
+				return frozenReport;
+		}
+
+		List<Node> roots = buildTree();
+		StringBuilder json = new StringBuilder();
+		json.append("{\"generated\":").append(System.currentTimeMillis())
+				.append(",\"components\":[");
+		for (int i = 0; i < roots.size(); i++) {
+			if (i > 0)
+				json.append(',');
+			appendJson(json, roots.get(i));
+		}
+		json.append("]}");
+		return json.toString();
+	}
+
+	/**
+	 * Publish the report: log the slowest components, the whole tree at debug
+	 * level, write it to <code>startup-report.json</code> in the given
+	 * directory, and register the MBean. Recording stops, and the recorded
+	 * components are released, the MBean keeping the report as text.
+	 *
+	 * @param logsDir
+	 *            The directory of the JSON file, created if needed, or
+	 *            <code>null</code> not to write it
+	 */
+	public void report(File logsDir) {
+		if (!isEnabled())
+			return;
+
+		logSummary();
+
+		String report = getStartupReport();
+		if (logsDir != null)
+			writeReport(new File(logsDir, "startup-report.json"), report);
+
+		synchronized (entries) {
+			if (!frozen) {
+				frozenReport = report;
+				frozenCount = ordered.size();
+				frozen = true;
+				entries.clear();
+				ordered.clear();
+			}
+		}
+
+		registerMBean();
+	}
+
+	private void logSummary() {
+		List<Node> roots = buildTree();
+		List<Node> slowest = new ArrayList<Node>();
+		for (Node root : roots)
+			collect(slowest, root);
+		Collections.sort(slowest, new Comparator<Node>() {
+			public int compare(Node n1, Node n2) {
+				long t1 = n1.getSelfTime();
+				long t2 = n2.getSelfTime();
+				return (t1 < t2 ? 1 : (t1 == t2 ? 0 : -1));
+			}
+		});
+
+		StringBuilder summary = new StringBuilder("Startup report, slowest of ")
+				.append(slowest.size()).append(" components by self time:");
+		for (int i = 0; i < slowest.size() && i < SLOWEST_LOGGED; i++) {
+			Node node = slowest.get(i);
+			summary.append("\n  ").append(node.snapshot.name)
+					.append(": self ").append(toMillis(node.getSelfTime()))
+					.append(" ms, inclusive ")
+					.append(toMillis(node.getInclusiveTime())).append(" ms");
+		}
+		logger.info(summary);
+
+		if (logger.isDebugEnabled()) {
+			StringBuilder tree = new StringBuilder("Lifecycle timings:");
+			for (Node root : roots)
+				appendTree(tree, root, 1);
+			logger.debug(tree);
+		}
+	}
+
+	private static void collect(List<Node> out, Node node) {
+		out.add(node);
+		for (Node child : node.children)
+			collect(out, child);
+	}
+
+	private void writeReport(File file, String report) {
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			logger.warn("Cannot create " + dir + ", the startup report is not "
+					+ "written.");
+			return;
+		}
+
+		Writer writer = null;
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+			writer.write(report);
+		} catch (IOException ex) {
+			logger.warn("Cannot write the startup report to " + file + ".", ex);
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException ex) {
+					// Ignore
+				}
+			}
+		}
+	}
+
+	private synchronized void registerMBean() {
+		if (registered)
+			return;
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name))
+				server.registerMBean(this, name);
+			registered = true;
+		} catch (Throwable t) {
+			ExceptionUtils.handleThrowable(t);
+			logger.warn("Cannot register the " + OBJECT_NAME + " MBean.", t);
+		}
+	}
+
+	private Entry getEntry(Object component) {
+		Entry entry = entries.get(component);
+		if (entry == null) {
+			entry = new Entry(component);
+			entries.put(component, entry);
+			ordered.add(entry);
+		}
+		return entry;
+	}
+
+	// ---------------------------------------------------------------- Tree
+
+	/**
+	 * Nest the recorded components under their parents. Components whose
+	 * parent was not recorded are roots.
+	 */
+	private List<Node> buildTree() {
+		List<Entry> all;
+		synchronized (entries) {
+			all = new ArrayList<Entry>(ordered);
+		}
+
+		Map<Object, Node> nodes = new IdentityHashMap<Object, Node>();
+		for (Entry entry : all)
+			nodes.put(entry.component, new Node(entry.snapshot()));
+
+		// Components which do not know the component owning them
+		Map<Object, Object> parents = new IdentityHashMap<Object, Object>();
+		for (Entry entry : all) {
+			if (entry.component instanceof Server) {
+				parents.put(((Server) entry.component).getBackgroundScheduler(),
+						entry.component);
+			} else if (entry.component instanceof Service) {
+				Service service = (Service) entry.component;
+				for (Executor executor : service.findExecutors())
+					parents.put(executor, service);
+				if (service.getState().isAvailable())
+					parents.put(service.getTimer(), service);
+			}
+		}
+
+		List<Node> roots = new ArrayList<Node>();
+		for (Entry entry : all) {
+			Object parent = parents.get(entry.component);
+			if (parent == null)
+				parent = getParent(entry.component);
+			Node parentNode = (parent != null ? nodes.get(parent) : null);
+			Node node = nodes.get(entry.component);
+			if (parentNode != null && parentNode != node)
+				parentNode.children.add(node);
+			else
+				roots.add(node);
+		}
+		return roots;
+	}
+
+	private static Object getParent(Object component) {
+		if (component instanceof Container) {
+			Container parent = ((Container) component).getParent();
+			if (parent != null)
+				return parent;
+			if (component instanceof Engine)
+				return ((Engine) component).getService();
+			return null;
+		}
+		if (component instanceof Service)
+			return ((Service) component).getServer();
+		if (component instanceof Connector)
+			return ((Connector) component).getService();
+		if (component instanceof MapperListener)
+			return ((MapperListener) component).getService();
+		if (component instanceof Contained)
+			return ((Contained) component).getContainer();
+		return null;
+	}
+
+	private static String getName(Object component) {
+		if (component instanceof Container)
+			return component.getClass().getSimpleName() + "["
+					+ ((Container) component).getName() + "]";
+		return component.toString();
+	}
+
+	private static void appendLine(StringBuilder out, Snapshot snapshot) {
+		out.append(snapshot.name);
+		for (Map.Entry<String, Long> phase : snapshot.phases.entrySet())
+			out.append(", ").append(phase.getKey()).append(' ')
+					.append(toMillis(phase.getValue())).append(" ms");
+		for (Map.Entry<String, Long> listener : snapshot.listeners.entrySet())
+			out.append(", listener ").append(listener.getKey()).append(' ')
+					.append(toMillis(listener.getValue())).append(" ms");
+	}
+
+	private static void appendTree(StringBuilder out, Node node, int depth) {
+		out.append('\n');
+		for (int i = 0; i < depth; i++)
+			out.append("  ");
+		appendLine(out, node.snapshot);
+		for (Node child : node.children)
+			appendTree(out, child, depth + 1);
+	}
+
+	private static void appendJson(StringBuilder out, Node node) {
+		out.append("{\"name\":");
+		appendString(out, node.snapshot.name);
+		out.append(",\"type\":");
+		appendString(out, node.snapshot.type);
+		out.append(",\"phases\":");
+		appendDurations(out, node.snapshot.phases);
+		out.append(",\"listeners\":");
+		appendDurations(out, node.snapshot.listeners);
+		out.append(",\"children\":[");
+		for (int i = 0; i < node.children.size(); i++) {
+			if (i > 0)
+				out.append(',');
+			appendJson(out, node.children.get(i));
+		}
+		out.append("]}");
+	}
+
+	private static void appendDurations(StringBuilder out,
+			Map<String, Long> durations) {
+		out.append('{');
+		boolean first = true;
+		for (Map.Entry<String, Long> duration : durations.entrySet()) {
+			if (!first)
+				out.append(',');
+			first = false;
+			appendString(out, duration.getKey());
+			out.append(':').append(toMillis(duration.getValue()));
+		}
+		out.append('}');
+	}
+
+	private static void appendString(StringBuilder out, String value) {
+		out.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			default:
+				if (c < 0x20)
+					out.append(String.format("\\u%04x", Integer.valueOf(c)));
+				else
+					out.append(c);
+			}
+		}
+		out.append('"');
+	}
+
+	private static String toMillis(long nanos) {
+		return String.format(Locale.ENGLISH, "%.3f",
+				Double.valueOf(nanos / 1000000.0));
+	}
+
+	// ------------------------------------------------------- Entry and Node
+
+	/**
+	 * The timings of a component, guarded by the lock of the entries.
+	 */
+	private static final class Entry {
+
+		final Object component;
+		final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+		final Map<String, Long> listeners = new LinkedHashMap<String, Long>();
+
+		Entry(Object component) {
+			this.component = component;
+		}
+
+		void addPhase(String phase, long duration) {
+			phases.put(phase, Long.valueOf(getPhase(phase) + duration));
+		}
+
+		void addListener(String listener, long duration) {
+			Long total = listeners.get(listener);
+			listeners.put(listener, Long.valueOf((total != null ? total
+					.longValue() : 0) + duration));
+		}
+
+		long getPhase(String phase) {
+			Long total = phases.get(phase);
+			return (total != null ? total.longValue() : 0);
+		}
+
+		Snapshot snapshot() {
+			return new Snapshot(getName(component), component.getClass()
+					.getName(), new LinkedHashMap<String, Long>(phases),
+					new LinkedHashMap<String, Long>(listeners));
+		}
+	}
+
+	private static final class Snapshot {
+
+		final String name;
+		final String type;
+		final Map<String, Long> phases;
+		final Map<String, Long> listeners;
+
+		Snapshot(String name, String type, Map<String, Long> phases,
+				Map<String, Long> listeners) {
+			this.name = name;
+			this.type = type;
+			this.phases = phases;
+			this.listeners = listeners;
+		}
+	}
+
+	private static final class Node {
+
+		final Snapshot snapshot;
+		final List<Node> children = new ArrayList<Node>();
+
+		Node(Snapshot snapshot) {
+			this.snapshot = snapshot;
+		}
+
+		/**
+		 * Return the init and start time of the component, including that of
+		 * the components initialized and started from within.
+		 */
+		long getInclusiveTime() {
+			return getPhase("init") + getPhase("start");
+		}
+
+		/**
+		 * Return the init and start time of the component less that of its
+		 * children. Children started in parallel may add up to more than
+		 * their parent, whose self time is then zero.
+		 */
+		long getSelfTime() {
+			long self = getInclusiveTime();
+			for (Node child : children)
+				self -= child.getInclusiveTime();
+			return Math.max(0, self);
+		}
+
+		private long getPhase(String phase) {
+			Long total = snapshot.phases.get(phase);
+			return (total != null ? total.longValue() : 0);
+		}
+	}
+
+}
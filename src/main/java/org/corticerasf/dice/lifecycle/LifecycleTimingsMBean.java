@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.lifecycle;
+
+/**
+ * Management interface of {@link LifecycleTimings}.
+ *
+ * @author J. Godara
+ */
+public interface LifecycleTimingsMBean {
+
+	/**
+	 * Return the time spent by every component in each lifecycle phase, as a
+	 * JSON document nesting the components by hierarchy.
+	 */
+	public String getStartupReport();
+
+	/**
+	 * Return the number of components with recorded timings.
+	 */
+	public int getComponentCount();
+
+	/**
+	 * Forget the recorded timings, and the report once published.
+	 */
+	public void reset();
+
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.loader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The files a {@link WebappLoader} keeps in the work directory of its
+ * context between two starts:
+ * <ul>
+ * <li><code>loader-index.bin</code>, the entry names of each jar, valid while
+ * the path, modification time and size of the jar are unchanged, so the jars
+ * need not be opened and listed on start</li>
+ * <li><code>loader-preload.bin</code>, the classes loaded after the previous
+ * start, in their loading order, to load them again ahead of the first
+ * requests</li>
+ * </ul>
+ * Both files start with a magic number, a format version, and the length and
+ * CRC32 of their content, and are ignored when damaged or from another
+ * version. They are written to a temporary file renamed over the old one.
+ *
+ * @author J. Godara
+ */
+public class LoaderCache {
+
+	private static final Logger logger = Logger.getLogger(LoaderCache.class);
+
+	private static final int INDEX_MAGIC = 0x4449434c;
+	private static final int PRELOAD_MAGIC = 0x44494350;
+	private static final int VERSION = 1;
+
+	private final File dir;
+
+	public LoaderCache(File dir) {
+		this.dir = dir;
+	}
+
+	public File getDir() {
+		return dir;
+	}
+
+	// --------------------------------------------------------------- Index
+
+	/**
+	 * The entry names of a jar, with the state of the jar they were read
+	 * from.
+	 */
+	public static final class JarIndex {
+
+		final String path;
+		final long lastModified;
+		final long length;
+		final String[] names;
+
+		public JarIndex(File jar, long lastModified, long length,
+				String[] names) {
+			this.path = jar.getAbsolutePath();
+			this.lastModified = lastModified;
+			this.length = length;
+			this.names = names;
+		}
+
+		JarIndex(String path, long lastModified, long length, String[] names) {
+			this.path = path;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.names = names;
+		}
+
+		/**
+		 * Return <code>true</code> if these names were read from the jar in
+		 * its given state.
+		 */
+		public boolean matches(File jar, long lastModified, long length) {
+			return this.lastModified == lastModified && this.length == length
+					&& path.equals(jar.getAbsolutePath());
+		}
+
+		public String[] getNames() {
+			return names;
+		}
+	}
+
+	/**
+	 * Read the cached jar indexes, by absolute path of the jar.
+	 *
+	 * @return the indexes, empty if there are none or the file is invalid
+	 */
+	public Map<String, JarIndex> readIndex() {
+		Map<String, JarIndex> indexes = new HashMap<String, JarIndex>();
+		DataInputStream in = read("loader-index.bin", INDEX_MAGIC);
+		if (in == null)
+			return indexes;
+
+		try {
+			int jars = in.readInt();
+			for (int i = 0; i < jars; i++) {
+				String path = in.readUTF();
+				long lastModified = in.readLong();
+				long length = in.readLong();
+				String[] names = new String[in.readInt()];
+				// Names of a jar mostly share their package with the previous
+				String previous = "";
+				for (int j = 0; j < names.length; j++) {
+					int shared = in.readUnsignedShort();
+					names[j] = previous.substring(0, shared) + in.readUTF();
+					previous = names[j];
+				}
+				indexes.put(path, new JarIndex(path, lastModified, length,
+						names));
+			}
+		} catch (Exception ex) {
+			logger.warn("Cannot read the jar index of " + dir + ".", ex);
+			indexes.clear();
+		}
+		return indexes;
+	}
+
+	public void writeIndex(Collection<JarIndex> indexes) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(indexes.size());
+			for (JarIndex index : indexes) {
+				out.writeUTF(index.path);
+				out.writeLong(index.lastModified);
+				out.writeLong(index.length);
+				out.writeInt(index.names.length);
+				String previous = "";
+				for (String name : index.names) {
+					int shared = 0;
+					int max = Math.min(Math.min(previous.length(),
+							name.length()), 0xffff);
+					while (shared < max
+							&& previous.charAt(shared) == name.charAt(shared))
+						shared++;
+					out.writeShort(shared);
+					out.writeUTF(name.substring(shared));
+					previous = name;
+				}
+			}
+			write("loader-index.bin", INDEX_MAGIC, bytes.toByteArray());
+		} catch (IOException ex) {
+			logger.warn("Cannot write the jar index of " + dir + ".", ex);
+		}
+	}
+
+	// ------------------------------------------------------------- Preload
+
+	/**
+	 * Read the names of the classes loaded after the previous start.
+	 *
+	 * @return the names, empty if there are none or the file is invalid
+	 */
+	public List<String> readPreload() {
+		DataInputStream in = read("loader-preload.bin", PRELOAD_MAGIC);
+		if (in == null)
+			return Collections.emptyList();
+
+		try {
+			int count = in.readInt();
+			List<String> names = new ArrayList<String>(count);
+			for (int i = 0; i < count; i++)
+				names.add(in.readUTF());
+			return names;
+		} catch (Exception ex) {
+			logger.warn("Cannot read the preloaded classes of " + dir + ".", ex);
+			return Collections.emptyList();
+		}
+	}
+
+	public void writePreload(Collection<String> names) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(names.size());
+			for (String name : names)
+				out.writeUTF(name);
+			write("loader-preload.bin", PRELOAD_MAGIC, bytes.toByteArray());
+		} catch (IOException ex) {
+			logger.warn("Cannot write the preloaded classes of " + dir + ".",
+					ex);
+		}
+	}
+
+	// ---------------------------------------------------------------- Files
+
+	/**
+	 * Return the content of a file if it is valid.
+	 */
+	private DataInputStream read(String name, int magic) {
+		File file = new File(dir, name);
+		if (!file.isFile())
+			return null;
+
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+					readFully(new FileInputStream(file))));
+			if (in.readInt() != magic || in.readInt() != VERSION)
+				return null;
+
+			byte[] content = new byte[in.readInt()];
+			long checksum = in.readLong();
+			in.readFully(content);
+			CRC32 crc = new CRC32();
+			crc.update(content);
+			if (crc.getValue() != checksum) {
+				logger.warn("The cache file " + file + " is damaged.");
+				return null;
+			}
+			return new DataInputStream(new ByteArrayInputStream(content));
+		} catch (IOException ex) {
+			logger.warn("Cannot read the cache file " + file + ".", ex);
+			return null;
+		}
+	}
+
+	private void write(String name, int magic, byte[] content)
+			throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create " + dir);
+
+		CRC32 crc = new CRC32();
+		crc.update(content);
+
+		File file = new File(dir, name);
+		File temp = new File(dir, name + ".tmp");
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+		try {
+			out.writeInt(magic);
+			out.writeInt(VERSION);
+			out.writeInt(content.length);
+			out.writeLong(crc.getValue());
+			out.write(content);
+		} finally {
+			out.close();
+		}
+
+		if (!temp.renameTo(file)) {
+			file.delete();
+			if (!temp.renameTo(file)) {
+				temp.delete();
+				throw new IOException("Cannot rename " + temp + " to " + file);
+			}
+		}
+	}
+
+	private static byte[] readFully(InputStream is) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(
+					Math.max(is.available(), 1024));
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = is.read(buffer)) != -1)
+				out.write(buffer, 0, n);
+			return out.toByteArray();
+		} finally {
+			is.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "LoaderCache[" + dir + "]";
+	}
+
+}
@@ -0,0 +1,712 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.loader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The class loader of a web application, loading its classes and resources
+ * from <code>WEB-INF/classes</code> and the jars of <code>WEB-INF/lib</code>.
+ * <p>
+ * On {@link #start()}, the name of every entry of every repository is put in
+ * a hash index pointing to the first repository holding it, so finding a
+ * class or resource takes a single lookup whatever the number of jars. The
+ * jars stay open until {@link #stop()}, and their <code>ZipFile</code>s are
+ * shared by all the threads reading from them. Entries added to the
+ * repositories after the start are not seen.
+ * <p>
+ * With a {@link LoaderCache}, the names of the entries of a jar unchanged
+ * since the previous start are read from the cache, and the jar is only
+ * opened once a class or resource is read from it. The names of the classes
+ * loaded can be recorded, for the next start to load them ahead.
+ * <p>
+ * The loader is registered as parallel capable: classes of different names
+ * are loaded concurrently, with a lock per class name.
+ * <p>
+ * Unless <code>delegate</code> is set, classes and resources are looked up
+ * in the application before its parent, except for the classes of the Java
+ * platform, the Servlet API and the server.
+ *
+ * @author J. Godara
+ */
+public class WebappClassLoader extends URLClassLoader {
+
+	private static final Logger logger = Logger
+			.getLogger(WebappClassLoader.class);
+
+	static {
+		// ClassLoader.registerAsParallelCapable() is a Java 7 method
+		try {
+			Method register = ClassLoader.class
+					.getDeclaredMethod("registerAsParallelCapable");
+			register.setAccessible(true);
+			if (!((Boolean) register.invoke(null)).booleanValue())
+				logger.warn("The web application class loader could not be "
+						+ "registered as parallel capable.");
+		} catch (NoSuchMethodException ex) {
+			// Java 6, loadClass is synchronized on the class loader
+		} catch (Exception ex) {
+			logger.warn("The web application class loader could not be "
+					+ "registered as parallel capable.", ex);
+		}
+	}
+
+	// Looked up in the parent first, the platform classes only there
+	private static final String[] PARENT_FIRST = { "java.", "javax.",
+			"org.corticerasf.dice." };
+
+	private final ClassLoader parent;
+
+	private boolean delegate = false;
+
+	private final List<Repository> repositories = new ArrayList<Repository>();
+
+	// Entry name to the first repository holding it, set by start
+	private volatile Map<String, Repository> index = null;
+	// Entry name to all the repositories holding it, for names in several
+	private volatile Map<String, List<Repository>> duplicates = null;
+
+	private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+
+	private LoaderCache cache = null;
+
+	// The classes defined before recordUntil, in their loading order
+	private volatile long recordUntil = 0;
+	private final Queue<String> recorded = new ConcurrentLinkedQueue<String>();
+
+	public WebappClassLoader(ClassLoader parent) {
+		super(new URL[0], parent);
+		this.parent = (parent != null ? parent : getSystemClassLoader());
+	}
+
+	public boolean getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * Set whether the parent class loader is searched before the
+	 * repositories of the application.
+	 */
+	public void setDelegate(boolean delegate) {
+		this.delegate = delegate;
+	}
+
+	public LoaderCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Set the cache of the entry names of the jars. Takes effect on start.
+	 */
+	public void setCache(LoaderCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Record the names of the classes defined by this loader until the given
+	 * time, in milliseconds since the epoch.
+	 */
+	public void recordLoadedClasses(long until) {
+		recordUntil = until;
+	}
+
+	/**
+	 * Return the names of the classes recorded, in their loading order.
+	 */
+	public List<String> getRecordedClasses() {
+		return new ArrayList<String>(recorded);
+	}
+
+	/**
+	 * Add a directory or a jar to the repositories, searched in the order of
+	 * their addition. Takes effect on start.
+	 */
+	public synchronized void addRepository(File file) {
+		try {
+			addURL(file.toURI().toURL());
+		} catch (MalformedURLException ex) {
+			throw new IllegalArgumentException(ex);
+		}
+		if (file.isDirectory())
+			repositories.add(new DirRepository(file));
+		else
+			repositories.add(new JarRepository(file));
+	}
+
+	/**
+	 * Return the files of the repositories.
+	 */
+	public synchronized File[] findRepositories() {
+		File[] files = new File[repositories.size()];
+		for (int i = 0; i < files.length; i++)
+			files[i] = repositories.get(i).file;
+		return files;
+	}
+
+	public boolean isStarted() {
+		return index != null;
+	}
+
+	/**
+	 * Open the repositories and index their entries.
+	 */
+	public synchronized void start() throws IOException {
+		if (index != null)
+			return;
+
+		long startTime = System.currentTimeMillis();
+		Map<String, LoaderCache.JarIndex> cached = (cache != null ? cache
+				.readIndex() : Collections.<String, LoaderCache.JarIndex> emptyMap());
+		List<LoaderCache.JarIndex> jarIndexes = new ArrayList<LoaderCache.JarIndex>();
+		int listed = 0;
+
+		Map<String, Repository> names = new HashMap<String, Repository>();
+		Map<String, List<Repository>> shared = new HashMap<String, List<Repository>>();
+		try {
+			for (Repository repository : repositories) {
+				List<String> entries;
+				if (repository instanceof JarRepository) {
+					File jar = repository.file;
+					long lastModified = jar.lastModified();
+					long length = jar.length();
+					LoaderCache.JarIndex jarIndex = cached.get(jar
+							.getAbsolutePath());
+					if (jarIndex != null
+							&& jarIndex.matches(jar, lastModified, length)) {
+						((JarRepository) repository).openLazily();
+						entries = Arrays.asList(jarIndex.getNames());
+					} else {
+						repository.open();
+						entries = repository.list();
+						jarIndex = new LoaderCache.JarIndex(jar, lastModified,
+								length, entries.toArray(new String[entries
+										.size()]));
+						listed++;
+					}
+					jarIndexes.add(jarIndex);
+				} else {
+					repository.open();
+					entries = repository.list();
+				}
+
+				for (String name : entries) {
+					Repository first = names.get(name);
+					if (first == null) {
+						names.put(name, repository);
+					} else {
+						List<Repository> all = shared.get(name);
+						if (all == null) {
+							all = new ArrayList<Repository>(2);
+							all.add(first);
+							shared.put(name, all);
+						}
+						all.add(repository);
+					}
+				}
+			}
+		} catch (IOException ex) {
+			for (Repository repository : repositories)
+				repository.close();
+			throw ex;
+		}
+
+		// Set before the index, so a visible index has its duplicates
+		duplicates = shared;
+		index = names;
+
+		if (cache != null && (listed > 0 || cached.size() != jarIndexes.size()))
+			cache.writeIndex(jarIndexes);
+
+		if (logger.isDebugEnabled())
+			logger.debug("Indexed " + names.size() + " entries of "
+					+ repositories.size() + " repositories in "
+					+ (System.currentTimeMillis() - startTime) + " ms, "
+					+ (jarIndexes.size() - listed) + " jars from the cache");
+	}
+
+	/**
+	 * Close the repositories. Classes and resources of the application can no
+	 * longer be loaded.
+	 */
+	public synchronized void stop() {
+		index = null;
+		duplicates = null;
+		for (Repository repository : repositories)
+			repository.close();
+	}
+
+	/**
+	 * Return the names of the entries of the repositories, empty if the
+	 * loader is not started.
+	 */
+	public Iterable<String> getEntryNames() {
+		Map<String, Repository> names = index;
+		if (names == null)
+			return Collections.<String> emptyList();
+		return Collections.unmodifiableSet(names.keySet());
+	}
+
+	/**
+	 * Return the repository holding an entry, the first if several do.
+	 */
+	public File getRepository(String name) {
+		Map<String, Repository> names = index;
+		Repository repository = (names != null ? names.get(name) : null);
+		return (repository != null ? repository.file : null);
+	}
+
+	// ------------------------------------------------------- Class loading
+
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve)
+			throws ClassNotFoundException {
+		synchronized (getLock(name)) {
+			Class<?> clazz = findLoadedClass(name);
+
+			if (clazz == null) {
+				boolean parentFirst = delegate || isParentFirst(name);
+				if (parentFirst)
+					clazz = loadFromParent(name);
+				if (clazz == null && !name.startsWith("java."))
+					clazz = findLocalClass(name);
+				if (clazz == null && !parentFirst)
+					clazz = loadFromParent(name);
+				if (clazz == null)
+					throw new ClassNotFoundException(name);
+			}
+
+			if (resolve)
+				resolveClass(clazz);
+			return clazz;
+		}
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		Class<?> clazz = findLocalClass(name);
+		if (clazz == null)
+			throw new ClassNotFoundException(name);
+		return clazz;
+	}
+
+	private Class<?> loadFromParent(String name) {
+		try {
+			return Class.forName(name, false, parent);
+		} catch (ClassNotFoundException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Define a class of the application.
+	 *
+	 * @return the class, or <code>null</code> if no repository holds it
+	 */
+	protected Class<?> findLocalClass(String name) {
+		String path = name.replace('.', '/') + ".class";
+		Map<String, Repository> names = index;
+		Repository repository = (names != null ? names.get(path) : null);
+		if (repository == null)
+			return null;
+
+		synchronized (getLock(name)) {
+			Class<?> clazz = findLoadedClass(name);
+			if (clazz != null)
+				return clazz;
+
+			byte[] bytes;
+			try {
+				bytes = repository.read(path);
+			} catch (IOException ex) {
+				logger.warn("Cannot read class " + name + " from "
+						+ repository.file, ex);
+				return null;
+			}
+
+			definePackage(name, repository);
+			clazz = defineClass(name, bytes, 0, bytes.length,
+					repository.getProtectionDomain());
+
+			long until = recordUntil;
+			if (until != 0 && System.currentTimeMillis() < until)
+				recorded.add(name);
+			return clazz;
+		}
+	}
+
+	private void definePackage(String className, Repository repository) {
+		int dot = className.lastIndexOf('.');
+		if (dot < 0)
+			return;
+		String packageName = className.substring(0, dot);
+		if (getPackage(packageName) != null)
+			return;
+
+		try {
+			if (repository.manifest != null)
+				definePackage(packageName, repository.manifest, repository.url);
+			else
+				definePackage(packageName, null, null, null, null, null, null,
+						null);
+		} catch (IllegalArgumentException ex) {
+			// Defined concurrently for another class of the package
+		}
+	}
+
+	private Object getLock(String name) {
+		Object lock = locks.get(name);
+		if (lock == null) {
+			Object newLock = new Object();
+			lock = locks.putIfAbsent(name, newLock);
+			if (lock == null)
+				lock = newLock;
+		}
+		return lock;
+	}
+
+	private static boolean isParentFirst(String name) {
+		for (String prefix : PARENT_FIRST) {
+			if (name.startsWith(prefix))
+				return true;
+		}
+		return false;
+	}
+
+	// ------------------------------------------------------------ Resources
+
+	@Override
+	public URL getResource(String name) {
+		boolean parentFirst = delegate
+				|| isParentFirst(name.replace('/', '.'));
+		URL url = null;
+		if (parentFirst)
+			url = parent.getResource(name);
+		if (url == null)
+			url = findResource(name);
+		if (url == null && !parentFirst)
+			url = parent.getResource(name);
+		return url;
+	}
+
+	@Override
+	public InputStream getResourceAsStream(String name) {
+		boolean parentFirst = delegate
+				|| isParentFirst(name.replace('/', '.'));
+		InputStream is = null;
+		if (parentFirst)
+			is = parent.getResourceAsStream(name);
+		if (is == null)
+			is = findLocalResourceAsStream(name);
+		if (is == null && !parentFirst)
+			is = parent.getResourceAsStream(name);
+		return is;
+	}
+
+	@Override
+	public URL findResource(String name) {
+		name = normalize(name);
+		Map<String, Repository> names = index;
+		Repository repository = (names != null ? names.get(name) : null);
+		if (repository == null)
+			return null;
+		try {
+			return repository.getURL(name);
+		} catch (MalformedURLException ex) {
+			return null;
+		}
+	}
+
+	@Override
+	public Enumeration<URL> findResources(String name) throws IOException {
+		name = normalize(name);
+		Map<String, List<Repository>> shared = duplicates;
+		Map<String, Repository> names = index;
+		Repository repository = (names != null ? names.get(name) : null);
+		if (repository == null || shared == null)
+			return Collections.enumeration(Collections.<URL> emptyList());
+
+		List<Repository> all = shared.get(name);
+		if (all == null)
+			all = Collections.singletonList(repository);
+		List<URL> urls = new ArrayList<URL>(all.size());
+		for (Repository holder : all)
+			urls.add(holder.getURL(name));
+		return Collections.enumeration(urls);
+	}
+
+	private InputStream findLocalResourceAsStream(String name) {
+		name = normalize(name);
+		Map<String, Repository> names = index;
+		Repository repository = (names != null ? names.get(name) : null);
+		if (repository == null)
+			return null;
+		try {
+			return repository.getInputStream(name);
+		} catch (IOException ex) {
+			return null;
+		}
+	}
+
+	private static String normalize(String name) {
+		return (name.startsWith("/") ? name.substring(1) : name);
+	}
+
+	@Override
+	public String toString() {
+		return "WebappClassLoader[" + repositories.size() + " repositories, "
+				+ (index != null ? "started" : "stopped") + "]";
+	}
+
+	// ----------------------------------------------------------- Repository
+
+	/**
+	 * A directory or jar of classes and resources.
+	 */
+	private abstract class Repository {
+
+		final File file;
+		URL url = null;
+		Manifest manifest = null;
+		private ProtectionDomain protectionDomain = null;
+
+		Repository(File file) {
+			this.file = file;
+		}
+
+		void open() throws IOException {
+			url = file.toURI().toURL();
+		}
+
+		abstract List<String> list() throws IOException;
+
+		abstract URL getURL(String name) throws MalformedURLException;
+
+		abstract InputStream getInputStream(String name) throws IOException;
+
+		void close() {
+			// NO-OP
+		}
+
+		byte[] read(String name) throws IOException {
+			InputStream is = getInputStream(name);
+			if (is == null)
+				throw new IOException(name + " is no longer in " + file);
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = is.read(buffer)) != -1)
+					out.write(buffer, 0, n);
+				return out.toByteArray();
+			} finally {
+				is.close();
+			}
+		}
+
+		synchronized ProtectionDomain getProtectionDomain() {
+			if (protectionDomain == null) {
+				CodeSource codeSource = new CodeSource(url,
+						(Certificate[]) null);
+				protectionDomain = new ProtectionDomain(codeSource,
+						getPermissions(codeSource), WebappClassLoader.this,
+						null);
+			}
+			return protectionDomain;
+		}
+	}
+
+	private class DirRepository extends Repository {
+
+		DirRepository(File dir) {
+			super(dir);
+		}
+
+		@Override
+		List<String> list() {
+			List<String> names = new ArrayList<String>();
+			list(file, "", names);
+			return names;
+		}
+
+		private void list(File dir, String prefix, List<String> names) {
+			String[] children = dir.list();
+			if (children == null)
+				return;
+			for (String child : children) {
+				File file = new File(dir, child);
+				if (file.isDirectory()) {
+					names.add(prefix + child + "/");
+					list(file, prefix + child + "/", names);
+				} else {
+					names.add(prefix + child);
+				}
+			}
+		}
+
+		@Override
+		URL getURL(String name) throws MalformedURLException {
+			return new File(file, name).toURI().toURL();
+		}
+
+		@Override
+		InputStream getInputStream(String name) throws IOException {
+			File resource = new File(file, name);
+			return (resource.isFile() ? new FileInputStream(resource) : null);
+		}
+	}
+
+	private class JarRepository extends Repository {
+
+		private volatile ZipFile zipFile = null;
+		private volatile boolean closed = true;
+
+		JarRepository(File jar) {
+			super(jar);
+		}
+
+		@Override
+		void open() throws IOException {
+			openLazily();
+			getZipFile();
+		}
+
+		/**
+		 * Prepare the jar to be opened on first read.
+		 */
+		void openLazily() throws IOException {
+			super.open();
+			closed = false;
+		}
+
+		private ZipFile getZipFile() throws IOException {
+			ZipFile zip = zipFile;
+			if (zip != null || closed)
+				return zip;
+
+			synchronized (this) {
+				if (zipFile == null && !closed) {
+					zip = new ZipFile(file);
+					ZipEntry entry = zip.getEntry("META-INF/MANIFEST.MF");
+					if (entry != null) {
+						InputStream is = zip.getInputStream(entry);
+						try {
+							manifest = new Manifest(is);
+						} finally {
+							is.close();
+						}
+					}
+					zipFile = zip;
+				}
+				return zipFile;
+			}
+		}
+
+		@Override
+		List<String> list() throws IOException {
+			ZipFile zip = getZipFile();
+			List<String> names = new ArrayList<String>(zip.size());
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements())
+				names.add(entries.nextElement().getName());
+			return names;
+		}
+
+		@Override
+		URL getURL(String name) throws MalformedURLException {
+			return new URL("jar:" + url + "!/" + name);
+		}
+
+		@Override
+		InputStream getInputStream(String name) throws IOException {
+			ZipFile zip = getZipFile();
+			if (zip == null)
+				return null;
+			ZipEntry entry = zip.getEntry(name);
+			return (entry != null ? zip.getInputStream(entry) : null);
+		}
+
+		@Override
+		byte[] read(String name) throws IOException {
+			ZipFile zip = getZipFile();
+			ZipEntry entry = (zip != null ? zip.getEntry(name) : null);
+			if (entry == null || entry.getSize() < 0
+					|| entry.getSize() > Integer.MAX_VALUE)
+				return super.read(name);
+
+			// The size is known, read straight into the array
+			byte[] bytes = new byte[(int) entry.getSize()];
+			InputStream is = zip.getInputStream(entry);
+			try {
+				int offset = 0;
+				while (offset < bytes.length) {
+					int n = is.read(bytes, offset, bytes.length - offset);
+					if (n == -1)
+						throw new IOException("Truncated entry " + name
+								+ " in " + file);
+					offset += n;
+				}
+			} finally {
+				is.close();
+			}
+			return bytes;
+		}
+
+		@Override
+		void close() {
+			ZipFile zip;
+			synchronized (this) {
+				closed = true;
+				zip = zipFile;
+				zipFile = null;
+				manifest = null;
+			}
+			if (zip != null) {
+				try {
+					zip.close();
+				} catch (IOException ex) {
+					logger.warn("Cannot close " + file, ex);
+				}
+			}
+		}
+	}
+
+}
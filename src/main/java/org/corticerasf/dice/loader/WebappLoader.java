@@ -0,0 +1,397 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.loader;
+
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.corticerasf.dice.Context;
+import org.corticerasf.dice.Host;
+import org.corticerasf.dice.Loader;
+import org.corticerasf.dice.container.Container;
+import org.corticerasf.dice.lifecycle.LifecycleBase;
+import org.corticerasf.dice.lifecycle.LifecycleException;
+import org.corticerasf.dice.lifecycle.LifecycleState;
+import org.corticerasf.dice.utils.ContextName;
+import org.corticerasf.dice.utils.DaemonThreadFactory;
+import org.corticerasf.dice.utils.ExceptionUtils;
+
+/**
+ * The {@link Loader} of a {@link Context}, creating a new
+ * {@link WebappClassLoader} on every start over <code>WEB-INF/classes</code>,
+ * the jars of <code>WEB-INF/lib</code> in name order, and the repositories
+ * added with {@link #addRepository(String)}.
+ * <p>
+ * Unless <code>cacheEnabled</code> is off, a {@link LoaderCache} in the
+ * directory of the context under the work directory of its host keeps the
+ * entry names of the jars, and the classes loaded during the first
+ * <code>recordTime</code> milliseconds after a start. On the next start,
+ * those classes are loaded ahead by <code>preloadThreads</code> background
+ * threads, so the first requests find them loaded.
+ *
+ * @author J. Godara
+ */
+public class WebappLoader extends LifecycleBase implements Loader {
+
+	private static final Logger logger = Logger.getLogger(WebappLoader.class);
+
+	private Container container = null;
+	private ClassLoader parentClassLoader = null;
+
+	private boolean delegate = false;
+	private boolean reloadable = false;
+
+	private final List<String> repositories = new ArrayList<String>();
+
+	private boolean cacheEnabled = true;
+	private boolean preload = true;
+	private int preloadThreads = 0;
+	private long recordTime = 60000;
+
+	private volatile WebappClassLoader classLoader = null;
+	private LoaderCache cache = null;
+	private ExecutorService preloader = null;
+
+	// The repositories of the class loader and their state when it started
+	private File[] files = new File[0];
+	private long[] lastModified = new long[0];
+	private long[] lengths = new long[0];
+
+	private final PropertyChangeSupport support = new PropertyChangeSupport(
+			this);
+
+	public WebappLoader() {
+		this(null);
+	}
+
+	/**
+	 * @param parentClassLoader
+	 *            The parent of the class loaders, the class loader of this
+	 *            class if <code>null</code>
+	 */
+	public WebappLoader(ClassLoader parentClassLoader) {
+		this.parentClassLoader = parentClassLoader;
+	}
+
+	public ClassLoader getClassLoader() {
+		return classLoader;
+	}
+
+	public Container getContainer() {
+		return container;
+	}
+
+	public void setContainer(Container container) {
+		Container oldContainer = this.container;
+		this.container = container;
+		support.firePropertyChange("container", oldContainer, container);
+	}
+
+	public ClassLoader getParentClassLoader() {
+		return parentClassLoader;
+	}
+
+	public void setParentClassLoader(ClassLoader parentClassLoader) {
+		this.parentClassLoader = parentClassLoader;
+	}
+
+	public boolean getDelegate() {
+		return delegate;
+	}
+
+	public void setDelegate(boolean delegate) {
+		boolean oldDelegate = this.delegate;
+		this.delegate = delegate;
+		support.firePropertyChange("delegate", oldDelegate, delegate);
+	}
+
+	public String getInfo() {
+		return "org.corticerasf.dice.loader.WebappLoader/1.0";
+	}
+
+	public boolean getReloadable() {
+		return reloadable;
+	}
+
+	public void setReloadable(boolean reloadable) {
+		boolean oldReloadable = this.reloadable;
+		this.reloadable = reloadable;
+		support.firePropertyChange("reloadable", oldReloadable, reloadable);
+	}
+
+	public boolean isCacheEnabled() {
+		return cacheEnabled;
+	}
+
+	/**
+	 * Set whether the entry names of the jars and the loaded classes are
+	 * cached in the work directory. Takes effect on start.
+	 */
+	public void setCacheEnabled(boolean cacheEnabled) {
+		this.cacheEnabled = cacheEnabled;
+	}
+
+	public boolean isPreload() {
+		return preload;
+	}
+
+	/**
+	 * Set whether the classes loaded after the previous start are loaded
+	 * again in the background on start.
+	 */
+	public void setPreload(boolean preload) {
+		this.preload = preload;
+	}
+
+	public int getPreloadThreads() {
+		return preloadThreads;
+	}
+
+	/**
+	 * Set the number of threads preloading classes, 0 for one per processor.
+	 */
+	public void setPreloadThreads(int preloadThreads) {
+		this.preloadThreads = Math.max(0, preloadThreads);
+	}
+
+	public long getRecordTime() {
+		return recordTime;
+	}
+
+	/**
+	 * Set the time, in milliseconds after a start, during which the loaded
+	 * classes are recorded for the next start to preload them.
+	 */
+	public void setRecordTime(long recordTime) {
+		this.recordTime = Math.max(0, recordTime);
+	}
+
+	/**
+	 * Return the directory of the cache of the context: its base name in the
+	 * work directory of its host.
+	 */
+	protected File getCacheDir() {
+		Container host = container.getParent();
+		String name = new ContextName(container.getName(), false).getBaseName();
+		if (host instanceof Host)
+			return new File(((Host) host).getWorkDirFile(), name);
+		return new File(((Context) container).getDocBaseFile(),
+				"WEB-INF/work");
+	}
+
+	public void addPropertyChangeListener(PropertyChangeListener listener) {
+		support.addPropertyChangeListener(listener);
+	}
+
+	public void removePropertyChangeListener(PropertyChangeListener listener) {
+		support.removePropertyChangeListener(listener);
+	}
+
+	/**
+	 * Add a directory or jar searched after those of the application, on the
+	 * next start.
+	 */
+	public void addRepository(String repository) {
+		synchronized (repositories) {
+			repositories.add(repository);
+		}
+	}
+
+	public String[] findRepositories() {
+		synchronized (repositories) {
+			return repositories.toArray(new String[repositories.size()]);
+		}
+	}
+
+	/**
+	 * Return <code>true</code> if a repository of the class loader was
+	 * changed or removed since it started.
+	 */
+	public synchronized boolean modified() {
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].lastModified() != lastModified[i]
+					|| files[i].length() != lengths[i])
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	protected void initInternal() throws LifecycleException {
+		// NO-OP
+	}
+
+	@Override
+	protected void startInternal() throws LifecycleException {
+		if (!(container instanceof Context))
+			throw new LifecycleException(this + " is not associated with a "
+					+ "context.");
+
+		ClassLoader parent = parentClassLoader;
+		if (parent == null)
+			parent = WebappLoader.class.getClassLoader();
+
+		WebappClassLoader loader = new WebappClassLoader(parent);
+		loader.setDelegate(delegate);
+
+		File webInf = new File(((Context) container).getDocBaseFile(),
+				"WEB-INF");
+		File classes = new File(webInf, "classes");
+		if (classes.isDirectory())
+			loader.addRepository(classes);
+
+		String[] jars = new File(webInf, "lib").list();
+		if (jars != null) {
+			Arrays.sort(jars);
+			for (String jar : jars) {
+				if (jar.toLowerCase(Locale.ENGLISH).endsWith(".jar"))
+					loader.addRepository(new File(new File(webInf, "lib"), jar));
+			}
+		}
+
+		for (String repository : findRepositories()) {
+			File file = new File(repository);
+			if (file.exists())
+				loader.addRepository(file);
+			else
+				logger.warn("Repository " + repository + " of " + this
+						+ " does not exist.");
+		}
+
+		cache = (cacheEnabled ? new LoaderCache(getCacheDir()) : null);
+		loader.setCache(cache);
+		if (cache != null && recordTime > 0)
+			loader.recordLoadedClasses(System.currentTimeMillis() + recordTime);
+
+		try {
+			loader.start();
+		} catch (IOException ex) {
+			throw new LifecycleException("Cannot open the repositories of "
+					+ this + ".", ex);
+		}
+
+		synchronized (this) {
+			files = loader.findRepositories();
+			lastModified = new long[files.length];
+			lengths = new long[files.length];
+			for (int i = 0; i < files.length; i++) {
+				lastModified[i] = files[i].lastModified();
+				lengths[i] = files[i].length();
+			}
+		}
+
+		classLoader = loader;
+
+		if (cache != null && preload)
+			startPreload(loader, cache.readPreload());
+
+		setState(LifecycleState.STARTING);
+	}
+
+	/**
+	 * Load classes in the background, split between the preload threads.
+	 */
+	private void startPreload(final WebappClassLoader loader,
+			final List<String> classNames) {
+		if (classNames.isEmpty())
+			return;
+
+		int threads = (preloadThreads > 0 ? preloadThreads : Runtime
+				.getRuntime().availableProcessors());
+		threads = Math.min(threads, classNames.size());
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+				0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				new DaemonThreadFactory(container.getName() + "-preload-",
+						Thread.MIN_PRIORITY));
+		final long startTime = System.currentTimeMillis();
+		final AtomicInteger remaining = new AtomicInteger(threads);
+		final AtomicInteger loaded = new AtomicInteger(0);
+		for (int i = 0; i < threads; i++) {
+			final int first = i;
+			final int step = threads;
+			executor.execute(new Runnable() {
+				public void run() {
+					// Every thread takes one name out of step, keeping the
+					// loading order of the previous start
+					for (int j = first; j < classNames.size(); j += step) {
+						if (!loader.isStarted() || Thread.interrupted())
+							break;
+						try {
+							loader.loadClass(classNames.get(j));
+							loaded.incrementAndGet();
+						} catch (Throwable t) {
+							ExceptionUtils.handleThrowable(t);
+						}
+					}
+					if (remaining.decrementAndGet() == 0
+							&& logger.isDebugEnabled())
+						logger.debug("Preloaded " + loaded + " of "
+								+ classNames.size() + " classes of "
+								+ container.getName() + " in "
+								+ (System.currentTimeMillis() - startTime)
+								+ " ms");
+				}
+			});
+		}
+		executor.shutdown();
+		preloader = executor;
+	}
+
+	@Override
+	protected void stopInternal() throws LifecycleException {
+		setState(LifecycleState.STOPPING);
+
+		if (preloader != null) {
+			preloader.shutdownNow();
+			preloader = null;
+		}
+
+		WebappClassLoader loader = classLoader;
+		classLoader = null;
+		if (loader != null) {
+			List<String> recorded = loader.getRecordedClasses();
+			if (cache != null && !recorded.isEmpty())
+				cache.writePreload(new LinkedHashSet<String>(recorded));
+			loader.stop();
+		}
+		cache = null;
+	}
+
+	@Override
+	protected void destroyInternal() throws LifecycleException {
+		// NO-OP
+	}
+
+	@Override
+	public String toString() {
+		return "WebappLoader[" + (container != null ? container.getName() : "")
+				+ "]";
+	}
+
+}
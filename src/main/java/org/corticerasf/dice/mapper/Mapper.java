@@ -0,0 +1,614 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.mapper;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import javax.servlet.Servlet;
+
+import org.apache.log4j.Logger;
+import org.corticerasf.dice.Context;
+import org.corticerasf.dice.Host;
+import org.corticerasf.dice.utils.ByteChunk;
+
+/**
+ * Maps requests to the host, the context and the servlet which process them.
+ * <p>
+ * Hosts, and the aliases of hosts, are kept in an array sorted by name and
+ * looked up by binary search, comparing the bytes of the <code>Host</code>
+ * header without regard to case. The contexts of a host are kept in an
+ * array sorted by path, and the context of a request is the one with the
+ * longest path which is a prefix of the URI, found by trimming the URI one
+ * segment at a time, starting no deeper than the deepest context. The
+ * servlet is then chosen within the context by exact path, longest path
+ * prefix, extension and finally the default servlet.
+ * <p>
+ * Mapping works on the bytes of the request, takes no lock and does not
+ * allocate, and costs a few binary searches however many hosts and contexts
+ * are deployed. Updates are serialized and replace the arrays they change
+ * with new ones, which requests see on their next lookup.
+ *
+ * @author J. Godara
+ */
+public final class Mapper {
+
+	private static final Logger logger = Logger.getLogger(Mapper.class);
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private volatile MappedHost[] hosts = new MappedHost[0];
+	private volatile MappedHost defaultHost = null;
+	private String defaultHostName = null;
+
+	// ------------------------------------------------------- Hosts
+
+	/**
+	 * Set the name of the host serving requests for unknown host names. If it
+	 * is not set and there is a single host, that host serves them.
+	 */
+	public synchronized void setDefaultHostName(String defaultHostName) {
+		this.defaultHostName = (defaultHostName == null ? null
+				: defaultHostName.toLowerCase(Locale.ENGLISH));
+		updateDefaultHost();
+	}
+
+	public synchronized void addHost(String name, String[] aliases, Host host) {
+		name = name.toLowerCase(Locale.ENGLISH);
+
+		int pos = findExact(hosts, name);
+		if (pos >= 0 && hosts[pos].object == host)
+			return;
+
+		// A replaced host takes its aliases and contexts with it
+		if (pos >= 0 && !hosts[pos].isAlias())
+			removeHost(name);
+		hosts = insert(hosts, new MappedHost(name, host));
+
+		if (aliases != null) {
+			for (String alias : aliases)
+				addHostAlias(name, alias);
+		}
+		updateDefaultHost();
+	}
+
+	/**
+	 * Remove a host, its aliases and its contexts.
+	 */
+	public synchronized void removeHost(String name) {
+		name = name.toLowerCase(Locale.ENGLISH);
+
+		int pos = findExact(hosts, name);
+		if (pos < 0 || hosts[pos].isAlias())
+			return;
+
+		MappedHost realHost = hosts[pos];
+		List<MappedHost> remaining = new ArrayList<MappedHost>(hosts.length);
+		for (MappedHost host : hosts) {
+			if (host.realHost != realHost)
+				remaining.add(host);
+		}
+		hosts = remaining.toArray(new MappedHost[remaining.size()]);
+		updateDefaultHost();
+	}
+
+	public synchronized void addHostAlias(String name, String alias) {
+		MappedHost realHost = findRealHost(name);
+		if (realHost == null)
+			return;
+
+		alias = alias.toLowerCase(Locale.ENGLISH);
+		int pos = findExact(hosts, alias);
+		if (pos >= 0) {
+			if (hosts[pos].realHost != realHost)
+				logger.warn("Host name " + alias + " of " + name
+						+ " is already used by " + hosts[pos].realHost.name
+						+ ".");
+			return;
+		}
+
+		hosts = insert(hosts, new MappedHost(alias, realHost));
+	}
+
+	public synchronized void removeHostAlias(String alias) {
+		alias = alias.toLowerCase(Locale.ENGLISH);
+		int pos = findExact(hosts, alias);
+		if (pos >= 0 && hosts[pos].isAlias())
+			hosts = remove(hosts, alias);
+	}
+
+	// ------------------------------------------------------- Contexts
+
+	/**
+	 * Add or replace a context of a host.
+	 *
+	 * @param path
+	 *            The context path, empty for the root context
+	 */
+	public synchronized void addContext(String hostName, String path,
+			Context context) {
+		MappedHost host = findRealHost(hostName);
+		if (host == null) {
+			logger.warn("Cannot map context " + path + " of unknown host "
+					+ hostName + ".");
+			return;
+		}
+
+		host.contextList = host.contextList.add(new MappedContext(path,
+				context));
+	}
+
+	public synchronized void removeContext(String hostName, String path) {
+		MappedHost host = findRealHost(hostName);
+		if (host != null)
+			host.contextList = host.contextList.remove(path);
+	}
+
+	// ------------------------------------------------------- Servlets
+
+	/**
+	 * Map a servlet of a context to a URL pattern: <code>/path/*</code> for a
+	 * path prefix, <code>*.ext</code> for an extension, <code>/</code> for the
+	 * default servlet and anything else for an exact path.
+	 */
+	public synchronized void addWrapper(String hostName, String contextPath,
+			String pattern, Servlet wrapper) {
+		MappedContext context = findContext(hostName, contextPath);
+		if (context == null) {
+			logger.warn("Cannot map servlet " + pattern + " of unknown context "
+					+ hostName + contextPath + ".");
+			return;
+		}
+
+		if (pattern.endsWith("/*")) {
+			String path = pattern.substring(0, pattern.length() - 2);
+			context.wildcardWrappers = insert(context.wildcardWrappers,
+					new MappedWrapper(path, wrapper));
+			context.wildcardNesting = Math.max(context.wildcardNesting,
+					slashCount(path));
+		} else if (pattern.startsWith("*.")) {
+			context.extensionWrappers = insert(context.extensionWrappers,
+					new MappedWrapper(pattern.substring(2), wrapper));
+		} else if (pattern.equals("/")) {
+			context.defaultWrapper = new MappedWrapper("", wrapper);
+		} else {
+			context.exactWrappers = insert(context.exactWrappers,
+					new MappedWrapper(pattern, wrapper));
+		}
+	}
+
+	public synchronized void removeWrapper(String hostName, String contextPath,
+			String pattern) {
+		MappedContext context = findContext(hostName, contextPath);
+		if (context == null)
+			return;
+
+		if (pattern.endsWith("/*")) {
+			MappedWrapper[] wildcards = remove(context.wildcardWrappers,
+					pattern.substring(0, pattern.length() - 2));
+			int nesting = 0;
+			for (MappedWrapper wrapper : wildcards)
+				nesting = Math.max(nesting, slashCount(wrapper.name));
+			context.wildcardWrappers = wildcards;
+			context.wildcardNesting = nesting;
+		} else if (pattern.startsWith("*.")) {
+			context.extensionWrappers = remove(context.extensionWrappers,
+					pattern.substring(2));
+		} else if (pattern.equals("/")) {
+			context.defaultWrapper = null;
+		} else {
+			context.exactWrappers = remove(context.exactWrappers, pattern);
+		}
+	}
+
+	// ------------------------------------------------------- Mapping
+
+	/**
+	 * Map a request.
+	 *
+	 * @param host
+	 *            The value of the <code>Host</code> header, which may include
+	 *            a port, or <code>null</code>
+	 * @param uri
+	 *            The request URI, without the query string, decoded and
+	 *            normalized
+	 * @param mappingData
+	 *            Receives the result, left empty for the parts which could
+	 *            not be mapped
+	 */
+	public void map(ByteChunk host, ByteChunk uri, MappingData mappingData) {
+		MappedHost mappedHost = mapHost(host);
+		if (mappedHost == null)
+			return;
+		mappingData.host = mappedHost.object;
+
+		byte[] b = uri.getBuffer();
+		int start = uri.getStart();
+		int end = uri.getEnd();
+		if (b == null) {
+			if (uri.isNull())
+				return;
+			// Not backed by a buffer, which the parsers never do
+			b = uri.toString().getBytes(ISO_8859_1);
+			start = 0;
+			end = b.length;
+		}
+
+		ContextList contextList = mappedHost.realHost.contextList;
+		int pos = findPrefix(contextList.contexts, contextList.nesting, b,
+				start, end);
+		if (pos < 0)
+			return;
+
+		MappedContext context = contextList.contexts[pos];
+		mappingData.context = context.object;
+		mappingData.contextPath = context.name;
+
+		mapWrapper(context, b, start + context.name.length(), end, mappingData);
+	}
+
+	private MappedHost mapHost(ByteChunk host) {
+		byte[] b = (host != null ? host.getBuffer() : null);
+		if (b == null)
+			return defaultHost;
+
+		int start = host.getStart();
+		int end = host.getEnd();
+		// Strip the port, minding IPv6 literals
+		for (int i = (end > start && b[start] == '[' ? start + 1 : start); i < end; i++) {
+			if (b[i] == ']') {
+				end = i + 1;
+				break;
+			}
+			if (b[i] == ':' && b[start] != '[') {
+				end = i;
+				break;
+			}
+		}
+
+		MappedHost[] hosts = this.hosts;
+		int pos = find(hosts, b, start, end, true);
+		if (pos >= 0 && compare(hosts[pos].name, b, start, end, true) == 0)
+			return hosts[pos];
+		return defaultHost;
+	}
+
+	private void mapWrapper(MappedContext context, byte[] b, int start,
+			int end, MappingData mappingData) {
+		// Exact match
+		MappedWrapper[] exact = context.exactWrappers;
+		int pos = find(exact, b, start, end, false);
+		if (pos >= 0 && compare(exact[pos].name, b, start, end, false) == 0) {
+			setWrapper(mappingData, exact[pos], MappingData.MatchType.EXACT,
+					b, start, end, end);
+			return;
+		}
+
+		// Longest path prefix
+		MappedWrapper[] wildcards = context.wildcardWrappers;
+		pos = findPrefix(wildcards, context.wildcardNesting, b, start, end);
+		if (pos >= 0) {
+			setWrapper(mappingData, wildcards[pos],
+					MappingData.MatchType.PATH, b, start,
+					start + wildcards[pos].name.length(), end);
+			return;
+		}
+
+		// Extension of the last segment
+		MappedWrapper[] extensions = context.extensionWrappers;
+		if (extensions.length > 0) {
+			for (int i = end - 1; i >= start && b[i] != '/'; i--) {
+				if (b[i] == '.') {
+					pos = find(extensions, b, i + 1, end, false);
+					if (pos >= 0
+							&& compare(extensions[pos].name, b, i + 1, end, false) == 0) {
+						setWrapper(mappingData, extensions[pos],
+								MappingData.MatchType.EXTENSION, b, start, end,
+								end);
+						return;
+					}
+					break;
+				}
+			}
+		}
+
+		MappedWrapper defaultWrapper = context.defaultWrapper;
+		if (defaultWrapper != null)
+			setWrapper(mappingData, defaultWrapper,
+					MappingData.MatchType.DEFAULT, b, start, end, end);
+	}
+
+	private static void setWrapper(MappingData mappingData,
+			MappedWrapper wrapper, MappingData.MatchType matchType, byte[] b,
+			int start, int wrapperEnd, int end) {
+		mappingData.wrapper = wrapper.object;
+		mappingData.matchType = matchType;
+		mappingData.wrapperPath.setBytes(b, start, wrapperEnd);
+		if (wrapperEnd < end)
+			mappingData.pathInfo.setBytes(b, wrapperEnd, end);
+	}
+
+	// ------------------------------------------------------- Lookups
+
+	/**
+	 * Find the element with the longest name which is a prefix of the given
+	 * path ending at a segment boundary. Only the first
+	 * <code>nesting + 1</code> segments of the path can match.
+	 *
+	 * @return the index of the element, or -1
+	 */
+	private static int findPrefix(MapElement<?>[] map, int nesting, byte[] b,
+			int start, int end) {
+		if (map.length == 0)
+			return -1;
+
+		int slashes = 0;
+		for (int i = start; i < end; i++) {
+			if (b[i] == '/' && ++slashes > nesting) {
+				end = i;
+				break;
+			}
+		}
+
+		while (true) {
+			int pos = find(map, b, start, end, false);
+			if (pos >= 0 && compare(map[pos].name, b, start, end, false) == 0)
+				return pos;
+
+			int slash = end - 1;
+			while (slash >= start && b[slash] != '/')
+				slash--;
+			if (slash < start)
+				return -1;
+			end = slash;
+		}
+	}
+
+	/**
+	 * Binary search for the last element whose name is not greater than the
+	 * given bytes.
+	 *
+	 * @return the index of the element, or -1 if all names are greater
+	 */
+	private static int find(MapElement<?>[] map, byte[] b, int start, int end,
+			boolean ignoreCase) {
+		int low = 0;
+		int high = map.length - 1;
+		int result = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (compare(map[mid].name, b, start, end, ignoreCase) <= 0) {
+				result = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Compare a name with bytes decoded as ISO-8859-1, lower casing ASCII
+	 * letters of the bytes if <code>ignoreCase</code> is set, in which case
+	 * the name must be in lower case.
+	 */
+	private static int compare(String name, byte[] b, int start, int end,
+			boolean ignoreCase) {
+		int length = end - start;
+		int n = Math.min(name.length(), length);
+		for (int i = 0; i < n; i++) {
+			int c = b[start + i] & 0xff;
+			if (ignoreCase && c >= 'A' && c <= 'Z')
+				c += 'a' - 'A';
+			int diff = name.charAt(i) - c;
+			if (diff != 0)
+				return diff;
+		}
+		return name.length() - length;
+	}
+
+	/**
+	 * Binary search by name, with the return values of
+	 * {@link Arrays#binarySearch(Object[], Object)}.
+	 */
+	private static int findExact(MapElement<?>[] map, String name) {
+		int low = 0;
+		int high = map.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int result = map[mid].name.compareTo(name);
+			if (result < 0)
+				low = mid + 1;
+			else if (result > 0)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Return a copy of the map with the element added, or replacing the one
+	 * of the same name.
+	 */
+	private static <E extends MapElement<?>> E[] insert(E[] map, E element) {
+		int pos = findExact(map, element.name);
+		if (pos >= 0) {
+			E[] result = map.clone();
+			result[pos] = element;
+			return result;
+		}
+
+		pos = -(pos + 1);
+		E[] result = Arrays.copyOf(map, map.length + 1);
+		System.arraycopy(map, pos, result, pos + 1, map.length - pos);
+		result[pos] = element;
+		return result;
+	}
+
+	/**
+	 * Return a copy of the map without the element of the given name.
+	 */
+	private static <E extends MapElement<?>> E[] remove(E[] map, String name) {
+		int pos = findExact(map, name);
+		if (pos < 0)
+			return map;
+
+		E[] result = Arrays.copyOf(map, map.length - 1);
+		System.arraycopy(map, pos + 1, result, pos, map.length - pos - 1);
+		return result;
+	}
+
+	private MappedHost findRealHost(String name) {
+		int pos = findExact(hosts, name.toLowerCase(Locale.ENGLISH));
+		return (pos >= 0 ? hosts[pos].realHost : null);
+	}
+
+	private MappedContext findContext(String hostName, String path) {
+		MappedHost host = findRealHost(hostName);
+		if (host == null)
+			return null;
+		MappedContext[] contexts = host.contextList.contexts;
+		int pos = findExact(contexts, path);
+		return (pos >= 0 ? contexts[pos] : null);
+	}
+
+	private void updateDefaultHost() {
+		MappedHost result = null;
+		if (defaultHostName != null)
+			result = findRealHost(defaultHostName);
+
+		if (result == null) {
+			// A single host serves every name.
+			for (MappedHost host : hosts) {
+				if (host.isAlias())
+					continue;
+				if (result != null) {
+					result = null;
+					break;
+				}
+				result = host;
+			}
+		}
+		defaultHost = result;
+	}
+
+	private static int slashCount(String path) {
+		int count = 0;
+		for (int i = 0; i < path.length(); i++) {
+			if (path.charAt(i) == '/')
+				count++;
+		}
+		return count;
+	}
+
+	// ------------------------------------------------------- Elements
+
+	private abstract static class MapElement<T> {
+
+		final String name;
+		final T object;
+
+		MapElement(String name, T object) {
+			this.name = name;
+			this.object = object;
+		}
+
+	}
+
+	private static final class MappedHost extends MapElement<Host> {
+
+		// This host, or the host this is an alias of
+		final MappedHost realHost;
+
+		// Only used on real hosts
+		volatile ContextList contextList;
+
+		MappedHost(String name, Host host) {
+			super(name, host);
+			this.realHost = this;
+			this.contextList = new ContextList(new MappedContext[0], 0);
+		}
+
+		MappedHost(String alias, MappedHost realHost) {
+			super(alias, realHost.object);
+			this.realHost = realHost;
+		}
+
+		boolean isAlias() {
+			return realHost != this;
+		}
+
+	}
+
+	/**
+	 * The contexts of a host, sorted by path, with the number of slashes of
+	 * the deepest path.
+	 */
+	private static final class ContextList {
+
+		final MappedContext[] contexts;
+		final int nesting;
+
+		ContextList(MappedContext[] contexts, int nesting) {
+			this.contexts = contexts;
+			this.nesting = nesting;
+		}
+
+		ContextList add(MappedContext context) {
+			return new ContextList(insert(contexts, context), Math.max(
+					nesting, slashCount(context.name)));
+		}
+
+		ContextList remove(String path) {
+			MappedContext[] result = Mapper.remove(contexts, path);
+			if (result == contexts)
+				return this;
+
+			int nesting = 0;
+			for (MappedContext context : result)
+				nesting = Math.max(nesting, slashCount(context.name));
+			return new ContextList(result, nesting);
+		}
+
+	}
+
+	private static final class MappedContext extends MapElement<Context> {
+
+		volatile MappedWrapper[] exactWrappers = new MappedWrapper[0];
+		volatile MappedWrapper[] wildcardWrappers = new MappedWrapper[0];
+		volatile int wildcardNesting = 0;
+		volatile MappedWrapper[] extensionWrappers = new MappedWrapper[0];
+		volatile MappedWrapper defaultWrapper = null;
+
+		MappedContext(String path, Context context) {
+			super(path, context);
+		}
+
+	}
+
+	private static final class MappedWrapper extends MapElement<Servlet> {
+
+		MappedWrapper(String name, Servlet servlet) {
+			super(name, servlet);
+		}
+
+	}
+
+}
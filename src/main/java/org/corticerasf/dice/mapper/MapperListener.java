@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.mapper;
+
+import org.apache.log4j.Logger;
+import org.corticerasf.dice.Context;
+import org.corticerasf.dice.Engine;
+import org.corticerasf.dice.Host;
+import org.corticerasf.dice.Service;
+import org.corticerasf.dice.container.Container;
+import org.corticerasf.dice.container.ContainerEvent;
+import org.corticerasf.dice.container.ContainerListener;
+import org.corticerasf.dice.lifecycle.LifecycleBase;
+import org.corticerasf.dice.lifecycle.LifecycleException;
+import org.corticerasf.dice.lifecycle.LifecycleState;
+
+/**
+ * Keeps the {@link Mapper} of a service in step with its containers.
+ * <p>
+ * On start, the hosts of the engine, their aliases, their contexts and the
+ * servlet mappings of the contexts are registered, and the listener adds
+ * itself to each of these containers so that later changes, such as
+ * deployments, reach the mapper as container events.
+ *
+ * @author J. Godara
+ */
+public class MapperListener extends LifecycleBase implements ContainerListener {
+
+	private static final Logger logger = Logger.getLogger(MapperListener.class);
+
+	private final Mapper mapper;
+	private final Service service;
+
+	public MapperListener(Mapper mapper, Service service) {
+		this.mapper = mapper;
+		this.service = service;
+	}
+
+	public Service getService() {
+		return service;
+	}
+
+	@Override
+	protected void initInternal() throws LifecycleException {
+		// NO-OP
+	}
+
+	@Override
+	protected void startInternal() throws LifecycleException {
+		setState(LifecycleState.STARTING);
+
+		Container engine = service.getContainer();
+		if (engine == null)
+			return;
+
+		if (engine instanceof Engine)
+			mapper.setDefaultHostName(((Engine) engine).getDefaultHost());
+		engine.addContainerListener(this);
+
+		for (Container host : engine.findChildren())
+			registerHost((Host) host);
+	}
+
+	@Override
+	protected void stopInternal() throws LifecycleException {
+		setState(LifecycleState.STOPPING);
+
+		Container engine = service.getContainer();
+		if (engine == null)
+			return;
+
+		engine.removeContainerListener(this);
+		for (Container host : engine.findChildren()) {
+			host.removeContainerListener(this);
+			for (Container context : host.findChildren())
+				context.removeContainerListener(this);
+			mapper.removeHost(host.getName());
+		}
+	}
+
+	@Override
+	protected void destroyInternal() throws LifecycleException {
+		// NO-OP
+	}
+
+	public void containerEvent(ContainerEvent event) {
+		Container container = event.getContainer();
+		String type = event.getType();
+
+		if (Container.ADD_CHILD_EVENT.equals(type)) {
+			Container child = (Container) event.getData();
+			if (child instanceof Host)
+				registerHost((Host) child);
+			else if (child instanceof Context)
+				registerContext((Context) child);
+		} else if (Container.REMOVE_CHILD_EVENT.equals(type)) {
+			Container child = (Container) event.getData();
+			if (child instanceof Host)
+				unregisterHost((Host) child);
+			else if (child instanceof Context)
+				unregisterContext((Context) child);
+		} else if (Host.ADD_ALIAS_EVENT.equals(type)) {
+			mapper.addHostAlias(container.getName(), (String) event.getData());
+		} else if (Host.REMOVE_ALIAS_EVENT.equals(type)) {
+			mapper.removeHostAlias((String) event.getData());
+		} else if (Context.ADD_MAPPING_EVENT.equals(type)) {
+			Context context = (Context) container;
+			String pattern = (String) event.getData();
+			mapper.addWrapper(context.getParent().getName(), context.getPath(),
+					pattern, context.findServletMapping(pattern));
+		} else if (Context.REMOVE_MAPPING_EVENT.equals(type)) {
+			Context context = (Context) container;
+			mapper.removeWrapper(context.getParent().getName(),
+					context.getPath(), (String) event.getData());
+		}
+	}
+
+	private void registerHost(Host host) {
+		host.addContainerListener(this);
+		mapper.addHost(host.getName(), host.findAliases(), host);
+
+		for (Container context : host.findChildren())
+			registerContext((Context) context);
+
+		if (logger.isDebugEnabled())
+			logger.debug("Registered host " + host.getName() + ".");
+	}
+
+	private void unregisterHost(Host host) {
+		host.removeContainerListener(this);
+		for (Container context : host.findChildren())
+			context.removeContainerListener(this);
+		mapper.removeHost(host.getName());
+	}
+
+	private void registerContext(Context context) {
+		context.addContainerListener(this);
+
+		String hostName = context.getParent().getName();
+		String path = context.getPath();
+		mapper.addContext(hostName, path, context);
+		for (String pattern : context.findServletMappings())
+			mapper.addWrapper(hostName, path, pattern,
+					context.findServletMapping(pattern));
+
+		if (logger.isDebugEnabled())
+			logger.debug("Registered context " + hostName + path + ".");
+	}
+
+	private void unregisterContext(Context context) {
+		context.removeContainerListener(this);
+		mapper.removeContext(context.getParent().getName(), context.getPath());
+	}
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.mapper;
+
+import javax.servlet.Servlet;
+
+import org.corticerasf.dice.Context;
+import org.corticerasf.dice.Host;
+import org.corticerasf.dice.utils.ByteChunk;
+
+/**
+ * The result of mapping a request with a {@link Mapper}. It is owned by the
+ * request and reused, and the paths are views over the bytes of the request
+ * URI, so mapping does not allocate.
+ *
+ * @author J. Godara
+ */
+public final class MappingData {
+
+	public enum MatchType {
+		EXACT, PATH, EXTENSION, DEFAULT
+	}
+
+	public Host host = null;
+	public Context context = null;
+	public String contextPath = null;
+
+	public Servlet wrapper = null;
+	public MatchType matchType = null;
+	public final ByteChunk wrapperPath = new ByteChunk();
+	public final ByteChunk pathInfo = new ByteChunk();
+
+	public void recycle() {
+		host = null;
+		context = null;
+		contextPath = null;
+		wrapper = null;
+		matchType = null;
+		wrapperPath.recycle();
+		pathInfo.recycle();
+	}
+
+	@Override
+	public String toString() {
+		return "MappingData[host=" + host + ", context=" + context
+				+ ", wrapper=" + wrapper + ", matchType=" + matchType
+				+ ", wrapperPath=" + wrapperPath + ", pathInfo=" + pathInfo
+				+ "]";
+	}
+
+}
@@ -116,4 +116,11 @@ public interface Pipeline {
 	 */
 	public Valve getFirst();
 
+	/**
+	 * Return the current chain of the valves of this Pipeline, basic Valve
+	 * last. The chain is immutable, a new one is returned after every change
+	 * to the valves.
+	 */
+	public ValveChain getChain();
+
 }
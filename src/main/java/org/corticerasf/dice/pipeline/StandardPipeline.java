@@ -16,6 +16,7 @@
 package org.corticerasf.dice.pipeline;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.log4j.Logger;
@@ -27,13 +28,27 @@ import org.corticerasf.dice.lifecycle.LifecycleException;
 import org.corticerasf.dice.lifecycle.LifecycleState;
 import org.corticerasf.dice.utils.ExceptionUtils;
 
+/**
+ * The standard {@link Pipeline}.
+ * <p>
+ * Changes to the valves are serialized and each one publishes a new
+ * {@link ValveChain}, which requests read with a single volatile read and
+ * walk without locking. The valves themselves are never linked.
+ *
+ * @author J. Godara
+ */
 public class StandardPipeline extends LifecycleBase implements Pipeline, Contained {
 	
 	private static final Logger logger = Logger.getLogger(StandardPipeline.class);
 	
 	protected Container container;
 	protected Valve basic;
-	protected Valve first;
+
+	// Valves other than the basic one, guarded by valvesLock
+	private final List<Valve> valves = new ArrayList<Valve>();
+	private final Object valvesLock = new Object();
+
+	private volatile ValveChain chain = ValveChain.EMPTY;
 	
 	public StandardPipeline(Container container) {
 		setContainer(container);
@@ -52,9 +67,29 @@ public class StandardPipeline extends LifecycleBase implements Pipeline, Contain
 	}
 
 	public void setBasic(Valve valve) {
-		Valve oldBasic = basic;
-		if (oldBasic == valve)
-			return;
+		Valve oldBasic;
+		synchronized (valvesLock) {
+			oldBasic = basic;
+			if (oldBasic == valve)
+				return;
+			
+			if (valve != null) {
+				if (valve instanceof Contained)
+					((Contained) valve).setContainer(container);
+
+				if (getState().isAvailable() && (valve instanceof Lifecycle)) {
+					try {
+						((Lifecycle) valve).start();
+					} catch (LifecycleException ex) {
+						logger.error("Cannot start new valve.", ex);
+						return;
+					}
+				}
+			}
+
+			this.basic = valve;
+			publish();
+		}
 		
 		if (oldBasic != null) {
 			if (getState().isAvailable() && (oldBasic instanceof Lifecycle)) {
@@ -72,31 +107,6 @@ public class StandardPipeline extends LifecycleBase implements Pipeline, Contain
 				}
 			}
 		}
-		
-		if (valve == null) return;
-		
-		if (valve instanceof Contained)
-			((Contained) valve).setContainer(container);
-		
-		if (getState().isAvailable() && (valve instanceof Lifecycle)) {
-			try {
-				((Lifecycle) valve).start();
-			} catch (LifecycleException ex) {
-				logger.error("Cannot start new valve.", ex);
-				return;
-			}
-		}
-		
-		Valve current = first;
-		while (current != null) {
-			if (current.getNext() == oldBasic) {
-				current.setNext(valve);
-				break;
-			}
-			current = current.getNext();
-		}
-		
-		this.basic = valve;
 	}
 
 	public void addValve(Valve valve) {
@@ -113,61 +123,32 @@ public class StandardPipeline extends LifecycleBase implements Pipeline, Contain
 			}
 		}
 		
-		if (first == null) {
-			first = valve;
-			valve.setNext(basic);
-		} else {
-			Valve current = first;
-			while (current != null) {
-				if (current.getNext() == basic) {
-					current.setNext(valve);
-					valve.setNext(basic);
-					return;
-				}
-				
-				current = current.getNext();
-			}
+		synchronized (valvesLock) {
+			valves.add(valve);
+			publish();
 		}
 		
 		container.fireContainerEvent(Container.ADD_VALVE_EVENT, valve);
 	}
 
 	public Valve[] getValves() {
-		List<Valve> valves = new ArrayList<Valve>();
-		
-		Valve current = first;
-		if (current == null)
-			current = basic;
-		
-		while (current != null) {
-			valves.add(current);
-			current = current.getNext();
-		}
-		
-		return valves.toArray(new Valve[0]);
+		return chain.getValves();
 	}
 
-	public void removeValve(Valve valve) {
+	public ValveChain getChain() {
+		return chain;
+	}
 
-		Valve current = null;
-		if (first == valve) {
-			first = first.getNext();
-		} else {
-			current = first;
-		}
-		
-		while (current != null) {
-			if (current.getNext() == valve) {
-				current.setNext(valve.getNext());
-				break;
+	public void removeValve(Valve valve) {
+		synchronized (valvesLock) {
+			if (valve == basic) {
+				basic = null;
+			} else if (!valves.remove(valve)) {
+				return;
 			}
-			
-			current = current.getNext();
+			publish();
 		}
 		
-		if (first == basic)
-			first = null;
-		
 		if (valve instanceof Contained)
 			((Contained) valve).setContainer(null);
 		
@@ -197,15 +178,9 @@ public class StandardPipeline extends LifecycleBase implements Pipeline, Contain
 
 	@Override
 	protected synchronized void startInternal() throws LifecycleException {
-		Valve current = first;
-		if (current == null) {
-			current = basic;
-		}
-		
-		while (current != null) {
-			if (current.getNext() instanceof Lifecycle)
-				((Lifecycle) current.getNext()).start();
-			current = current.getNext();
+		for (Valve valve : chain.getValves()) {
+			if (valve instanceof Lifecycle)
+				((Lifecycle) valve).start();
 		}
 		
 		setState(LifecycleState.STARTING);
@@ -213,15 +188,11 @@ public class StandardPipeline extends LifecycleBase implements Pipeline, Contain
 
 	@Override
 	protected synchronized void stopInternal() throws LifecycleException {
-		Valve current = first;
-		if (current == null) {
-			current = basic;
-		}
-		
-		while (current != null) {
-			if (current.getNext() instanceof Lifecycle)
-				((Lifecycle) current.getNext()).stop();
-			current = current.getNext();
+		setState(LifecycleState.STOPPING);
+
+		for (Valve valve : chain.getValves()) {
+			if (valve instanceof Lifecycle)
+				((Lifecycle) valve).stop();
 		}
 	}
 
@@ -233,10 +204,24 @@ public class StandardPipeline extends LifecycleBase implements Pipeline, Contain
 	}
 
 	public Valve getFirst() {
-		if (first != null)
-			return first;
-		
-		return basic;
+		return chain.getFirst();
+	}
+
+	/**
+	 * Build and publish the chain of the current valves, basic valve last.
+	 * Must be called holding valvesLock.
+	 */
+	private void publish() {
+		Valve[] snapshot = valves.toArray(new Valve[valves.size()
+				+ (basic != null ? 1 : 0)]);
+		if (basic != null)
+			snapshot[snapshot.length - 1] = basic;
+
+		chain = ValveChain.of(snapshot);
+
+		if (logger.isDebugEnabled())
+			logger.debug("Valves of " + container + ": "
+					+ Arrays.toString(snapshot));
 	}
 
 }
@@ -26,16 +26,28 @@ public interface Valve {
 
 	public String getInfo();
 
-	public Valve getNext();
-
-	public void setNext(Valve valve);
-	
 	public void backgroundProcess();
 
-	public void invoke(CorticeraRequest request, CorticeraResponse response)
-			throws IOException, ServletException;
-
+	/**
+	 * Process a request.
+	 *
+	 * @param next
+	 *            The valves after this one in the chain the request is
+	 *            processed by, which the request is passed on to by invoking
+	 *            it
+	 */
+	public void invoke(CorticeraRequest request, CorticeraResponse response,
+			ValveChain next) throws IOException, ServletException;
+
+	/**
+	 * Process an event of a request.
+	 *
+	 * @param next
+	 *            The valves after this one in the chain the request is
+	 *            processed by
+	 */
 	public void event(CorticeraRequest request, CorticeraResponse response,
-			PipelineEvent event) throws IOException, ServletException;
+			PipelineEvent event, ValveChain next) throws IOException,
+			ServletException;
 
 }
@@ -26,15 +26,23 @@ import org.corticerasf.dice.container.Container;
 import org.corticerasf.dice.lifecycle.LifecycleBase;
 import org.corticerasf.dice.lifecycle.LifecycleException;
 import org.corticerasf.dice.lifecycle.LifecycleState;
+import org.corticerasf.dice.utils.BackgroundScheduler;
 
 public abstract class ValveBase extends LifecycleBase implements Valve, Contained {
 	
 	protected final static String info = 
 			"org.corticerasf.dice.ValveBase/1.0";
 	
-	protected Valve next;
 	protected Container container;
 
+	/**
+	 * Delay in seconds between runs of {@link #backgroundProcess()} as a task
+	 * of its own. If not positive, or while the valve is not started with
+	 * a scheduler to run that task, the valve is processed with its container.
+	 */
+	protected int backgroundProcessorDelay = -1;
+	private volatile BackgroundScheduler.ScheduledTask backgroundTask = null;
+
 	public Container getContainer() {
 		return container;
 	}
@@ -47,33 +55,64 @@ public abstract class ValveBase extends LifecycleBase implements Valve, Containe
 		return info;
 	}
 
-	public Valve getNext() {
-		return next;
+	public void backgroundProcess() {
+		// NOOP by default
 	}
 
-	public void setNext(Valve next) {
-		this.next = next;
+	public int getBackgroundProcessorDelay() {
+		return backgroundProcessorDelay;
 	}
-	
-	public void backgroundProcess() {
-		// NOOP by default
+
+	public void setBackgroundProcessorDelay(int backgroundProcessorDelay) {
+		this.backgroundProcessorDelay = backgroundProcessorDelay;
+	}
+
+	/**
+	 * Return <code>true</code> if {@link #backgroundProcess()} currently runs
+	 * as a task of its own rather than with the container of this valve.
+	 */
+	public boolean isBackgroundScheduled() {
+		return backgroundTask != null;
 	}
 
-	public abstract void invoke(CorticeraRequest request, CorticeraResponse response)
-			throws IOException, ServletException;
+	public abstract void invoke(CorticeraRequest request,
+			CorticeraResponse response, ValveChain next) throws IOException,
+			ServletException;
 
+	/**
+	 * Pass the event on to the next valve of the chain.
+	 */
 	public void event(CorticeraRequest request, CorticeraResponse response,
-			PipelineEvent event) throws IOException, ServletException {
-		getNext().event(request, response, event);
+			PipelineEvent event, ValveChain next) throws IOException,
+			ServletException {
+		next.event(request, response, event);
 	}
 
 	@Override
 	protected synchronized void startInternal() throws LifecycleException {
 		setState(LifecycleState.STARTING);
+
+		if (backgroundProcessorDelay > 0 && container != null) {
+			BackgroundScheduler scheduler = container.getBackgroundScheduler();
+			if (scheduler != null) {
+				long delay = backgroundProcessorDelay * 1000L;
+				backgroundTask = scheduler.schedule(getClass().getName() + "["
+						+ container.getInfo() + "]", new Runnable() {
+					public void run() {
+						backgroundProcess();
+					}
+				}, delay, delay / 10);
+			}
+		}
 	}
 
 	@Override
 	protected synchronized void stopInternal() throws LifecycleException {
 		setState(LifecycleState.STOPPING);
+
+		if (backgroundTask != null) {
+			backgroundTask.cancel();
+			backgroundTask = null;
+		}
 	}
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.pipeline;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+
+import org.corticerasf.dice.connector.CorticeraRequest;
+import org.corticerasf.dice.connector.CorticeraResponse;
+
+/**
+ * An immutable snapshot of the valves of a {@link Pipeline}, basic valve
+ * last.
+ * <p>
+ * A chain is a list of links, each holding a valve and the chain of the
+ * valves after it. A pipeline publishes new links whenever its valves
+ * change, so a request walks the chain it started with even if valves are
+ * added or removed while it is being processed. A valve is invoked with the
+ * rest of the chain, and passes the request on by invoking it, which
+ * neither writes to the request nor to the valves.
+ *
+ * @author J. Godara
+ */
+public final class ValveChain {
+
+	public static final ValveChain EMPTY = new ValveChain(null, null);
+
+	private final Valve valve;
+	private final ValveChain next;
+	private final int size;
+
+	private ValveChain(Valve valve, ValveChain next) {
+		this.valve = valve;
+		this.next = next;
+		this.size = (next != null ? next.size + 1 : 0);
+	}
+
+	/**
+	 * Build the links of the given valves, in this order.
+	 */
+	static ValveChain of(Valve[] valves) {
+		ValveChain chain = EMPTY;
+		for (int i = valves.length - 1; i >= 0; i--)
+			chain = new ValveChain(valves[i], chain);
+		return chain;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Return the first valve of this chain, or <code>null</code> if it is
+	 * empty.
+	 */
+	public Valve getFirst() {
+		return valve;
+	}
+
+	/**
+	 * Return the chain of the valves after the first one, or
+	 * <code>null</code> if this chain is empty.
+	 */
+	public ValveChain getNext() {
+		return next;
+	}
+
+	/**
+	 * Return a copy of the valves of this chain.
+	 */
+	public Valve[] getValves() {
+		Valve[] valves = new Valve[size];
+		ValveChain chain = this;
+		for (int i = 0; i < size; i++, chain = chain.next)
+			valves[i] = chain.valve;
+		return valves;
+	}
+
+	/**
+	 * Process a request through this chain, starting with its first valve.
+	 * Does nothing if the chain is empty, as when the last valve passes the
+	 * request on.
+	 */
+	public void invoke(CorticeraRequest request, CorticeraResponse response)
+			throws IOException, ServletException {
+		if (valve != null)
+			valve.invoke(request, response, next);
+	}
+
+	/**
+	 * Pass an event through this chain, starting with its first valve.
+	 */
+	public void event(CorticeraRequest request, CorticeraResponse response,
+			PipelineEvent event) throws IOException, ServletException {
+		if (valve != null)
+			valve.event(request, response, event, next);
+	}
+
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.protocols;
+
+import java.net.InetAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.corticerasf.dice.lifecycle.LifecycleException;
+import org.corticerasf.dice.utils.ByteBufferPool;
+import org.corticerasf.dice.utils.HashedWheelTimer;
+import org.corticerasf.dice.utils.TaskQueue;
+import org.corticerasf.dice.utils.TaskThreadPool;
+import org.corticerasf.dice.utils.TaskThreadPool.TaskThreadFactory;
+
+/**
+ * Base class holding the configuration shared by every
+ * {@link ProtocolHandler} implementation, and the management of the internal
+ * worker pool used when no shared executor has been configured.
+ *
+ * @author J. Godara
+ */
+public abstract class AbstractProtocolHandler implements ProtocolHandler {
+
+	private static final Logger logger = Logger
+			.getLogger(AbstractProtocolHandler.class);
+
+	private Adapter adapter = null;
+	private Executor executor = null;
+	private boolean internalExecutor = false;
+	private HashedWheelTimer timer = null;
+	private boolean internalTimer = false;
+
+	private int port = -1;
+	private InetAddress address = null;
+	private int connectionTimeout = 20000;
+	private int maxKeepAliveRequests = 100;
+	private int maxPostSize = 2 * 1024 * 1024;
+	private int backlog = 100;
+	private int maxThreads = 200;
+	private int maxConnections = 10000;
+	private boolean tcpNoDelay = true;
+
+	private ByteBufferPool bufferPool = null;
+	private int bufferPoolMinSize = 4096;
+	private int bufferPoolMaxSize = 65536;
+	private long bufferPoolMaxBytes = 16 * 1024 * 1024;
+
+	public Adapter getAdapter() {
+		return adapter;
+	}
+
+	public void setAdapter(Adapter adapter) {
+		this.adapter = adapter;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+		this.internalExecutor = false;
+	}
+
+	public HashedWheelTimer getTimer() {
+		return timer;
+	}
+
+	public void setTimer(HashedWheelTimer timer) {
+		this.timer = timer;
+		this.internalTimer = false;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	public InetAddress getAddress() {
+		return address;
+	}
+
+	public void setAddress(InetAddress address) {
+		this.address = address;
+	}
+
+	public int getConnectionTimeout() {
+		return connectionTimeout;
+	}
+
+	public void setConnectionTimeout(int connectionTimeout) {
+		this.connectionTimeout = connectionTimeout;
+	}
+
+	public int getMaxKeepAliveRequests() {
+		return maxKeepAliveRequests;
+	}
+
+	public void setMaxKeepAliveRequests(int maxKeepAliveRequests) {
+		this.maxKeepAliveRequests = maxKeepAliveRequests;
+	}
+
+	public int getMaxPostSize() {
+		return maxPostSize;
+	}
+
+	/**
+	 * Set the largest request body, in bytes, accepted. A larger body is
+	 * answered with 413 and the connection closed. -1 for no limit.
+	 */
+	public void setMaxPostSize(int maxPostSize) {
+		this.maxPostSize = maxPostSize;
+	}
+
+	public int getBacklog() {
+		return backlog;
+	}
+
+	public void setBacklog(int backlog) {
+		this.backlog = backlog;
+	}
+
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	public void setMaxThreads(int maxThreads) {
+		this.maxThreads = maxThreads;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	public boolean getTcpNoDelay() {
+		return tcpNoDelay;
+	}
+
+	public void setTcpNoDelay(boolean tcpNoDelay) {
+		this.tcpNoDelay = tcpNoDelay;
+	}
+
+	public int getBufferPoolMinSize() {
+		return bufferPoolMinSize;
+	}
+
+	public void setBufferPoolMinSize(int bufferPoolMinSize) {
+		this.bufferPoolMinSize = bufferPoolMinSize;
+	}
+
+	public int getBufferPoolMaxSize() {
+		return bufferPoolMaxSize;
+	}
+
+	public void setBufferPoolMaxSize(int bufferPoolMaxSize) {
+		this.bufferPoolMaxSize = bufferPoolMaxSize;
+	}
+
+	public long getBufferPoolMaxBytes() {
+		return bufferPoolMaxBytes;
+	}
+
+	/**
+	 * Set the maximum number of bytes the output buffer pool keeps for reuse.
+	 */
+	public void setBufferPoolMaxBytes(long bufferPoolMaxBytes) {
+		this.bufferPoolMaxBytes = bufferPoolMaxBytes;
+	}
+
+	/**
+	 * Return the pool of direct buffers the responses of this handler are
+	 * written with, creating it on first use.
+	 */
+	public synchronized ByteBufferPool getBufferPool() {
+		if (bufferPool == null)
+			bufferPool = new ByteBufferPool(bufferPoolMinSize,
+					bufferPoolMaxSize, bufferPoolMaxBytes);
+		return bufferPool;
+	}
+
+	/**
+	 * Drop the buffers kept by the output buffer pool.
+	 */
+	protected synchronized void clearBufferPool() {
+		if (bufferPool != null)
+			bufferPool.clear();
+	}
+
+	/**
+	 * Return the name of this handler, used to name its threads.
+	 */
+	public String getName() {
+		return getNamePrefix() + "-" + getPort();
+	}
+
+	protected abstract String getNamePrefix();
+
+	/**
+	 * Create the internal worker pool, if no shared executor was configured.
+	 * Like a shared executor, it starts threads up to
+	 * <code>maxThreads</code> before queueing work.
+	 */
+	protected void createExecutor() {
+		if (executor != null)
+			return;
+
+		TaskThreadPool pool = new TaskThreadPool(0, getMaxThreads(), 60,
+				TimeUnit.SECONDS, new TaskQueue(), new TaskThreadFactory(
+						getName() + "-exec-", true, Thread.NORM_PRIORITY));
+		executor = pool;
+		internalExecutor = true;
+	}
+
+	/**
+	 * Create and start the internal timer, if no shared timer was set.
+	 */
+	protected void createTimer() throws LifecycleException {
+		if (timer != null)
+			return;
+
+		timer = new HashedWheelTimer();
+		timer.setName(getName() + "-Timer");
+		timer.start();
+		internalTimer = true;
+	}
+
+	/**
+	 * Stop the internal timer. A shared timer is left alone as its lifecycle
+	 * is managed by the service it belongs to.
+	 */
+	protected void stopTimer() {
+		if (timer != null && internalTimer) {
+			try {
+				timer.stop();
+				timer.destroy();
+			} catch (LifecycleException ex) {
+				logger.warn("Cannot stop " + timer, ex);
+			}
+			timer = null;
+			internalTimer = false;
+		}
+	}
+
+	/**
+	 * Shut down the internal worker pool. A shared executor is left alone as
+	 * its lifecycle is managed by the service it belongs to.
+	 */
+	protected void shutdownExecutor() {
+		if (executor != null && internalExecutor) {
+			if (executor instanceof ExecutorService)
+				((ExecutorService) executor).shutdownNow();
+			executor = null;
+			internalExecutor = false;
+		}
+	}
+
+}
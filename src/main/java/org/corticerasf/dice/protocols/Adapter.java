@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.protocols;
+
+import org.corticerasf.dice.connector.CorticeraRequest;
+import org.corticerasf.dice.connector.CorticeraResponse;
+
+/**
+ * Entry point into the servlet container for the requests parsed by a
+ * {@link ProtocolHandler}. There is one adapter per <code>Connector</code>.
+ *
+ * @author J. Godara
+ */
+public interface Adapter {
+
+	/**
+	 * Process a parsed request. When this method returns the response has been
+	 * completely produced, but not necessarily written to the network.
+	 *
+	 * @param request
+	 *            The parsed request
+	 * @param response
+	 *            The response to populate
+	 */
+	public void service(CorticeraRequest request, CorticeraResponse response)
+			throws Exception;
+
+}
@@ -15,6 +15,135 @@
  */
 package org.corticerasf.dice.protocols;
 
+import java.util.concurrent.Executor;
+
+import org.corticerasf.dice.utils.HashedWheelTimer;
+
+/**
+ * A <b>ProtocolHandler</b> owns the network endpoint of a
+ * <code>Connector</code>. It accepts connections, parses the protocol
+ * specific requests arriving on them and hands every complete request to the
+ * {@link Adapter} of the owning connector.
+ * <p>
+ * The lifecycle methods are driven by the <code>Connector</code>, which is
+ * itself a <code>Lifecycle</code>: <code>init()</code> binds the endpoint,
+ * <code>start()</code> starts accepting, <code>pause()</code> and
+ * <code>resume()</code> temporarily stop and restart accepting new
+ * connections, <code>stop()</code> closes every open connection and
+ * <code>destroy()</code> releases the endpoint.
+ *
+ * @author J. Godara
+ */
 public interface ProtocolHandler {
 
+	/**
+	 * Set the adapter which will receive the parsed requests.
+	 *
+	 * @param adapter
+	 *            The adapter of the owning connector
+	 */
+	public void setAdapter(Adapter adapter);
+
+	/**
+	 * Return the adapter which receives the parsed requests.
+	 */
+	public Adapter getAdapter();
+
+	/**
+	 * Return the executor on which requests are processed.
+	 */
+	public Executor getExecutor();
+
+	/**
+	 * Set the executor on which requests are processed. If none is set, the
+	 * handler creates (and owns) an internal one when it is started.
+	 *
+	 * @param executor
+	 *            The shared executor to use
+	 */
+	public void setExecutor(Executor executor);
+
+	/**
+	 * Return the timer with which idle connections are timed out.
+	 */
+	public HashedWheelTimer getTimer();
+
+	/**
+	 * Set the timer with which idle connections are timed out. If none is
+	 * set, the handler creates (and owns) an internal one when it is
+	 * started.
+	 *
+	 * @param timer
+	 *            The shared timer to use
+	 */
+	public void setTimer(HashedWheelTimer timer);
+
+	/**
+	 * Return the port on which this handler listens.
+	 */
+	public int getPort();
+
+	/**
+	 * Set the port on which this handler listens.
+	 *
+	 * @param port
+	 *            The new port number
+	 */
+	public void setPort(int port);
+
+	/**
+	 * Return the number of milliseconds an idle connection is kept open.
+	 */
+	public int getConnectionTimeout();
+
+	/**
+	 * Set the number of milliseconds an idle connection is kept open.
+	 *
+	 * @param timeout
+	 *            The new timeout in milliseconds
+	 */
+	public void setConnectionTimeout(int timeout);
+
+	/**
+	 * Return the maximum number of requests served on a connection before it
+	 * is closed, or -1 for no limit.
+	 */
+	public int getMaxKeepAliveRequests();
+
+	/**
+	 * Set the maximum number of requests served on a connection before it is
+	 * closed. A value of 1 disables keep-alive, -1 removes the limit.
+	 *
+	 * @param maxKeepAliveRequests
+	 *            The new maximum number of requests
+	 */
+	public void setMaxKeepAliveRequests(int maxKeepAliveRequests);
+
+	/**
+	 * Return the largest request body, in bytes, accepted, or -1 for no
+	 * limit.
+	 */
+	public int getMaxPostSize();
+
+	/**
+	 * Set the largest request body accepted. A larger body is answered with
+	 * 413 and the connection closed.
+	 *
+	 * @param maxPostSize
+	 *            The new limit in bytes, -1 for no limit
+	 */
+	public void setMaxPostSize(int maxPostSize);
+
+	public void init() throws Exception;
+
+	public void start() throws Exception;
+
+	public void pause() throws Exception;
+
+	public void resume() throws Exception;
+
+	public void stop() throws Exception;
+
+	public void destroy() throws Exception;
+
 }
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.protocols;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.corticerasf.dice.utils.HashedWheelTimer;
+
+/**
+ * I/O abstraction over an accepted connection, so that protocol processors
+ * do not depend on whether the underlying socket is polled by a selector or
+ * read by a blocking thread.
+ *
+ * @author J. Godara
+ */
+public abstract class SocketWrapper {
+
+	private volatile long lastAccess = System.currentTimeMillis();
+
+	private volatile HashedWheelTimer.Timeout timeout = null;
+	private final Runnable timeoutTask = new Runnable() {
+		public void run() {
+			timeout();
+		}
+	};
+
+	private String remoteAddr = null;
+	private int remotePort = -1;
+	private String localAddr = null;
+	private int localPort = -1;
+
+	/**
+	 * Read available bytes into the given buffer.
+	 *
+	 * @param to
+	 *            The buffer, in write mode, to read into
+	 * @return the number of bytes read, zero if no bytes are available without
+	 *         blocking, or -1 at end of stream
+	 */
+	public abstract int read(ByteBuffer to) throws IOException;
+
+	/**
+	 * Block the calling thread until {@link #read(ByteBuffer)} can return
+	 * bytes or end of stream. Does nothing for wrappers whose reads block.
+	 */
+	public void awaitReadable() throws IOException {
+		// Reads block
+	}
+
+	/**
+	 * Write every remaining byte of the given buffers, blocking the calling
+	 * thread if the socket cannot take them immediately. Implementations
+	 * should send the buffers with as few system calls as possible.
+	 *
+	 * @param from
+	 *            The buffers, in read mode, to write
+	 * @param offset
+	 *            The index of the first buffer to write
+	 * @param length
+	 *            The number of buffers to write
+	 */
+	public abstract void write(ByteBuffer[] from, int offset, int length)
+			throws IOException;
+
+	/**
+	 * Return <code>true</code> if {@link #sendFile(FileChannel, long, long)}
+	 * can transfer files without copying them through the JVM.
+	 */
+	public boolean isSendfileSupported() {
+		return false;
+	}
+
+	/**
+	 * Write a range of a file, letting the operating system copy it straight
+	 * to the socket where supported.
+	 *
+	 * @param file
+	 *            The file to send
+	 * @param position
+	 *            The position of the first byte to send
+	 * @param length
+	 *            The number of bytes to send
+	 */
+	public void sendFile(FileChannel file, long position, long length)
+			throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	public abstract void close();
+
+	public abstract boolean isClosed();
+
+	protected abstract Socket getSocket();
+
+	public long getLastAccess() {
+		return lastAccess;
+	}
+
+	public void access() {
+		lastAccess = System.currentTimeMillis();
+	}
+
+	/**
+	 * Arm the idle timeout of this connection, replacing the previous one.
+	 * The connection is closed unless {@link #cancelTimeout()} is called
+	 * within <code>delay</code> milliseconds.
+	 */
+	public void scheduleTimeout(HashedWheelTimer timer, long delay) {
+		cancelTimeout();
+		if (timer != null && delay > 0)
+			timeout = timer.newTimeout(timeoutTask, delay);
+	}
+
+	/**
+	 * Disarm the idle timeout of this connection, if any.
+	 */
+	public void cancelTimeout() {
+		HashedWheelTimer.Timeout current = timeout;
+		if (current != null) {
+			timeout = null;
+			current.cancel();
+		}
+	}
+
+	/**
+	 * Called by the timer thread when the idle timeout expires.
+	 */
+	protected void timeout() {
+		timeout = null;
+		close();
+	}
+
+	public String getRemoteAddr() {
+		if (remoteAddr == null)
+			fillAddresses();
+		return remoteAddr;
+	}
+
+	public int getRemotePort() {
+		if (remotePort == -1)
+			fillAddresses();
+		return remotePort;
+	}
+
+	public String getLocalAddr() {
+		if (localAddr == null)
+			fillAddresses();
+		return localAddr;
+	}
+
+	public int getLocalPort() {
+		if (localPort == -1)
+			fillAddresses();
+		return localPort;
+	}
+
+	private void fillAddresses() {
+		Socket socket = getSocket();
+		if (socket == null)
+			return;
+
+		if (socket.getRemoteSocketAddress() instanceof InetSocketAddress) {
+			InetSocketAddress remote = (InetSocketAddress) socket
+					.getRemoteSocketAddress();
+			remoteAddr = remote.getAddress().getHostAddress();
+			remotePort = remote.getPort();
+		}
+		if (socket.getLocalAddress() != null)
+			localAddr = socket.getLocalAddress().getHostAddress();
+		localPort = socket.getLocalPort();
+	}
+
+}
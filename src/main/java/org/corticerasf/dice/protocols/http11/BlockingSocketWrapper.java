@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.protocols.http11;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.corticerasf.dice.protocols.SocketWrapper;
+
+/**
+ * A blocking {@link Socket} owned by a single thread of an
+ * {@link HTTPVirtualThreadProtocolHandler} for its whole lifetime.
+ * <p>
+ * Reads block until data is available. The idle timeout of the connection is
+ * armed on the timer of the handler for the duration of every read and
+ * write. A read interrupted by the timer closing the socket is reported as
+ * end of stream, a write fails, so that a client which stops reading does
+ * not hold the thread and the connection forever.
+ *
+ * @author J. Godara
+ */
+public class BlockingSocketWrapper extends SocketWrapper {
+
+	private final Socket socket;
+	private final HTTPVirtualThreadProtocolHandler handler;
+	private final InputStream in;
+	private final OutputStream out;
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+
+	/**
+	 * Staging array for writing buffers which have no backing array.
+	 */
+	private byte[] writeBuffer = null;
+
+	public BlockingSocketWrapper(Socket socket,
+			HTTPVirtualThreadProtocolHandler handler) throws IOException {
+		this.socket = socket;
+		this.handler = handler;
+		this.in = socket.getInputStream();
+		// Coalesce the small buffers of a batch of responses into as few
+		// socket writes as possible.
+		this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+	}
+
+	@Override
+	public int read(ByteBuffer to) throws IOException {
+		int n;
+		scheduleTimeout(handler.getTimer(), handler.getConnectionTimeout());
+		try {
+			if (to.hasArray()) {
+				n = in.read(to.array(), to.arrayOffset() + to.position(),
+						to.remaining());
+				if (n > 0)
+					to.position(to.position() + n);
+			} else {
+				byte[] buf = new byte[to.remaining()];
+				n = in.read(buf);
+				if (n > 0)
+					to.put(buf, 0, n);
+			}
+		} catch (IOException ex) {
+			if (isClosed())
+				return -1;
+			throw ex;
+		} finally {
+			cancelTimeout();
+		}
+
+		if (n > 0)
+			access();
+		return n;
+	}
+
+	@Override
+	public void write(ByteBuffer[] from, int offset, int length)
+			throws IOException {
+		scheduleTimeout(handler.getTimer(), handler.getConnectionTimeout());
+		try {
+			for (int i = offset; i < offset + length; i++) {
+				ByteBuffer buffer = from[i];
+				int remaining = buffer.remaining();
+				if (remaining == 0)
+					continue;
+
+				if (buffer.hasArray()) {
+					out.write(buffer.array(), buffer.arrayOffset()
+							+ buffer.position(), remaining);
+					buffer.position(buffer.limit());
+				} else {
+					if (writeBuffer == null)
+						writeBuffer = new byte[8192];
+					while (buffer.hasRemaining()) {
+						int n = Math.min(buffer.remaining(),
+								writeBuffer.length);
+						buffer.get(writeBuffer, 0, n);
+						out.write(writeBuffer, 0, n);
+					}
+				}
+			}
+			out.flush();
+		} finally {
+			cancelTimeout();
+		}
+		access();
+	}
+
+	@Override
+	public void close() {
+		if (!closed.compareAndSet(false, true))
+			return;
+
+		cancelTimeout();
+		try {
+			socket.close();
+		} catch (IOException ex) {
+			// Ignore
+		}
+		handler.connectionClosed(this);
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed.get();
+	}
+
+	@Override
+	protected Socket getSocket() {
+		return socket;
+	}
+
+}
@@ -0,0 +1,562 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.protocols.http11;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.corticerasf.dice.Executor;
+import org.corticerasf.dice.protocols.AbstractProtocolHandler;
+import org.corticerasf.dice.protocols.SocketState;
+import org.corticerasf.dice.utils.ExceptionUtils;
+
+/**
+ * Non-blocking HTTP/1.1 protocol handler.
+ * <p>
+ * A single acceptor thread accepts connections on a blocking
+ * {@link ServerSocketChannel}, switches each accepted channel to non-blocking
+ * mode and hands it over, round robin, to one of the poller threads. Each
+ * poller owns a {@link Selector} on which its connections wait for data
+ * without holding a thread. When a connection becomes readable the poller
+ * removes its read interest and dispatches it to the worker pool, where an
+ * {@link Http11Processor} parses and services as many requests as are
+ * available before handing the connection back to its poller.
+ * <p>
+ * While a connection waits on its poller its idle timeout is armed on the
+ * timer of the handler, which closes the connection if it does not become
+ * readable within the connection timeout.
+ * <p>
+ * A worker that cannot read the rest of a request body or write a response
+ * without blocking parks until the poller of the connection sees the socket
+ * ready, for at most the connection timeout.
+ *
+ * @author J. Godara
+ */
+public class HTTPProtocolHandler extends AbstractProtocolHandler {
+
+	private static final Logger logger = Logger
+			.getLogger(HTTPProtocolHandler.class);
+
+	private ServerSocketChannel serverSocket = null;
+
+	private Poller[] pollers = null;
+	private final AtomicInteger pollerRotater = new AtomicInteger(0);
+	private int pollerThreadCount = Math.min(2, Runtime.getRuntime()
+			.availableProcessors());
+	private long selectorTimeout = 1000;
+
+	private Thread acceptorThread = null;
+	private Semaphore connectionLimit = null;
+
+	private int readBufferSize = 8192;
+
+	private volatile boolean running = false;
+	private volatile boolean paused = false;
+
+	@Override
+	protected String getNamePrefix() {
+		return "http-nio";
+	}
+
+	public int getPollerThreadCount() {
+		return pollerThreadCount;
+	}
+
+	public void setPollerThreadCount(int pollerThreadCount) {
+		this.pollerThreadCount = pollerThreadCount;
+	}
+
+	public long getSelectorTimeout() {
+		return selectorTimeout;
+	}
+
+	public void setSelectorTimeout(long selectorTimeout) {
+		this.selectorTimeout = selectorTimeout;
+	}
+
+	public int getReadBufferSize() {
+		return readBufferSize;
+	}
+
+	/**
+	 * Set the size of the per connection read buffer. This is also the
+	 * largest request head (request line and headers) that will be accepted.
+	 */
+	public void setReadBufferSize(int readBufferSize) {
+		this.readBufferSize = readBufferSize;
+	}
+
+	public void init() throws Exception {
+		bind();
+	}
+
+	private void bind() throws IOException {
+		serverSocket = ServerSocketChannel.open();
+		serverSocket.socket().setReuseAddress(true);
+		InetSocketAddress address = (getAddress() != null ? new InetSocketAddress(
+				getAddress(), getPort()) : new InetSocketAddress(getPort()));
+		serverSocket.socket().bind(address, getBacklog());
+		// The acceptor thread blocks on accept()
+		serverSocket.configureBlocking(true);
+
+		if (logger.isDebugEnabled())
+			logger.debug("Bound " + getName() + " to " + address);
+	}
+
+	public void start() throws Exception {
+		if (running)
+			return;
+
+		// Stopping unbinds the socket, so a restart has to bind it again.
+		if (serverSocket == null || !serverSocket.isOpen())
+			bind();
+
+		running = true;
+		paused = false;
+
+		createExecutor();
+		createTimer();
+
+		if (getMaxConnections() > 0)
+			connectionLimit = new Semaphore(getMaxConnections());
+
+		pollers = new Poller[Math.max(1, pollerThreadCount)];
+		for (int i = 0; i < pollers.length; i++) {
+			pollers[i] = new Poller();
+			Thread pollerThread = new Thread(pollers[i], getName()
+					+ "-ClientPoller-" + i);
+			pollerThread.setDaemon(true);
+			pollerThread.start();
+		}
+
+		acceptorThread = new Thread(new Acceptor(), getName() + "-Acceptor");
+		acceptorThread.setDaemon(true);
+		acceptorThread.start();
+
+		logger.info("Started " + getName() + " with " + pollers.length
+				+ " poller(s).");
+	}
+
+	public void pause() throws Exception {
+		if (running)
+			paused = true;
+	}
+
+	public void resume() throws Exception {
+		if (running)
+			paused = false;
+	}
+
+	public void stop() throws Exception {
+		if (!running)
+			return;
+
+		paused = false;
+		running = false;
+
+		if (acceptorThread != null) {
+			// Interrupting a thread blocked in accept() closes the channel.
+			acceptorThread.interrupt();
+			acceptorThread = null;
+		}
+		unbind();
+
+		if (pollers != null) {
+			for (Poller poller : pollers)
+				poller.destroy();
+			pollers = null;
+		}
+
+		shutdownExecutor();
+		stopTimer();
+
+		if (logger.isDebugEnabled())
+			logger.debug("Stopped " + getName() + ", output "
+					+ getBufferPool());
+	}
+
+	public void destroy() throws Exception {
+		if (running)
+			stop();
+
+		unbind();
+		clearBufferPool();
+	}
+
+	private void unbind() throws IOException {
+		if (serverSocket != null) {
+			try {
+				serverSocket.close();
+			} finally {
+				serverSocket = null;
+			}
+		}
+	}
+
+	/**
+	 * Return the next poller, round robin.
+	 */
+	protected Poller getPoller() {
+		int index = (pollerRotater.incrementAndGet() & Integer.MAX_VALUE)
+				% pollers.length;
+		return pollers[index];
+	}
+
+	/**
+	 * Configure an accepted channel and register it with a poller.
+	 *
+	 * @return <code>false</code> if the channel should be closed
+	 */
+	protected boolean setSocketOptions(SocketChannel channel) {
+		try {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(getTcpNoDelay());
+
+			Poller poller = getPoller();
+			Http11Processor processor = new Http11Processor(this,
+					readBufferSize);
+			NioSocketWrapper wrapper = new NioSocketWrapper(channel, poller,
+					processor, getConnectionTimeout());
+			poller.register(wrapper);
+			return true;
+		} catch (Throwable t) {
+			ExceptionUtils.handleThrowable(t);
+			logger.error("Cannot configure accepted socket.", t);
+			return false;
+		}
+	}
+
+	/**
+	 * Dispatch a readable connection to the worker pool.
+	 */
+	protected void processSocket(NioSocketWrapper wrapper) {
+		try {
+			java.util.concurrent.Executor executor = getExecutor();
+			// Called from the poller, which must not wait for a busy executor
+			if (executor instanceof Executor) {
+				((Executor) executor).execute(new SocketProcessor(wrapper), 0,
+						TimeUnit.MILLISECONDS);
+			} else {
+				executor.execute(new SocketProcessor(wrapper));
+			}
+		} catch (RejectedExecutionException ex) {
+			logger.warn("Worker pool rejected socket processing, closing "
+					+ "connection.", ex);
+			wrapper.close();
+		}
+	}
+
+	/**
+	 * Called once by every wrapper when its channel is closed.
+	 */
+	void connectionClosed(NioSocketWrapper wrapper) {
+		Semaphore limit = connectionLimit;
+		if (limit != null)
+			limit.release();
+	}
+
+	// ------------------------------------------------------- Acceptor
+
+	/**
+	 * Accepts new connections and hands them over to the pollers.
+	 */
+	protected class Acceptor implements Runnable {
+
+		public void run() {
+			while (running) {
+				while (paused && running) {
+					try {
+						Thread.sleep(50);
+					} catch (InterruptedException ex) {
+						// Ignore
+					}
+				}
+
+				if (!running)
+					break;
+
+				boolean acquired = false;
+				try {
+					if (connectionLimit != null) {
+						connectionLimit.acquire();
+						acquired = true;
+					}
+
+					SocketChannel channel = serverSocket.accept();
+
+					if (running && !paused && setSocketOptions(channel)) {
+						// Released again by NioSocketWrapper.close()
+						acquired = false;
+					} else {
+						closeQuietly(channel);
+					}
+				} catch (InterruptedException ex) {
+					// Stopping
+				} catch (IOException ex) {
+					if (running)
+						logger.error("Socket accept failed.", ex);
+				} catch (Throwable t) {
+					ExceptionUtils.handleThrowable(t);
+					logger.error("Socket accept failed.", t);
+				} finally {
+					if (acquired)
+						connectionLimit.release();
+				}
+			}
+		}
+
+		private void closeQuietly(SocketChannel channel) {
+			try {
+				channel.close();
+			} catch (IOException ex) {
+				// Ignore
+			}
+		}
+
+	}
+
+	// ------------------------------------------------------- Poller
+
+	/**
+	 * Registration or interest change, queued by other threads and applied by
+	 * the poller thread, which is the only thread allowed to touch its
+	 * selector keys.
+	 */
+	private static class PollerEvent {
+
+		final NioSocketWrapper wrapper;
+		final boolean register;
+		final int interestOps;
+		final boolean blocking;
+
+		PollerEvent(NioSocketWrapper wrapper, boolean register,
+				int interestOps, boolean blocking) {
+			this.wrapper = wrapper;
+			this.register = register;
+			this.interestOps = interestOps;
+			this.blocking = blocking;
+		}
+
+	}
+
+	/**
+	 * Waits, on a selector, for data on the connections registered with it.
+	 */
+	public class Poller implements Runnable {
+
+		private final Selector selector;
+		private final ConcurrentLinkedQueue<PollerEvent> events = new ConcurrentLinkedQueue<PollerEvent>();
+		private volatile boolean close = false;
+
+		public Poller() throws IOException {
+			this.selector = Selector.open();
+		}
+
+		HTTPProtocolHandler getHandler() {
+			return HTTPProtocolHandler.this;
+		}
+
+		/**
+		 * Register a newly accepted connection for read events.
+		 */
+		public void register(NioSocketWrapper wrapper) {
+			wrapper.access();
+			addEvent(new PollerEvent(wrapper, true, SelectionKey.OP_READ,
+					false));
+		}
+
+		/**
+		 * Give a connection back to this poller once a worker is done with
+		 * it.
+		 */
+		public void add(NioSocketWrapper wrapper) {
+			addEvent(new PollerEvent(wrapper, false, SelectionKey.OP_READ,
+					false));
+		}
+
+		/**
+		 * Watch a connection owned by a worker which is blocked until the
+		 * socket is ready for the given operations.
+		 */
+		void await(NioSocketWrapper wrapper, int ops) {
+			addEvent(new PollerEvent(wrapper, false, ops, true));
+		}
+
+		private void addEvent(PollerEvent event) {
+			events.offer(event);
+			selector.wakeup();
+		}
+
+		public void destroy() {
+			close = true;
+			selector.wakeup();
+		}
+
+		private void events() {
+			PollerEvent event;
+			while ((event = events.poll()) != null) {
+				NioSocketWrapper wrapper = event.wrapper;
+				SocketChannel channel = wrapper.getChannel();
+				if (wrapper.isClosed())
+					continue;
+
+				try {
+					if (event.register) {
+						channel.register(selector, event.interestOps, wrapper);
+					} else {
+						SelectionKey key = channel.keyFor(selector);
+						if (key == null || !key.isValid()) {
+							wrapper.close();
+							continue;
+						}
+						key.interestOps(key.interestOps() | event.interestOps);
+					}
+					// Idle until the connection becomes readable again, a
+					// blocked worker enforces its own timeout
+					if (!event.blocking)
+						wrapper.scheduleTimeout(getTimer(),
+								getConnectionTimeout());
+				} catch (CancelledKeyException ex) {
+					wrapper.close();
+				} catch (IOException ex) {
+					wrapper.close();
+				}
+			}
+		}
+
+		public void run() {
+			while (true) {
+				try {
+					events();
+
+					if (close) {
+						closeAll();
+						break;
+					}
+
+					int keyCount = selector.select(selectorTimeout);
+
+					if (close) {
+						events();
+						closeAll();
+						break;
+					}
+
+					Iterator<SelectionKey> iterator = (keyCount > 0 ? selector
+							.selectedKeys().iterator() : null);
+					while (iterator != null && iterator.hasNext()) {
+						SelectionKey key = iterator.next();
+						iterator.remove();
+						NioSocketWrapper wrapper = (NioSocketWrapper) key
+								.attachment();
+						if (wrapper == null) {
+							key.cancel();
+						} else {
+							processKey(key, wrapper);
+						}
+					}
+				} catch (Throwable t) {
+					ExceptionUtils.handleThrowable(t);
+					logger.error("Poller failed.", t);
+				}
+			}
+
+			try {
+				selector.close();
+			} catch (IOException ex) {
+				logger.warn("Cannot close selector.", ex);
+			}
+		}
+
+		private void processKey(SelectionKey key, NioSocketWrapper wrapper) {
+			try {
+				if (!key.isValid()) {
+					wrapper.close();
+					return;
+				}
+
+				int ready = key.readyOps() & key.interestOps();
+				key.interestOps(key.interestOps() & ~ready);
+				if (wrapper.signalReady()) {
+					// A blocked worker owns the connection
+				} else if ((ready & SelectionKey.OP_READ) != 0) {
+					// Only one worker at a time may own a connection.
+					wrapper.cancelTimeout();
+					processSocket(wrapper);
+				}
+			} catch (CancelledKeyException ex) {
+				wrapper.close();
+			}
+		}
+
+		private void closeAll() {
+			for (SelectionKey key : selector.keys()) {
+				NioSocketWrapper wrapper = (NioSocketWrapper) key.attachment();
+				if (wrapper != null)
+					wrapper.close();
+				key.cancel();
+			}
+		}
+
+	}
+
+	// ------------------------------------------------------- SocketProcessor
+
+	/**
+	 * Runs the processor of a readable connection on a worker thread.
+	 */
+	protected class SocketProcessor implements Runnable {
+
+		private final NioSocketWrapper wrapper;
+
+		public SocketProcessor(NioSocketWrapper wrapper) {
+			this.wrapper = wrapper;
+		}
+
+		public void run() {
+			SocketState state = SocketState.CLOSED;
+			try {
+				state = wrapper.getProcessor().process(wrapper);
+			} catch (IOException ex) {
+				if (logger.isDebugEnabled())
+					logger.debug("I/O error processing connection.", ex);
+			} catch (Throwable t) {
+				ExceptionUtils.handleThrowable(t);
+				logger.error("Error processing connection.", t);
+			}
+
+			if (state == SocketState.OPEN_READ && running) {
+				wrapper.getPoller().add(wrapper);
+			} else {
+				wrapper.close();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.protocols.http11;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.apache.log4j.Logger;
+import org.corticerasf.dice.protocols.AbstractProtocolHandler;
+import org.corticerasf.dice.protocols.SocketState;
+import org.corticerasf.dice.utils.ExceptionUtils;
+import org.corticerasf.dice.utils.VirtualThreadFactory;
+
+/**
+ * Blocking HTTP/1.1 protocol handler running every connection on its own
+ * virtual thread.
+ * <p>
+ * The acceptor thread accepts connections on a blocking {@link ServerSocket}
+ * and starts a new virtual thread per connection, which reads, parses and
+ * services the requests of the connection with plain blocking I/O until it
+ * is closed. A blocked virtual thread does not hold a carrier thread, so
+ * servlets doing blocking work scale to a large number of concurrent
+ * connections without a fixed worker pool.
+ * <p>
+ * On JVMs without virtual threads a platform thread is used per connection,
+ * and the number of connections should be limited accordingly with
+ * <code>maxConnections</code>. If a shared executor is set, connections are
+ * run by it instead.
+ *
+ * @author J. Godara
+ */
+public class HTTPVirtualThreadProtocolHandler extends AbstractProtocolHandler {
+
+	private static final Logger logger = Logger
+			.getLogger(HTTPVirtualThreadProtocolHandler.class);
+
+	private ServerSocket serverSocket = null;
+
+	private Thread acceptorThread = null;
+	private Semaphore connectionLimit = null;
+	private VirtualThreadFactory threadFactory = null;
+
+	private final Set<BlockingSocketWrapper> connections = Collections
+			.newSetFromMap(new ConcurrentHashMap<BlockingSocketWrapper, Boolean>());
+
+	private int readBufferSize = 8192;
+
+	private volatile boolean running = false;
+	private volatile boolean paused = false;
+
+	@Override
+	protected String getNamePrefix() {
+		return "http-vt";
+	}
+
+	public int getReadBufferSize() {
+		return readBufferSize;
+	}
+
+	/**
+	 * Set the size of the per connection read buffer. This is also the
+	 * largest request head (request line and headers) that will be accepted.
+	 */
+	public void setReadBufferSize(int readBufferSize) {
+		this.readBufferSize = readBufferSize;
+	}
+
+	public void init() throws Exception {
+		bind();
+	}
+
+	private void bind() throws IOException {
+		serverSocket = new ServerSocket();
+		serverSocket.setReuseAddress(true);
+		InetSocketAddress address = (getAddress() != null ? new InetSocketAddress(
+				getAddress(), getPort()) : new InetSocketAddress(getPort()));
+		serverSocket.bind(address, getBacklog());
+
+		if (logger.isDebugEnabled())
+			logger.debug("Bound " + getName() + " to " + address);
+	}
+
+	public void start() throws Exception {
+		if (running)
+			return;
+
+		// Stopping unbinds the socket, so a restart has to bind it again.
+		if (serverSocket == null || serverSocket.isClosed())
+			bind();
+
+		running = true;
+		paused = false;
+
+		threadFactory = new VirtualThreadFactory(getName() + "-conn-");
+		createTimer();
+
+		if (getMaxConnections() > 0)
+			connectionLimit = new Semaphore(getMaxConnections());
+
+		acceptorThread = new Thread(new Acceptor(), getName() + "-Acceptor");
+		acceptorThread.setDaemon(true);
+		acceptorThread.start();
+
+		logger.info("Started " + getName() + " using "
+				+ (threadFactory.isVirtual() ? "virtual" : "platform")
+				+ " threads.");
+	}
+
+	public void pause() throws Exception {
+		if (running)
+			paused = true;
+	}
+
+	public void resume() throws Exception {
+		if (running)
+			paused = false;
+	}
+
+	public void stop() throws Exception {
+		if (!running)
+			return;
+
+		paused = false;
+		running = false;
+
+		// Closing the socket releases the acceptor blocked in accept().
+		unbind();
+		if (acceptorThread != null) {
+			acceptorThread.interrupt();
+			acceptorThread = null;
+		}
+
+		// Closing the sockets releases the threads blocked reading them.
+		for (BlockingSocketWrapper wrapper : connections)
+			wrapper.close();
+
+		threadFactory = null;
+		stopTimer();
+
+		if (logger.isDebugEnabled())
+			logger.debug("Stopped " + getName() + ", output "
+					+ getBufferPool());
+	}
+
+	public void destroy() throws Exception {
+		if (running)
+			stop();
+
+		unbind();
+		clearBufferPool();
+	}
+
+	private void unbind() throws IOException {
+		if (serverSocket != null) {
+			try {
+				serverSocket.close();
+			} finally {
+				serverSocket = null;
+			}
+		}
+	}
+
+	/**
+	 * Configure an accepted socket and start the thread processing it.
+	 *
+	 * @return <code>false</code> if the socket should be closed
+	 */
+	protected boolean processSocket(Socket socket) {
+		BlockingSocketWrapper wrapper = null;
+		try {
+			socket.setTcpNoDelay(getTcpNoDelay());
+
+			wrapper = new BlockingSocketWrapper(socket, this);
+			connections.add(wrapper);
+			SocketProcessor processor = new SocketProcessor(wrapper,
+					new Http11Processor(this, readBufferSize));
+
+			Executor executor = getExecutor();
+			try {
+				if (executor != null) {
+					executor.execute(processor);
+				} else {
+					threadFactory.newThread(processor).start();
+				}
+			} catch (RejectedExecutionException ex) {
+				logger.warn("Executor rejected socket processing, closing "
+						+ "connection.", ex);
+				wrapper.close();
+			}
+			return true;
+		} catch (Throwable t) {
+			ExceptionUtils.handleThrowable(t);
+			logger.error("Cannot process accepted socket.", t);
+			// The acceptor closes the socket and releases its connection
+			if (wrapper != null)
+				connections.remove(wrapper);
+			return false;
+		}
+	}
+
+	/**
+	 * Called once by every wrapper when its socket is closed.
+	 */
+	void connectionClosed(BlockingSocketWrapper wrapper) {
+		connections.remove(wrapper);
+		Semaphore limit = connectionLimit;
+		if (limit != null)
+			limit.release();
+	}
+
+	// ------------------------------------------------------- Acceptor
+
+	/**
+	 * Accepts new connections and starts a thread for each of them.
+	 */
+	protected class Acceptor implements Runnable {
+
+		public void run() {
+			while (running) {
+				while (paused && running) {
+					try {
+						Thread.sleep(50);
+					} catch (InterruptedException ex) {
+						// Ignore
+					}
+				}
+
+				if (!running)
+					break;
+
+				boolean acquired = false;
+				try {
+					if (connectionLimit != null) {
+						connectionLimit.acquire();
+						acquired = true;
+					}
+
+					ServerSocket server = serverSocket;
+					if (server == null)
+						break;
+					Socket socket = server.accept();
+
+					if (running && !paused && processSocket(socket)) {
+						// Released again by BlockingSocketWrapper.close()
+						acquired = false;
+					} else {
+						closeQuietly(socket);
+					}
+				} catch (InterruptedException ex) {
+					// Stopping
+				} catch (IOException ex) {
+					if (running)
+						logger.error("Socket accept failed.", ex);
+				} catch (Throwable t) {
+					ExceptionUtils.handleThrowable(t);
+					logger.error("Socket accept failed.", t);
+				} finally {
+					if (acquired)
+						connectionLimit.release();
+				}
+			}
+		}
+
+		private void closeQuietly(Socket socket) {
+			try {
+				socket.close();
+			} catch (IOException ex) {
+				// Ignore
+			}
+		}
+
+	}
+
+	// ------------------------------------------------------- SocketProcessor
+
+	/**
+	 * Services every request of a connection, blocking on its reads, until
+	 * the connection is closed.
+	 */
+	protected class SocketProcessor implements Runnable {
+
+		private final BlockingSocketWrapper wrapper;
+		private final Http11Processor processor;
+
+		public SocketProcessor(BlockingSocketWrapper wrapper,
+				Http11Processor processor) {
+			this.wrapper = wrapper;
+			this.processor = processor;
+		}
+
+		public void run() {
+			try {
+				SocketState state = SocketState.OPEN_READ;
+				// Blocking reads only return once data is available, so the
+				// processor only returns when the connection has to be closed.
+				while (state == SocketState.OPEN_READ && running
+						&& !wrapper.isClosed())
+					state = processor.process(wrapper);
+			} catch (IOException ex) {
+				if (logger.isDebugEnabled())
+					logger.debug("I/O error processing connection.", ex);
+			} catch (Throwable t) {
+				ExceptionUtils.handleThrowable(t);
+				logger.error("Error processing connection.", t);
+			} finally {
+				wrapper.close();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,860 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.protocols.http11;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.corticerasf.dice.Globals;
+import org.corticerasf.dice.connector.ClientAbortException;
+import org.corticerasf.dice.connector.CorticeraRequest;
+import org.corticerasf.dice.connector.CorticeraResponse;
+import org.corticerasf.dice.connector.InputHook;
+import org.corticerasf.dice.connector.OutputHook;
+import org.corticerasf.dice.protocols.AbstractProtocolHandler;
+import org.corticerasf.dice.protocols.SocketState;
+import org.corticerasf.dice.protocols.SocketWrapper;
+import org.corticerasf.dice.utils.ByteBufferPool;
+import org.corticerasf.dice.utils.ByteChunk;
+import org.corticerasf.dice.utils.ExceptionUtils;
+import org.corticerasf.dice.utils.MimeHeaders;
+
+/**
+ * Parses HTTP/1.1 requests out of the read buffer of a single connection,
+ * passes them to the adapter of the owning handler and writes the responses
+ * back.
+ * <p>
+ * A processor is owned by one connection and is only ever run by one thread
+ * at a time. The read buffer is kept in write mode: the bytes received and not
+ * yet consumed are in <code>[0, position)</code>.
+ * <p>
+ * A request is serviced as soon as its head is received. Its body, with a
+ * <code>Content-Length</code> or chunked, is read from the connection as the
+ * application consumes it, into the read buffer after the head, or into a
+ * second buffer when the head leaves too little room. The
+ * <code>100 Continue</code> response asked for with
+ * <code>Expect: 100-continue</code> is sent when the application first needs
+ * bytes the client has not sent. Whatever the application left unread is
+ * skipped before the next request, or the connection is closed when it is
+ * large or the client still waits for <code>100 Continue</code>.
+ *
+ * @author J. Godara
+ */
+public class Http11Processor implements InputHook, OutputHook {
+
+	private static final Logger logger = Logger.getLogger(Http11Processor.class);
+
+	private static final String ENCODING = "ISO-8859-1";
+
+	/**
+	 * Maximum number of bytes of responses held back while pipelined
+	 * requests are processed.
+	 */
+	private static final int MAX_PENDING_BYTES = 64 * 1024;
+
+	/**
+	 * Maximum number of unread body bytes read and discarded after a request
+	 * to keep the connection alive.
+	 */
+	private static final int MAX_SWALLOW_SIZE = 64 * 1024;
+
+	private static final byte[] CONTINUE = { 'H', 'T', 'T', 'P', '/', '1',
+			'.', '1', ' ', '1', '0', '0', ' ', 'C', 'o', 'n', 't', 'i', 'n',
+			'u', 'e', '\r', '\n', '\r', '\n' };
+	private static final byte[] CRLF = { '\r', '\n' };
+	private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+	private static final byte[] CRLF_LAST_CHUNK = { '\r', '\n', '0', '\r',
+			'\n', '\r', '\n' };
+
+	/**
+	 * Result of an attempt to parse a request from the buffered bytes.
+	 */
+	private static enum ParseResult {
+		NEED_DATA, COMPLETE, BAD_REQUEST, TOO_LARGE, NOT_IMPLEMENTED
+	}
+
+	private final AbstractProtocolHandler handler;
+	private final ByteBuffer readBuffer;
+
+	/**
+	 * The request and response objects, reused for every request of the
+	 * connection.
+	 */
+	private final CorticeraRequest request = new CorticeraRequest();
+	private final CorticeraResponse response = new CorticeraResponse();
+
+	/**
+	 * The buffer the body is read from, the read buffer or
+	 * <code>bodyBuffer</code>. Like the read buffer it is kept in write
+	 * mode: the next body byte is at <code>inputPos</code> and the bytes
+	 * received end at its position. Refills start at <code>inputBase</code>.
+	 */
+	private ByteBuffer input;
+	private int inputBase = 0;
+	private int inputPos = 0;
+	private ByteBuffer bodyBuffer = null;
+
+	/**
+	 * State of the body being read. For a chunked body,
+	 * <code>bodyRemaining</code> is what is left of the current chunk.
+	 */
+	private boolean bodyChunked = false;
+	private long bodyRemaining = 0;
+	private long bodyRead = 0;
+	private boolean bodyFinished = true;
+	private boolean bodyFailed = false;
+	private boolean bodyTooLarge = false;
+	private boolean expectContinue = false;
+
+	/**
+	 * The connection being processed.
+	 */
+	private SocketWrapper socket = null;
+
+	/**
+	 * State of the response being sent.
+	 */
+	private boolean keepAlive = false;
+	private boolean sendBody = false;
+	private boolean chunked = false;
+
+	/**
+	 * The Content-Length sent with the response, or -1, and the number of
+	 * bytes of the body written so far.
+	 */
+	private long bodyLimit = -1;
+	private long bodySent = 0;
+
+	/**
+	 * Number of requests received on the connection.
+	 */
+	private int requestCount = 0;
+
+	/**
+	 * Responses held back to be written together with the responses to the
+	 * requests pipelined after them, and the pooled buffers they use.
+	 */
+	private ByteBuffer[] pending = new ByteBuffer[16];
+	private int pendingCount = 0;
+	private long pendingBytes = 0;
+	private ByteBuffer[] retained = new ByteBuffer[16];
+	private int retainedCount = 0;
+
+	public Http11Processor(AbstractProtocolHandler handler, int bufferSize) {
+		this.handler = handler;
+		this.readBuffer = ByteBuffer.allocate(bufferSize);
+		this.input = readBuffer;
+		this.request.setInputHook(this);
+		this.response.setOutputHook(this, handler.getBufferPool());
+	}
+
+	/**
+	 * Process every complete request available on the connection. Pipelined
+	 * requests are processed in order and the responses to the requests
+	 * received together are written together.
+	 *
+	 * @return the state the connection should be left in
+	 */
+	public SocketState process(SocketWrapper socket) throws IOException {
+		this.socket = socket;
+		try {
+			return doProcess();
+		} finally {
+			// Only left over when the connection failed
+			releasePending();
+		}
+	}
+
+	private SocketState doProcess() throws IOException {
+		while (true) {
+			ParseResult result = parseRequest();
+
+			if (result == ParseResult.NEED_DATA) {
+				if (!readBuffer.hasRemaining()) {
+					// The request head does not fit in the read buffer.
+					sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+					return SocketState.CLOSED;
+				}
+
+				// Every request received so far has been answered.
+				writePending();
+
+				int n = socket.read(readBuffer);
+				if (n < 0)
+					return SocketState.CLOSED;
+				if (n == 0)
+					return SocketState.OPEN_READ;
+				continue;
+			} else if (result == ParseResult.BAD_REQUEST) {
+				sendError(HttpServletResponse.SC_BAD_REQUEST);
+				return SocketState.CLOSED;
+			} else if (result == ParseResult.TOO_LARGE) {
+				sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+				return SocketState.CLOSED;
+			} else if (result == ParseResult.NOT_IMPLEMENTED) {
+				sendError(HttpServletResponse.SC_NOT_IMPLEMENTED);
+				return SocketState.CLOSED;
+			}
+
+			boolean keepAlive = service(socket);
+			if (!finishBody())
+				keepAlive = false;
+
+			consumeRequest();
+
+			if (!keepAlive) {
+				writePending();
+				return SocketState.CLOSED;
+			}
+		}
+	}
+
+	/**
+	 * Run the adapter for the parsed request and finish the response.
+	 *
+	 * @return <code>true</code> if the connection can be kept alive
+	 */
+	private boolean service(SocketWrapper socket) throws IOException {
+		request.setRemoteAddr(socket.getRemoteAddr());
+		request.setRemotePort(socket.getRemotePort());
+		request.setLocalAddr(socket.getLocalAddr());
+		request.setLocalPort(socket.getLocalPort());
+
+		if (socket.isSendfileSupported())
+			request.setAttribute(Globals.SENDFILE_SUPPORTED_ATTR, Boolean.TRUE);
+
+		requestCount++;
+		int maxKeepAliveRequests = handler.getMaxKeepAliveRequests();
+		keepAlive = isKeepAlive(request)
+				&& (maxKeepAliveRequests <= 0
+				|| requestCount < maxKeepAliveRequests);
+
+		try {
+			handler.getAdapter().service(request, response);
+		} catch (ClientAbortException ex) {
+			if (logger.isDebugEnabled())
+				logger.debug("Client aborted request " + request.getRequestURI(),
+						ex);
+			return false;
+		} catch (Throwable t) {
+			ExceptionUtils.handleThrowable(t);
+			if (bodyTooLarge) {
+				if (logger.isDebugEnabled())
+					logger.debug("Request body too large for "
+							+ request.getRequestURI(), t);
+			} else {
+				logger.error("Error servicing request "
+						+ request.getRequestURI(), t);
+			}
+			if (response.isCommitted()) {
+				// Part of the response has been sent already, the client can
+				// only learn about the failure from the connection closing.
+				return false;
+			}
+			response.reset();
+			response.setStatus(bodyTooLarge ? HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE
+					: HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			keepAlive = false;
+		}
+
+		response.finishResponse();
+
+		String sendfile = (String) request
+				.getAttribute(Globals.SENDFILE_FILENAME_ATTR);
+		if (sendfile != null && sendBody) {
+			try {
+				sendFile(sendfile);
+			} catch (IOException ex) {
+				if (logger.isDebugEnabled())
+					logger.debug("Cannot send file " + sendfile, ex);
+				return false;
+			}
+		}
+		return keepAlive;
+	}
+
+	/**
+	 * Send the file range requested by the servlet after the head of the
+	 * response, which has been committed with the length of the range.
+	 */
+	private void sendFile(String filename) throws IOException {
+		long start = (Long) request
+				.getAttribute(Globals.SENDFILE_FILE_START_ATTR);
+		long end = (Long) request.getAttribute(Globals.SENDFILE_FILE_END_ATTR);
+
+		writePending();
+
+		FileInputStream in = new FileInputStream(new File(filename));
+		try {
+			socket.sendFile(in.getChannel(), start, end - start);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Decide whether the connection survives the current request.
+	 */
+	private boolean isKeepAlive(CorticeraRequest request) {
+		ByteChunk connection = request.getMimeHeaders().getValue("Connection");
+		if (request.protocol().equals("HTTP/1.1"))
+			return connection == null || !connection.equalsIgnoreCase("close");
+		return connection != null && connection.equalsIgnoreCase("keep-alive");
+	}
+
+	/**
+	 * Discard the bytes of the request just serviced, keeping any bytes of
+	 * the next request which may already have been read after its body.
+	 */
+	private void consumeRequest() {
+		int leftover = input.position() - inputPos;
+		System.arraycopy(input.array(), inputPos, readBuffer.array(), 0,
+				leftover);
+		readBuffer.position(leftover);
+		input = readBuffer;
+		inputBase = 0;
+		inputPos = 0;
+		bodyFinished = true;
+		expectContinue = false;
+		request.recycle();
+		response.recycle();
+	}
+
+	// ------------------------------------------------------- Parsing
+
+	private ParseResult parseRequest() {
+		byte[] buf = readBuffer.array();
+		int limit = readBuffer.position();
+
+		int start = Http11RequestParser.skipBlankLines(buf, 0, limit);
+		int headEnd = Http11RequestParser.findHeadEnd(buf, start, limit);
+		if (headEnd < 0)
+			return ParseResult.NEED_DATA;
+
+		request.recycle();
+		if (!Http11RequestParser.parseHead(buf, start, headEnd, request))
+			return ParseResult.BAD_REQUEST;
+
+		// Body
+		MimeHeaders headers = request.getMimeHeaders();
+		boolean chunkedBody = false;
+		long contentLength = 0;
+		ByteChunk transferEncoding = null;
+		ByteChunk length = null;
+		for (int i = 0; i < headers.size(); i++) {
+			ByteChunk name = headers.getName(i);
+			if (name.equalsIgnoreCase("Transfer-Encoding")) {
+				if (transferEncoding != null)
+					return ParseResult.BAD_REQUEST;
+				transferEncoding = headers.getValue(i);
+			} else if (name.equalsIgnoreCase("Content-Length")) {
+				if (length != null)
+					return ParseResult.BAD_REQUEST;
+				length = headers.getValue(i);
+			}
+		}
+		// A message framed both ways may be read differently by a proxy in
+		// front of the server, which would let a request be smuggled in its
+		// body (RFC 7230 section 3.3.3).
+		if (transferEncoding != null && length != null)
+			return ParseResult.BAD_REQUEST;
+		if (transferEncoding != null) {
+			// Only chunked alone, other codings are not supported
+			if (!transferEncoding.equalsIgnoreCase("chunked"))
+				return ParseResult.NOT_IMPLEMENTED;
+			chunkedBody = true;
+		} else if (length != null) {
+			try {
+				contentLength = length.getLong();
+			} catch (NumberFormatException ex) {
+				return ParseResult.BAD_REQUEST;
+			}
+			if (contentLength < 0)
+				return ParseResult.BAD_REQUEST;
+		}
+
+		int maxPostSize = handler.getMaxPostSize();
+		if (maxPostSize >= 0 && contentLength > maxPostSize)
+			return ParseResult.TOO_LARGE;
+
+		input = readBuffer;
+		inputBase = headEnd;
+		inputPos = headEnd;
+		bodyChunked = chunkedBody;
+		bodyRemaining = contentLength;
+		bodyRead = 0;
+		bodyFinished = (!chunkedBody && contentLength == 0);
+		bodyFailed = false;
+		bodyTooLarge = false;
+
+		ByteChunk expect = headers.getValue("Expect");
+		expectContinue = (!bodyFinished && expect != null
+				&& expect.equalsIgnoreCase("100-continue") && request
+				.protocol().equals("HTTP/1.1"));
+		return ParseResult.COMPLETE;
+	}
+
+	// ------------------------------------------------------- Body
+
+	public int doRead(byte[] b, int off, int len) throws IOException {
+		return readBody(b, off, len);
+	}
+
+	public int available() {
+		if (bodyFinished || bodyFailed)
+			return 0;
+		return (int) Math.min(input.position() - inputPos, bodyRemaining);
+	}
+
+	/**
+	 * Read body bytes into the given array, or skip them if it is
+	 * <code>null</code>.
+	 */
+	private int readBody(byte[] b, int off, int len) throws IOException {
+		if (bodyFailed)
+			throw new IOException("The request body could not be read.");
+		if (bodyFinished || len == 0)
+			return (bodyFinished ? -1 : 0);
+
+		try {
+			if (bodyChunked && bodyRemaining == 0 && !nextChunk())
+				return -1;
+
+			if (inputPos == input.position())
+				fill();
+
+			int n = (int) Math.min(Math.min(len, bodyRemaining),
+					input.position() - inputPos);
+			if (b != null)
+				System.arraycopy(input.array(), inputPos, b, off, n);
+			inputPos += n;
+			bodyRemaining -= n;
+			bodyRead += n;
+			if (!bodyChunked && bodyRemaining == 0)
+				bodyFinished = true;
+			return n;
+		} catch (IOException ex) {
+			bodyFailed = true;
+			throw ex;
+		}
+	}
+
+	/**
+	 * Read the line ending the previous chunk, if any, and the header of the
+	 * next chunk. After the last chunk the trailer is skipped.
+	 *
+	 * @return <code>false</code> at the end of the body
+	 */
+	private boolean nextChunk() throws IOException {
+		if (bodyRead > 0) {
+			if (readByte() != '\r' || readByte() != '\n')
+				throw new IOException("Invalid chunked request body.");
+		}
+
+		long size = 0;
+		int digits = 0;
+		int c = readByte();
+		while (c != '\r' && c != ';') {
+			int digit = Character.digit(c, 16);
+			if (digit < 0 || ++digits > 15)
+				throw new IOException("Invalid chunk size.");
+			size = (size << 4) + digit;
+			c = readByte();
+		}
+		if (digits == 0)
+			throw new IOException("Invalid chunk size.");
+		// Chunk extensions are ignored
+		while (c != '\r')
+			c = readByte();
+		if (readByte() != '\n')
+			throw new IOException("Invalid chunked request body.");
+
+		if (size == 0) {
+			skipTrailer();
+			bodyFinished = true;
+			return false;
+		}
+
+		int maxPostSize = handler.getMaxPostSize();
+		if (maxPostSize >= 0 && bodyRead + size > maxPostSize) {
+			bodyTooLarge = true;
+			throw new IOException("The request body is larger than "
+					+ maxPostSize + " bytes.");
+		}
+		bodyRemaining = size;
+		return true;
+	}
+
+	/**
+	 * Skip the header lines following the last chunk, up to the empty line.
+	 */
+	private void skipTrailer() throws IOException {
+		int lineLength = 0;
+		while (true) {
+			int c = readByte();
+			if (c == '\n') {
+				if (lineLength == 0)
+					return;
+				lineLength = 0;
+			} else if (c != '\r') {
+				lineLength++;
+			}
+		}
+	}
+
+	private int readByte() throws IOException {
+		if (inputPos == input.position())
+			fill();
+		return input.array()[inputPos++] & 0xff;
+	}
+
+	/**
+	 * Read more of the body from the connection, once every byte received
+	 * has been consumed, blocking until some bytes arrive.
+	 */
+	private void fill() throws IOException {
+		if (expectContinue) {
+			expectContinue = false;
+			writePending();
+			socket.write(new ByteBuffer[] { ByteBuffer.wrap(CONTINUE) }, 0, 1);
+		}
+
+		// The head stays in the read buffer while the request is serviced,
+		// the body is read after it unless it leaves less than half the
+		// buffer.
+		if (input == readBuffer
+				&& readBuffer.capacity() - inputBase < readBuffer.capacity() / 2) {
+			if (bodyBuffer == null)
+				bodyBuffer = ByteBuffer.allocate(readBuffer.capacity());
+			input = bodyBuffer;
+			inputBase = 0;
+		}
+		input.position(inputBase);
+		inputPos = inputBase;
+
+		while (true) {
+			int n = socket.read(input);
+			if (n > 0)
+				return;
+			if (n < 0)
+				throw new EOFException("Connection closed before the end of "
+						+ "the request body.");
+			socket.awaitReadable();
+		}
+	}
+
+	/**
+	 * Skip the body the application did not read, so that the next request
+	 * can be parsed.
+	 *
+	 * @return <code>false</code> if the connection must be closed instead
+	 */
+	private boolean finishBody() {
+		if (bodyFinished)
+			return true;
+		// The client waits for 100 Continue before sending the body
+		if (bodyFailed || expectContinue)
+			return false;
+
+		try {
+			long skipped = 0;
+			while (!bodyFinished) {
+				if (skipped >= MAX_SWALLOW_SIZE && available() == 0)
+					return false;
+				int n = readBody(null, 0, Integer.MAX_VALUE);
+				if (n < 0)
+					break;
+				skipped += n;
+			}
+			return true;
+		} catch (IOException ex) {
+			if (logger.isDebugEnabled())
+				logger.debug("Cannot skip the request body.", ex);
+			return false;
+		}
+	}
+
+	// ------------------------------------------------------- Writing
+
+	private void sendError(int status) throws IOException {
+		request.recycle();
+		response.recycle();
+		response.setStatus(status);
+		keepAlive = false;
+		response.finishResponse();
+	}
+
+	public boolean doWrite(ByteBuffer[] buffers, int count, boolean last)
+			throws IOException {
+		ByteBuffer head = null;
+		if (!response.isCommitted())
+			head = prepareResponse(buffers, count, last);
+
+		if (head != null)
+			addPending(head);
+
+		if (sendBody) {
+			if (bodyLimit >= 0)
+				limitBody(buffers, count);
+			long length = 0;
+			for (int i = 0; i < count; i++)
+				length += buffers[i].remaining();
+
+			if (chunked && length > 0)
+				addPending(ByteBuffer.wrap(chunkHeader(length)));
+			for (int i = 0; i < count; i++)
+				addPending(buffers[i]);
+			if (chunked) {
+				if (length > 0 && last)
+					addPending(ByteBuffer.wrap(CRLF_LAST_CHUNK));
+				else if (length > 0)
+					addPending(ByteBuffer.wrap(CRLF));
+				else if (last)
+					addPending(ByteBuffer.wrap(LAST_CHUNK));
+			}
+		}
+
+		// The client waits for the bytes missing from a body shorter than its
+		// Content-Length, only closing the connection ends the response.
+		if (last && sendBody && bodySent < bodyLimit
+				&& request.getAttribute(Globals.SENDFILE_FILENAME_ATTR) == null)
+			keepAlive = false;
+
+		// A complete response followed by a pipelined request is held back,
+		// so that the responses to all the requests received together go
+		// out in a single write.
+		if (last && keepAlive && bodyFinished && input.position() > inputPos
+				&& pendingBytes < MAX_PENDING_BYTES) {
+			if (sendBody) {
+				for (int i = 0; i < count; i++)
+					retain(buffers[i]);
+				return true;
+			}
+			return false;
+		}
+
+		writePending();
+		return false;
+	}
+
+	/**
+	 * Drop the bytes written beyond the declared Content-Length, which the
+	 * client would take for the start of the next response.
+	 */
+	private void limitBody(ByteBuffer[] buffers, int count) {
+		for (int i = 0; i < count; i++) {
+			ByteBuffer buffer = buffers[i];
+			long allowed = bodyLimit - bodySent;
+			if (buffer.remaining() > allowed) {
+				if (logger.isDebugEnabled())
+					logger.debug("Response to " + request.getRequestURI()
+							+ " exceeds its Content-Length " + bodyLimit);
+				buffer.limit(buffer.position() + (int) allowed);
+			}
+			bodySent += buffer.remaining();
+		}
+	}
+
+	private void addPending(ByteBuffer buffer) {
+		if (pendingCount == pending.length) {
+			ByteBuffer[] newPending = new ByteBuffer[pendingCount * 2];
+			System.arraycopy(pending, 0, newPending, 0, pendingCount);
+			pending = newPending;
+		}
+		pending[pendingCount++] = buffer;
+		pendingBytes += buffer.remaining();
+	}
+
+	private void retain(ByteBuffer buffer) {
+		if (retainedCount == retained.length) {
+			ByteBuffer[] newRetained = new ByteBuffer[retainedCount * 2];
+			System.arraycopy(retained, 0, newRetained, 0, retainedCount);
+			retained = newRetained;
+		}
+		retained[retainedCount++] = buffer;
+	}
+
+	/**
+	 * Send the responses held back, with a single gathering write.
+	 */
+	private void writePending() throws IOException {
+		try {
+			if (pendingCount > 0)
+				socket.write(pending, 0, pendingCount);
+		} finally {
+			releasePending();
+		}
+	}
+
+	/**
+	 * Forget the responses held back and give their buffers back to the pool.
+	 */
+	private void releasePending() {
+		for (int i = 0; i < pendingCount; i++)
+			pending[i] = null;
+		pendingCount = 0;
+		pendingBytes = 0;
+
+		ByteBufferPool pool = handler.getBufferPool();
+		for (int i = 0; i < retainedCount; i++) {
+			pool.release(retained[i]);
+			retained[i] = null;
+		}
+		retainedCount = 0;
+	}
+
+	/**
+	 * Commit the response: choose how its content is delimited and build
+	 * the status line and headers.
+	 */
+	private ByteBuffer prepareResponse(ByteBuffer[] buffers, int count,
+			boolean last) throws IOException {
+		int status = response.getStatus();
+		boolean lengthAllowed = status >= 200 && status != 204
+				&& status != 304;
+		sendBody = lengthAllowed && !request.method().equals("HEAD");
+		chunked = false;
+		bodyLimit = -1;
+		bodySent = 0;
+		// The client would not send the body the connection is left with
+		if (expectContinue)
+			keepAlive = false;
+
+		long contentLength = response.getContentLengthLong();
+		if (contentLength < 0 && last) {
+			// The whole content is known, it is in these buffers.
+			contentLength = 0;
+			for (int i = 0; i < count; i++)
+				contentLength += buffers[i].remaining();
+		}
+
+		StringBuilder head = new StringBuilder(256);
+		head.append("HTTP/1.1 ").append(status).append(' ')
+				.append(reasonPhrase(status)).append("\r\n");
+		head.append("Date: ").append(currentDate()).append("\r\n");
+
+		if (response.getContentType() != null)
+			head.append("Content-Type: ").append(response.getContentType())
+					.append("\r\n");
+		if (lengthAllowed) {
+			if (contentLength >= 0) {
+				head.append("Content-Length: ").append(contentLength)
+						.append("\r\n");
+				bodyLimit = contentLength;
+			} else if (request.protocol().equals("HTTP/1.1")) {
+				head.append("Transfer-Encoding: chunked\r\n");
+				chunked = sendBody;
+			} else if (sendBody) {
+				// The end of the content is marked by closing the connection.
+				keepAlive = false;
+			}
+		}
+
+		for (int i = 0; i < response.getHeaderCount(); i++)
+			head.append(response.getHeaderName(i)).append(": ")
+					.append(response.getHeaderValue(i)).append("\r\n");
+
+		if (!keepAlive)
+			head.append("Connection: close\r\n");
+		else if (!request.protocol().equals("HTTP/1.1"))
+			head.append("Connection: keep-alive\r\n");
+		head.append("\r\n");
+
+		response.setCommitted(true);
+		return ByteBuffer.wrap(head.toString().getBytes(ENCODING));
+	}
+
+	private static byte[] chunkHeader(long length) {
+		String header = Long.toHexString(length) + "\r\n";
+		byte[] bytes = new byte[header.length()];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) header.charAt(i);
+		return bytes;
+	}
+
+	private static String reasonPhrase(int status) {
+		switch (status) {
+		case 200:
+			return "OK";
+		case 201:
+			return "Created";
+		case 204:
+			return "No Content";
+		case 206:
+			return "Partial Content";
+		case 301:
+			return "Moved Permanently";
+		case 302:
+			return "Found";
+		case 304:
+			return "Not Modified";
+		case 400:
+			return "Bad Request";
+		case 403:
+			return "Forbidden";
+		case 404:
+			return "Not Found";
+		case 405:
+			return "Method Not Allowed";
+		case 412:
+			return "Precondition Failed";
+		case 413:
+			return "Request Entity Too Large";
+		case 416:
+			return "Requested Range Not Satisfiable";
+		case 500:
+			return "Internal Server Error";
+		case 501:
+			return "Not Implemented";
+		case 503:
+			return "Service Unavailable";
+		default:
+			return "Unknown";
+		}
+	}
+
+	// ------------------------------------------------------- Date header
+
+	private static volatile long currentDateGenerated = 0;
+	private static volatile String currentDate = null;
+
+	/**
+	 * Return the value of the <code>Date</code> header, formatted at most
+	 * once per second.
+	 */
+	private static String currentDate() {
+		long now = System.currentTimeMillis();
+		if (now - currentDateGenerated >= 1000) {
+			SimpleDateFormat format = new SimpleDateFormat(
+					"EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+			format.setTimeZone(TimeZone.getTimeZone("GMT"));
+			currentDate = format.format(new Date(now));
+			currentDateGenerated = now;
+		}
+		return currentDate;
+	}
+
+}
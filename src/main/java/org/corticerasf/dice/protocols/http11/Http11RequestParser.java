@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.protocols.http11;
+
+import org.corticerasf.dice.connector.CorticeraRequest;
+import org.corticerasf.dice.utils.MimeHeaders;
+
+/**
+ * Byte level parser for the head (request line and headers) of an HTTP/1.1
+ * request.
+ * <p>
+ * The parser works directly on the read buffer of the connection. The
+ * method, URI, query string, protocol and headers are recorded in the request
+ * as {@link org.corticerasf.dice.utils.ByteChunk} views over the buffer, and
+ * are only decoded into strings when the application asks for them.
+ *
+ * @author J. Godara
+ */
+final class Http11RequestParser {
+
+	/**
+	 * The bytes allowed in a header name, the token characters of RFC 7230.
+	 */
+	private static final boolean[] TOKEN = new boolean[128];
+
+	static {
+		for (int c = 0x21; c < 0x7f; c++)
+			TOKEN[c] = "()<>@,;:\\\"/[]?={}".indexOf(c) < 0;
+	}
+
+	private Http11RequestParser() {
+		// Utility class
+	}
+
+	/**
+	 * Skip the blank lines which may precede the request line (RFC 7230 3.5).
+	 *
+	 * @return the offset of the first byte of the request line
+	 */
+	static int skipBlankLines(byte[] buf, int start, int limit) {
+		while (start < limit && (buf[start] == '\r' || buf[start] == '\n'))
+			start++;
+		return start;
+	}
+
+	/**
+	 * Return the offset just past the empty line ending the request head, or
+	 * -1 if the head is not complete yet.
+	 */
+	static int findHeadEnd(byte[] buf, int start, int limit) {
+		for (int i = start; i < limit; i++) {
+			if (buf[i] != '\n')
+				continue;
+			if (i + 1 < limit && buf[i + 1] == '\n')
+				return i + 2;
+			if (i + 2 < limit && buf[i + 1] == '\r' && buf[i + 2] == '\n')
+				return i + 3;
+		}
+		return -1;
+	}
+
+	/**
+	 * Parse the complete request head <code>[start, headEnd)</code> into the
+	 * given request.
+	 *
+	 * @return <code>false</code> if the head is malformed
+	 */
+	static boolean parseHead(byte[] buf, int start, int headEnd,
+			CorticeraRequest request) {
+
+		// Request line
+		int lineEnd = indexOf(buf, start, headEnd, (byte) '\n');
+		int sp1 = indexOf(buf, start, lineEnd, (byte) ' ');
+		if (sp1 <= start)
+			return false;
+		int sp2 = indexOf(buf, sp1 + 1, lineEnd, (byte) ' ');
+		if (sp2 <= sp1 + 1)
+			return false;
+
+		request.method().setBytes(buf, start, sp1);
+
+		int uriEnd = sp2;
+		int question = indexOf(buf, sp1 + 1, sp2, (byte) '?');
+		if (question >= 0) {
+			request.queryString().setBytes(buf, question + 1, sp2);
+			uriEnd = question;
+		}
+		request.requestURI().setBytes(buf, sp1 + 1, uriEnd);
+		request.protocol().setBytes(buf, sp2 + 1,
+				trimEnd(buf, sp2 + 1, lineEnd));
+
+		// Headers
+		MimeHeaders headers = request.getMimeHeaders();
+		int pos = lineEnd + 1;
+		while (pos < headEnd) {
+			lineEnd = indexOf(buf, pos, headEnd, (byte) '\n');
+			int end = trimEnd(buf, pos, lineEnd);
+			if (end == pos)
+				break;
+			// Folded lines are obsolete, and a proxy may not unfold them
+			if (buf[pos] == ' ' || buf[pos] == '\t')
+				return false;
+
+			int colon = indexOf(buf, pos, end, (byte) ':');
+			if (colon <= pos || !isToken(buf, pos, colon))
+				return false;
+
+			int valueStart = colon + 1;
+			while (valueStart < end
+					&& (buf[valueStart] == ' ' || buf[valueStart] == '\t'))
+				valueStart++;
+			while (end > valueStart
+					&& (buf[end - 1] == ' ' || buf[end - 1] == '\t'))
+				end--;
+
+			headers.addHeader(buf, pos, colon, valueStart, end);
+			pos = lineEnd + 1;
+		}
+
+		return true;
+	}
+
+	private static boolean isToken(byte[] buf, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (buf[i] < 0 || !TOKEN[buf[i]])
+				return false;
+		}
+		return true;
+	}
+
+	private static int indexOf(byte[] buf, int start, int end, byte b) {
+		for (int i = start; i < end; i++) {
+			if (buf[i] == b)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Return the end of the line starting at <code>start</code>, excluding the
+	 * optional trailing CR.
+	 */
+	private static int trimEnd(byte[] buf, int start, int lineEnd) {
+		if (lineEnd > start && buf[lineEnd - 1] == '\r')
+			return lineEnd - 1;
+		return lineEnd;
+	}
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.protocols.http11;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.corticerasf.dice.protocols.SocketWrapper;
+
+/**
+ * A non-blocking {@link SocketChannel} registered with one of the pollers of
+ * an {@link HTTPProtocolHandler}.
+ * <p>
+ * Reads never block: they return zero when no data is available and the
+ * caller is expected to give the connection back to its poller, or to wait
+ * in {@link #awaitReadable()} while reading a request body. Writes block the
+ * calling worker thread until the socket accepts the data, so that
+ * processors can be written sequentially. A blocked thread waits for the
+ * poller of the connection to see the socket ready, for at most the
+ * connection timeout, without a selector of its own.
+ *
+ * @author J. Godara
+ */
+public class NioSocketWrapper extends SocketWrapper {
+
+	private final SocketChannel channel;
+	private final HTTPProtocolHandler.Poller poller;
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	private final Http11Processor processor;
+	private final long ioTimeout;
+
+	/**
+	 * Released by the poller when the socket becomes ready for the thread
+	 * blocked in {@link #await(int, String)}.
+	 */
+	private volatile CountDownLatch ready = null;
+
+	public NioSocketWrapper(SocketChannel channel,
+			HTTPProtocolHandler.Poller poller, Http11Processor processor,
+			long ioTimeout) {
+		this.channel = channel;
+		this.poller = poller;
+		this.processor = processor;
+		this.ioTimeout = ioTimeout;
+	}
+
+	public SocketChannel getChannel() {
+		return channel;
+	}
+
+	public HTTPProtocolHandler.Poller getPoller() {
+		return poller;
+	}
+
+	public Http11Processor getProcessor() {
+		return processor;
+	}
+
+	@Override
+	public int read(ByteBuffer to) throws IOException {
+		int n;
+		try {
+			n = channel.read(to);
+		} catch (IOException ex) {
+			// Closed by the timer just as data arrived
+			if (isClosed())
+				return -1;
+			throw ex;
+		}
+		if (n > 0)
+			access();
+		return n;
+	}
+
+	@Override
+	public void write(ByteBuffer[] from, int offset, int length)
+			throws IOException {
+		long remaining = 0;
+		for (int i = offset; i < offset + length; i++)
+			remaining += from[i].remaining();
+
+		while (remaining > 0) {
+			// A single gathering write for all the buffers
+			long n = channel.write(from, offset, length);
+			if (n < 0)
+				throw new EOFException();
+			remaining -= n;
+			if (n == 0 && remaining > 0)
+				awaitWritable();
+		}
+		access();
+	}
+
+	@Override
+	public boolean isSendfileSupported() {
+		return true;
+	}
+
+	@Override
+	public void sendFile(FileChannel file, long position, long length)
+			throws IOException {
+		while (length > 0) {
+			// sendfile(2) where the platform has it
+			long n = file.transferTo(position, length, channel);
+			if (n == 0) {
+				if (position >= file.size())
+					throw new EOFException("File truncated while sending.");
+				awaitWritable();
+			}
+			position += n;
+			length -= n;
+		}
+		access();
+	}
+
+	@Override
+	public void awaitReadable() throws IOException {
+		await(SelectionKey.OP_READ, "Read timed out.");
+	}
+
+	private void awaitWritable() throws IOException {
+		await(SelectionKey.OP_WRITE, "Write timed out.");
+	}
+
+	/**
+	 * Park the calling thread until the poller sees the socket ready for the
+	 * given operation. The connection is closed if the timeout expires.
+	 */
+	private void await(int ops, String timeoutMessage) throws IOException {
+		CountDownLatch latch = new CountDownLatch(1);
+		ready = latch;
+		poller.await(this, ops);
+
+		boolean signalled;
+		try {
+			signalled = latch.await(ioTimeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new InterruptedIOException();
+		}
+
+		// On failure the latch is left in place, so that a late readiness
+		// event is not taken for new data to process.
+		if (!signalled) {
+			close();
+			throw new SocketTimeoutException(timeoutMessage);
+		}
+		if (isClosed())
+			throw new ClosedChannelException();
+		ready = null;
+	}
+
+	/**
+	 * Called by the poller when the socket is ready.
+	 *
+	 * @return <code>true</code> if a thread was waiting for it, in which case
+	 *         the connection must not be dispatched for processing
+	 */
+	boolean signalReady() {
+		CountDownLatch latch = ready;
+		if (latch == null)
+			return false;
+		latch.countDown();
+		return true;
+	}
+
+	@Override
+	public void close() {
+		if (!closed.compareAndSet(false, true))
+			return;
+
+		cancelTimeout();
+		CountDownLatch latch = ready;
+		if (latch != null)
+			latch.countDown();
+		try {
+			channel.close();
+		} catch (IOException ex) {
+			// Ignore
+		}
+		poller.getHandler().connectionClosed(this);
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed.get();
+	}
+
+	@Override
+	protected Socket getSocket() {
+		return channel.socket();
+	}
+
+}
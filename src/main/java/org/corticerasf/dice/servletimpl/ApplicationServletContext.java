@@ -15,11 +15,14 @@
  */
 package org.corticerasf.dice.servletimpl;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Enumeration;
 import java.util.EventListener;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -35,11 +38,32 @@ import javax.servlet.SessionCookieConfig;
 import javax.servlet.SessionTrackingMode;
 import javax.servlet.descriptor.JspConfigDescriptor;
 
+import org.apache.log4j.Logger;
+import org.corticerasf.dice.Loader;
+import org.corticerasf.dice.core.StandardContext;
+import org.corticerasf.dice.utils.RequestUtil;
+
+/**
+ * The {@link ServletContext} of a {@link StandardContext}.
+ * <p>
+ * Resources are looked up through the {@link ResourceCache} of the context,
+ * so that repeated lookups of the same path do not touch the file system.
+ *
+ * @author J. Godara
+ */
 public class ApplicationServletContext implements ServletContext {
 
+	private static final Logger logger = Logger
+			.getLogger(ApplicationServletContext.class);
+
+	private final StandardContext context;
+
+	public ApplicationServletContext(StandardContext context) {
+		this.context = context;
+	}
+
 	public String getContextPath() {
-		// TODO Auto-generated method stub
-		return null;
+		return context.getPath();
 	}
 
 	public ServletContext getContext(String uripath) {
@@ -73,18 +97,57 @@ public class ApplicationServletContext implements ServletContext {
 	}
 
 	public Set<String> getResourcePaths(String path) {
-		// TODO Auto-generated method stub
-		return null;
+		CachedResource resource = lookup(path);
+		if (resource == null)
+			return null;
+
+		String[] listing = resource.getListing();
+		if (listing == null)
+			return null;
+
+		String prefix = (path.endsWith("/") ? path : path + "/");
+		Set<String> paths = new HashSet<String>();
+		for (String name : listing)
+			paths.add(prefix + name);
+		return paths;
 	}
 
 	public URL getResource(String path) throws MalformedURLException {
-		// TODO Auto-generated method stub
-		return null;
+		if (path == null || !path.startsWith("/"))
+			throw new MalformedURLException("Path '" + path
+					+ "' does not start with '/'");
+
+		CachedResource resource = lookup(path);
+		if (resource == null || !resource.exists())
+			return null;
+		return resource.getFile().toURI().toURL();
 	}
 
 	public InputStream getResourceAsStream(String path) {
-		// TODO Auto-generated method stub
-		return null;
+		CachedResource resource = lookup(path);
+		if (resource == null || !resource.isFile())
+			return null;
+
+		try {
+			return resource.getInputStream();
+		} catch (IOException ex) {
+			logger.warn("Cannot read resource " + path + " of " + context, ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Look up a path of the context, or return <code>null</code> if it is not
+	 * a valid path inside the document base.
+	 */
+	private CachedResource lookup(String path) {
+		if (path == null || !path.startsWith("/"))
+			return null;
+
+		String normalized = RequestUtil.normalize(path);
+		if (normalized == null)
+			return null;
+		return context.getResources().getResource(normalized);
 	}
 
 	public RequestDispatcher getRequestDispatcher(String path) {
@@ -128,8 +191,15 @@ public class ApplicationServletContext implements ServletContext {
 	}
 
 	public String getRealPath(String path) {
-		// TODO Auto-generated method stub
-		return null;
+		if (path == null)
+			return null;
+		if (!path.startsWith("/"))
+			path = "/" + path;
+
+		String normalized = RequestUtil.normalize(path);
+		if (normalized == null)
+			return null;
+		return new File(context.getDocBaseFile(), normalized).getPath();
 	}
 
 	public String getServerInfo() {
@@ -291,8 +361,8 @@ public class ApplicationServletContext implements ServletContext {
 	}
 
 	public ClassLoader getClassLoader() {
-		// TODO Auto-generated method stub
-		return null;
+		Loader loader = context.getLoader();
+		return (loader != null ? loader.getClassLoader() : null);
 	}
 
 	public void declareRoles(String... roleNames) {
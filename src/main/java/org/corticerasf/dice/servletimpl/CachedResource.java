@@ -0,0 +1,242 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.servletimpl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A file, or the absence of one, as seen by a {@link ResourceCache}.
+ * <p>
+ * The metadata is read when the entry is created. The content of a small
+ * file and the listing of a directory are read on first use and kept for
+ * the life of the entry, which is replaced as soon as the file changes.
+ *
+ * @author J. Godara
+ */
+public class CachedResource {
+
+	private final ResourceCache cache;
+	private final String path;
+	private final File file;
+
+	private final boolean exists;
+	private final boolean directory;
+	private final long length;
+	private final long lastModified;
+
+	private volatile long nextCheck;
+	private volatile long lastAccess = 0;
+
+	// Guarded by this
+	private long size;
+	private boolean removed = false;
+
+	private volatile byte[] content = null;
+	private volatile String[] listing = null;
+
+	CachedResource(ResourceCache cache, String path, File file, long nextCheck) {
+		this.cache = cache;
+		this.path = path;
+		this.file = file;
+		this.lastModified = file.lastModified();
+		this.directory = file.isDirectory();
+		this.exists = directory || file.isFile();
+		this.length = (exists && !directory ? file.length() : 0);
+		this.nextCheck = nextCheck;
+		this.size = ResourceCache.ENTRY_OVERHEAD + 2 * path.length();
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public boolean exists() {
+		return exists;
+	}
+
+	public boolean isDirectory() {
+		return directory;
+	}
+
+	public boolean isFile() {
+		return exists && !directory;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Return the weak entity tag of this file.
+	 */
+	public String getETag() {
+		return "W/\"" + length + "-" + lastModified + "\"";
+	}
+
+	/**
+	 * Return the content of this file if it is small enough to be cached,
+	 * reading it on first use, or <code>null</code> otherwise.
+	 */
+	public byte[] getContent() throws IOException {
+		if (!isFile() || length > cache.getObjectMaxSize())
+			return null;
+
+		byte[] result = content;
+		if (result == null) {
+			synchronized (this) {
+				result = content;
+				if (result == null) {
+					result = read();
+					if (result == null)
+						return null;
+					content = result;
+				} else {
+					return result;
+				}
+			}
+			grow(result.length);
+		}
+		return result;
+	}
+
+	/**
+	 * Open the content of this file, from memory if it is cached.
+	 */
+	public InputStream getInputStream() throws IOException {
+		byte[] bytes = getContent();
+		if (bytes != null)
+			return new ByteArrayInputStream(bytes);
+		return new FileInputStream(file);
+	}
+
+	/**
+	 * Return the names of the entries of this directory, directories having
+	 * a trailing slash, or <code>null</code> if this is not a directory.
+	 */
+	public String[] getListing() {
+		if (!directory)
+			return null;
+
+		String[] result = listing;
+		if (result == null) {
+			long bytes = 0;
+			synchronized (this) {
+				result = listing;
+				if (result != null)
+					return result;
+
+				File[] children = file.listFiles();
+				if (children == null)
+					return null;
+				result = new String[children.length];
+				for (int i = 0; i < children.length; i++) {
+					String name = children[i].getName();
+					result[i] = (children[i].isDirectory() ? name + "/" : name);
+					bytes += 2 * result[i].length() + 16;
+				}
+				listing = result;
+			}
+			grow(bytes);
+		}
+		return result;
+	}
+
+	synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Mark this entry as removed from the cache.
+	 *
+	 * @return the size to deduct from the cache
+	 */
+	synchronized long remove() {
+		removed = true;
+		return size;
+	}
+
+	long getLastAccess() {
+		return lastAccess;
+	}
+
+	void access(long order) {
+		lastAccess = order;
+	}
+
+	/**
+	 * Check, once the time to live of this entry has passed, that the file
+	 * has not changed.
+	 *
+	 * @return <code>false</code> if this entry is stale
+	 */
+	boolean validate(long now) {
+		if (now < nextCheck)
+			return true;
+
+		if (file.lastModified() != lastModified
+				|| (isFile() && file.length() != length))
+			return false;
+
+		nextCheck = now + cache.getTtl();
+		return true;
+	}
+
+	/**
+	 * Account for content or a listing loaded into this entry. Nothing is
+	 * added to the cache once the entry has been removed from it.
+	 */
+	private void grow(long bytes) {
+		synchronized (this) {
+			if (removed)
+				return;
+			size += bytes;
+			cache.added(bytes);
+		}
+		cache.evictIfFull();
+	}
+
+	/**
+	 * Read the whole file, or return <code>null</code> if it changed length
+	 * while being read.
+	 */
+	private byte[] read() throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream((int) length);
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) >= 0)
+				out.write(buf, 0, n);
+			return (out.size() == length ? out.toByteArray() : null);
+		} finally {
+			in.close();
+		}
+	}
+
+}
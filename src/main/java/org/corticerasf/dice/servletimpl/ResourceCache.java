@@ -0,0 +1,231 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.servletimpl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Cache of the files under a base directory: their existence, length,
+ * modification time, directory listings and, for small files, content.
+ * <p>
+ * An entry is trusted for <code>ttl</code> milliseconds, after which the
+ * next lookup compares it with the modification time and length of the file
+ * and reloads it if they changed. The cache is bounded by the total size of
+ * its entries. When it grows past <code>maxSize</code>, the least recently
+ * used entries are evicted down to 95% of that size.
+ * <p>
+ * Lookups take no lock. Eviction is done by the thread whose lookup filled
+ * the cache, while other threads carry on.
+ *
+ * @author J. Godara
+ */
+public class ResourceCache {
+
+	private static final Logger logger = Logger.getLogger(ResourceCache.class);
+
+	/**
+	 * Estimated size of an entry without its content or listing.
+	 */
+	static final int ENTRY_OVERHEAD = 256;
+
+	private final File base;
+
+	private long maxSize = 10 * 1024 * 1024;
+	private int objectMaxSize = 512 * 1024;
+	private long ttl = 5000;
+
+	private final ConcurrentHashMap<String, CachedResource> resources = new ConcurrentHashMap<String, CachedResource>();
+	private final AtomicLong size = new AtomicLong(0);
+	private final ReentrantLock evictionLock = new ReentrantLock();
+
+	/**
+	 * Source of the access order used for eviction.
+	 */
+	private final AtomicLong accessCounter = new AtomicLong(0);
+
+	private final AtomicLong lookupCount = new AtomicLong(0);
+	private final AtomicLong hitCount = new AtomicLong(0);
+
+	public ResourceCache(File base) {
+		this.base = base;
+	}
+
+	public File getBase() {
+		return base;
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Set the maximum number of bytes held by the cache.
+	 */
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public int getObjectMaxSize() {
+		return objectMaxSize;
+	}
+
+	/**
+	 * Set the size of the largest file whose content is cached. Only the
+	 * metadata of larger files is cached.
+	 */
+	public void setObjectMaxSize(int objectMaxSize) {
+		this.objectMaxSize = objectMaxSize;
+	}
+
+	public long getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * Set the number of milliseconds an entry is used before it is checked
+	 * against the file system again.
+	 */
+	public void setTtl(long ttl) {
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Return the number of bytes currently held by the cache.
+	 */
+	public long getSize() {
+		return size.get();
+	}
+
+	public long getLookupCount() {
+		return lookupCount.get();
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * Return the resource at the given path, which must be normalized and
+	 * start with a slash. A resource is returned for missing files too, so
+	 * that their absence is cached as well.
+	 */
+	public CachedResource getResource(String path) {
+		lookupCount.incrementAndGet();
+		long now = System.currentTimeMillis();
+
+		CachedResource resource = resources.get(path);
+		if (resource != null) {
+			if (resource.validate(now)) {
+				hitCount.incrementAndGet();
+				resource.access(accessCounter.incrementAndGet());
+				return resource;
+			}
+			// Changed on disk
+			if (resources.remove(path, resource))
+				size.addAndGet(-resource.remove());
+		}
+
+		resource = new CachedResource(this, path, new File(base, path), now
+				+ ttl);
+		resource.access(accessCounter.incrementAndGet());
+
+		// Accounted before it is published, so that an eviction racing with
+		// this lookup cannot deduct it first.
+		size.addAndGet(resource.getSize());
+		CachedResource previous = resources.putIfAbsent(path, resource);
+		if (previous != null) {
+			size.addAndGet(-resource.remove());
+			return previous;
+		}
+
+		evictIfFull();
+		return resource;
+	}
+
+	/**
+	 * Drop every entry.
+	 */
+	public void clear() {
+		for (CachedResource resource : resources.values()) {
+			if (resources.remove(resource.getPath(), resource))
+				size.addAndGet(-resource.remove());
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ResourceCache[base=" + base + ", entries=" + resources.size()
+				+ ", size=" + getSize() + ", lookups=" + getLookupCount()
+				+ ", hits=" + getHitCount() + "]";
+	}
+
+	/**
+	 * Account for bytes loaded into an entry of the cache.
+	 */
+	void added(long bytes) {
+		size.addAndGet(bytes);
+	}
+
+	/**
+	 * Remove least recently used entries, if the cache has grown past its
+	 * maximum size, until it is back to 95% of that size.
+	 */
+	void evictIfFull() {
+		if (size.get() <= maxSize || !evictionLock.tryLock())
+			return;
+
+		try {
+			long target = maxSize * 95 / 100;
+			if (size.get() <= target)
+				return;
+
+			List<CachedResource> candidates = new ArrayList<CachedResource>(
+					resources.values());
+			Collections.sort(candidates, new Comparator<CachedResource>() {
+				public int compare(CachedResource r1, CachedResource r2) {
+					long a1 = r1.getLastAccess();
+					long a2 = r2.getLastAccess();
+					return (a1 < a2 ? -1 : (a1 == a2 ? 0 : 1));
+				}
+			});
+
+			int evicted = 0;
+			for (CachedResource resource : candidates) {
+				if (size.get() <= target)
+					break;
+				if (resources.remove(resource.getPath(), resource)) {
+					size.addAndGet(-resource.remove());
+					evicted++;
+				}
+			}
+
+			if (logger.isDebugEnabled())
+				logger.debug("Evicted " + evicted + " entries from " + this);
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+}
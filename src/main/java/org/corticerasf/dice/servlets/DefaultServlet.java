@@ -0,0 +1,507 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.servlets;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.corticerasf.dice.Globals;
+import org.corticerasf.dice.servletimpl.CachedResource;
+import org.corticerasf.dice.servletimpl.ResourceCache;
+import org.corticerasf.dice.utils.RequestUtil;
+
+/**
+ * Serves the static files found under a document base.
+ * <p>
+ * Files are looked up through a {@link ResourceCache}, which keeps their
+ * metadata, and the content of the files smaller than
+ * <code>sendfileSize</code>, for <code>cacheTtl</code> milliseconds before
+ * checking them against the file system again. Larger files are handed to
+ * the connector to be sent with
+ * {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * when it supports it, and are streamed otherwise.
+ * <p>
+ * Conditional requests are answered from the <code>ETag</code> and
+ * <code>Last-Modified</code> validators of the file, and a single byte range
+ * may be requested with <code>Range</code> and <code>If-Range</code>.
+ * Requests for several ranges are answered with the whole file.
+ *
+ * @author J. Godara
+ */
+public class DefaultServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger logger = Logger.getLogger(DefaultServlet.class);
+
+	private static final String[] WELCOME_FILES = { "index.html", "index.htm" };
+
+	private static final Map<String, String> MIME_TYPES = new HashMap<String, String>();
+
+	static {
+		MIME_TYPES.put("html", "text/html");
+		MIME_TYPES.put("htm", "text/html");
+		MIME_TYPES.put("css", "text/css");
+		MIME_TYPES.put("js", "application/javascript");
+		MIME_TYPES.put("json", "application/json");
+		MIME_TYPES.put("xml", "application/xml");
+		MIME_TYPES.put("txt", "text/plain");
+		MIME_TYPES.put("png", "image/png");
+		MIME_TYPES.put("jpg", "image/jpeg");
+		MIME_TYPES.put("jpeg", "image/jpeg");
+		MIME_TYPES.put("gif", "image/gif");
+		MIME_TYPES.put("svg", "image/svg+xml");
+		MIME_TYPES.put("ico", "image/x-icon");
+		MIME_TYPES.put("webp", "image/webp");
+		MIME_TYPES.put("woff", "font/woff");
+		MIME_TYPES.put("woff2", "font/woff2");
+		MIME_TYPES.put("pdf", "application/pdf");
+		MIME_TYPES.put("zip", "application/zip");
+		MIME_TYPES.put("mp4", "video/mp4");
+	}
+
+	private File docBase = null;
+
+	/**
+	 * Files of at least this many bytes are sent with sendfile.
+	 */
+	private int sendfileSize = 48 * 1024;
+
+	/**
+	 * Maximum number of bytes kept by the resource cache.
+	 */
+	private long cacheMaxSize = 10 * 1024 * 1024;
+
+	/**
+	 * Number of milliseconds a cached file is trusted.
+	 */
+	private long cacheTtl = 5000;
+
+	private ResourceCache resources = null;
+
+	public DefaultServlet() {
+		// NO-OP
+	}
+
+	public DefaultServlet(File docBase) {
+		this.docBase = docBase;
+	}
+
+	/**
+	 * Create a servlet serving the files of an existing cache, such as the
+	 * cache of the resources of a context.
+	 */
+	public DefaultServlet(ResourceCache resources) {
+		this.resources = resources;
+		this.docBase = resources.getBase();
+	}
+
+	public File getDocBase() {
+		return docBase;
+	}
+
+	public void setDocBase(File docBase) {
+		this.docBase = docBase;
+	}
+
+	public int getSendfileSize() {
+		return sendfileSize;
+	}
+
+	public void setSendfileSize(int sendfileSize) {
+		this.sendfileSize = sendfileSize;
+	}
+
+	public long getCacheMaxSize() {
+		return cacheMaxSize;
+	}
+
+	public void setCacheMaxSize(long cacheMaxSize) {
+		this.cacheMaxSize = cacheMaxSize;
+	}
+
+	public long getCacheTtl() {
+		return cacheTtl;
+	}
+
+	public void setCacheTtl(long cacheTtl) {
+		this.cacheTtl = cacheTtl;
+	}
+
+	public ResourceCache getResources() {
+		return resources;
+	}
+
+	@Override
+	public void init() throws ServletException {
+		if (getServletConfig() != null) {
+			String value = getInitParameter("docBase");
+			if (value != null)
+				docBase = new File(value);
+			value = getInitParameter("sendfileSize");
+			if (value != null)
+				sendfileSize = Integer.parseInt(value);
+			value = getInitParameter("cacheMaxSize");
+			if (value != null)
+				cacheMaxSize = Long.parseLong(value);
+			value = getInitParameter("cacheTtl");
+			if (value != null)
+				cacheTtl = Long.parseLong(value);
+		}
+
+		if (docBase == null)
+			throw new ServletException("No document base set.");
+
+		if (resources == null) {
+			resources = new ResourceCache(docBase);
+			resources.setMaxSize(cacheMaxSize);
+			resources.setObjectMaxSize(sendfileSize);
+			resources.setTtl(cacheTtl);
+		}
+
+		if (logger.isDebugEnabled())
+			logger.debug("Serving static files from " + docBase);
+	}
+
+	@Override
+	public void destroy() {
+		if (resources != null)
+			resources.clear();
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request,
+			HttpServletResponse response) throws IOException, ServletException {
+		serveResource(request, response, true);
+	}
+
+	@Override
+	protected void doHead(HttpServletRequest request,
+			HttpServletResponse response) throws IOException, ServletException {
+		serveResource(request, response, false);
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest request,
+			HttpServletResponse response) throws IOException, ServletException {
+		doGet(request, response);
+	}
+
+	protected void serveResource(HttpServletRequest request,
+			HttpServletResponse response, boolean content) throws IOException {
+
+		String path = getRelativePath(request);
+		if (path == null) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		if (isProtected(path)) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		CachedResource resource = resources.getResource(path);
+		if (resource.isDirectory()) {
+			if (!request.getRequestURI().endsWith("/")) {
+				// Relative links in the welcome file need the slash.
+				String query = request.getQueryString();
+				response.sendRedirect(request.getRequestURI() + "/"
+						+ (query != null && query.length() > 0 ? "?" + query : ""));
+				return;
+			}
+			resource = findWelcomeFile(path);
+		}
+
+		if (resource == null || !resource.isFile()) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		File file = resource.getFile();
+		long length = resource.getLength();
+		long lastModified = resource.getLastModified();
+		String etag = resource.getETag();
+
+		response.setHeader("Accept-Ranges", "bytes");
+		response.setHeader("ETag", etag);
+		response.setDateHeader("Last-Modified", lastModified);
+
+		if (isNotModified(request, etag, lastModified)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		String contentType = getContentType(file.getName());
+		if (contentType != null)
+			response.setContentType(contentType);
+
+		long start = 0;
+		long end = length;
+		long[] range = parseRange(request, etag, lastModified, length);
+		if (range == INVALID_RANGE) {
+			response.setHeader("Content-Range", "bytes */" + length);
+			response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return;
+		} else if (range != null) {
+			start = range[0];
+			end = range[1];
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader("Content-Range", "bytes " + start + "-"
+					+ (end - 1) + "/" + length);
+		}
+
+		setContentLength(response, end - start);
+		if (!content)
+			return;
+
+		if (length < sendfileSize) {
+			byte[] cached = resource.getContent();
+			if (cached != null) {
+				response.getOutputStream().write(cached, (int) start,
+						(int) (end - start));
+				return;
+			}
+		} else if (Boolean.TRUE.equals(request
+				.getAttribute(Globals.SENDFILE_SUPPORTED_ATTR))) {
+			// Written by the connector once this servlet returns
+			request.setAttribute(Globals.SENDFILE_FILENAME_ATTR,
+					file.getAbsolutePath());
+			request.setAttribute(Globals.SENDFILE_FILE_START_ATTR,
+					Long.valueOf(start));
+			request.setAttribute(Globals.SENDFILE_FILE_END_ATTR,
+					Long.valueOf(end));
+			return;
+		}
+
+		copy(file, start, end - start, response.getOutputStream());
+	}
+
+	/**
+	 * Return the path of the requested file relative to the document base,
+	 * decoded and normalized, or <code>null</code> if the path is invalid or
+	 * would leave the document base.
+	 */
+	/**
+	 * Return <code>true</code> if the given normalized path lies in the
+	 * <code>WEB-INF</code> or <code>META-INF</code> directory, whose files
+	 * are never served whatever the case of the name.
+	 */
+	protected static boolean isProtected(String path) {
+		return isUnder(path, "WEB-INF") || isUnder(path, "META-INF");
+	}
+
+	private static boolean isUnder(String path, String dir) {
+		int end = dir.length() + 1;
+		return path.regionMatches(true, 1, dir, 0, dir.length())
+				&& (path.length() == end || path.charAt(end) == '/');
+	}
+
+	protected String getRelativePath(HttpServletRequest request) {
+		String path;
+		if (request.getPathInfo() != null) {
+			path = request.getPathInfo();
+		} else if (request.getServletPath() != null) {
+			path = request.getServletPath();
+		} else {
+			path = RequestUtil.decode(request.getRequestURI());
+			if (path == null)
+				return null;
+			String contextPath = request.getContextPath();
+			if (contextPath != null && path.startsWith(contextPath))
+				path = path.substring(contextPath.length());
+		}
+
+		if (path.length() == 0)
+			path = "/";
+		return RequestUtil.normalize(path);
+	}
+
+	private CachedResource findWelcomeFile(String directory) {
+		for (String name : WELCOME_FILES) {
+			CachedResource welcome = resources.getResource(directory + name);
+			if (welcome.isFile())
+				return welcome;
+		}
+		return null;
+	}
+
+	protected String getContentType(String name) {
+		int dot = name.lastIndexOf('.');
+		if (dot >= 0) {
+			String type = MIME_TYPES.get(name.substring(dot + 1).toLowerCase(
+					Locale.ENGLISH));
+			if (type != null)
+				return type;
+		}
+		return URLConnection.getFileNameMap().getContentTypeFor(name);
+	}
+
+	private static void setContentLength(HttpServletResponse response,
+			long length) {
+		if (length <= Integer.MAX_VALUE)
+			response.setContentLength((int) length);
+		else
+			response.setHeader("Content-Length", Long.toString(length));
+	}
+
+	// ------------------------------------------------------- Conditions
+
+	/**
+	 * Check <code>If-None-Match</code>, or <code>If-Modified-Since</code> when
+	 * the former is absent.
+	 */
+	private boolean isNotModified(HttpServletRequest request, String etag,
+			long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			if (ifNoneMatch.trim().equals("*"))
+				return true;
+			for (String tag : ifNoneMatch.split(",")) {
+				if (weakEquals(tag.trim(), etag))
+					return true;
+			}
+			return false;
+		}
+
+		long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+		// Header dates have a one second resolution.
+		return ifModifiedSince != -1
+				&& lastModified / 1000 <= ifModifiedSince / 1000;
+	}
+
+	private static boolean weakEquals(String tag1, String tag2) {
+		if (tag1.startsWith("W/"))
+			tag1 = tag1.substring(2);
+		if (tag2.startsWith("W/"))
+			tag2 = tag2.substring(2);
+		return tag1.equals(tag2);
+	}
+
+	private static long getDateHeader(HttpServletRequest request, String name) {
+		try {
+			return request.getDateHeader(name);
+		} catch (IllegalArgumentException ex) {
+			// An invalid date is ignored.
+			return -1;
+		}
+	}
+
+	// ------------------------------------------------------- Ranges
+
+	private static final long[] INVALID_RANGE = new long[0];
+
+	/**
+	 * Parse the <code>Range</code> header.
+	 *
+	 * @return <code>{start, end}</code> with <code>end</code> exclusive,
+	 *         <code>null</code> if the whole file should be sent, or
+	 *         {@link #INVALID_RANGE} if the range cannot be satisfied
+	 */
+	private long[] parseRange(HttpServletRequest request, String etag,
+			long lastModified, long length) {
+		String header = request.getHeader("Range");
+		if (header == null || !header.startsWith("bytes="))
+			return null;
+
+		// A range of an outdated representation is ignored.
+		String ifRange = request.getHeader("If-Range");
+		if (ifRange != null) {
+			ifRange = ifRange.trim();
+			if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+				// Strong comparison, our tags are weak
+				return null;
+			}
+			long date = getDateHeader(request, "If-Range");
+			if (date == -1 || lastModified / 1000 > date / 1000)
+				return null;
+		}
+
+		String spec = header.substring(6).trim();
+		if (spec.indexOf(',') >= 0)
+			return null;
+
+		int dash = spec.indexOf('-');
+		if (dash < 0)
+			return null;
+
+		long start;
+		long end;
+		try {
+			if (dash == 0) {
+				// Suffix range: the last n bytes
+				long suffix = Long.parseLong(spec.substring(1));
+				if (suffix <= 0)
+					return INVALID_RANGE;
+				start = Math.max(0, length - suffix);
+				end = length;
+			} else {
+				start = Long.parseLong(spec.substring(0, dash));
+				end = (dash == spec.length() - 1 ? length : Math.min(length,
+						Long.parseLong(spec.substring(dash + 1)) + 1));
+				if (end <= start && start < length)
+					return null;
+			}
+		} catch (NumberFormatException ex) {
+			return null;
+		}
+
+		if (start >= length)
+			return INVALID_RANGE;
+		return new long[] { start, end };
+	}
+
+	// ------------------------------------------------------- Content
+
+	private static void copy(File file, long start, long length,
+			ServletOutputStream out) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			long skipped = 0;
+			while (skipped < start) {
+				long n = in.skip(start - skipped);
+				if (n <= 0)
+					throw new IOException("Cannot skip to " + start + " in "
+							+ file);
+				skipped += n;
+			}
+
+			byte[] buf = new byte[8192];
+			while (length > 0) {
+				int n = in.read(buf, 0, (int) Math.min(buf.length, length));
+				if (n < 0)
+					break;
+				out.write(buf, 0, n);
+				length -= n;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+}
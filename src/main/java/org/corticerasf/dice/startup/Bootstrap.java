@@ -263,6 +263,14 @@ public class Bootstrap {
 				instance.start();
 			} else if ("stop".equals(command)) {
 				serverInstance.stop();
+			} else if ("train".equals(command)) {
+				// Start and stop once so the JVM sees the classes of a
+				// startup, for the class data sharing archive
+				serverInstance.setAwait(false);
+				instance.load(args);
+				instance.start();
+				serverInstance.stop();
+				System.exit(0);
 			} else {
 				logger.warn("Bootstrap: command \"" + command
 						+ "\" does not exist.");
@@ -23,6 +23,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.regex.Matcher;
@@ -35,10 +36,24 @@ import org.corticerasf.dice.Host;
 import org.corticerasf.dice.container.Container;
 import org.corticerasf.dice.lifecycle.Lifecycle;
 import org.corticerasf.dice.lifecycle.LifecycleEvent;
+import org.corticerasf.dice.lifecycle.LifecycleException;
 import org.corticerasf.dice.lifecycle.LifecycleListener;
 import org.corticerasf.dice.utils.ContextName;
-
-public class HostConfig implements LifecycleListener {
+import org.corticerasf.dice.utils.DirectoryWatcher;
+
+/**
+ * Deploys the applications of a host from its appBase and configBase.
+ * <p>
+ * With hot deployment, the appBase and configBase are scanned in full once,
+ * on the first periodic event of the started host. After that, they are
+ * watched with a {@link DirectoryWatcher} and only the entries that changed
+ * are deployed, redeployed or undeployed, once the directory has been quiet
+ * for <code>deployDelay</code> milliseconds. On JVMs without a watch
+ * service, both directories are scanned on every periodic event instead.
+ *
+ * @author J. Godara
+ */
+public class HostConfig implements LifecycleListener, DirectoryWatcher.Listener {
 
 	private static final Logger logger = Logger.getLogger(HostConfig.class);
 
@@ -47,7 +62,24 @@ public class HostConfig implements LifecycleListener {
 	private File configBase = null;
 	private List<String> serviced = new ArrayList<String>();
 	private Map<String, DeployedApplication> deployed = new HashMap<String, DeployedApplication>();
+
+	private long deployDelay = 1000;
+	private DirectoryWatcher watcher = null;
+	private boolean fullScan = true;
 	
+	public long getDeployDelay() {
+		return deployDelay;
+	}
+
+	/**
+	 * Set the time in milliseconds without changes in the appBase or
+	 * configBase after which the changed entries are deployed. Takes effect
+	 * on start.
+	 */
+	public void setDeployDelay(long deployDelay) {
+		this.deployDelay = deployDelay;
+	}
+
 	public void lifecycleEvent(LifecycleEvent event) {
 
 		host = (Host) event.getLifecycle();
@@ -57,31 +89,202 @@ public class HostConfig implements LifecycleListener {
 		} else if (event.getType().equals(Lifecycle.BEFORE_START_EVENT)) {
 			//beforeStart();
 		} else if (event.getType().equals(Lifecycle.START_EVENT)) {
-			//start();
+			start();
 		} else if (event.getType().equals(Lifecycle.STOP_EVENT)) {
-			//stop();
+			stop();
 		}
 
 	}
 
-	protected void check() {
-		if (host.isHotDeploymentEnabled()) {
+	/**
+	 * Start watching the appBase and configBase, if hot deployment is
+	 * enabled and the JVM has a watch service.
+	 */
+	protected synchronized void start() {
+		fullScan = true;
+		if (!host.isHotDeploymentEnabled() || watcher != null)
+			return;
+
+		if (!DirectoryWatcher.isSupported()) {
+			logger.info("No watch service in this JVM, host " + host.getName()
+					+ " polls its appBase and configBase for changes.");
+			return;
+		}
+
+		DirectoryWatcher directoryWatcher = new DirectoryWatcher(host.getName()
+				+ "-deployer", deployDelay, this);
+		try {
+			directoryWatcher.start();
+		} catch (IllegalStateException ex) {
+			logger.warn("Host " + host.getName() + " polls its appBase and "
+					+ "configBase for changes.", ex);
+			return;
+		}
+		watcher = directoryWatcher;
+		watchBases();
+	}
+
+	protected synchronized void stop() {
+		if (watcher != null) {
+			watcher.stop();
+			watcher = null;
+		}
+	}
+
+	protected synchronized void check() {
+		if (!host.isHotDeploymentEnabled())
+			return;
+
+		if (watcher == null) {
+			deployWebapps();
+			return;
+		}
+
+		// A base created after the start is scanned in full once watched
+		if (watchBases() || fullScan) {
+			fullScan = false;
 			deployWebapps();
 		}
 	}
 
+	/**
+	 * Watch the appBase and configBase if not already watched.
+	 *
+	 * @return <code>true</code> if a base is watched from now on
+	 */
+	private boolean watchBases() {
+		boolean added = false;
+		for (File base : new File[] { appBase(), configBase() }) {
+			if (!watcher.isWatched(base) && watcher.watch(base))
+				added = true;
+		}
+		return added;
+	}
+
+	/**
+	 * Deploy the changed entries of the appBase or configBase, called by the
+	 * watcher.
+	 */
+	public synchronized void changed(File directory, Set<String> names) {
+		if (watcher == null || fullScan)
+			// Stopped, or not scanned yet
+			return;
+
+		if (names == null) {
+			if (directory.equals(configBase()))
+				deployDescriptors(directory, directory.list());
+			else if (directory.equals(appBase()))
+				deployApps(directory, directory.list());
+			return;
+		}
+
+		List<String> added = new ArrayList<String>();
+		for (String name : names) {
+			DeployedApplication app = findDeployed(new File(directory, name));
+			if (app == null || checkResources(app))
+				added.add(name);
+		}
+		if (added.isEmpty())
+			return;
+
+		String[] files = added.toArray(new String[added.size()]);
+		if (directory.equals(configBase()))
+			deployDescriptors(directory, files);
+		else if (directory.equals(appBase()))
+			deployApps(directory, files);
+	}
+
 	protected void deployWebapps() {
 		File appBase = appBase();
 		File configBase = configBase();
-		String[] filteredAppPaths = filterAppPaths(appBase.list());
 
 		deployDescriptors(configBase, configBase.list());
 
+		deployApps(appBase, appBase.list());
+	}
+
+	protected void deployApps(File appBase, String[] files) {
+		@SuppressWarnings("unused")
+		String[] filteredAppPaths = filterAppPaths(files);
+
 //		deployWars(appBase, filteredAppPaths);
 //
 //		deployDirectories(appBase, filteredAppPaths);
 
 	}
+
+	/**
+	 * Return the deployed application one of the resources of which is the
+	 * given file or is under it.
+	 */
+	protected DeployedApplication findDeployed(File file) {
+		String path = file.getAbsolutePath();
+		String prefix = path + File.separator;
+		for (DeployedApplication app : deployed.values()) {
+			for (String resource : app.redeployResources.keySet()) {
+				if (resource.equals(path) || resource.startsWith(prefix))
+					return app;
+			}
+			for (String resource : app.reloadResources.keySet()) {
+				if (resource.equals(path) || resource.startsWith(prefix))
+					return app;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Compare the modification times of the resources of a deployed
+	 * application with the recorded ones. The application is undeployed if a
+	 * redeploy resource changed or was removed, and its context is restarted
+	 * if a reload resource changed.
+	 *
+	 * @return <code>true</code> if the application was undeployed
+	 */
+	protected boolean checkResources(DeployedApplication app) {
+		for (Map.Entry<String, Long> resource : app.redeployResources
+				.entrySet()) {
+			File file = new File(resource.getKey());
+			long recorded = resource.getValue().longValue();
+			if (file.exists() ? file.lastModified() != recorded : recorded != 0) {
+				logger.info("Undeploying " + app.name + " of host "
+						+ host.getName() + ", " + file + " changed.");
+				undeploy(app);
+				return true;
+			}
+		}
+
+		boolean reload = false;
+		for (Map.Entry<String, Long> resource : app.reloadResources.entrySet()) {
+			long modified = new File(resource.getKey()).lastModified();
+			if (modified != resource.getValue().longValue()) {
+				resource.setValue(Long.valueOf(modified));
+				reload = true;
+			}
+		}
+
+		Container context = host.getChild(app.name);
+		if (reload && context != null) {
+			logger.info("Reloading " + app.name + " of host " + host.getName()
+					+ ".");
+			try {
+				context.stop();
+				context.start();
+				app.timestamp = System.currentTimeMillis();
+			} catch (LifecycleException ex) {
+				logger.error("Cannot reload " + app.name + " of host "
+						+ host.getName() + ".", ex);
+			}
+		}
+		return false;
+	}
+
+	protected void undeploy(DeployedApplication app) {
+		Container context = host.getChild(app.name);
+		if (context != null)
+			host.removeChild(context);
+		deployed.remove(app.name);
+	}
 	
 	protected void deployDescriptor(ContextName cn, File contextXml) {
 		DeployedApplication deployedApp = new DeployedApplication(cn.getName(), true);
@@ -154,7 +357,7 @@ public class HostConfig implements LifecycleListener {
 		if (appBase != null)
 			return appBase;
 
-		appBase = returnCanonicalPath(host.getAppBase());
+		appBase = host.getAppBaseFile();
 		return appBase;
 	}
 
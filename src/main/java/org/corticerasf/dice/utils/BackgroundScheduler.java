@@ -0,0 +1,274 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.utils;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.corticerasf.dice.lifecycle.LifecycleBase;
+import org.corticerasf.dice.lifecycle.LifecycleException;
+import org.corticerasf.dice.lifecycle.LifecycleState;
+
+/**
+ * Runs the periodic background tasks of a server, such as the background
+ * processing of containers and valves, on a small shared pool of threads.
+ * <p>
+ * Each task has its own delay, counted from the end of its previous run,
+ * plus a random jitter so that tasks registered together do not keep
+ * running together. A task is never run concurrently with itself, and a
+ * slow task only holds one thread of the pool while the other tasks keep
+ * running on the others. The run count and run times of every task are
+ * recorded, and a run taking longer than the delay of its task is logged.
+ *
+ * @author J. Godara
+ */
+public class BackgroundScheduler extends LifecycleBase {
+
+	private static final Logger logger = Logger
+			.getLogger(BackgroundScheduler.class);
+
+	private String name = "Background";
+	private int threads = 2;
+
+	private ScheduledThreadPoolExecutor executor = null;
+	private final Random random = new Random();
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Set the name of this scheduler, used to name its threads.
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Set the number of threads running the tasks. Takes effect on start.
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Run a task periodically, starting after a random part of its delay.
+	 *
+	 * @param taskName
+	 *            The name of the task, used in logs
+	 * @param task
+	 *            The task
+	 * @param delay
+	 *            The delay between the end of a run and the start of the
+	 *            next one, in milliseconds
+	 * @param jitter
+	 *            The maximum random delay added to each delay, in
+	 *            milliseconds
+	 * @return the handle with which the task is cancelled and its run times
+	 *         are read
+	 */
+	public ScheduledTask schedule(String taskName, Runnable task, long delay,
+			long jitter) {
+		if (delay <= 0)
+			throw new IllegalArgumentException("delay must be positive");
+
+		ScheduledTask scheduled = new ScheduledTask(taskName, task, delay,
+				Math.max(0, jitter));
+		scheduled.scheduleNext(nextRandom(delay));
+		return scheduled;
+	}
+
+	@Override
+	protected void initInternal() throws LifecycleException {
+		// NO-OP
+	}
+
+	@Override
+	protected synchronized void startInternal() throws LifecycleException {
+		setState(LifecycleState.STARTING);
+
+		executor = new ScheduledThreadPoolExecutor(threads,
+				new DaemonThreadFactory(name + "-"));
+	}
+
+	@Override
+	protected synchronized void stopInternal() throws LifecycleException {
+		setState(LifecycleState.STOPPING);
+
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	@Override
+	protected void destroyInternal() throws LifecycleException {
+		// NO-OP
+	}
+
+	@Override
+	public String toString() {
+		return "BackgroundScheduler[" + name + "]";
+	}
+
+	private long nextRandom(long bound) {
+		if (bound <= 0)
+			return 0;
+		synchronized (random) {
+			return (long) (random.nextDouble() * bound);
+		}
+	}
+
+	// ------------------------------------------------------- ScheduledTask
+
+	/**
+	 * Handle of a periodic task.
+	 */
+	public final class ScheduledTask implements Runnable {
+
+		private final String taskName;
+		private final Runnable task;
+		private final long delay;
+		private final long jitter;
+
+		private volatile boolean cancelled = false;
+		private volatile ScheduledFuture<?> future = null;
+
+		private final AtomicLong runCount = new AtomicLong(0);
+		private final AtomicLong totalTime = new AtomicLong(0);
+		private volatile long lastTime = 0;
+		private volatile long maxTime = 0;
+
+		ScheduledTask(String taskName, Runnable task, long delay, long jitter) {
+			this.taskName = taskName;
+			this.task = task;
+			this.delay = delay;
+			this.jitter = jitter;
+		}
+
+		public String getName() {
+			return taskName;
+		}
+
+		public long getDelay() {
+			return delay;
+		}
+
+		/**
+		 * Stop running this task. A run in progress is not interrupted.
+		 */
+		public void cancel() {
+			cancelled = true;
+			ScheduledFuture<?> current = future;
+			if (current != null)
+				current.cancel(false);
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		public long getRunCount() {
+			return runCount.get();
+		}
+
+		/**
+		 * Return the duration of the last run, in milliseconds.
+		 */
+		public long getLastExecutionTime() {
+			return lastTime;
+		}
+
+		/**
+		 * Return the duration of the longest run, in milliseconds.
+		 */
+		public long getMaxExecutionTime() {
+			return maxTime;
+		}
+
+		/**
+		 * Return the total duration of all runs, in milliseconds.
+		 */
+		public long getTotalExecutionTime() {
+			return totalTime.get();
+		}
+
+		public void run() {
+			if (cancelled)
+				return;
+
+			long start = System.nanoTime();
+			try {
+				task.run();
+			} catch (Throwable t) {
+				ExceptionUtils.handleThrowable(t);
+				logger.error("Background task " + taskName + " failed.", t);
+			} finally {
+				long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+						- start);
+				runCount.incrementAndGet();
+				totalTime.addAndGet(time);
+				lastTime = time;
+				if (time > maxTime)
+					maxTime = time;
+
+				if (time > delay)
+					logger.warn("Background task " + taskName + " took "
+							+ time + " ms, longer than its delay of " + delay
+							+ " ms.");
+				else if (logger.isDebugEnabled())
+					logger.debug("Background task " + taskName + " took "
+							+ time + " ms.");
+
+				scheduleNext(delay + nextRandom(jitter));
+			}
+		}
+
+		private void scheduleNext(long nextDelay) {
+			if (cancelled)
+				return;
+
+			synchronized (BackgroundScheduler.this) {
+				if (executor == null) {
+					// Not started yet, or stopped
+					if (logger.isDebugEnabled())
+						logger.debug("Background task " + taskName
+								+ " is not scheduled, "
+								+ BackgroundScheduler.this + " is not running.");
+					return;
+				}
+				future = executor.schedule(this, nextDelay,
+						TimeUnit.MILLISECONDS);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "ScheduledTask[" + taskName + ", runs=" + getRunCount()
+					+ ", last=" + lastTime + "ms, max=" + maxTime + "ms]";
+		}
+
+	}
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of direct {@link ByteBuffer}s.
+ * <p>
+ * Buffers are handed out in power of two size classes, from
+ * <code>minSize</code> to <code>maxSize</code>, each class having its own
+ * free list. Every class may keep at most an equal share of
+ * <code>maxPooledBytes</code> in its free list; buffers released beyond that
+ * bound, and buffers larger than the largest class, are left to the garbage
+ * collector.
+ *
+ * @author J. Godara
+ */
+public class ByteBufferPool {
+
+	private final int minSize;
+	private final int maxSize;
+
+	private final ConcurrentLinkedQueue<ByteBuffer>[] free;
+	private final AtomicInteger[] freeCount;
+	private final int[] maxFree;
+
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	private final AtomicInteger outstanding = new AtomicInteger(0);
+
+	/**
+	 * @param minSize
+	 *            The size of the smallest class, rounded up to a power of two
+	 * @param maxSize
+	 *            The size of the largest class, rounded up to a power of two
+	 * @param maxPooledBytes
+	 *            The maximum number of bytes kept in the free lists
+	 */
+	public ByteBufferPool(int minSize, int maxSize, long maxPooledBytes) {
+		this.minSize = roundUp(minSize);
+		this.maxSize = Math.max(this.minSize, roundUp(maxSize));
+
+		int classes = Integer.numberOfTrailingZeros(this.maxSize)
+				- Integer.numberOfTrailingZeros(this.minSize) + 1;
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		ConcurrentLinkedQueue<ByteBuffer>[] queues = new ConcurrentLinkedQueue[classes];
+		free = queues;
+		freeCount = new AtomicInteger[classes];
+		maxFree = new int[classes];
+
+		long bytesPerClass = maxPooledBytes / classes;
+		for (int i = 0; i < classes; i++) {
+			free[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+			freeCount[i] = new AtomicInteger(0);
+			maxFree[i] = (int) Math.min(Integer.MAX_VALUE, bytesPerClass
+					/ (this.minSize << i));
+		}
+	}
+
+	/**
+	 * Return a cleared direct buffer with a capacity of at least
+	 * <code>size</code> bytes. The buffer should be given back with
+	 * {@link #release(ByteBuffer)} once it is no longer used.
+	 */
+	public ByteBuffer acquire(int size) {
+		outstanding.incrementAndGet();
+
+		int index = indexOf(size);
+		if (index < 0) {
+			misses.incrementAndGet();
+			return ByteBuffer.allocateDirect(size);
+		}
+
+		ByteBuffer buffer = free[index].poll();
+		if (buffer != null) {
+			freeCount[index].decrementAndGet();
+			hits.incrementAndGet();
+			buffer.clear();
+			return buffer;
+		}
+
+		misses.incrementAndGet();
+		return ByteBuffer.allocateDirect(minSize << index);
+	}
+
+	/**
+	 * Give back a buffer obtained from {@link #acquire(int)}. The buffer must
+	 * not be used by the caller afterwards.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null)
+			return;
+
+		outstanding.decrementAndGet();
+
+		int capacity = buffer.capacity();
+		int index = indexOf(capacity);
+		if (index < 0 || (minSize << index) != capacity || !buffer.isDirect())
+			return;
+
+		if (freeCount[index].incrementAndGet() > maxFree[index]) {
+			freeCount[index].decrementAndGet();
+			return;
+		}
+		free[index].offer(buffer);
+	}
+
+	public int getMinSize() {
+		return minSize;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Return the number of acquisitions served from a free list.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Return the number of acquisitions which had to allocate a new buffer.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Return the number of buffers acquired and not released yet.
+	 */
+	public int getOutstanding() {
+		return outstanding.get();
+	}
+
+	/**
+	 * Return the number of bytes currently held in the free lists.
+	 */
+	public long getPooledBytes() {
+		long bytes = 0;
+		for (int i = 0; i < freeCount.length; i++)
+			bytes += (long) freeCount[i].get() * (minSize << i);
+		return bytes;
+	}
+
+	/**
+	 * Drop every pooled buffer.
+	 */
+	public void clear() {
+		for (int i = 0; i < free.length; i++) {
+			while (free[i].poll() != null)
+				freeCount[i].decrementAndGet();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ByteBufferPool[hits=" + getHits() + ", misses=" + getMisses()
+				+ ", outstanding=" + getOutstanding() + ", pooledBytes="
+				+ getPooledBytes() + "]";
+	}
+
+	/**
+	 * Return the index of the smallest class holding <code>size</code> bytes,
+	 * or -1 if <code>size</code> is larger than the largest class.
+	 */
+	private int indexOf(int size) {
+		if (size > maxSize)
+			return -1;
+		if (size <= minSize)
+			return 0;
+		return Integer.numberOfTrailingZeros(roundUp(size))
+				- Integer.numberOfTrailingZeros(minSize);
+	}
+
+	private static int roundUp(int size) {
+		if (size <= 1)
+			return 1;
+		int highest = Integer.highestOneBit(size);
+		return (highest == size ? size : highest << 1);
+	}
+
+}
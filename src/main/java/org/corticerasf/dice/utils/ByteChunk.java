@@ -0,0 +1,193 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.utils;
+
+import java.nio.charset.Charset;
+
+/**
+ * A view over a range of bytes of a buffer owned by someone else, typically
+ * the read buffer of a connection.
+ * <p>
+ * The bytes are decoded as ISO-8859-1 into a <code>String</code> only the
+ * first time {@link #toString()} is called, and the result is cached until
+ * the view is set again or recycled. Comparisons and number parsing work on
+ * the bytes directly. A view is only valid as long as the underlying bytes
+ * are not modified by their owner.
+ *
+ * @author J. Godara
+ */
+public final class ByteChunk {
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private byte[] buf = null;
+	private int start = 0;
+	private int end = 0;
+
+	private String string = null;
+
+	/**
+	 * Point this view at the bytes <code>[start, end)</code> of the given
+	 * buffer. The bytes are not copied.
+	 */
+	public void setBytes(byte[] buf, int start, int end) {
+		this.buf = buf;
+		this.start = start;
+		this.end = end;
+		this.string = null;
+	}
+
+	/**
+	 * Set this view to a value which is not backed by a buffer.
+	 */
+	public void setString(String string) {
+		this.buf = null;
+		this.start = 0;
+		this.end = 0;
+		this.string = string;
+	}
+
+	public void recycle() {
+		buf = null;
+		start = 0;
+		end = 0;
+		string = null;
+	}
+
+	/**
+	 * Return <code>true</code> if this view holds no value at all, as opposed
+	 * to an empty value.
+	 */
+	public boolean isNull() {
+		return buf == null && string == null;
+	}
+
+	public byte[] getBuffer() {
+		return buf;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	public int getLength() {
+		if (buf == null)
+			return (string == null ? 0 : string.length());
+		return end - start;
+	}
+
+	@Override
+	public String toString() {
+		if (string == null && buf != null)
+			string = new String(buf, start, end - start, ISO_8859_1);
+		return string;
+	}
+
+	/**
+	 * Decode the bytes of this view with the given charset. The result is
+	 * not cached.
+	 */
+	public String toString(Charset charset) {
+		if (buf == null)
+			return string;
+		return new String(buf, start, end - start, charset);
+	}
+
+	/**
+	 * Compare the bytes of this view with a string, without decoding them.
+	 */
+	public boolean equals(String s) {
+		if (buf == null)
+			return string != null && string.equals(s);
+		if (s == null || s.length() != end - start)
+			return false;
+		for (int i = start, j = 0; i < end; i++, j++) {
+			if ((char) (buf[i] & 0xff) != s.charAt(j))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Compare the bytes of this view with a string, ignoring the case of
+	 * ASCII letters, without decoding them.
+	 */
+	public boolean equalsIgnoreCase(String s) {
+		if (buf == null)
+			return string != null && string.equalsIgnoreCase(s);
+		if (s == null || s.length() != end - start)
+			return false;
+		for (int i = start, j = 0; i < end; i++, j++) {
+			if (toLower(buf[i] & 0xff) != toLower(s.charAt(j)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Return the offset, relative to the start of this view, of the first
+	 * occurrence of the given byte, or -1.
+	 */
+	public int indexOf(char c) {
+		if (buf == null)
+			return (string == null ? -1 : string.indexOf(c));
+		for (int i = start; i < end; i++) {
+			if (buf[i] == (byte) c)
+				return i - start;
+		}
+		return -1;
+	}
+
+	/**
+	 * Parse the bytes of this view as a non-negative decimal number.
+	 *
+	 * @throws NumberFormatException
+	 *             if the view does not hold a valid non-negative number
+	 */
+	public long getLong() {
+		if (buf == null)
+			return Long.parseLong(toString());
+
+		int i = start;
+		int last = end;
+		while (i < last && (buf[i] == ' ' || buf[i] == '\t'))
+			i++;
+		while (last > i && (buf[last - 1] == ' ' || buf[last - 1] == '\t'))
+			last--;
+		if (i == last || last - i > 18)
+			throw new NumberFormatException(toString());
+
+		long value = 0;
+		for (; i < last; i++) {
+			int digit = buf[i] - '0';
+			if (digit < 0 || digit > 9)
+				throw new NumberFormatException(toString());
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	private static int toLower(int c) {
+		if (c >= 'A' && c <= 'Z')
+			return c + ('a' - 'A');
+		return c;
+	}
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.utils;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory creating named daemon threads with a sequential suffix.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+	private final ThreadGroup group;
+	private final AtomicInteger counter = new AtomicInteger(1);
+	private final String namePrefix;
+	private final int priority;
+
+	public DaemonThreadFactory(String namePrefix) {
+		this(namePrefix, Thread.NORM_PRIORITY);
+	}
+
+	public DaemonThreadFactory(String namePrefix, int priority) {
+		SecurityManager securityManager = System.getSecurityManager();
+		group = (securityManager != null ? securityManager.getThreadGroup()
+				: Thread.currentThread().getThreadGroup());
+		this.namePrefix = namePrefix;
+		this.priority = priority;
+	}
+
+	public Thread newThread(Runnable r) {
+		Thread thread = new Thread(group, r, namePrefix
+				+ counter.getAndIncrement());
+		thread.setDaemon(true);
+		thread.setPriority(priority);
+		return thread;
+	}
+
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.utils;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Watches directories for entries being created, modified or deleted with a
+ * <code>java.nio.file.WatchService</code>, and reports the changed entries
+ * to a {@link Listener} once a directory has been quiet for
+ * <code>quietPeriod</code> milliseconds.
+ * <p>
+ * Bursts of events are coalesced: an entry written many times, such as a WAR
+ * being copied, is reported once, after the last write. Only the entries
+ * directly under a watched directory are reported, by name. When the JVM
+ * lost events of a directory, the directory is reported without names and
+ * must be scanned in full.
+ * <p>
+ * The server is compiled for older JVMs, so the watch service is looked up
+ * reflectively. {@link #isSupported()} returns <code>false</code> on JVMs
+ * without it (before Java 7), callers then fall back to polling.
+ *
+ * @author J. Godara
+ */
+public class DirectoryWatcher implements Runnable {
+
+	private static final Logger logger = Logger
+			.getLogger(DirectoryWatcher.class);
+
+	/**
+	 * Receives the changes of the watched directories.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called on the thread of the watcher with the entries of a directory
+		 * changed since the last call.
+		 *
+		 * @param directory
+		 *            The watched directory
+		 * @param names
+		 *            The names of the changed entries, or <code>null</code> if
+		 *            events were lost and the whole directory must be scanned
+		 */
+		public void changed(File directory, Set<String> names);
+
+	}
+
+	private final String name;
+	private final long quietPeriod;
+	private final Listener listener;
+
+	private final Map<Object, File> keys = new HashMap<Object, File>();
+	private final Map<File, Set<String>> pending = new LinkedHashMap<File, Set<String>>();
+	private final Set<File> lost = new LinkedHashSet<File>();
+
+	private volatile Object watchService = null;
+	private volatile Thread thread = null;
+
+	/**
+	 * @param name
+	 *            The name of the thread of the watcher
+	 * @param quietPeriod
+	 *            The time in milliseconds without events after which the
+	 *            changes of a directory are reported
+	 * @param listener
+	 *            The listener receiving the changes
+	 */
+	public DirectoryWatcher(String name, long quietPeriod, Listener listener) {
+		this.name = name;
+		this.quietPeriod = Math.max(0, quietPeriod);
+		this.listener = listener;
+	}
+
+	/**
+	 * Return <code>true</code> if the running JVM has a watch service.
+	 */
+	public static boolean isSupported() {
+		return Nio.SUPPORTED;
+	}
+
+	public long getQuietPeriod() {
+		return quietPeriod;
+	}
+
+	/**
+	 * Return <code>true</code> if the watcher is started.
+	 */
+	public boolean isRunning() {
+		return thread != null;
+	}
+
+	/**
+	 * Start watching the directories, on a daemon thread.
+	 *
+	 * @throws IllegalStateException
+	 *             if the watch service cannot be created
+	 */
+	public synchronized void start() {
+		if (thread != null)
+			return;
+		if (!Nio.SUPPORTED)
+			throw new IllegalStateException("No watch service in this JVM.");
+
+		try {
+			watchService = Nio.newWatchService();
+		} catch (Exception ex) {
+			throw new IllegalStateException("Cannot create watch service.", ex);
+		}
+
+		keys.clear();
+		pending.clear();
+		lost.clear();
+		thread = new DaemonThreadFactory(name + "-").newThread(this);
+		thread.start();
+	}
+
+	/**
+	 * Stop watching the directories. Pending changes are not reported.
+	 */
+	public synchronized void stop() {
+		Thread t = thread;
+		thread = null;
+		Object service = watchService;
+		watchService = null;
+		if (service != null) {
+			try {
+				Nio.close(service);
+			} catch (Exception ex) {
+				logger.debug("Cannot close watch service of " + this + ".", ex);
+			}
+		}
+		if (t != null)
+			t.interrupt();
+	}
+
+	/**
+	 * Watch a directory. The watcher must be started.
+	 *
+	 * @return <code>true</code> if the directory is watched,
+	 *         <code>false</code> if it does not exist or cannot be watched
+	 */
+	public synchronized boolean watch(File directory) {
+		Object service = watchService;
+		if (service == null)
+			throw new IllegalStateException(this + " is not started.");
+		if (!directory.isDirectory())
+			return false;
+		if (keys.containsValue(directory))
+			return true;
+
+		try {
+			keys.put(Nio.register(directory, service), directory);
+			if (logger.isDebugEnabled())
+				logger.debug(this + " watching " + directory + ".");
+			return true;
+		} catch (Exception ex) {
+			logger.warn("Cannot watch directory " + directory + ".", ex);
+			return false;
+		}
+	}
+
+	/**
+	 * Return <code>true</code> if a directory is watched.
+	 */
+	public synchronized boolean isWatched(File directory) {
+		return keys.containsValue(directory);
+	}
+
+	public void run() {
+		long lastEvent = 0;
+
+		while (thread == Thread.currentThread()) {
+			Object service = watchService;
+			if (service == null)
+				break;
+
+			try {
+				Object key;
+				if (pending.isEmpty() && lost.isEmpty()) {
+					key = Nio.take(service);
+				} else {
+					long wait = lastEvent + quietPeriod
+							- System.currentTimeMillis();
+					key = (wait > 0 ? Nio.poll(service, wait) : null);
+				}
+
+				if (key == null) {
+					// Quiet for the period
+					deliver();
+					continue;
+				}
+
+				if (collect(key))
+					lastEvent = System.currentTimeMillis();
+			} catch (InterruptedException ex) {
+				break;
+			} catch (Throwable t) {
+				ExceptionUtils.handleThrowable(t);
+				if (thread != Thread.currentThread())
+					// Closed by stop()
+					break;
+				logger.error("Error watching directories of " + this + ".", t);
+			}
+		}
+	}
+
+	/**
+	 * Add the events of a signalled key to the pending changes.
+	 *
+	 * @return <code>true</code> if there were events
+	 */
+	private boolean collect(Object key) throws Exception {
+		File directory;
+		synchronized (this) {
+			directory = keys.get(key);
+		}
+
+		List<?> events = Nio.pollEvents(key);
+		if (directory != null) {
+			for (Object event : events) {
+				Object context = Nio.context(event);
+				if (context == null) {
+					// Overflow, events were lost
+					lost.add(directory);
+					pending.remove(directory);
+				} else if (!lost.contains(directory)) {
+					Set<String> names = pending.get(directory);
+					if (names == null) {
+						names = new LinkedHashSet<String>();
+						pending.put(directory, names);
+					}
+					names.add(context.toString());
+				}
+			}
+		}
+
+		if (!Nio.reset(key)) {
+			// The directory was deleted or cannot be accessed any more
+			synchronized (this) {
+				keys.remove(key);
+			}
+			if (directory != null)
+				logger.warn("Directory " + directory
+						+ " is not watched any more.");
+		}
+
+		return !events.isEmpty();
+	}
+
+	private void deliver() {
+		Map<File, Set<String>> changes = new LinkedHashMap<File, Set<String>>();
+		for (File directory : lost)
+			changes.put(directory, null);
+		changes.putAll(pending);
+		lost.clear();
+		pending.clear();
+
+		for (Map.Entry<File, Set<String>> change : changes.entrySet()) {
+			if (logger.isDebugEnabled())
+				logger.debug(this + " changes in " + change.getKey() + ": "
+						+ (change.getValue() == null ? "all" : change.getValue()));
+			try {
+				listener.changed(change.getKey(), change.getValue());
+			} catch (Throwable t) {
+				ExceptionUtils.handleThrowable(t);
+				logger.error("Error handling changes in " + change.getKey()
+						+ ".", t);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "DirectoryWatcher[" + name + "]";
+	}
+
+	// ------------------------------------------------------------------- Nio
+
+	/**
+	 * The <code>java.nio.file</code> methods used, looked up once.
+	 */
+	private static class Nio {
+
+		static final boolean SUPPORTED;
+
+		private static Object fileSystem;
+		private static Object kinds;
+		private static Method newWatchService;
+		private static Method toPath;
+		private static Method register;
+		private static Method take;
+		private static Method poll;
+		private static Method close;
+		private static Method pollEvents;
+		private static Method reset;
+		private static Method kind;
+		private static Method context;
+		private static Object overflow;
+
+		static {
+			boolean supported = false;
+			try {
+				Class<?> fileSystems = Class.forName("java.nio.file.FileSystems");
+				Class<?> fileSystemClass = Class.forName("java.nio.file.FileSystem");
+				Class<?> pathClass = Class.forName("java.nio.file.Path");
+				Class<?> serviceClass = Class.forName("java.nio.file.WatchService");
+				Class<?> keyClass = Class.forName("java.nio.file.WatchKey");
+				Class<?> eventClass = Class.forName("java.nio.file.WatchEvent");
+				Class<?> kindClass = Class.forName("java.nio.file.WatchEvent$Kind");
+				Class<?> standardKinds = Class
+						.forName("java.nio.file.StandardWatchEventKinds");
+
+				fileSystem = fileSystems.getMethod("getDefault").invoke(null);
+				newWatchService = fileSystemClass.getMethod("newWatchService");
+				toPath = File.class.getMethod("toPath");
+
+				kinds = Array.newInstance(kindClass, 3);
+				Array.set(kinds, 0, standardKinds.getField("ENTRY_CREATE").get(null));
+				Array.set(kinds, 1, standardKinds.getField("ENTRY_MODIFY").get(null));
+				Array.set(kinds, 2, standardKinds.getField("ENTRY_DELETE").get(null));
+				overflow = standardKinds.getField("OVERFLOW").get(null);
+				register = pathClass.getMethod("register", serviceClass,
+						kinds.getClass());
+
+				take = serviceClass.getMethod("take");
+				poll = serviceClass.getMethod("poll", long.class, TimeUnit.class);
+				close = serviceClass.getMethod("close");
+				pollEvents = keyClass.getMethod("pollEvents");
+				reset = keyClass.getMethod("reset");
+				kind = eventClass.getMethod("kind");
+				context = eventClass.getMethod("context");
+				supported = true;
+			} catch (Throwable t) {
+				ExceptionUtils.handleThrowable(t);
+				if (logger.isDebugEnabled())
+					logger.debug("No watch service in this JVM.", t);
+			}
+			SUPPORTED = supported;
+		}
+
+		static Object newWatchService() throws Exception {
+			return invoke(newWatchService, fileSystem);
+		}
+
+		static Object register(File directory, Object service)
+				throws Exception {
+			return invoke(register, invoke(toPath, directory), service, kinds);
+		}
+
+		static Object take(Object service) throws Exception {
+			return invoke(take, service);
+		}
+
+		static Object poll(Object service, long timeout) throws Exception {
+			return invoke(poll, service, Long.valueOf(timeout),
+					TimeUnit.MILLISECONDS);
+		}
+
+		static void close(Object service) throws Exception {
+			invoke(close, service);
+		}
+
+		static List<?> pollEvents(Object key) throws Exception {
+			return (List<?>) invoke(pollEvents, key);
+		}
+
+		static boolean reset(Object key) throws Exception {
+			return ((Boolean) invoke(reset, key)).booleanValue();
+		}
+
+		/**
+		 * Return the name of the entry of an event, <code>null</code> for an
+		 * overflow.
+		 */
+		static Object context(Object event) throws Exception {
+			if (invoke(kind, event) == overflow)
+				return null;
+			return invoke(context, event);
+		}
+
+		private static Object invoke(Method method, Object target,
+				Object... args) throws Exception {
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException ex) {
+				Throwable cause = ex.getCause();
+				if (cause instanceof Exception)
+					throw (Exception) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw ex;
+			}
+		}
+
+	}
+
+}
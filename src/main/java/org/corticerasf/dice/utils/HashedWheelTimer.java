@@ -0,0 +1,393 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.corticerasf.dice.lifecycle.LifecycleBase;
+import org.corticerasf.dice.lifecycle.LifecycleException;
+import org.corticerasf.dice.lifecycle.LifecycleState;
+
+/**
+ * A hashed timing wheel for large numbers of short, mostly cancelled
+ * timeouts such as connection idle timeouts.
+ * <p>
+ * The wheel is an array of buckets, one per tick. A new timeout is queued
+ * and put into the bucket of its deadline by the worker thread on the next
+ * tick, with the number of whole wheel rounds left before it is due.
+ * Scheduling and cancelling are O(1) and never take a lock, and every tick
+ * only visits a single bucket, so the cost of a tick does not grow with the
+ * number of connections. Timeouts fire up to one tick late.
+ * <p>
+ * Expired tasks are run by the worker thread and must not block.
+ *
+ * @author J. Godara
+ */
+public class HashedWheelTimer extends LifecycleBase {
+
+	private static final Logger logger = Logger
+			.getLogger(HashedWheelTimer.class);
+
+	/**
+	 * The maximum number of queued timeouts moved to the wheel per tick, so
+	 * that a burst of new timeouts cannot stall expiration.
+	 */
+	private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+	private final long tickDuration;
+	private final Bucket[] wheel;
+	private final int mask;
+
+	private final ConcurrentLinkedQueue<Timeout> timeouts = new ConcurrentLinkedQueue<Timeout>();
+	private final ConcurrentLinkedQueue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+
+	private final AtomicLong expired = new AtomicLong(0);
+
+	private String name = "Timer";
+	private Thread workerThread = null;
+	private volatile boolean running = false;
+
+	/**
+	 * Create a wheel of 512 ticks of 100 milliseconds.
+	 */
+	public HashedWheelTimer() {
+		this(100, 512);
+	}
+
+	/**
+	 * @param tickDuration
+	 *            The duration of a tick in milliseconds
+	 * @param ticksPerWheel
+	 *            The number of buckets, rounded up to a power of two
+	 */
+	public HashedWheelTimer(long tickDuration, int ticksPerWheel) {
+		if (tickDuration <= 0)
+			throw new IllegalArgumentException("tickDuration must be positive");
+		if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30))
+			throw new IllegalArgumentException(
+					"ticksPerWheel must be between 1 and 2^30");
+
+		this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+
+		int size = 1;
+		while (size < ticksPerWheel)
+			size <<= 1;
+		wheel = new Bucket[size];
+		for (int i = 0; i < size; i++)
+			wheel[i] = new Bucket();
+		mask = size - 1;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Set the name of this timer, used to name its worker thread.
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Return the number of timeouts which have expired so far.
+	 */
+	public long getExpiredCount() {
+		return expired.get();
+	}
+
+	/**
+	 * Schedule a task to run once after the given delay. Timeouts may be
+	 * scheduled before the timer is started, their delay then counts from
+	 * the time they were scheduled.
+	 *
+	 * @param task
+	 *            The task to run, on the worker thread, if the timeout is not
+	 *            cancelled before it expires
+	 * @param delay
+	 *            The delay in milliseconds
+	 * @return the handle with which the timeout can be cancelled
+	 */
+	public Timeout newTimeout(Runnable task, long delay) {
+		if (task == null)
+			throw new NullPointerException("task");
+
+		Timeout timeout = new Timeout(task, System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay)));
+		timeouts.offer(timeout);
+		return timeout;
+	}
+
+	@Override
+	protected void initInternal() throws LifecycleException {
+		// NO-OP
+	}
+
+	@Override
+	protected void startInternal() throws LifecycleException {
+		setState(LifecycleState.STARTING);
+
+		running = true;
+		workerThread = new Thread(new Worker(), name);
+		workerThread.setDaemon(true);
+		workerThread.start();
+	}
+
+	@Override
+	protected void stopInternal() throws LifecycleException {
+		setState(LifecycleState.STOPPING);
+
+		running = false;
+		Thread thread = workerThread;
+		workerThread = null;
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join(TimeUnit.NANOSECONDS.toMillis(tickDuration) * 10);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		// Pending timeouts are dropped, their owners are being stopped too.
+		for (Bucket bucket : wheel)
+			bucket.clear();
+		timeouts.clear();
+		cancelledTimeouts.clear();
+	}
+
+	@Override
+	protected void destroyInternal() throws LifecycleException {
+		// NO-OP
+	}
+
+	@Override
+	public String toString() {
+		return "HashedWheelTimer[" + name + "]";
+	}
+
+	// ------------------------------------------------------- Worker
+
+	private class Worker implements Runnable {
+
+		private long startTime;
+		private long tick = 0;
+
+		public void run() {
+			startTime = System.nanoTime();
+
+			while (running) {
+				if (!waitForNextTick())
+					break;
+
+				try {
+					removeCancelled();
+					transferTimeouts();
+					wheel[(int) (tick & mask)].expire();
+				} catch (Throwable t) {
+					ExceptionUtils.handleThrowable(t);
+					logger.error("Timer tick failed.", t);
+				}
+				tick++;
+			}
+		}
+
+		/**
+		 * Sleep until the end of the current tick.
+		 *
+		 * @return <code>false</code> if the timer is being stopped
+		 */
+		private boolean waitForNextTick() {
+			long deadline = tickDuration * (tick + 1);
+			while (true) {
+				long current = System.nanoTime() - startTime;
+				long sleepMillis = (deadline - current + 999999) / 1000000;
+				if (sleepMillis <= 0)
+					return true;
+
+				try {
+					Thread.sleep(sleepMillis);
+				} catch (InterruptedException ex) {
+					if (!running)
+						return false;
+				}
+			}
+		}
+
+		private void transferTimeouts() {
+			for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+				Timeout timeout = timeouts.poll();
+				if (timeout == null)
+					break;
+				if (timeout.state != Timeout.ST_INIT)
+					continue;
+
+				long calculated = (timeout.deadline - startTime) / tickDuration;
+				timeout.remainingRounds = (calculated - tick) / wheel.length;
+				// A timeout already due goes into the current bucket.
+				long ticks = Math.max(calculated, tick);
+				wheel[(int) (ticks & mask)].add(timeout);
+			}
+		}
+
+		private void removeCancelled() {
+			Timeout timeout;
+			while ((timeout = cancelledTimeouts.poll()) != null) {
+				if (timeout.bucket != null)
+					timeout.bucket.remove(timeout);
+			}
+		}
+
+	}
+
+	// ------------------------------------------------------- Bucket
+
+	/**
+	 * The doubly linked list of the timeouts of one tick. Only touched by the
+	 * worker thread.
+	 */
+	private class Bucket {
+
+		private Timeout head = null;
+		private Timeout tail = null;
+
+		void add(Timeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		void remove(Timeout timeout) {
+			Timeout next = timeout.next;
+			if (timeout.prev != null)
+				timeout.prev.next = next;
+			if (next != null)
+				next.prev = timeout.prev;
+			if (timeout == head)
+				head = next;
+			if (timeout == tail)
+				tail = timeout.prev;
+
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+		}
+
+		/**
+		 * Expire the timeouts of this bucket due in the current round.
+		 */
+		void expire() {
+			Timeout timeout = head;
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				if (timeout.remainingRounds <= 0) {
+					remove(timeout);
+					timeout.expire();
+				} else if (timeout.isCancelled()) {
+					remove(timeout);
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+		}
+
+		void clear() {
+			while (head != null)
+				remove(head);
+		}
+
+	}
+
+	// ------------------------------------------------------- Timeout
+
+	/**
+	 * Handle of a scheduled task.
+	 */
+	public final class Timeout {
+
+		private static final int ST_INIT = 0;
+		private static final int ST_CANCELLED = 1;
+		private static final int ST_EXPIRED = 2;
+
+		private final Runnable task;
+		private final long deadline;
+
+		// Not private, for the field updater
+		volatile int state = ST_INIT;
+
+		// Owned by the worker thread
+		private long remainingRounds;
+		private Bucket bucket;
+		private Timeout next;
+		private Timeout prev;
+
+		Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancel this timeout so that its task will not run.
+		 *
+		 * @return <code>false</code> if the timeout had already expired or
+		 *         been cancelled
+		 */
+		public boolean cancel() {
+			if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_CANCELLED))
+				return false;
+
+			// Unlinked from its bucket by the worker thread on its next tick
+			cancelledTimeouts.offer(this);
+			return true;
+		}
+
+		public boolean isCancelled() {
+			return state == ST_CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state == ST_EXPIRED;
+		}
+
+		private void expire() {
+			if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_EXPIRED))
+				return;
+
+			expired.incrementAndGet();
+			try {
+				task.run();
+			} catch (Throwable t) {
+				ExceptionUtils.handleThrowable(t);
+				logger.warn("Timeout task " + task + " failed.", t);
+			}
+		}
+
+	}
+
+	private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER = AtomicIntegerFieldUpdater
+			.newUpdater(Timeout.class, "state");
+
+}
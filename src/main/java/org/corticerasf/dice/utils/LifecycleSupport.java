@@ -18,6 +18,7 @@ package org.corticerasf.dice.utils;
 import org.corticerasf.dice.lifecycle.Lifecycle;
 import org.corticerasf.dice.lifecycle.LifecycleEvent;
 import org.corticerasf.dice.lifecycle.LifecycleListener;
+import org.corticerasf.dice.lifecycle.LifecycleTimings;
 
 public final class LifecycleSupport {
 	
@@ -28,7 +29,8 @@ public final class LifecycleSupport {
 	
 	private Lifecycle lifecycle;
 	
-	private LifecycleListener[] listeners = new LifecycleListener[0];
+	// Copy on write, so that events are fired without locking
+	private volatile LifecycleListener[] listeners = new LifecycleListener[0];
 	
 	private final Object lockingObject = new Object();
 	
@@ -55,8 +57,22 @@ public final class LifecycleSupport {
 		
 		LifecycleEvent event = new LifecycleEvent(lifecycle, type, data);
 		LifecycleListener[] events = listeners;
-		for (LifecycleListener listener : events)
-			listener.lifecycleEvent(event);
+		LifecycleTimings timings = LifecycleTimings.getInstance();
+		if (!timings.isEnabled() || Lifecycle.PERIODIC_EVENT.equals(type)) {
+			for (LifecycleListener listener : events)
+				listener.lifecycleEvent(event);
+			return;
+		}
+		
+		for (LifecycleListener listener : events) {
+			long startTime = System.nanoTime();
+			try {
+				listener.lifecycleEvent(event);
+			} finally {
+				timings.recordListener(lifecycle, listener, type,
+						System.nanoTime() - startTime);
+			}
+		}
 		
 	}
 	
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.utils;
+
+/**
+ * The headers of a message, as name and value {@link ByteChunk} views over
+ * the buffer they were parsed from.
+ * <p>
+ * The views are allocated once and reused by {@link #recycle()}, so parsing
+ * the headers of a request does not allocate once the arrays have grown to
+ * the number of headers usually received.
+ *
+ * @author J. Godara
+ */
+public final class MimeHeaders {
+
+	private static final int DEFAULT_SIZE = 16;
+
+	private ByteChunk[] names = new ByteChunk[DEFAULT_SIZE];
+	private ByteChunk[] values = new ByteChunk[DEFAULT_SIZE];
+	private int count = 0;
+
+	public int size() {
+		return count;
+	}
+
+	public ByteChunk getName(int index) {
+		return (index < count ? names[index] : null);
+	}
+
+	public ByteChunk getValue(int index) {
+		return (index < count ? values[index] : null);
+	}
+
+	/**
+	 * Add a header whose name and value are the given ranges of
+	 * <code>buf</code>.
+	 */
+	public void addHeader(byte[] buf, int nameStart, int nameEnd,
+			int valueStart, int valueEnd) {
+		int index = next();
+		names[index].setBytes(buf, nameStart, nameEnd);
+		values[index].setBytes(buf, valueStart, valueEnd);
+	}
+
+	public void addHeader(String name, String value) {
+		int index = next();
+		names[index].setString(name);
+		values[index].setString(value);
+	}
+
+	/**
+	 * Return the value of the first header with the given name, ignoring
+	 * case, or <code>null</code>.
+	 */
+	public ByteChunk getValue(String name) {
+		for (int i = 0; i < count; i++) {
+			if (names[i].equalsIgnoreCase(name))
+				return values[i];
+		}
+		return null;
+	}
+
+	/**
+	 * Return the value of the first header with the given name, ignoring
+	 * case, as a string, or <code>null</code>.
+	 */
+	public String getHeader(String name) {
+		ByteChunk value = getValue(name);
+		return (value == null ? null : value.toString());
+	}
+
+	public void recycle() {
+		for (int i = 0; i < count; i++) {
+			names[i].recycle();
+			values[i].recycle();
+		}
+		count = 0;
+	}
+
+	private int next() {
+		if (count == names.length) {
+			ByteChunk[] newNames = new ByteChunk[count * 2];
+			ByteChunk[] newValues = new ByteChunk[count * 2];
+			System.arraycopy(names, 0, newNames, 0, count);
+			System.arraycopy(values, 0, newValues, 0, count);
+			names = newNames;
+			values = newValues;
+		}
+		if (names[count] == null) {
+			names[count] = new ByteChunk();
+			values[count] = new ByteChunk();
+		}
+		return count++;
+	}
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Utilities for the paths of requests and resources.
+ *
+ * @author J. Godara
+ */
+public final class RequestUtil {
+
+	private RequestUtil() {
+		// Static methods only
+	}
+
+	/**
+	 * Decode the %xx escapes of a URI path as UTF-8.
+	 *
+	 * @return the decoded path, or <code>null</code> if it is malformed
+	 */
+	public static String decode(String path) {
+		if (path.indexOf('%') < 0)
+			return path;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(path.length());
+		for (int i = 0; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if (c == '%') {
+				if (i + 2 >= path.length())
+					return null;
+				int high = Character.digit(path.charAt(i + 1), 16);
+				int low = Character.digit(path.charAt(i + 2), 16);
+				if (high < 0 || low < 0)
+					return null;
+				bytes.write((high << 4) | low);
+				i += 2;
+			} else if (c < 0x80) {
+				bytes.write(c);
+			} else {
+				return null;
+			}
+		}
+
+		try {
+			return bytes.toString("UTF-8");
+		} catch (UnsupportedEncodingException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Decode the %xx escapes of the URI path <code>[start, end)</code> of the
+	 * given buffer, then collapse its <code>.</code> and <code>..</code>
+	 * segments and duplicate slashes. The path is rewritten in place, which
+	 * only ever shortens it.
+	 *
+	 * @return the end of the normalized path, or -1 if it is malformed, does
+	 *         not start with a slash, contains an encoded slash, a backslash
+	 *         or a null byte, or goes above the root
+	 */
+	public static int normalize(byte[] b, int start, int end) {
+		int w = start;
+		for (int r = start; r < end; r++) {
+			byte c = b[r];
+			if (c == '%') {
+				if (r + 2 >= end)
+					return -1;
+				int high = Character.digit((char) (b[r + 1] & 0xff), 16);
+				int low = Character.digit((char) (b[r + 2] & 0xff), 16);
+				if (high < 0 || low < 0)
+					return -1;
+				c = (byte) ((high << 4) | low);
+				if (c == '/')
+					return -1;
+				r += 2;
+			}
+			if (c == '\\' || c == 0)
+				return -1;
+			b[w++] = c;
+		}
+		end = w;
+		if (end == start || b[start] != '/')
+			return -1;
+
+		// Segments are copied down one at a time, each after a slash.
+		w = start;
+		boolean directory = false;
+		int r = start;
+		while (r < end) {
+			int segment = r + 1;
+			int segmentEnd = segment;
+			while (segmentEnd < end && b[segmentEnd] != '/')
+				segmentEnd++;
+			int length = segmentEnd - segment;
+
+			directory = true;
+			if (length == 0 || (length == 1 && b[segment] == '.')) {
+				// Skipped
+			} else if (length == 2 && b[segment] == '.'
+					&& b[segment + 1] == '.') {
+				if (w == start)
+					return -1;
+				do {
+					w--;
+				} while (b[w] != '/');
+			} else {
+				b[w++] = '/';
+				System.arraycopy(b, segment, b, w, length);
+				w += length;
+				directory = false;
+			}
+			r = segmentEnd;
+		}
+
+		if (w == start || directory)
+			b[w++] = '/';
+		return w;
+	}
+
+	/**
+	 * Collapse <code>.</code> and <code>..</code> segments and duplicate
+	 * slashes.
+	 *
+	 * @return the normalized path, or <code>null</code> if it contains a
+	 *         backslash or a null byte, or goes above the root
+	 */
+	public static String normalize(String path) {
+		if (path.indexOf('\\') >= 0 || path.indexOf('\0') >= 0)
+			return null;
+		if (!path.startsWith("/"))
+			path = "/" + path;
+
+		boolean trailingSlash = path.endsWith("/");
+		StringBuilder result = new StringBuilder(path.length());
+		for (String segment : path.split("/")) {
+			if (segment.length() == 0 || segment.equals("."))
+				continue;
+			if (segment.equals("..")) {
+				int slash = result.lastIndexOf("/");
+				if (slash < 0)
+					return null;
+				result.setLength(slash);
+				continue;
+			}
+			result.append('/').append(segment);
+		}
+
+		if (result.length() == 0 || trailingSlash)
+			result.append('/');
+		return result.toString();
+	}
+
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.corticerasf.dice.lifecycle.Lifecycle;
+import org.corticerasf.dice.lifecycle.LifecycleException;
+
+/**
+ * Runs the steps of a start or stop sequence in parallel, each step
+ * starting once the steps it depends on are complete.
+ * <p>
+ * Steps are added with the steps they depend on, which must have been added
+ * before them, so the order of addition is always a valid sequential order.
+ * A step whose dependency failed is skipped. {@link #run()} returns once
+ * every step has completed or been skipped, and throws the first failure.
+ * <p>
+ * The steps run on as many threads as there are processors by default,
+ * created for the run and discarded after it.
+ *
+ * @author J. Godara
+ */
+public class StartupScheduler {
+
+	private static final Logger logger = Logger
+			.getLogger(StartupScheduler.class);
+
+	private final String name;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private final List<Step> steps = new ArrayList<Step>();
+
+	private ThreadPoolExecutor executor = null;
+	private CountDownLatch remaining = null;
+
+	public StartupScheduler(String name) {
+		this.name = name;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Set the number of threads running the steps, 1 to run them one after
+	 * the other on the calling thread. A value of 0 or less is added to the
+	 * number of processors.
+	 */
+	public void setThreads(int threads) {
+		if (threads <= 0)
+			threads += Runtime.getRuntime().availableProcessors();
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Add a step.
+	 *
+	 * @param stepName
+	 *            The name of the step, used in logs
+	 * @param task
+	 *            The work of the step
+	 * @param dependencies
+	 *            The steps to complete before this one, <code>null</code>
+	 *            elements being ignored
+	 * @return the step, for later steps to depend on
+	 */
+	public synchronized Step add(String stepName, Callable<Void> task,
+			Step... dependencies) {
+		List<Step> required = new ArrayList<Step>();
+		for (Step dependency : dependencies) {
+			if (dependency == null)
+				continue;
+			if (!steps.contains(dependency))
+				throw new IllegalArgumentException("Step " + dependency
+						+ " does not belong to " + this);
+			required.add(dependency);
+		}
+
+		Step step = new Step(stepName, task, required);
+		for (Step dependency : required)
+			dependency.dependents.add(step);
+		steps.add(step);
+		return step;
+	}
+
+	/**
+	 * Add a step starting a component.
+	 */
+	public Step start(final Lifecycle component, Step... dependencies) {
+		return add("start " + component, new Callable<Void>() {
+			public Void call() throws Exception {
+				component.start();
+				return null;
+			}
+		}, dependencies);
+	}
+
+	/**
+	 * Add a step stopping a component.
+	 */
+	public Step stop(final Lifecycle component, Step... dependencies) {
+		return add("stop " + component, new Callable<Void>() {
+			public Void call() throws Exception {
+				component.stop();
+				return null;
+			}
+		}, dependencies);
+	}
+
+	/**
+	 * Run all the steps and wait for them to complete.
+	 *
+	 * @throws LifecycleException
+	 *             with the first failure as its cause, if a step failed
+	 */
+	public synchronized void run() throws LifecycleException {
+		if (threads == 1 || steps.size() < 2) {
+			// The order of addition satisfies the dependencies
+			for (Step step : steps)
+				step.run();
+		} else {
+			remaining = new CountDownLatch(steps.size());
+			executor = new ThreadPoolExecutor(threads, threads, 0,
+					TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+					new DaemonThreadFactory(name + "-"));
+			try {
+				for (Step step : steps) {
+					if (step.pending.get() == 0)
+						executor.execute(step);
+				}
+				remaining.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new LifecycleException("Interrupted while running "
+						+ this, ex);
+			} finally {
+				executor.shutdownNow();
+				executor = null;
+				remaining = null;
+			}
+		}
+
+		Throwable failure = null;
+		for (Step step : steps) {
+			if (step.failure != null) {
+				if (failure == null)
+					failure = step.failure;
+				else
+					logger.error("Step " + step + " of " + this + " failed.",
+							step.failure);
+			}
+		}
+		steps.clear();
+
+		if (failure != null) {
+			if (failure instanceof LifecycleException)
+				throw (LifecycleException) failure;
+			throw new LifecycleException(failure);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "StartupScheduler[" + name + "]";
+	}
+
+	// ------------------------------------------------------------------ Step
+
+	/**
+	 * A step of a sequence.
+	 */
+	public final class Step implements Runnable {
+
+		private final String stepName;
+		private final Callable<Void> task;
+		private final List<Step> dependencies;
+		private final List<Step> dependents = new ArrayList<Step>();
+		private final AtomicInteger pending;
+
+		private volatile Throwable failure = null;
+		private volatile boolean skipped = false;
+
+		Step(String stepName, Callable<Void> task, List<Step> dependencies) {
+			this.stepName = stepName;
+			this.task = task;
+			this.dependencies = dependencies;
+			this.pending = new AtomicInteger(dependencies.size());
+		}
+
+		/**
+		 * Return <code>true</code> if this step was not run as a step it
+		 * depends on failed or was skipped.
+		 */
+		public boolean isSkipped() {
+			return skipped;
+		}
+
+		public void run() {
+			try {
+				for (Step dependency : dependencies) {
+					if (dependency.failure != null || dependency.skipped) {
+						skipped = true;
+						if (logger.isDebugEnabled())
+							logger.debug("Skipping " + this + ", " + dependency
+									+ " did not complete.");
+						return;
+					}
+				}
+
+				long start = System.currentTimeMillis();
+				task.call();
+				if (logger.isDebugEnabled())
+					logger.debug(this + " completed in "
+							+ (System.currentTimeMillis() - start) + " ms.");
+			} catch (Throwable t) {
+				ExceptionUtils.handleThrowable(t);
+				failure = t;
+			} finally {
+				if (executor != null) {
+					for (Step dependent : dependents) {
+						if (dependent.pending.decrementAndGet() == 0)
+							executor.execute(dependent);
+					}
+					remaining.countDown();
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return stepName;
+		}
+
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.utils;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The work queue of a {@link TaskThreadPool}.
+ * <p>
+ * A <code>ThreadPoolExecutor</code> only starts threads above its core size
+ * once its queue refuses a task. This queue refuses a task while the pool
+ * has no idle thread and may still grow, so the pool grows to its maximum
+ * size before any work is queued. Once the pool is at its maximum size
+ * tasks are queued, up to the capacity of the queue.
+ *
+ * @author J. Godara
+ */
+public class TaskQueue extends LinkedBlockingQueue<Runnable> {
+
+	private static final long serialVersionUID = 1L;
+
+	private transient volatile TaskThreadPool parent = null;
+
+	public TaskQueue() {
+		super();
+	}
+
+	public TaskQueue(int capacity) {
+		super(capacity);
+	}
+
+	public void setParent(TaskThreadPool parent) {
+		this.parent = parent;
+	}
+
+	/**
+	 * Queue a task the pool has refused, waiting for space if the queue is
+	 * full.
+	 *
+	 * @return <code>true</code> if the task was queued before the timeout
+	 */
+	public boolean force(Runnable task, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		if (parent == null || parent.isShutdown())
+			throw new RejectedExecutionException(
+					"The executor is not running, the task cannot be queued.");
+		return super.offer(task, timeout, unit);
+	}
+
+	@Override
+	public boolean offer(Runnable task) {
+		TaskThreadPool pool = parent;
+		if (pool == null)
+			return super.offer(task);
+
+		int poolSize = pool.getPoolSize();
+		// No more threads can be started
+		if (poolSize >= pool.getMaximumPoolSize())
+			return super.offer(task);
+		// An idle thread will take the task
+		if (pool.getSubmittedCount() <= poolSize)
+			return super.offer(task);
+		// Make the pool start a new thread
+		return false;
+	}
+
+}
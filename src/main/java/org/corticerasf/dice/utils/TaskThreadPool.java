@@ -0,0 +1,319 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.utils;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A <code>ThreadPoolExecutor</code> working with a {@link TaskQueue}, so
+ * that it starts threads up to its maximum size before queueing tasks.
+ * <p>
+ * When the queue is full, a task waits for space in the queue for the
+ * timeout given to {@link #execute(Runnable, long, TimeUnit)} before it is
+ * rejected.
+ * <p>
+ * Threads may hold on to objects of the applications they have run, in
+ * thread locals for instance. Once {@link #contextStopping()} is called,
+ * the threads created before the call are renewed: each one stops after
+ * running its next task and is replaced by a new thread, at most one thread
+ * every <code>threadRenewalDelay</code> milliseconds so that the pool does
+ * not lose all its threads at once.
+ * <p>
+ * The time tasks wait in the queue and the time threads spend running them
+ * are accumulated, for the sizing of the pool to be adapted to its load.
+ *
+ * @author J. Godara
+ */
+public class TaskThreadPool extends ThreadPoolExecutor {
+
+	private static final Logger logger = Logger.getLogger(TaskThreadPool.class);
+
+	/**
+	 * The number of tasks submitted but not yet completed, queued ones
+	 * included.
+	 */
+	private final AtomicInteger submittedCount = new AtomicInteger(0);
+
+	private final AtomicLong startedCount = new AtomicLong(0);
+	private final AtomicLong queueWaitTime = new AtomicLong(0);
+	private final AtomicLong busyTime = new AtomicLong(0);
+
+	private final AtomicLong lastContextStoppedTime = new AtomicLong(0);
+	private final AtomicLong lastTimeThreadKilledItself = new AtomicLong(0);
+
+	private volatile long threadRenewalDelay = 1000;
+
+	/**
+	 * @param corePoolSize
+	 *            The number of threads kept when idle
+	 * @param maximumPoolSize
+	 *            The maximum number of threads
+	 * @param keepAliveTime
+	 *            The time an idle thread above the core size is kept
+	 * @param unit
+	 *            The unit of <code>keepAliveTime</code>
+	 * @param queue
+	 *            The work queue
+	 * @param threadFactory
+	 *            The factory creating the threads, usually a
+	 *            {@link TaskThreadFactory}
+	 */
+	public TaskThreadPool(int corePoolSize, int maximumPoolSize,
+			long keepAliveTime, TimeUnit unit, TaskQueue queue,
+			ThreadFactory threadFactory) {
+		super(corePoolSize, maximumPoolSize, keepAliveTime, unit, queue,
+				threadFactory);
+		queue.setParent(this);
+	}
+
+	public int getSubmittedCount() {
+		return submittedCount.get();
+	}
+
+	/**
+	 * Return the number of tasks a thread has started running.
+	 */
+	public long getStartedCount() {
+		return startedCount.get();
+	}
+
+	/**
+	 * Return the total time the started tasks waited between their
+	 * submission and their start, in nanoseconds.
+	 */
+	public long getQueueWaitTime() {
+		return queueWaitTime.get();
+	}
+
+	/**
+	 * Return the total time the threads spent running tasks, in nanoseconds,
+	 * counting the tasks still running from when they complete.
+	 */
+	public long getBusyTime() {
+		return busyTime.get();
+	}
+
+	public long getThreadRenewalDelay() {
+		return threadRenewalDelay;
+	}
+
+	/**
+	 * Set the minimum delay between the renewal of two threads, in
+	 * milliseconds. A negative delay disables the renewal of threads.
+	 */
+	public void setThreadRenewalDelay(long threadRenewalDelay) {
+		this.threadRenewalDelay = threadRenewalDelay;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		execute(command, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Execute a task, waiting for space in the queue for the given time if
+	 * the pool is at its maximum size and the queue is full.
+	 *
+	 * @throws RejectedExecutionException
+	 *             if the queue is still full after the timeout
+	 */
+	public void execute(Runnable command, long timeout, TimeUnit unit) {
+		if (command == null)
+			throw new NullPointerException();
+
+		command = new TimedTask(command);
+		submittedCount.incrementAndGet();
+		try {
+			super.execute(command);
+		} catch (RejectedExecutionException ex) {
+			if (!(getQueue() instanceof TaskQueue)) {
+				submittedCount.decrementAndGet();
+				throw ex;
+			}
+
+			TaskQueue queue = (TaskQueue) getQueue();
+			try {
+				if (!queue.force(command, timeout, unit)) {
+					submittedCount.decrementAndGet();
+					throw new RejectedExecutionException("The work queue of "
+							+ this + " is full.");
+				}
+			} catch (InterruptedException x) {
+				submittedCount.decrementAndGet();
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException(x);
+			} catch (RejectedExecutionException x) {
+				submittedCount.decrementAndGet();
+				throw x;
+			}
+		}
+	}
+
+	@Override
+	protected void afterExecute(Runnable r, Throwable t) {
+		submittedCount.decrementAndGet();
+
+		if (t == null)
+			stopCurrentThreadIfNeeded();
+	}
+
+	/**
+	 * Renew the threads created so far, as a context has been stopped and
+	 * they may still reference its objects.
+	 */
+	public void contextStopping() {
+		lastContextStoppedTime.set(System.currentTimeMillis());
+	}
+
+	/**
+	 * Stop the current thread if it predates the last stop of a context and
+	 * no other thread has been renewed during the renewal delay. The pool
+	 * replaces the thread once it is gone.
+	 */
+	private void stopCurrentThreadIfNeeded() {
+		long delay = threadRenewalDelay;
+		if (delay < 0)
+			return;
+
+		Thread current = Thread.currentThread();
+		if (!(current instanceof TaskThread))
+			return;
+		if (((TaskThread) current).getCreationTime() >= lastContextStoppedTime
+				.get())
+			return;
+
+		long now = System.currentTimeMillis();
+		long last = lastTimeThreadKilledItself.get();
+		if (last + delay < now
+				&& lastTimeThreadKilledItself.compareAndSet(last, now)) {
+			if (logger.isDebugEnabled())
+				logger.debug("Renewing thread " + current.getName() + ".");
+			throw new StopPooledThreadException();
+		}
+	}
+
+	/**
+	 * Records the time a task waited in the queue and the time it ran.
+	 */
+	private class TimedTask implements Runnable {
+
+		private final Runnable command;
+		private final long submitTime = System.nanoTime();
+
+		TimedTask(Runnable command) {
+			this.command = command;
+		}
+
+		public void run() {
+			long start = System.nanoTime();
+			startedCount.incrementAndGet();
+			queueWaitTime.addAndGet(start - submitTime);
+			try {
+				command.run();
+			} finally {
+				busyTime.addAndGet(System.nanoTime() - start);
+			}
+		}
+
+	}
+
+	// ------------------------------------------------------ TaskThreadFactory
+
+	/**
+	 * Creates the named {@link TaskThread}s of a pool.
+	 */
+	public static class TaskThreadFactory implements ThreadFactory {
+
+		private final ThreadGroup group;
+		private final AtomicInteger counter = new AtomicInteger(1);
+		private final String namePrefix;
+		private final boolean daemon;
+		private final int priority;
+
+		public TaskThreadFactory(String namePrefix, boolean daemon,
+				int priority) {
+			SecurityManager securityManager = System.getSecurityManager();
+			group = (securityManager != null ? securityManager
+					.getThreadGroup() : Thread.currentThread().getThreadGroup());
+			this.namePrefix = namePrefix;
+			this.daemon = daemon;
+			this.priority = priority;
+		}
+
+		public Thread newThread(Runnable r) {
+			TaskThread thread = new TaskThread(group, r, namePrefix
+					+ counter.getAndIncrement());
+			thread.setDaemon(daemon);
+			thread.setPriority(priority);
+			return thread;
+		}
+
+	}
+
+	// ------------------------------------------------------------- TaskThread
+
+	/**
+	 * A pooled thread, remembering when it was created.
+	 */
+	public static class TaskThread extends Thread {
+
+		private final long creationTime;
+
+		public TaskThread(ThreadGroup group, final Runnable target, String name) {
+			super(group, new Runnable() {
+				public void run() {
+					try {
+						target.run();
+					} catch (StopPooledThreadException ex) {
+						// The thread is being renewed, exit quietly
+					}
+				}
+			}, name);
+			this.creationTime = System.currentTimeMillis();
+		}
+
+		public long getCreationTime() {
+			return creationTime;
+		}
+
+	}
+
+	/**
+	 * Thrown after a task to make a pooled thread exit.
+	 */
+	private static class StopPooledThreadException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		public StopPooledThreadException() {
+			super("Stopping pooled thread for renewal.");
+		}
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+
+	}
+
+}
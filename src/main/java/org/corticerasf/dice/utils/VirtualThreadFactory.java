@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Thread factory creating named virtual threads when the running JVM supports
+ * them (Java 21 and later), and named daemon platform threads otherwise.
+ * <p>
+ * The server is compiled for older JVMs, so the virtual thread builder is
+ * looked up reflectively.
+ *
+ * @author J. Godara
+ */
+public class VirtualThreadFactory implements ThreadFactory {
+
+	private static final Logger logger = Logger
+			.getLogger(VirtualThreadFactory.class);
+
+	private final ThreadFactory delegate;
+	private final boolean virtual;
+
+	public VirtualThreadFactory(String namePrefix) {
+		ThreadFactory factory = createVirtualThreadFactory(namePrefix);
+		this.virtual = (factory != null);
+		if (factory == null) {
+			factory = new DaemonThreadFactory(namePrefix);
+			if (logger.isDebugEnabled())
+				logger.debug("Virtual threads are not available, " + namePrefix
+						+ " uses platform threads.");
+		}
+		this.delegate = factory;
+	}
+
+	/**
+	 * Return <code>true</code> if the threads created by this factory are
+	 * virtual threads.
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	public Thread newThread(Runnable r) {
+		return delegate.newThread(r);
+	}
+
+	/**
+	 * Return <code>true</code> if the running JVM supports virtual threads.
+	 */
+	public static boolean isSupported() {
+		try {
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		} catch (NoSuchMethodException ex) {
+			return false;
+		}
+	}
+
+	private static ThreadFactory createVirtualThreadFactory(String namePrefix) {
+		if (!isSupported())
+			return null;
+
+		try {
+			// Thread.ofVirtual().name(namePrefix, 1).factory()
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method name = builderClass.getMethod("name", String.class,
+					long.class);
+			builder = name.invoke(builder, namePrefix, Long.valueOf(1));
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(
+					builder);
+		} catch (Throwable t) {
+			ExceptionUtils.handleThrowable(t);
+			logger.warn("Cannot create virtual thread factory.", t);
+			return null;
+		}
+	}
+
+}
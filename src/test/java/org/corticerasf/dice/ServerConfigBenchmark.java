@@ -0,0 +1,350 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.corticerasf.dice.connector.Connector;
+import org.corticerasf.dice.core.StandardContext;
+import org.corticerasf.dice.core.StandardServer;
+import org.corticerasf.dice.lifecycle.Lifecycle;
+import org.corticerasf.dice.lifecycle.LifecycleListener;
+import org.corticerasf.dice.startup.ContextConfig;
+import org.corticerasf.dice.startup.HostConfig;
+import org.corticerasf.dice.utils.ContextName;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Measures the time and the memory allocated to build the server from a
+ * large generated configuration, with 1000 hosts of 2 aliases and 5 contexts
+ * each. It compares three loaders that build the same components: a DOM
+ * parse queried through XPath, as <code>ServerManager</code> loaded
+ * <code>dice.xml</code> before its digester; the streaming
+ * {@link org.corticerasf.dice.digester.Digester}; and the replay of the
+ * snapshot of the same file. This is not a unit test and is not run by the
+ * build; start it from the project directory, whose
+ * <code>conf/server.dtd</code> it uses, with the test classes on the class
+ * path:
+ *
+ * <pre>
+ * java -cp target/test-classes:target/classes:lib/* org.corticerasf.dice.ServerConfigBenchmark
+ * </pre>
+ *
+ * @author J. Godara
+ */
+public final class ServerConfigBenchmark {
+
+	private static final int HOSTS = 1000;
+	private static final int ALIASES = 2;
+	private static final int CONTEXTS = 5;
+
+	private static final int WARMUP_ROUNDS = 10;
+	private static final int ROUNDS = 20;
+
+	public static void main(String[] args) throws Exception {
+		// Measure the loaders rather than the debug logging of the rules
+		Logger.getRootLogger().setLevel(Level.INFO);
+
+		File base = createBase();
+		System.setProperty(Globals.DICE_BASE_PROP, base.getPath());
+		final File config = new File(base, "conf/dice.xml");
+		System.out.println(String.format("%s: %d hosts, %d KB", config,
+				HOSTS, config.length() / 1024));
+
+		final ServerManager manager = new ServerManager() {
+
+			@Override
+			protected void initDirectories() {
+				// NOOP
+			}
+
+			@Override
+			protected void initNaming() {
+				// NOOP
+			}
+
+		};
+
+		Loader[] loaders = { new Loader("dom + xpath") {
+			@Override
+			void load(InputStream is, Server server) throws Exception {
+				loadDocument(is, server);
+			}
+		}, new Loader("digester") {
+			@Override
+			void load(InputStream is, Server server) throws Exception {
+				manager.loadConfigFile(is, server);
+			}
+		}, new Loader("snapshot") {
+			@Override
+			void load(InputStream is, Server server) throws Exception {
+				manager.loadConfigFile(config, is, server);
+			}
+		} };
+
+		System.out.println("loader          ms/load  MB/load");
+		for (Loader loader : loaders) {
+			for (int i = 0; i < WARMUP_ROUNDS; i++)
+				loader.run(config);
+
+			double millis = Double.MAX_VALUE;
+			double bytes = Double.MAX_VALUE;
+			for (int i = 0; i < ROUNDS; i++) {
+				long allocated = allocatedBytes();
+				long start = System.nanoTime();
+				loader.run(config);
+				millis = Math.min(millis, (System.nanoTime() - start) / 1e6);
+				bytes = Math.min(bytes, allocatedBytes() - allocated);
+			}
+			System.out.println(String.format("%-14s  %7.1f  %7.1f",
+					loader.name, millis, bytes / (1024 * 1024)));
+		}
+
+		delete(base);
+	}
+
+	private static abstract class Loader {
+
+		final String name;
+
+		Loader(String name) {
+			this.name = name;
+		}
+
+		void run(File config) throws Exception {
+			Server server = new StandardServer();
+			InputStream is = new FileInputStream(config);
+			try {
+				load(is, server);
+			} finally {
+				is.close();
+			}
+			Host host = (Host) server.findServices()[0].getContainer()
+					.getChild("host" + (HOSTS - 1) + ".example.com");
+			if (host == null || host.findChildren().length != CONTEXTS)
+				throw new IllegalStateException(name + " lost hosts or contexts");
+		}
+
+		abstract void load(InputStream is, Server server) throws Exception;
+
+	}
+
+	/**
+	 * Create a Dice base under the temporary directory, holding the DTD and
+	 * the generated configuration.
+	 */
+	private static File createBase() throws IOException {
+		File base = File.createTempFile("dice-bench", "");
+		if (!base.delete() || !new File(base, "conf").mkdirs())
+			throw new IOException("Cannot create " + base);
+
+		copy("conf/server.dtd", base);
+		copy("conf/server.properties", base);
+
+		PrintWriter out = new PrintWriter(new File(base, "conf/dice.xml"),
+				"UTF-8");
+		try {
+			out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			out.println("<!DOCTYPE Dice SYSTEM \"server.dtd\" >");
+			out.println("<Dice>");
+			out.println("\t<Listener class=\"org.corticerasf.dice.startup.ServerInfoLogListener\" />");
+			out.println("\t<Srvc name=\"Dice\">");
+			out.println("\t\t<Connector port=\"8080\" protocol=\"HTTP/1.1\" timeout=\"20000\" />");
+			out.println("\t\t<Engine name=\"Dice\">");
+			for (int i = 0; i < HOSTS; i++) {
+				out.println("\t\t\t<Host name=\"host" + i
+						+ ".example.com\" docbase=\"sites/host" + i
+						+ "\" lazyStart=\"true\">");
+				for (int j = 0; j < ALIASES; j++)
+					out.println("\t\t\t\t<Alias>alias" + j + ".host" + i
+							+ ".example.com</Alias>");
+				for (int j = 0; j < CONTEXTS; j++)
+					out.println("\t\t\t\t<Context path=\"/app" + j
+							+ "\" docBase=\"app" + j + "\" />");
+				out.println("\t\t\t</Host>");
+			}
+			out.println("\t\t</Engine>");
+			out.println("\t</Srvc>");
+			out.println("</Dice>");
+		} finally {
+			out.close();
+		}
+		return base;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children)
+				delete(child);
+		}
+		file.delete();
+	}
+
+	private static void copy(String path, File base) throws IOException {
+		InputStream in = new FileInputStream(path);
+		try {
+			OutputStream out = new FileOutputStream(new File(base, path));
+			try {
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = in.read(buffer)) >= 0)
+					out.write(buffer, 0, n);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Build the server from a DOM parse of the configuration, finding its
+	 * elements through XPath and <code>getElementsByTagName</code> and
+	 * creating its components reflectively.
+	 */
+	private static void loadDocument(InputStream is, Server server)
+			throws Exception {
+		DocumentBuilder builder = DocumentBuilderFactory.newInstance()
+				.newDocumentBuilder();
+		builder.setEntityResolver(new EntityResolver() {
+
+			public InputSource resolveEntity(String publicId, String systemId)
+					throws SAXException, IOException {
+				systemId = systemId.substring(systemId.lastIndexOf('/') + 1);
+				return new InputSource(new FileInputStream(new File(
+						Globals.getDiceBase() + "/conf/" + systemId)));
+			}
+		});
+
+		Document document = builder.parse(is);
+		document.getDocumentElement().normalize();
+		XPath xPath = XPathFactory.newInstance().newXPath();
+
+		Element root = (Element) xPath.evaluate("/Dice",
+				document.getDocumentElement(), XPathConstants.NODE);
+		addListeners(root, server);
+
+		NodeList services = (NodeList) xPath.evaluate("/Dice/Srvc",
+				document.getDocumentElement(), XPathConstants.NODESET);
+		for (int i = 0; i < services.getLength(); i++) {
+			Element serviceNode = (Element) services.item(i);
+			Service service = (Service) Class.forName(
+					"org.corticerasf.dice.core.StandardService").newInstance();
+			service.setName(serviceNode.getAttribute("name"));
+			service.setServer(server);
+
+			Element engineNode = (Element) serviceNode.getElementsByTagName(
+					"Engine").item(0);
+			Engine engine = (Engine) Class.forName(
+					"org.corticerasf.dice.core.StandardEngine").newInstance();
+			engine.setName(engineNode.getAttribute("name"));
+
+			NodeList hostNodes = engineNode.getElementsByTagName("Host");
+			for (int j = 0; j < hostNodes.getLength(); j++) {
+				Element hostNode = (Element) hostNodes.item(j);
+				Host host = (Host) Class.forName(
+						"org.corticerasf.dice.core.StandardHost").newInstance();
+				host.setAppBase(hostNode.getAttribute("docbase"));
+				host.setName(hostNode.getAttribute("name"));
+				host.setLazyStart(Boolean.parseBoolean(hostNode
+						.getAttribute("lazyStart")));
+				addListeners(hostNode, host);
+				host.addLifecycleListener(new HostConfig());
+
+				NodeList aliases = hostNode.getElementsByTagName("Alias");
+				for (int k = 0; k < aliases.getLength(); k++)
+					host.addAlias(aliases.item(k).getTextContent());
+
+				NodeList contexts = hostNode.getElementsByTagName("Context");
+				for (int k = 0; k < contexts.getLength(); k++) {
+					Element contextNode = (Element) contexts.item(k);
+					String path = contextNode.getAttribute("path");
+					StandardContext context = new StandardContext();
+					context.setName(new ContextName(path, false).getName());
+					context.setPath(path);
+					context.setDocBase(contextNode.getAttribute("docBase"));
+					context.addLifecycleListener(new ContextConfig());
+					host.addChild(context);
+				}
+				engine.addChild(host);
+			}
+			addListeners(engineNode, engine);
+			service.setContainer(engine);
+
+			NodeList connectors = serviceNode.getElementsByTagName("Connector");
+			for (int j = 0; j < connectors.getLength(); j++) {
+				Element connectorNode = (Element) connectors.item(j);
+				Connector connector = new Connector(
+						connectorNode.getAttribute("protocol"));
+				connector.setPort(Integer.parseInt(connectorNode
+						.getAttribute("port")));
+				connector.setTimeout(Integer.parseInt(connectorNode
+						.getAttribute("timeout")));
+				service.addConnector(connector);
+			}
+			server.addService(service);
+		}
+	}
+
+	private static void addListeners(Element node, Lifecycle target)
+			throws Exception {
+		NodeList listeners = node.getElementsByTagName("Listener");
+		for (int i = 0; i < listeners.getLength(); i++) {
+			target.addLifecycleListener((LifecycleListener) Class.forName(
+					((Element) listeners.item(i)).getAttribute("class"))
+					.newInstance());
+		}
+	}
+
+	/**
+	 * Return the bytes allocated by the current thread, through the HotSpot
+	 * extension of {@link ThreadMXBean}, or 0 if it is unavailable.
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		try {
+			Method method = Class.forName("com.sun.management.ThreadMXBean")
+					.getMethod("getThreadAllocatedBytes", long.class);
+			return (Long) method.invoke(bean, Thread.currentThread().getId());
+		} catch (Exception ex) {
+			return 0;
+		}
+	}
+
+}
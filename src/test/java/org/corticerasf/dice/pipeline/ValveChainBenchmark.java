@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.pipeline;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+
+import org.corticerasf.dice.connector.CorticeraRequest;
+import org.corticerasf.dice.connector.CorticeraResponse;
+import org.corticerasf.dice.lifecycle.LifecycleException;
+
+/**
+ * Measures the cost of dispatching a request through chains of 5, 10 and 20
+ * pass-through valves, both through a {@link ValveChain} snapshot and
+ * through valves linked to each other, as the pipeline used to link them.
+ * This is not a unit test and is not run by the build; start it with the
+ * test classes on the class path:
+ *
+ * <pre>
+ * java -cp target/test-classes:target/classes:lib/* org.corticerasf.dice.pipeline.ValveChainBenchmark
+ * </pre>
+ *
+ * @author J. Godara
+ */
+public final class ValveChainBenchmark {
+
+	private static final int[] SIZES = { 5, 10, 20 };
+	private static final int ITERATIONS = 5000000;
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		CorticeraRequest request = new CorticeraRequest();
+		CorticeraResponse response = new CorticeraResponse();
+
+		System.out.println("valves  linked ns/op  chain ns/op");
+		for (int size : SIZES) {
+			CountingValve[] valves = new CountingValve[size];
+			LinkedValve[] linkedValves = new LinkedValve[size];
+			for (int i = size - 1; i >= 0; i--) {
+				valves[i] = new CountingValve();
+				linkedValves[i] = new LinkedValve(i + 1 < size ? linkedValves[i + 1]
+						: null);
+			}
+			ValveChain chain = ValveChain.of(valves);
+
+			for (int i = 0; i < WARMUP_ROUNDS; i++) {
+				linked(linkedValves[0], request, response);
+				chain(chain, request, response);
+			}
+
+			double linked = Double.MAX_VALUE;
+			double snapshot = Double.MAX_VALUE;
+			for (int i = 0; i < ROUNDS; i++) {
+				linked = Math.min(linked,
+						linked(linkedValves[0], request, response));
+				snapshot = Math.min(snapshot, chain(chain, request, response));
+			}
+
+			long total = 0;
+			for (int i = 0; i < size; i++)
+				total += valves[i].count + linkedValves[i].count;
+			if (total != (long) size * ITERATIONS * 2 * (WARMUP_ROUNDS + ROUNDS))
+				throw new IllegalStateException("Lost invocations: " + total);
+
+			System.out.println(String.format("%6d  %12.1f  %11.1f", size,
+					linked, snapshot));
+		}
+	}
+
+	private static double linked(Valve first, CorticeraRequest request,
+			CorticeraResponse response) throws IOException, ServletException {
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++)
+			first.invoke(request, response, null);
+		return (double) (System.nanoTime() - start) / ITERATIONS;
+	}
+
+	private static double chain(ValveChain chain, CorticeraRequest request,
+			CorticeraResponse response) throws IOException, ServletException {
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++)
+			chain.invoke(request, response);
+		return (double) (System.nanoTime() - start) / ITERATIONS;
+	}
+
+	private static final class CountingValve extends ValveBase {
+
+		long count;
+
+		@Override
+		public void invoke(CorticeraRequest request,
+				CorticeraResponse response, ValveChain next)
+				throws IOException, ServletException {
+			count++;
+			next.invoke(request, response);
+		}
+
+		@Override
+		protected void initInternal() throws LifecycleException {
+			// NOOP
+		}
+
+		@Override
+		protected void destroyInternal() throws LifecycleException {
+			// NOOP
+		}
+
+	}
+
+	/**
+	 * A valve holding a link to the next one, ignoring the chain.
+	 */
+	private static final class LinkedValve extends ValveBase {
+
+		private final Valve next;
+		long count;
+
+		LinkedValve(Valve next) {
+			this.next = next;
+		}
+
+		@Override
+		public void invoke(CorticeraRequest request,
+				CorticeraResponse response, ValveChain chain)
+				throws IOException, ServletException {
+			count++;
+			if (next != null)
+				next.invoke(request, response, null);
+		}
+
+		@Override
+		protected void initInternal() throws LifecycleException {
+			// NOOP
+		}
+
+		@Override
+		protected void destroyInternal() throws LifecycleException {
+			// NOOP
+		}
+
+	}
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2016 Corticera Software Foundation
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corticerasf.dice.protocols.http11;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.corticerasf.dice.connector.CorticeraRequest;
+import org.corticerasf.dice.connector.CorticeraResponse;
+import org.corticerasf.dice.protocols.AbstractProtocolHandler;
+import org.corticerasf.dice.protocols.Adapter;
+
+/**
+ * Compares the throughput of the NIO {@link HTTPProtocolHandler} with the
+ * {@link HTTPVirtualThreadProtocolHandler} over keep-alive connections from
+ * the loopback interface. It runs two workloads: requests that return at
+ * once, and requests that block in the adapter, as a servlet calling a slow
+ * backend would. This is not a unit test and is not run by the build; start
+ * it on a Java 21 runtime, so that the second handler uses virtual threads,
+ * with the test classes on the class path:
+ *
+ * <pre>
+ * java -cp target/test-classes:target/classes:lib/* org.corticerasf.dice.protocols.http11.ProtocolHandlerBenchmark
+ * </pre>
+ *
+ * @author J. Godara
+ */
+public final class ProtocolHandlerBenchmark {
+
+	private static final long WARMUP_MILLIS = 3000;
+	private static final long MEASURE_MILLIS = 5000;
+
+	private static final byte[] REQUEST = ("GET /bench HTTP/1.1\r\n"
+			+ "Host: localhost\r\n\r\n").getBytes();
+	private static final byte[] BODY = "Hello, world!".getBytes();
+
+	public static void main(String[] args) throws Exception {
+		System.out.println("workload            connections  handler  req/s  avg ms");
+		run("immediate", 64, 0);
+		run("blocking 20 ms", 1000, 20);
+	}
+
+	private static void run(String workload, int connections, long delay)
+			throws Exception {
+		AbstractProtocolHandler[] handlers = {
+				new HTTPProtocolHandler(),
+				new HTTPVirtualThreadProtocolHandler() };
+		String[] names = { "nio", "vt" };
+
+		for (int i = 0; i < handlers.length; i++) {
+			AbstractProtocolHandler handler = handlers[i];
+			handler.setPort(freePort());
+			handler.setAddress(InetAddress.getByName("127.0.0.1"));
+			handler.setBacklog(connections);
+			handler.setMaxKeepAliveRequests(-1);
+			handler.setAdapter(new FixedAdapter(delay));
+			handler.init();
+			handler.start();
+			try {
+				Load load = new Load(handler.getPort(), connections);
+				load.start();
+				Thread.sleep(WARMUP_MILLIS);
+				long[] before = load.snapshot();
+				long start = System.nanoTime();
+				Thread.sleep(MEASURE_MILLIS);
+				long[] after = load.snapshot();
+				double seconds = (System.nanoTime() - start) / 1e9;
+				load.stop();
+
+				long requests = after[0] - before[0];
+				double avg = requests == 0 ? 0
+						: (after[1] - before[1]) / 1e6 / requests;
+				System.out.println(String.format("%-18s  %11d  %-7s  %5.0f  %6.1f",
+						workload, connections, names[i], requests / seconds, avg));
+			} finally {
+				handler.stop();
+				handler.destroy();
+			}
+		}
+	}
+
+	private static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static final class FixedAdapter implements Adapter {
+
+		private final long delay;
+
+		FixedAdapter(long delay) {
+			this.delay = delay;
+		}
+
+		public void service(CorticeraRequest request, CorticeraResponse response)
+				throws Exception {
+			if (delay > 0)
+				Thread.sleep(delay);
+			response.setContentLength(BODY.length);
+			response.getOutputStream().write(BODY);
+		}
+
+	}
+
+	/**
+	 * Client connections sending one request after the other until stopped.
+	 */
+	private static final class Load {
+
+		private final int port;
+		private final Thread[] threads;
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong nanos = new AtomicLong();
+		private final CountDownLatch done;
+		private volatile boolean running = true;
+
+		Load(int port, int connections) {
+			this.port = port;
+			this.threads = new Thread[connections];
+			this.done = new CountDownLatch(connections);
+		}
+
+		void start() {
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = new Thread(new Runnable() {
+					public void run() {
+						try {
+							connection();
+						} catch (IOException ex) {
+							if (running)
+								ex.printStackTrace();
+						} finally {
+							done.countDown();
+						}
+					}
+				}, "load-" + i);
+				threads[i].setDaemon(true);
+				threads[i].start();
+			}
+		}
+
+		long[] snapshot() {
+			return new long[] { requests.get(), nanos.get() };
+		}
+
+		void stop() throws InterruptedException {
+			running = false;
+			done.await();
+		}
+
+		private void connection() throws IOException {
+			Socket socket = new Socket("127.0.0.1", port);
+			try {
+				socket.setTcpNoDelay(true);
+				OutputStream out = socket.getOutputStream();
+				InputStream in = new BufferedInputStream(socket.getInputStream());
+				while (running) {
+					long start = System.nanoTime();
+					out.write(REQUEST);
+					out.flush();
+					readResponse(in);
+					nanos.addAndGet(System.nanoTime() - start);
+					requests.incrementAndGet();
+				}
+			} finally {
+				socket.close();
+			}
+		}
+
+		private static void readResponse(InputStream in) throws IOException {
+			int length = -1;
+			StringBuilder line = new StringBuilder();
+			while (true) {
+				int b = in.read();
+				if (b < 0)
+					throw new EOFException();
+				if (b != '\n') {
+					if (b != '\r')
+						line.append((char) b);
+					continue;
+				}
+				if (line.length() == 0)
+					break;
+				String header = line.toString();
+				if (header.regionMatches(true, 0, "Content-Length:", 0, 15))
+					length = Integer.parseInt(header.substring(15).trim());
+				line.setLength(0);
+			}
+			if (length < 0)
+				throw new IOException("No Content-Length in the response");
+			for (int i = 0; i < length; i++) {
+				if (in.read() < 0)
+					throw new EOFException();
+			}
+		}
+
+	}
+
+}